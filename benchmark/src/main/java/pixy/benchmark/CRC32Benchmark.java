@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2014-2021 by Wen Yu
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the Eclipse
+ * Public License, v. 2.0 are satisfied: GNU General Public License, version 2
+ * or any later version.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0-or-later
+ */
+
+package pixy.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pixy.util.zip.CRC32;
+
+/**
+ * Throughput of the slicing-by-8 {@link CRC32} against a table driven byte at a
+ * time CRC-32, as used before, and java.util.zip.CRC32. Sizes range from small
+ * PNG chunks to large IDAT data.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CRC32Benchmark {
+
+	private static final int[] BYTE_TABLE = new int[256];
+
+	static {
+		for(int n = 0; n < 256; n++) {
+			int c = n;
+			for(int k = 0; k < 8; k++)
+				c = ((c & 1) != 0)?(0xedb88320 ^ (c >>> 1)):(c >>> 1);
+			BYTE_TABLE[n] = c;
+		}
+	}
+
+	@Param({"13", "8192", "1048576"})
+	public int size;
+
+	private byte[] data;
+
+	@Setup
+	public void setup() {
+		data = new byte[size];
+		new Random(1).nextBytes(data);
+	}
+
+	@Benchmark
+	public long slicingBy8() {
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length);
+
+		return crc.getValue();
+	}
+
+	@Benchmark
+	public long byteAtATime() {
+		int c = 0xffffffff;
+		for(int i = 0; i < data.length; i++)
+			c = BYTE_TABLE[(c ^ data[i]) & 0xff] ^ (c >>> 8);
+
+		return (c ^ 0xffffffff) & 0xffffffffL;
+	}
+
+	@Benchmark
+	public long jdk() {
+		java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+		crc.update(data, 0, data.length);
+
+		return crc.getValue();
+	}
+}
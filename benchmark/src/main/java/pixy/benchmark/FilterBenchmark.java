@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2014-2021 by Wen Yu
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the Eclipse
+ * Public License, v. 2.0 are satisfied: GNU General Public License, version 2
+ * or any later version.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0-or-later
+ */
+
+package pixy.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pixy.image.png.Filter;
+
+/**
+ * Defiltering a 4096 pixel scan line against a separate previous one with the
+ * {@link Filter} kernels and with a plain byte at a time loop per filter type, as
+ * used before. Covers the pixel sizes of 8 and 16 bit gray, gray alpha, RGB and RGBA.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterBenchmark {
+
+	private static final int WIDTH = 4096;
+
+	@Param({"1", "2", "3", "4", "6", "8"})
+	public int bytesPerPixel;
+
+	@Param({"1", "2", "3", "4"})
+	public int filterType;
+
+	private byte[] row;
+	private byte[] prior;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(1);
+		row = new byte[WIDTH*bytesPerPixel];
+		prior = new byte[WIDTH*bytesPerPixel];
+		random.nextBytes(row);
+		random.nextBytes(prior);
+	}
+
+	@Benchmark
+	public byte[] kernel() {
+		Filter.defilterRow(filterType, bytesPerPixel, row, 0, prior, 0, row.length);
+
+		return row;
+	}
+
+	@Benchmark
+	public byte[] byteAtATime() {
+		int bpp = bytesPerPixel;
+		int length = row.length;
+
+		switch(filterType) {
+			case Filter.SUB:
+				for(int i = bpp; i < length; i++)
+					row[i] = (byte)(row[i] + row[i - bpp]);
+				break;
+			case Filter.UP:
+				for(int i = 0; i < length; i++)
+					row[i] = (byte)(row[i] + prior[i]);
+				break;
+			case Filter.AVERAGE:
+				for(int i = 0; i < bpp; i++)
+					row[i] = (byte)(row[i] + ((prior[i]&0xff)>>1));
+				for(int i = bpp; i < length; i++)
+					row[i] = (byte)(row[i] + (((row[i - bpp]&0xff) + (prior[i]&0xff))>>1));
+				break;
+			case Filter.PAETH:
+				for(int i = 0; i < bpp; i++)
+					row[i] = (byte)(row[i] + prior[i]);
+				for(int i = bpp; i < length; i++)
+					row[i] = (byte)(row[i] + paeth(row[i - bpp]&0xff, prior[i]&0xff, prior[i - bpp]&0xff));
+				break;
+			default:
+		}
+
+		return row;
+	}
+
+	private static int paeth(int a, int b, int c) {
+		int p = a + b - c;
+		int pa = Math.abs(p - a);
+		int pb = Math.abs(p - b);
+		int pc = Math.abs(p - c);
+
+		if(pa <= pb && pa <= pc) return a;
+		if(pb <= pc) return b;
+
+		return c;
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2014-2021 by Wen Yu
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the Eclipse
+ * Public License, v. 2.0 are satisfied: GNU General Public License, version 2
+ * or any later version.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0-or-later
+ */
+
+package pixy.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pixy.image.tiff.IFD;
+import pixy.io.IOUtils;
+import pixy.io.MemoryCacheRandomAccessInputStream;
+import pixy.io.RandomAccessInputStream;
+import pixy.meta.tiff.TIFFMeta;
+
+/**
+ * Parsing all the IFDs of a TIFF image with the parser TIFFMeta used before,
+ * see {@link LegacyIFDReader}, against {@link TIFFMeta#readIFDs(List, RandomAccessInputStream)}
+ * which decodes every value as well, and against the same parse leaving values
+ * larger than 1K in the input.
+ * <p>
+ * The image paths are relative to the working directory, run from the project root.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IFDParseBenchmark {
+
+	@Param({"images/exif.tif", "images/iptc.tif", "images/multimax.tif"})
+	public String image;
+
+	private byte[] imageData;
+
+	@Setup
+	public void setup() throws IOException {
+		FileInputStream fin = new FileInputStream(new File(image));
+		try {
+			imageData = IOUtils.inputStreamToByteArray(fin);
+		} finally {
+			fin.close();
+		}
+	}
+
+	@Benchmark
+	public List<IFD> legacyReadIFDs() throws IOException {
+		List<IFD> list = new ArrayList<IFD>();
+		RandomAccessInputStream rin = new MemoryCacheRandomAccessInputStream(new ByteArrayInputStream(imageData));
+		try {
+			LegacyIFDReader.readIFDs(list, rin);
+		} finally {
+			rin.close();
+		}
+
+		return list;
+	}
+
+	@Benchmark
+	public List<IFD> readIFDs() throws IOException {
+		List<IFD> list = new ArrayList<IFD>();
+		RandomAccessInputStream rin = new MemoryCacheRandomAccessInputStream(new ByteArrayInputStream(imageData));
+		try {
+			TIFFMeta.readIFDs(list, rin);
+		} finally {
+			rin.close();
+		}
+
+		return list;
+	}
+
+	@Benchmark
+	public List<IFD> readIFDsLazy() throws IOException {
+		List<IFD> list = new ArrayList<IFD>();
+		RandomAccessInputStream rin = new MemoryCacheRandomAccessInputStream(new ByteArrayInputStream(imageData));
+		try {
+			TIFFMeta.readIFDs(list, rin, 1024);
+		} finally {
+			rin.close();
+		}
+
+		return list;
+	}
+}
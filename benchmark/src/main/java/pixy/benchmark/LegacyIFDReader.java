@@ -0,0 +1,419 @@
+/*
+ * Copyright (c) 2014-2021 by Wen Yu
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the Eclipse
+ * Public License, v. 2.0 are satisfied: GNU General Public License, version 2
+ * or any later version.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0-or-later
+ */
+
+package pixy.benchmark;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import pixy.image.tiff.ASCIIField;
+import pixy.image.tiff.ByteField;
+import pixy.image.tiff.DoubleField;
+import pixy.image.tiff.FieldType;
+import pixy.image.tiff.FloatField;
+import pixy.image.tiff.IFD;
+import pixy.image.tiff.IFDField;
+import pixy.image.tiff.LongField;
+import pixy.image.tiff.MakerNoteField;
+import pixy.image.tiff.RationalField;
+import pixy.image.tiff.SByteField;
+import pixy.image.tiff.SLongField;
+import pixy.image.tiff.SRationalField;
+import pixy.image.tiff.SShortField;
+import pixy.image.tiff.ShortField;
+import pixy.image.tiff.Tag;
+import pixy.image.tiff.TiffField;
+import pixy.image.tiff.TiffTag;
+import pixy.image.tiff.UndefinedField;
+import pixy.io.IOUtils;
+import pixy.io.RandomAccessInputStream;
+import pixy.io.ReadStrategy;
+import pixy.io.ReadStrategyII;
+import pixy.io.ReadStrategyMM;
+import pixy.meta.exif.ExifTag;
+import pixy.meta.exif.GPSTag;
+import pixy.meta.exif.InteropTag;
+
+/**
+ * The IFD parser TIFFMeta used before the tag registries and lazy field values,
+ * kept as the baseline for {@link IFDParseBenchmark}. Tags are looked up through
+ * a boxed HashMap per tag set and the lookup method is found by reflection for
+ * every IFD and invoked for every entry, as fromShort was. All values are decoded
+ * right away.
+ */
+final class LegacyIFDReader {
+	private static final int MAX_COALESCED_VALUE_SIZE = 4096;
+	// Gap in bytes between two out-of-line values which is read through instead of seeked over
+	private static final int MAX_COALESCED_GAP = 16;
+	private static final int MAX_COALESCED_READ_SIZE = 65536;
+
+	private static final Map<Short, Tag> tiffTags = tagMap(TiffTag.values());
+	private static final Map<Short, Tag> exifTags = tagMap(ExifTag.values());
+	private static final Map<Short, Tag> gpsTags = tagMap(GPSTag.values());
+	private static final Map<Short, Tag> interopTags = tagMap(InteropTag.values());
+
+	private LegacyIFDReader() {}
+
+	private static Map<Short, Tag> tagMap(Tag[] tags) {
+		Map<Short, Tag> tagMap = new HashMap<Short, Tag>();
+		for(Tag tag : tags)
+			tagMap.put(tag.getValue(), tag);
+
+		return tagMap;
+	}
+
+	private static Tag fromShort(Map<Short, Tag> tagMap, short value) {
+		Tag tag = tagMap.get(value);
+		if (tag == null)
+			return TiffTag.UNKNOWN;
+		return tag;
+	}
+
+	static Tag tiffTag(short value) {
+		return fromShort(tiffTags, value);
+	}
+
+	static Tag exifTag(short value) {
+		return fromShort(exifTags, value);
+	}
+
+	static Tag gpsTag(short value) {
+		return fromShort(gpsTags, value);
+	}
+
+	static Tag interopTag(short value) {
+		return fromShort(interopTags, value);
+	}
+
+	static void readIFDs(List<IFD> list, RandomAccessInputStream rin) throws IOException {
+		int offset = readHeader(rin);
+		// Read the IFDs into a list first
+		while (offset != 0)	{
+			offset = readIFD(null, null, "tiffTag", rin, list, offset);
+		}
+	}
+
+	private static int readHeader(RandomAccessInputStream rin) throws IOException {
+		rin.seek(0);
+		short endian = rin.readShort();
+		if (endian == IOUtils.BIG_ENDIAN)
+			rin.setReadStrategy(ReadStrategyMM.getInstance());
+		else if(endian == IOUtils.LITTLE_ENDIAN)
+			rin.setReadStrategy(ReadStrategyII.getInstance());
+		else
+			throw new IOException("Invalid TIFF byte order");
+		if(rin.readShort() != 0x2a)
+			throw new IOException("Invalid TIFF identifier");
+
+		return rin.readInt();
+	}
+
+	private static int readIFD(IFD parent, Tag parentTag, String lookup, RandomAccessInputStream rin, List<IFD> list, int offset) throws IOException {	
+		// Use reflection to invoke the lookup method
+		Method method = null;
+		try {
+			method = LegacyIFDReader.class.getDeclaredMethod(lookup, short.class);
+		} catch (NoSuchMethodException e) {
+			e.printStackTrace();
+		} catch (SecurityException e) {
+			e.printStackTrace();
+		}
+		ReadStrategy readStrategy = (rin.getEndian() == IOUtils.BIG_ENDIAN)?ReadStrategyMM.getInstance():ReadStrategyII.getInstance();
+		IFD tiffIFD = new IFD();
+		rin.seek(offset);
+		int no_of_fields = Math.max(rin.readShort(), 0);
+		// Read the entry table together with the next IFD offset in one go
+		byte[] table = new byte[12*no_of_fields + 4];
+		rin.readFully(table);
+		
+		IFDEntry[] entries = new IFDEntry[no_of_fields];
+		List<IFDEntry> outOfLine = new ArrayList<IFDEntry>();
+		
+		for (int i = 0, index = 0; i < no_of_fields; i++, index += 12) {
+			short tag = readStrategy.readShort(table, index);
+			Tag ftag = TiffTag.UNKNOWN;
+			try {
+				ftag = (Tag)method.invoke(null, tag);
+			} catch (IllegalAccessException e) {
+				e.printStackTrace();
+			} catch (IllegalArgumentException e) {
+				e.printStackTrace();
+			} catch (InvocationTargetException e) {
+				e.printStackTrace();
+			}
+			FieldType ftype = FieldType.fromShort(readStrategy.readShort(table, index + 2));
+			int field_length = readStrategy.readInt(table, index + 4);
+			if(field_length < 0)
+				throw new IOException("Invalid count " + (field_length&0xffffffffL) + " for tag 0x" + Integer.toHexString(tag&0xffff));
+			IFDEntry entry = new IFDEntry(tag, ftag, ftype, field_length);
+			entries[i] = entry;
+			int size = entry.getValueSize();
+			if(size < 0) continue; // Unknown field type
+			if(size <= 4) { // Value fits into the entry itself
+				entry.value = Arrays.copyOfRange(table, index + 8, index + 12);
+			} else {
+				entry.valueOffset = readStrategy.readInt(table, index + 8)&0xffffffffL;
+				outOfLine.add(entry);
+			}
+		}
+		
+		readValues(outOfLine, rin);
+		
+		for (IFDEntry entry : entries) {
+			if(entry.value == null) continue; // Unknown field type
+			short tag = entry.tag;
+			Tag ftag = entry.ftag;
+			FieldType ftype = entry.ftype;
+			int field_length = entry.count;
+			byte[] value = entry.value;
+			switch (ftype) {
+				case BYTE:
+				case SBYTE:
+				case UNDEFINED:
+					byte[] data = (value.length == field_length)?value:Arrays.copyOf(value, field_length);
+					TiffField<byte[]> byteField = null;
+					if(ftype == FieldType.BYTE) {
+						byteField = new ByteField(tag, data);
+					} else if(ftype == FieldType.SBYTE) {
+						byteField = new SByteField(tag, data);
+					} else {
+						if(ftag == ExifTag.MAKER_NOTE)
+							byteField = new MakerNoteField(tiffIFD, data);
+						else
+							byteField = new UndefinedField(tag, data);
+					}
+					tiffIFD.addField(byteField);
+					break;
+				case ASCII:
+					TiffField<String> ascIIField = new ASCIIField(tag, new String(value, 0, field_length, "UTF-8"));
+					tiffIFD.addField(ascIIField);
+					break;
+				case SHORT:
+				case SSHORT:
+					short[] sdata = new short[field_length];
+					for (int j = 0; j < field_length; j++)
+						sdata[j] = readStrategy.readShort(value, j*2);
+					TiffField<short[]> shortField = null;
+					if(ftype == FieldType.SSHORT) {
+						shortField = new SShortField(tag, sdata);
+					} else {
+						shortField = new ShortField(tag, sdata);
+					}
+					tiffIFD.addField(shortField);
+					break;
+				case LONG:
+				case SLONG:
+					int[] ldata = new int[field_length];
+					for (int j = 0; j < field_length; j++)
+						ldata[j] = readStrategy.readInt(value, j*4);
+					TiffField<int[]> longField = null;
+					if(ftype == FieldType.SLONG) {
+						longField = new SLongField(tag, ldata);
+					} else {
+						longField = new LongField(tag, ldata);
+					}
+					tiffIFD.addField(longField);
+					
+					if ((ftag == TiffTag.EXIF_SUB_IFD) && (ldata[0]!= 0)) {
+						try { // If something bad happens, we skip the sub IFD
+							readIFD(tiffIFD, TiffTag.EXIF_SUB_IFD, "exifTag", rin, null, ldata[0]);
+						} catch(Exception e) {
+							tiffIFD.removeField(TiffTag.EXIF_SUB_IFD);
+							e.printStackTrace();
+						}
+					} else if ((ftag == TiffTag.GPS_SUB_IFD) && (ldata[0] != 0)) {
+						try {
+							readIFD(tiffIFD, TiffTag.GPS_SUB_IFD, "gpsTag", rin, null, ldata[0]);
+						} catch(Exception e) {
+							tiffIFD.removeField(TiffTag.GPS_SUB_IFD);
+							e.printStackTrace();
+						}
+					} else if((ftag == ExifTag.EXIF_INTEROPERABILITY_OFFSET) && (ldata[0] != 0)) {
+						try {
+							readIFD(tiffIFD, ExifTag.EXIF_INTEROPERABILITY_OFFSET, "interopTag", rin, null, ldata[0]);
+						} catch(Exception e) {
+							tiffIFD.removeField(ExifTag.EXIF_INTEROPERABILITY_OFFSET);
+							e.printStackTrace();
+						}
+					} else if (ftag == TiffTag.SUB_IFDS) {						
+						for(int ifd = 0; ifd < ldata.length; ifd++) {
+							try {
+								readIFD(tiffIFD, TiffTag.SUB_IFDS, "tiffTag", rin, null, ldata[0]);
+							} catch(Exception e) {
+								tiffIFD.removeField(TiffTag.SUB_IFDS);
+								e.printStackTrace();
+							}
+						}
+					}				
+					break;
+				case FLOAT:
+					float[] fdata = new float[field_length];
+					for (int j = 0; j < field_length; j++)
+						fdata[j] = Float.intBitsToFloat(readStrategy.readInt(value, j*4));
+					TiffField<float[]> floatField = new FloatField(tag, fdata);
+					tiffIFD.addField(floatField);
+					
+					break;
+				case DOUBLE:
+					double[] ddata = new double[field_length];
+					for (int j = 0; j < field_length; j++)
+						ddata[j] = Double.longBitsToDouble(readStrategy.readLong(value, j*8));
+					TiffField<double[]> doubleField = new DoubleField(tag, ddata);
+					tiffIFD.addField(doubleField);
+					
+					break;
+				case RATIONAL:
+				case SRATIONAL:
+					int len = 2*field_length;
+					ldata = new int[len];
+					for (int j = 0; j < len; j++)
+						ldata[j] = readStrategy.readInt(value, j*4);
+					TiffField<int[]> rationalField = null;
+					if(ftype == FieldType.SRATIONAL) {
+						rationalField = new SRationalField(tag, ldata);
+					} else {
+						rationalField = new RationalField(tag, ldata);
+					}
+					tiffIFD.addField(rationalField);
+					
+					break;
+				case IFD:
+					ldata = new int[field_length];
+					for (int j = 0; j < field_length; j++)
+						ldata[j] = readStrategy.readInt(value, j*4);
+					TiffField<int[]> ifdField = new IFDField(tag, ldata);
+					tiffIFD.addField(ifdField);
+					for(int ifd = 0; ifd < ldata.length; ifd++) {
+						readIFD(tiffIFD, TiffTag.SUB_IFDS, "tiffTag", rin, null, ldata[0]);
+					}
+								
+					break;
+				default:
+					break;					
+			}
+		}
+		// If this is a child IFD, add it to its parent
+		if(parent != null)
+			parent.addChild(parentTag, tiffIFD);
+		else // Otherwise, add to the main IFD list
+			list.add(tiffIFD);
+		
+		return readStrategy.readInt(table, table.length - 4);
+	}
+	
+	/*
+	 * Reads the out-of-line values of an IFD in file order. Values lying next to
+	 * each other are fetched with a single read, large values are read straight
+	 * into their own arrays.
+	 */
+	private static void readValues(List<IFDEntry> entries, RandomAccessInputStream rin) throws IOException {
+		Collections.sort(entries, new Comparator<IFDEntry>() {
+			public int compare(IFDEntry e1, IFDEntry e2) {
+				return Long.compare(e1.valueOffset, e2.valueOffset);
+			}
+		});
+		
+		int i = 0;
+		while(i < entries.size()) {
+			IFDEntry first = entries.get(i);
+			long start = first.valueOffset;
+			long end = start + first.getValueSize();
+			int j = i + 1;
+			if(first.getValueSize() <= MAX_COALESCED_VALUE_SIZE) {
+				for(; j < entries.size(); j++) {
+					IFDEntry next = entries.get(j);
+					long nextEnd = next.valueOffset + next.getValueSize();
+					if(next.getValueSize() > MAX_COALESCED_VALUE_SIZE || next.valueOffset > end + MAX_COALESCED_GAP
+							|| nextEnd - start > MAX_COALESCED_READ_SIZE)
+						break;
+					end = Math.max(end, nextEnd);
+				}
+			}
+			rin.seek(start);
+			if(j == i + 1) {
+				first.value = new byte[first.getValueSize()];
+				rin.readFully(first.value);
+			} else {
+				byte[] buf = new byte[(int)(end - start)];
+				rin.readFully(buf);
+				for(int k = i; k < j; k++) {
+					IFDEntry entry = entries.get(k);
+					int from = (int)(entry.valueOffset - start);
+					entry.value = Arrays.copyOfRange(buf, from, from + entry.getValueSize());
+				}
+			}
+			i = j;
+		}
+	}
+
+	// An IFD entry whose value is fetched separately from the entry table
+	private static class IFDEntry {
+		private short tag;
+		private Tag ftag;
+		private FieldType ftype;
+		private int count;
+		private long valueOffset;
+		private byte[] value;
+		
+		private IFDEntry(short tag, Tag ftag, FieldType ftype, int count) {
+			this.tag = tag;
+			this.ftag = ftag;
+			this.ftype = ftype;
+			this.count = count;
+		}
+		
+		// Returns the size of the value in bytes or -1 for unknown field types
+		private int getValueSize() throws IOException {
+			long size;
+			switch(ftype) {
+				case BYTE:
+				case SBYTE:
+				case UNDEFINED:
+				case ASCII:
+					size = count;
+					break;
+				case SHORT:
+				case SSHORT:
+					size = 2L*count;
+					break;
+				case LONG:
+				case SLONG:
+				case FLOAT:
+				case IFD:
+					size = 4L*count;
+					break;
+				case DOUBLE:
+				case RATIONAL:
+				case SRATIONAL:
+					size = 8L*count;
+					break;
+				default:
+					return -1;
+			}
+			if(size > Integer.MAX_VALUE)
+				throw new IOException("Value too large for tag 0x" + Integer.toHexString(tag&0xffff));
+			
+			return (int)size;
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2014-2021 by Wen Yu
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the Eclipse
+ * Public License, v. 2.0 are satisfied: GNU General Public License, version 2
+ * or any later version.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0-or-later
+ */
+
+package pixy.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import pixy.image.tiff.Tag;
+import pixy.image.tiff.TagRegistry;
+import pixy.image.tiff.TiffTag;
+import pixy.io.IOUtils;
+import pixy.io.MemoryCacheRandomAccessInputStream;
+import pixy.io.RandomAccessInputStream;
+import pixy.meta.exif.ExifTag;
+import pixy.meta.tiff.TIFFMeta;
+
+/**
+ * Tag lookup through a {@link TagRegistry} against the boxed HashMap lookup it
+ * replaced, and reading the metadata of a TIFF image which does such a lookup
+ * for every IFD entry.
+ * <p>
+ * The image path is relative to the working directory, run from the project root.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TagLookupBenchmark {
+
+	@Param({"images/exif.tif"})
+	public String image;
+
+	private short[] values;
+	private TagRegistry registry;
+	private Map<Short, Tag> tagMap;
+	private byte[] imageData;
+
+	@Setup
+	public void setup() throws IOException {
+		Random random = new Random(1);
+		// Mostly known tags with a few unknown ones as found in real IFDs
+		Tag[] known = ExifTag.values();
+		values = new short[1024];
+		for(int i = 0; i < values.length; i++)
+			values[i] = (i%8 == 0)?(short)random.nextInt():known[random.nextInt(known.length)].getValue();
+
+		registry = ExifTag.getRegistry();
+		tagMap = new HashMap<Short, Tag>();
+		for(ExifTag tag : ExifTag.values())
+			tagMap.put(tag.getValue(), tag);
+
+		FileInputStream fin = new FileInputStream(new File(image));
+		try {
+			imageData = IOUtils.inputStreamToByteArray(fin);
+		} finally {
+			fin.close();
+		}
+	}
+
+	@Benchmark
+	public void registryLookup(Blackhole bh) {
+		for(short value : values)
+			bh.consume(registry.fromShort(value));
+	}
+
+	@Benchmark
+	public void hashMapLookup(Blackhole bh) {
+		for(short value : values) {
+			Tag tag = tagMap.get(value);
+			bh.consume(tag == null?TiffTag.UNKNOWN:tag);
+		}
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public Object readTiffMetadata() throws IOException {
+		RandomAccessInputStream rin = new MemoryCacheRandomAccessInputStream(new ByteArrayInputStream(imageData));
+		try {
+			return TIFFMeta.readMetadata(rin);
+		} finally {
+			rin.close();
+		}
+	}
+}
@@ -15,9 +15,6 @@
 
 package pixy.image.jpeg;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * Class represents JPEG marker.
  *
@@ -119,7 +116,19 @@ public enum Marker {
 	    }
 	    
 	    public static Marker fromShort(short value) {
-	       	Marker marker = markerMap.get(value);
+	    	if ((value&0xff00) != 0xff00)
+	    		return UNKNOWN;
+	       	return fromByte(value&0xff);
+	    }
+	    
+	    /**
+	     * Looks up a marker by the byte following the 0xff marker prefix.
+	     * 
+	     * @param code marker code in the range of 0x00 - 0xff
+	     * @return the marker or UNKNOWN if the code doesn't define a marker
+	     */
+	    public static Marker fromByte(int code) {
+	    	Marker marker = markerTable[code&0xff];
 	    	if (marker == null)
 	    	   return UNKNOWN;
 	      	return marker;
@@ -129,12 +138,14 @@ public enum Marker {
 		   return name() + ": " + description;
 	    }
 	   
-	    private static final Map<Short, Marker> markerMap = new HashMap<Short, Marker>();
+	    // All markers share the 0xff prefix, so they are indexed by their second byte
+	    private static final Marker[] markerTable = new Marker[256];
 	    
 	    static
 	    {
 	      for(Marker marker : values()) {
-	          markerMap.put(marker.getValue(), marker);
+	    	  if(marker != UNKNOWN)
+	    		  markerTable[marker.getValue()&0xff] = marker;
 	      }
 	    }	    
    	  
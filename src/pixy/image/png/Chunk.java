@@ -20,7 +20,6 @@ import java.io.OutputStream;
 
 import pixy.util.zip.CRC32;
 import pixy.io.IOUtils;
-import pixy.util.ArrayUtils;
 import pixy.util.LangUtils;
 
 /**
@@ -35,6 +34,8 @@ public class Chunk implements Comparable<Chunk> {
 	private final ChunkType chunkType;
 	private final byte[] data;
 	private final long crc;	
+	// CRC calculated over the chunk type and data, -1 until first needed
+	private volatile long calculatedCRC = -1L;
 	
 	/**
 	 * Compare different chunks according to their Attribute ranking.
@@ -70,8 +71,27 @@ public class Chunk implements Comparable<Chunk> {
 		return this.crc;
 	}
 	
+	/**
+	 * @return the CRC calculated over the chunk type and data. It is only
+	 *         calculated once as the data of a chunk never changes.
+	 */
+	public long getCalculatedCRC() {
+		long value = calculatedCRC;
+		if(value < 0)
+			calculatedCRC = value = calculateCRC(getChunkTypeValue(), data);
+		
+		return value;
+	}
+	
+	/**
+	 * @return the four byte chunk type value the CRC covers
+	 */
+	protected int getChunkTypeValue() {
+		return chunkType.getValue();
+	}
+	
 	public boolean isValidCRC() {
-		return (calculateCRC(chunkType.getValue(), data) == crc);
+		return (getCalculatedCRC() == crc);
 	}
 	
 	public void write(OutputStream os) throws IOException {
@@ -93,31 +113,26 @@ public class Chunk implements Comparable<Chunk> {
 		
 		Chunk other = (Chunk)that;
 		
-		long thisCRC = calculateCRC(this.getChunkType().getValue(), this.getData());
-		long otherCRC = calculateCRC(other.getChunkType().getValue(), other.getData());
-
-		return thisCRC == otherCRC;
+		return this.getCalculatedCRC() == other.getCalculatedCRC();
 	}
 	
 	public int hashCode() {
-		return LangUtils.longToIntHashCode(calculateCRC(this.getChunkType().getValue(), this.getData()));
+		return LangUtils.longToIntHashCode(getCalculatedCRC());
 	}
 	
 	public static long calculateCRC(int chunkValue, byte[] data)
 	{
-		CRC32 crc32 = new CRC32();
-		 
-		crc32.update(ArrayUtils.toByteArrayMM(chunkValue));
-		crc32.update(data);
-		 
-		return crc32.getValue();
+		return calculateCRC(chunkValue, data, 0, data.length);
 	}
 	
 	public static long calculateCRC(int chunkValue, byte[] data, int offset, int length)
 	{
 		CRC32 crc32 = new CRC32();
 		 
-		crc32.update(ArrayUtils.toByteArrayMM(chunkValue));
+		crc32.update(chunkValue >>> 24);
+		crc32.update(chunkValue >>> 16);
+		crc32.update(chunkValue >>> 8);
+		crc32.update(chunkValue);
 		crc32.update(data, offset, length);
 		 
 		return crc32.getValue();
@@ -15,8 +15,21 @@
 
 package pixy.image.png;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 /**
  * PNG scan line filter
+ * <p>
+ * The defilter_xxx and filter_xxx methods work in place on consecutive scan lines
+ * without filter type bytes. {@link #defilterRow(int, int, byte[], int, byte[], int, int)}
+ * works on a single scan line and a separate previous one, as delivered by
+ * {@link IDATReader.RowHandler}. Paeth keeps the neighboring pixel in locals for
+ * 1, 2, 3, 4, 6 and 8 bytes per pixel and its predictor is branch free. Sub does the
+ * same for 1, 2 and 3 bytes per pixel and adds 4 and 8 byte pixels a word at a time,
+ * as does Average for 8 byte pixels. The remaining cases and Up stay plain byte
+ * loops, which the JIT handles better than locals or words, see FilterBenchmark.
  *  
  * @author Wen Yu, yuwen_66@yahoo.com
  * @version 1.0 04/29/2013
@@ -31,99 +44,327 @@ public class Filter {
 	
 	public static void defilter_average(int bytesPerPixel, int bytesPerScanLine, byte[] sample, int offset)
 	{		
-		int previous = 0;
-		int upper = 0;
-		
-		int end = offset + bytesPerScanLine;
-		int subStart = offset + bytesPerPixel;
+		// First scan line has no upper line
+		if(offset < bytesPerScanLine) 
+			defilterAverage(bytesPerPixel, sample, offset, null, 0, bytesPerScanLine);
+		else
+			defilterAverage(bytesPerPixel, sample, offset, sample, offset - bytesPerScanLine, bytesPerScanLine);
+	}
 	
+	public static void defilter_paeth(int bytesPerPixel, int bytesPerScanLine, byte[] sample, int offset)
+	{
 		// First scan line, only previous bytes of the same line is used
 		if(offset < bytesPerScanLine) 
-		{
-			for (int i = subStart; i < end; i++)
-			{
-				previous = (sample[i-bytesPerPixel]&0xff);
-				sample[i] = (byte)((sample[i]&0xff) + (previous>>1));
-			}
+			defilterSub(bytesPerPixel, sample, offset, bytesPerScanLine);
+		else
+			defilterPaeth(bytesPerPixel, sample, offset, sample, offset - bytesPerScanLine, bytesPerScanLine);
+	}
 	
-			return;			
-		}
-		
-		// Only upper line bytes are used
-		for (int i = offset; i < subStart; i++) 
-		{
-			upper = (sample[i-bytesPerScanLine]&0xff);			
-			sample[i] = (byte)((sample[i]&0xff) + (upper>>1));
+	public static void defilter_sub(int bytesPerPixel, int bytesPerScanLine, byte[] sample, int offset)
+	{
+		defilterSub(bytesPerPixel, sample, offset, bytesPerScanLine);
+	}
+	
+	public static void defilter_up(int bytesPerScanLine, byte[] sample, int offset)
+	{
+		if (offset < bytesPerScanLine) { // up is meaningless for the first row
+			return;
 		}
 		
-		// Both upper line and previous bytes of the same line are used.
-		for (int i = subStart; i < end; i++) 
-		{
-			upper = (sample[i-bytesPerScanLine]&0xff);			
-			previous = (sample[i-bytesPerPixel]&0xff);
-			sample[i] = (byte)((sample[i]&0xff) + ((upper + previous)>>1));
+		defilterUp(sample, offset, sample, offset - bytesPerScanLine, bytesPerScanLine);
+	}
+	
+	/**
+	 * Reverses the filter of a single scan line in place.
+	 * 
+	 * @param filterType filter type byte of the scan line
+	 * @param bytesPerPixel bytes per complete pixel, 1 for bit depths below 8
+	 * @param row array holding the scan line without its filter type byte
+	 * @param offset start of the scan line in row
+	 * @param prior array holding the previous scan line, already defiltered, or null
+	 *        for the first scan line of the image or of an interlace pass
+	 * @param priorOffset start of the previous scan line in prior
+	 * @param length length of the scan line without its filter type byte
+	 */
+	public static void defilterRow(int filterType, int bytesPerPixel, byte[] row, int offset, byte[] prior, int priorOffset, int length)
+	{
+		switch(filterType) {
+			case NONE:
+				break;
+			case SUB:
+				defilterSub(bytesPerPixel, row, offset, length);
+				break;
+			case UP:
+				if(prior != null)
+					defilterUp(row, offset, prior, priorOffset, length);
+				break;
+			case AVERAGE:
+				defilterAverage(bytesPerPixel, row, offset, prior, priorOffset, length);
+				break;
+			case PAETH:
+				if(prior == null) // Paeth predictor with nothing above is the left byte
+					defilterSub(bytesPerPixel, row, offset, length);
+				else
+					defilterPaeth(bytesPerPixel, row, offset, prior, priorOffset, length);
+				break;
+			default:
+				throw new IllegalArgumentException("Invalid PNG filter type: " + filterType);
 		}
 	}
 	
-	public static void defilter_paeth(int bytesPerPixel, int bytesPerScanLine, byte[] sample, int offset)
+	/**
+	 * Wraps a RowHandler so it receives defiltered scan lines. The wrapper keeps a
+	 * copy of the previous scan line and starts over for every interlace pass. The
+	 * filter type byte is left in front of each scan line.
+	 * 
+	 * @param bytesPerPixel bytes per complete pixel, 1 for bit depths below 8
+	 * @param handler RowHandler to receive the defiltered scan lines
+	 * @return a RowHandler to pass to {@link IDATReader#IDATReader(IHDRReader, IDATReader.RowHandler)}
+	 */
+	public static IDATReader.RowHandler defiltering(final int bytesPerPixel, final IDATReader.RowHandler handler)
 	{
-		int previous = 0;
-		int upper = 0;
-		int upper_previous = 0;
+		if(handler == null) throw new IllegalArgumentException("Input handler is null");
 		
-		int end = offset + bytesPerScanLine;
-		int subStart = offset + bytesPerPixel;
-		
-		// First scan line, only previous bytes of the same line is used
-		if(offset < bytesPerScanLine) 
-		{
-			for (int i = subStart; i < end; i++)
-			{
-				previous = (sample[i-bytesPerPixel]&0xff);
-				sample[i] = (byte)((sample[i]&0xff) + previous);
+		return new IDATReader.RowHandler() {
+			private byte[] prior = new byte[0];
+			
+			public void handleRow(byte[] row, int length, int pass, int rowIndex) throws IOException {
+				defilterRow(row[0]&0xff, bytesPerPixel, row, 1, (rowIndex == 0)?null:prior, 0, length - 1);
+				if(prior.length < length - 1)
+					prior = new byte[length - 1];
+				System.arraycopy(row, 1, prior, 0, length - 1);
+				handler.handleRow(row, length, pass, rowIndex);
 			}
+		};
+	}
 	
-			return;			
+	private static void defilterAverage(int bytesPerPixel, byte[] row, int offset, byte[] prior, int priorOffset, int length)
+	{
+		int end = offset + length;
+		int i = offset + Math.min(bytesPerPixel, length);
+		
+		if(prior == null) { // Only previous bytes of the same line are used
+			if(bytesPerPixel == 8) {
+				ByteBuffer rowBuf = ByteBuffer.wrap(row).order(ByteOrder.nativeOrder());
+				long a = rowBuf.getLong(offset);
+				for (; i + 7 < end; i += 8) {
+					a = add_bytes(rowBuf.getLong(i), (a>>>1) & 0x7f7f7f7f7f7f7f7fL);
+					rowBuf.putLong(i, a);
+				}
+			}
+			
+			for (; i < end; i++)
+				row[i] = (byte)(row[i] + ((row[i - bytesPerPixel]&0xff)>>1));
+			
+			return;
 		}
 		
 		// Only upper line bytes are used
-		for (int i = offset; i < subStart; i++) 
-		{
-			upper = (sample[i-bytesPerScanLine]&0xff);			
-			sample[i] = (byte)((sample[i]&0xff) + upper);
-		}
+		int j = priorOffset;
+		for (int k = offset; k < i; k++, j++)
+			row[k] = (byte)(row[k] + ((prior[j]&0xff)>>1));
 		
-		for (int i = subStart; i < end; i++)
-		{
-			upper = (sample[i-bytesPerScanLine]&0xff);
-			previous = (sample[i-bytesPerPixel]&0xff);
-	        upper_previous = (sample[i-bytesPerScanLine-bytesPerPixel]&0xff);
-	        sample[i] = (byte)((sample[i]&0xff) + paeth_predictor(previous,upper,upper_previous));			 
+		// Both upper line and previous bytes of the same line are used.
+		if(bytesPerPixel == 8) {
+			ByteBuffer rowBuf = ByteBuffer.wrap(row).order(ByteOrder.nativeOrder());
+			ByteBuffer priorBuf = ByteBuffer.wrap(prior).order(ByteOrder.nativeOrder());
+			long a = rowBuf.getLong(offset);
+			for (; i + 7 < end; i += 8, j += 8) {
+				a = add_bytes(rowBuf.getLong(i), average_bytes(a, priorBuf.getLong(j)));
+				rowBuf.putLong(i, a);
+			}
 		}
+		
+		// Other pixel sizes and any partial pixel at the end
+		for (; i < end; i++, j++)
+			row[i] = (byte)(row[i] + (((row[i - bytesPerPixel]&0xff) + (prior[j]&0xff))>>1));
 	}
 	
-	public static void defilter_sub(int bytesPerPixel, int bytesPerScanLine, byte[] sample, int offset)
+	private static void defilterPaeth(int bytesPerPixel, byte[] row, int offset, byte[] prior, int priorOffset, int length)
 	{
-		int end = offset + bytesPerScanLine;
-	
-		for (int i = offset + bytesPerPixel; i < end; i++)
-		{
-			sample[i] = (byte)((sample[i]&0xff) + (sample[i-bytesPerPixel]&0xff));
+		int end = offset + length;
+		int subStart = offset + Math.min(bytesPerPixel, length);
+		
+		// Only upper line bytes are used
+		int i = offset, j = priorOffset;
+		for (; i < subStart; i++, j++)
+			row[i] = (byte)(row[i] + prior[j]);
+		
+		switch(bytesPerPixel) {
+			case 1: {
+				int a = row[offset]&0xff, c = prior[priorOffset]&0xff;
+				for (; i < end; i++, j++) {
+					int b = prior[j]&0xff;
+					a = (row[i] + paeth_predictor(a, b, c))&0xff;
+					row[i] = (byte)a;
+					c = b;
+				}
+				break;
+			}
+			case 2: {
+				int a0 = row[offset]&0xff, a1 = row[offset + 1]&0xff;
+				int c0 = prior[priorOffset]&0xff, c1 = prior[priorOffset + 1]&0xff;
+				for (; i + 1 < end; i += 2, j += 2) {
+					int b0 = prior[j]&0xff, b1 = prior[j + 1]&0xff;
+					a0 = (row[i] + paeth_predictor(a0, b0, c0))&0xff;
+					a1 = (row[i + 1] + paeth_predictor(a1, b1, c1))&0xff;
+					row[i] = (byte)a0;
+					row[i + 1] = (byte)a1;
+					c0 = b0; c1 = b1;
+				}
+				break;
+			}
+			case 3: {
+				int a0 = row[offset]&0xff, a1 = row[offset + 1]&0xff, a2 = row[offset + 2]&0xff;
+				int c0 = prior[priorOffset]&0xff, c1 = prior[priorOffset + 1]&0xff, c2 = prior[priorOffset + 2]&0xff;
+				for (; i + 2 < end; i += 3, j += 3) {
+					int b0 = prior[j]&0xff, b1 = prior[j + 1]&0xff, b2 = prior[j + 2]&0xff;
+					a0 = (row[i] + paeth_predictor(a0, b0, c0))&0xff;
+					a1 = (row[i + 1] + paeth_predictor(a1, b1, c1))&0xff;
+					a2 = (row[i + 2] + paeth_predictor(a2, b2, c2))&0xff;
+					row[i] = (byte)a0;
+					row[i + 1] = (byte)a1;
+					row[i + 2] = (byte)a2;
+					c0 = b0; c1 = b1; c2 = b2;
+				}
+				break;
+			}
+			case 4: {
+				int a0 = row[offset]&0xff, a1 = row[offset + 1]&0xff, a2 = row[offset + 2]&0xff, a3 = row[offset + 3]&0xff;
+				int c0 = prior[priorOffset]&0xff, c1 = prior[priorOffset + 1]&0xff, c2 = prior[priorOffset + 2]&0xff, c3 = prior[priorOffset + 3]&0xff;
+				for (; i + 3 < end; i += 4, j += 4) {
+					int b0 = prior[j]&0xff, b1 = prior[j + 1]&0xff, b2 = prior[j + 2]&0xff, b3 = prior[j + 3]&0xff;
+					a0 = (row[i] + paeth_predictor(a0, b0, c0))&0xff;
+					a1 = (row[i + 1] + paeth_predictor(a1, b1, c1))&0xff;
+					a2 = (row[i + 2] + paeth_predictor(a2, b2, c2))&0xff;
+					a3 = (row[i + 3] + paeth_predictor(a3, b3, c3))&0xff;
+					row[i] = (byte)a0;
+					row[i + 1] = (byte)a1;
+					row[i + 2] = (byte)a2;
+					row[i + 3] = (byte)a3;
+					c0 = b0; c1 = b1; c2 = b2; c3 = b3;
+				}
+				break;
+			}
+			case 6: {
+				int a0 = row[offset]&0xff, a1 = row[offset + 1]&0xff, a2 = row[offset + 2]&0xff;
+				int a3 = row[offset + 3]&0xff, a4 = row[offset + 4]&0xff, a5 = row[offset + 5]&0xff;
+				int c0 = prior[priorOffset]&0xff, c1 = prior[priorOffset + 1]&0xff, c2 = prior[priorOffset + 2]&0xff;
+				int c3 = prior[priorOffset + 3]&0xff, c4 = prior[priorOffset + 4]&0xff, c5 = prior[priorOffset + 5]&0xff;
+				for (; i + 5 < end; i += 6, j += 6) {
+					int b0 = prior[j]&0xff, b1 = prior[j + 1]&0xff, b2 = prior[j + 2]&0xff;
+					int b3 = prior[j + 3]&0xff, b4 = prior[j + 4]&0xff, b5 = prior[j + 5]&0xff;
+					a0 = (row[i] + paeth_predictor(a0, b0, c0))&0xff;
+					a1 = (row[i + 1] + paeth_predictor(a1, b1, c1))&0xff;
+					a2 = (row[i + 2] + paeth_predictor(a2, b2, c2))&0xff;
+					a3 = (row[i + 3] + paeth_predictor(a3, b3, c3))&0xff;
+					a4 = (row[i + 4] + paeth_predictor(a4, b4, c4))&0xff;
+					a5 = (row[i + 5] + paeth_predictor(a5, b5, c5))&0xff;
+					row[i] = (byte)a0;
+					row[i + 1] = (byte)a1;
+					row[i + 2] = (byte)a2;
+					row[i + 3] = (byte)a3;
+					row[i + 4] = (byte)a4;
+					row[i + 5] = (byte)a5;
+					c0 = b0; c1 = b1; c2 = b2; c3 = b3; c4 = b4; c5 = b5;
+				}
+				break;
+			}
+			case 8: {
+				int a0 = row[offset]&0xff, a1 = row[offset + 1]&0xff, a2 = row[offset + 2]&0xff, a3 = row[offset + 3]&0xff;
+				int a4 = row[offset + 4]&0xff, a5 = row[offset + 5]&0xff, a6 = row[offset + 6]&0xff, a7 = row[offset + 7]&0xff;
+				int c0 = prior[priorOffset]&0xff, c1 = prior[priorOffset + 1]&0xff, c2 = prior[priorOffset + 2]&0xff, c3 = prior[priorOffset + 3]&0xff;
+				int c4 = prior[priorOffset + 4]&0xff, c5 = prior[priorOffset + 5]&0xff, c6 = prior[priorOffset + 6]&0xff, c7 = prior[priorOffset + 7]&0xff;
+				for (; i + 7 < end; i += 8, j += 8) {
+					int b0 = prior[j]&0xff, b1 = prior[j + 1]&0xff, b2 = prior[j + 2]&0xff, b3 = prior[j + 3]&0xff;
+					int b4 = prior[j + 4]&0xff, b5 = prior[j + 5]&0xff, b6 = prior[j + 6]&0xff, b7 = prior[j + 7]&0xff;
+					a0 = (row[i] + paeth_predictor(a0, b0, c0))&0xff;
+					a1 = (row[i + 1] + paeth_predictor(a1, b1, c1))&0xff;
+					a2 = (row[i + 2] + paeth_predictor(a2, b2, c2))&0xff;
+					a3 = (row[i + 3] + paeth_predictor(a3, b3, c3))&0xff;
+					a4 = (row[i + 4] + paeth_predictor(a4, b4, c4))&0xff;
+					a5 = (row[i + 5] + paeth_predictor(a5, b5, c5))&0xff;
+					a6 = (row[i + 6] + paeth_predictor(a6, b6, c6))&0xff;
+					a7 = (row[i + 7] + paeth_predictor(a7, b7, c7))&0xff;
+					row[i] = (byte)a0;
+					row[i + 1] = (byte)a1;
+					row[i + 2] = (byte)a2;
+					row[i + 3] = (byte)a3;
+					row[i + 4] = (byte)a4;
+					row[i + 5] = (byte)a5;
+					row[i + 6] = (byte)a6;
+					row[i + 7] = (byte)a7;
+					c0 = b0; c1 = b1; c2 = b2; c3 = b3; c4 = b4; c5 = b5; c6 = b6; c7 = b7;
+				}
+				break;
+			}
+			default:
 		}
+		
+		// Other pixel sizes and any partial pixel at the end
+		for (; i < end; i++, j++)
+			row[i] = (byte)(row[i] + paeth_predictor(row[i - bytesPerPixel]&0xff, prior[j]&0xff, prior[j - bytesPerPixel]&0xff));
 	}
 	
-	public static void defilter_up(int bytesPerScanLine, byte[] sample, int offset)
+	private static void defilterSub(int bytesPerPixel, byte[] row, int offset, int length)
 	{
-		if (offset < bytesPerScanLine) { // up is meaningless for the first row
-			return;
+		int end = offset + length;
+		int i = offset + Math.min(bytesPerPixel, length);
+		
+		switch(bytesPerPixel) {
+			case 1: {
+				byte a = row[offset];
+				for (; i < end; i++)
+					row[i] = a = (byte)(row[i] + a);
+				break;
+			}
+			case 2: {
+				byte a0 = row[offset], a1 = row[offset + 1];
+				for (; i + 1 < end; i += 2) {
+					row[i] = a0 = (byte)(row[i] + a0);
+					row[i + 1] = a1 = (byte)(row[i + 1] + a1);
+				}
+				break;
+			}
+			case 3: {
+				byte a0 = row[offset], a1 = row[offset + 1], a2 = row[offset + 2];
+				for (; i + 2 < end; i += 3) {
+					row[i] = a0 = (byte)(row[i] + a0);
+					row[i + 1] = a1 = (byte)(row[i + 1] + a1);
+					row[i + 2] = a2 = (byte)(row[i + 2] + a2);
+				}
+				break;
+			}
+			case 4: {
+				ByteBuffer rowBuf = ByteBuffer.wrap(row).order(ByteOrder.nativeOrder());
+				int a = rowBuf.getInt(offset);
+				for (; i + 3 < end; i += 4) {
+					a = add_bytes(rowBuf.getInt(i), a);
+					rowBuf.putInt(i, a);
+				}
+				break;
+			}
+			case 8: {
+				ByteBuffer rowBuf = ByteBuffer.wrap(row).order(ByteOrder.nativeOrder());
+				long a = rowBuf.getLong(offset);
+				for (; i + 7 < end; i += 8) {
+					a = add_bytes(rowBuf.getLong(i), a);
+					rowBuf.putLong(i, a);
+				}
+				break;
+			}
+			default:
 		}
 		
-		int end = offset + bytesPerScanLine;
+		// Other pixel sizes and any partial pixel at the end
+		for (; i < end; i++)
+			row[i] = (byte)(row[i] + row[i - bytesPerPixel]);
+	}
 	
-		for (int i = offset; i < end; i++)
-		{
-			sample[i] = (byte)((sample[i]&0xff) + (sample[i-bytesPerScanLine]&0xff));
-		}
+	private static void defilterUp(byte[] row, int offset, byte[] prior, int priorOffset, int length)
+	{
+		for (int i = 0; i < length; i++)
+			row[offset + i] = (byte)(row[offset + i] + prior[priorOffset + i]);
 	}
 
 	public static void filter_average(int bytesPerPixel, int bytesPerScanLine, byte[] sample, int offset)
@@ -224,18 +465,39 @@ public class Filter {
 		}
 	}
 	
+	// Byte wise sum of two words, no carry from one byte into the next
+	private static int add_bytes(int x, int y)
+	{
+		return ((x & 0x7f7f7f7f) + (y & 0x7f7f7f7f)) ^ ((x ^ y) & 0x80808080);
+	}
+	
+	private static long add_bytes(long x, long y)
+	{
+		return ((x & 0x7f7f7f7f7f7f7f7fL) + (y & 0x7f7f7f7f7f7f7f7fL)) ^ ((x ^ y) & 0x8080808080808080L);
+	}
+	
+	// Byte wise (x + y)>>1 of two words
+	private static long average_bytes(long x, long y)
+	{
+		return (x & y) + (((x ^ y) & 0xfefefefefefefefeL)>>>1);
+	}
+	
+	// Branch free Paeth predictor, ties go to left, then above
 	private static int paeth_predictor(int left, int above, int upper_left)
 	{
-		int p = left+above-upper_left;
-		int p_left = (p>left)?(p - left):(left-p);
-		int p_above = (p>above)?(p - above):(above-p);
-		int p_upper_left = (p>upper_left)?(p - upper_left):(upper_left-p);
+		int p_left = above - upper_left; // p - left where p = left + above - upper_left
+		int p_above = left - upper_left; // p - above
+		int p_upper_left = p_left + p_above; // p - upper_left
+		// Absolute values
+		p_left = (p_left ^ (p_left>>31)) - (p_left>>31);
+		p_above = (p_above ^ (p_above>>31)) - (p_above>>31);
+		p_upper_left = (p_upper_left ^ (p_upper_left>>31)) - (p_upper_left>>31);
+		// All ones if left loses and if upper_left beats above
+		int not_left = ((p_above - p_left)|(p_upper_left - p_left))>>31;
+		int use_upper_left = (p_upper_left - p_above)>>31;
+		int other = (above & ~use_upper_left)|(upper_left & use_upper_left);
 		
-		if ((p_left<=p_above)&&(p_left<=p_upper_left))
-			 return left;
-		else if (p_above<=p_upper_left)
-			 return above;
-		else return upper_left;
+		return (left & ~not_left)|(other & not_left);
 	}
 	
 	private Filter() { }
@@ -19,6 +19,10 @@ import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
 
 import pixy.io.IOUtils;
@@ -30,15 +34,54 @@ import pixy.util.Reader;
  * All the IDAT chunks must be merged together before using this reader, as
  * per PNG specification, the compressed data stream is the concatenation of
  * the contents of all the IDAT chunks.
+ * <p>
+ * Created with an IHDRReader and a RowHandler, the reader works incrementally
+ * instead: each IDAT chunk is inflated as soon as it is added and every complete
+ * scanline is passed to the handler, so only a single scanline is held in memory.
  * 
  * @author Wen Yu, yuwen_66@yahoo.com
  * @version 1.0 04/26/2013
  */
 public class IDATReader implements Reader {
+	
+	/**
+	 * Receives the scanlines of an image as soon as they are inflated
+	 */
+	public interface RowHandler {
+		/**
+		 * @param row scanline starting with its filter type byte, not unfiltered yet.
+		 *        The array is reused for the next scanline.
+		 * @param length length of the scanline including the filter type byte
+		 * @param pass Adam7 pass from 1 to 7 for interlaced images, 0 otherwise
+		 * @param rowIndex index of the scanline within the image or the pass
+		 */
+		public void handleRow(byte[] row, int length, int pass, int rowIndex) throws IOException;
+	}
+	
+	// Adam7 start and step of columns and rows for each pass
+	private static final int[] ADAM7_COLUMN_START = {0, 4, 0, 2, 0, 1, 0};
+	private static final int[] ADAM7_COLUMN_STEP = {8, 8, 4, 4, 2, 2, 1};
+	private static final int[] ADAM7_ROW_START = {0, 0, 4, 0, 2, 0, 1};
+	private static final int[] ADAM7_ROW_STEP = {8, 8, 8, 4, 4, 2, 2};
+	
+	// Inflaters kept for reuse as creating one allocates native memory
+	private static final Deque<Inflater> INFLATER_POOL = new ArrayDeque<Inflater>();
+	private static final int MAX_POOLED_INFLATERS = 4;
 
 	private byte[] rawData;
 	private ByteArrayOutputStream byteOutput = null;
 	
+	// Incremental mode only
+	private RowHandler handler;
+	private Inflater inflater;
+	private boolean interlaced;
+	private int[] rowLengths; // Scanline length for each pass, a single pass if not interlaced
+	private int[] rowCounts; // Number of scanlines for each pass
+	private int pass;
+	private int rowIndex;
+	private byte[] row;
+	private int filled;
+	
 	public IDATReader() {
 		this(8192); // 8K buffer
 	}
@@ -47,6 +90,63 @@ public class IDATReader implements Reader {
 		byteOutput = new ByteArrayOutputStream(bufLen);
 	}
 	
+	/**
+	 * Creates a reader which passes each scanline to the handler as soon as the
+	 * IDAT chunks added so far contain it.
+	 * 
+	 * @param ihdr IHDRReader for the image header, giving the scanline layout
+	 * @param handler RowHandler to receive the scanlines
+	 */
+	public IDATReader(IHDRReader ihdr, RowHandler handler) {
+		if(ihdr == null || handler == null) throw new IllegalArgumentException("Argument(s) are null");
+		
+		int samplesPerPixel;
+		switch(ColorType.fromInt(ihdr.getColorType())) {
+			case GRAY_SCALE:
+			case INDEX_COLOR:
+				samplesPerPixel = 1;
+				break;
+			case GRAY_SCALE_WITH_ALPHA:
+				samplesPerPixel = 2;
+				break;
+			case TRUE_COLOR:
+				samplesPerPixel = 3;
+				break;
+			case TRUE_COLOR_WITH_ALPHA:
+				samplesPerPixel = 4;
+				break;
+			default:
+				throw new IllegalArgumentException("Unsupported PNG color type " + ihdr.getColorType());
+		}
+		
+		long bitsPerPixel = samplesPerPixel * (long)ihdr.getBitDepth();
+		long width = ihdr.getWidth()&0xffffffffL;
+		long height = ihdr.getHeight()&0xffffffffL;
+		this.interlaced = (ihdr.getInterlaceMethod() == 1);
+		int numOfPasses = interlaced?7:1;
+		this.rowLengths = new int[numOfPasses];
+		this.rowCounts = new int[numOfPasses];
+		int maxRowLength = 0;
+		
+		for(int i = 0; i < numOfPasses; i++) {
+			long passWidth = interlaced?(width + ADAM7_COLUMN_STEP[i] - ADAM7_COLUMN_START[i] - 1)/ADAM7_COLUMN_STEP[i]:width;
+			long passHeight = interlaced?(height + ADAM7_ROW_STEP[i] - ADAM7_ROW_START[i] - 1)/ADAM7_ROW_STEP[i]:height;
+			if(passWidth == 0) passHeight = 0; // An empty pass has no scanlines at all
+			long rowLength = 1 + (passWidth*bitsPerPixel + 7)/8;
+			if(rowLength > Integer.MAX_VALUE || passHeight > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("Image too large: " + width + "x" + height);
+			rowLengths[i] = (int)rowLength;
+			rowCounts[i] = (int)passHeight;
+			maxRowLength = Math.max(maxRowLength, rowLengths[i]);
+		}
+		
+		this.handler = handler;
+		this.row = new byte[maxRowLength];
+		skipEmptyPasses();
+		if(!isFinished())
+			this.inflater = obtainInflater();
+	}
+	
 	public IDATReader addChunk(Chunk chunk) {
 		if(chunk == null) throw new IllegalArgumentException("Input chunk is null");
 
@@ -55,24 +155,132 @@ public class IDATReader implements Reader {
 		}		
 		
 		try {
-			byteOutput.write(chunk.getData());
+			if(handler != null) {
+				byte[] data = chunk.getData();
+				addData(data, 0, data.length);
+			} else
+				byteOutput.write(chunk.getData());
 		} catch (IOException e) {
-			throw new RuntimeException("IDATReader: error adding new chunk");
+			throw new RuntimeException("IDATReader: error adding new chunk", e);
 		}
 		
 		return this;
 	}
 	
+	/**
+	 * Inflates the data of an IDAT chunk and passes all scanlines completed by
+	 * it to the RowHandler. Only available for readers created with a RowHandler.
+	 * Data after the last scanline is ignored.
+	 * 
+	 * @param data array holding the IDAT chunk data
+	 * @param offset start of the chunk data in the array
+	 * @param length length of the chunk data
+	 * @throws IOException if the data is corrupt, the RowHandler fails or reading
+	 *         has already failed or been ended by {@link #finish()}
+	 */
+	public void addData(byte[] data, int offset, int length) throws IOException {
+		if(handler == null) throw new IllegalStateException("IDATReader was not created with a RowHandler");
+		if(isFinished()) return;
+		if(inflater == null) throw new IOException("IDATReader has already failed or been finished");
+		
+		inflater.setInput(data, offset, length);
+		boolean failed = true;
+		
+		try {
+			while(!isFinished()) {
+				int count = inflater.inflate(row, filled, rowLengths[pass] - filled);
+				if(count == 0) {
+					if(inflater.needsInput()) break;
+					if(inflater.needsDictionary()) throw new IOException("IDAT data needs a preset dictionary");
+					throw new IOException("IDAT data ends before the last scanline");
+				}
+				filled += count;
+				if(filled == rowLengths[pass]) {
+					filled = 0;
+					handler.handleRow(row, rowLengths[pass], interlaced?pass + 1:0, rowIndex);
+					rowIndex++;
+					skipEmptyPasses();
+				}
+			}
+			failed = false;
+		} catch(DataFormatException e) {
+			throw new IOException("Corrupt IDAT data", e);
+		} finally {
+			// Nothing more to inflate once the image is complete or anything went wrong
+			if(failed || isFinished()) releaseInflater();
+		}
+	}
+	
+	/**
+	 * Ends incremental reading, releasing the Inflater if the image is incomplete.
+	 * 
+	 * @throws IOException if not all scanlines have been passed to the RowHandler
+	 */
+	public void finish() throws IOException {
+		if(handler == null) throw new IllegalStateException("IDATReader was not created with a RowHandler");
+		if(!isFinished()) {
+			releaseInflater();
+			throw new IOException("IDAT data ends before the last scanline");
+		}
+	}
+	
 	public byte[] getData() throws IOException {
 		if(rawData == null)
 			read();
 		return rawData;
 	}
+	
+	/**
+	 * @return true if all scanlines have been passed to the RowHandler
+	 */
+	public boolean isFinished() {
+		return handler != null && pass >= rowLengths.length;
+	}
+	
+	private static Inflater obtainInflater() {
+		synchronized(INFLATER_POOL) {
+			Inflater inflater = INFLATER_POOL.poll();
+			if(inflater != null) return inflater;
+		}
+		
+		return new Inflater();
+	}
+	
+	private static void recycleInflater(Inflater inflater) {
+		inflater.reset();
+		synchronized(INFLATER_POOL) {
+			if(INFLATER_POOL.size() < MAX_POOLED_INFLATERS) {
+				INFLATER_POOL.push(inflater);
+				return;
+			}
+		}
+		inflater.end();
+	}
 
 	public void read() throws IOException {		
+		if(handler != null) throw new IllegalStateException("Scanlines are passed to the RowHandler");
 		// Inflate compressed data
-		BufferedInputStream bin = new BufferedInputStream(new InflaterInputStream(new ByteArrayInputStream(byteOutput.toByteArray())));
-		this.rawData = IOUtils.inputStreamToByteArray(bin);
-		bin.close();
+		Inflater inflater = obtainInflater();
+		try {
+			BufferedInputStream bin = new BufferedInputStream(new InflaterInputStream(new ByteArrayInputStream(byteOutput.toByteArray()), inflater));
+			this.rawData = IOUtils.inputStreamToByteArray(bin);
+			bin.close();
+		} finally {
+			recycleInflater(inflater);
+		}
+	}
+	
+	private void releaseInflater() {
+		if(inflater == null) return;
+		recycleInflater(inflater);
+		inflater = null;
+	}
+	
+	// Moves on to the next pass with scanlines left once the current one is done
+	private void skipEmptyPasses() {
+		while(pass < rowCounts.length && rowIndex >= rowCounts[pass]) {
+			pass++;
+			rowIndex = 0;
+		}
 	}
 }
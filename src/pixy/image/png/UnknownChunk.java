@@ -39,8 +39,8 @@ public class UnknownChunk extends Chunk {
 		return chunkValue;
 	}
 	
-	@Override public boolean isValidCRC() {				 
-		return (calculateCRC(chunkValue, getData()) == getCRC());
+	@Override protected int getChunkTypeValue() {
+		return chunkValue;
 	}
 	
 	@Override public void write(OutputStream os) throws IOException{
@@ -31,6 +31,10 @@ public abstract class AbstractByteField extends TiffField<byte[]> {
 		return data.clone();
 	}
 	
+	public long getValueAsLong(int index) {
+		return (getType() == FieldType.SBYTE)?data[index]:(data[index]&0xff);
+	}
+	
 	public String getDataAsString() {
 		return StringUtils.byteArrayToHexString(data, 0, MAX_STRING_REPR_LEN);
 	}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2014-2021 by Wen Yu
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the Eclipse
+ * Public License, v. 2.0 are satisfied: GNU General Public License, version 2
+ * or any later version.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0-or-later
+ */
+
+package pixy.image.tiff;
+
+import java.io.IOException;
+
+import pixy.io.RandomAccessOutputStream;
+
+/**
+ * Base class for the 64 bit BigTIFF field types LONG8, SLONG8 and IFD8.
+ */
+public abstract class AbstractLong8Field extends TiffField<long[]> {
+
+	public AbstractLong8Field(short tag, FieldType fieldType, long[] data) {
+		super(tag, fieldType, data.length);
+		this.data = data;
+	}
+	
+	public long[] getData() {
+		return data.clone();
+	}
+	
+	/**
+	 * Narrows the values to 32 bit for code working with TIFF long values.
+	 * 
+	 * @throws UnsupportedOperationException if a value doesn't fit into an unsigned 32 bit integer
+	 */
+	public int[] getDataAsLong() {
+		int[] ldata = new int[data.length];
+		
+		for(int i = 0; i < data.length; i++) {
+			if(data[i] < 0 || data[i] > 0xffffffffL)
+				throw new UnsupportedOperationException("Value " + data[i] + " doesn't fit into a TIFF long, use getData() instead");
+			ldata[i] = (int)data[i];
+		}
+		
+		return ldata;
+	}
+	
+	public long getValueAsLong(int index) {
+		return data[index];
+	}
+	
+	public String getDataAsString() {
+		StringBuilder longs = new StringBuilder("[");
+		int end = Math.min(data.length, MAX_STRING_REPR_LEN);
+		
+		for(int i = 0; i < end; i++) {
+			if(i > 0) longs.append(",");
+			longs.append(data[i]);
+		}
+		
+		if(end < data.length)
+			longs.append(" ..."); // Partial output
+		
+		return longs.append("]").toString();
+	}
+	
+	protected long writeBigTiffData(RandomAccessOutputStream os, long toOffset) throws IOException {
+		if (data.length == 1) { // A single value fits into a BigTIFF entry
+			os.writeLong(data[0]);
+			return toOffset;
+		}
+		os.writeLong(toOffset);
+		os.seek(toOffset);
+		
+		for (long value : data)
+			os.writeLong(value);
+		
+		return toOffset + (data.length << 3);
+	}
+	
+	protected int writeData(RandomAccessOutputStream os, int toOffset) throws IOException {
+		// 8 byte values never fit into a classic TIFF entry
+		dataOffset = toOffset;
+		os.writeInt(toOffset);
+		os.seek(toOffset);
+		
+		for (long value : data)
+			os.writeLong(value);
+		
+		toOffset += (data.length << 3);
+		
+		return toOffset;
+	}
+}
@@ -34,6 +34,10 @@ public abstract class AbstractLongField extends TiffField<int[]> {
 		return getData();
 	}
 	
+	public long getValueAsLong(int index) {
+		return (getType() == FieldType.SLONG)?data[index]:(data[index]&0xffffffffL);
+	}
+	
 	protected int writeData(RandomAccessOutputStream os, int toOffset) throws IOException {
 		
 		if (data.length == 1) {
@@ -34,6 +34,10 @@ public abstract class AbstractRationalField extends TiffField<int[]> {
 		return getData();
 	}
 
+	public long getValueAsLong(int index) {
+		return (getType() == FieldType.SRATIONAL)?data[index]:(data[index]&0xffffffffL);
+	}
+
 	protected int writeData(RandomAccessOutputStream os, int toOffset) throws IOException {
 		//
 		dataOffset = toOffset;
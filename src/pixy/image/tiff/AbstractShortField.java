@@ -30,6 +30,10 @@ public abstract class AbstractShortField extends TiffField<short[]> {
 		return data.clone();
 	}
 
+	public long getValueAsLong(int index) {
+		return (getType() == FieldType.SSHORT)?data[index]:(data[index]&0xffff);
+	}
+
 	protected int writeData(RandomAccessOutputStream os, int toOffset) throws IOException {
 		if (data.length <= 2) {
 			dataOffset = (int)os.getStreamPointer();
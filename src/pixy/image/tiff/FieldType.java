@@ -16,8 +16,6 @@
 package pixy.image.tiff;
 
 import java.io.UnsupportedEncodingException;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * TIFF field type.
@@ -39,6 +37,10 @@ public enum FieldType {
 	FLOAT("Float", (short)0x000b),
 	DOUBLE("Double", (short)0x000c),
 	IFD("IFD", (short)0x000d),
+	// BigTIFF field types
+	LONG8("Long8", (short)0x0010),
+	SLONG8("SLong8", (short)0x0011),
+	IFD8("IFD8", (short)0x0012),
 	// There two are not actually TIFF defined field type, internally they TIFF BYTE fields
 	WINDOWSXP("WindowsXP", (short)0x000e),
 	EXIF_MAKERNOTE("ExifMakernote", (short)0x000f),
@@ -111,6 +113,18 @@ public enum FieldType {
     				}
     			}
     			break;
+    		case LONG8:
+    		case SLONG8:
+    			if(typeClass == long[].class) {
+    				long[] longData = (long[])data;
+    				if(longData.length > 0) {
+    					if(type == FieldType.LONG8)
+    						retValue = new Long8Field(tag.getValue(), longData);
+    					else
+    						retValue = new SLong8Field(tag.getValue(), longData);
+    				}
+    			}
+    			break;
     		case WINDOWSXP: // Not a real TIFF field type, just a convenient way to add Windows XP field as a sting
     			if(typeClass == String.class) {
     				try {
@@ -143,18 +157,21 @@ public enum FieldType {
 	}
 	
     public static FieldType fromShort(short value) {
-       	FieldType fieldType = typeMap.get(value);
+    	if (value < 0 || value >= typeTable.length)
+    		return UNKNOWN;
+       	FieldType fieldType = typeTable[value];
     	if (fieldType == null)
     	   return UNKNOWN;
    		return fieldType;
     }
     
-    private static final Map<Short, FieldType> typeMap = new HashMap<Short, FieldType>();
+    // Field type values are small, so a dense table indexed by the value does the lookup
+    private static final FieldType[] typeTable = new FieldType[IFD8.getValue() + 1];
        
     static
     {
       for(FieldType fieldType : values())
-           typeMap.put(fieldType.getValue(), fieldType);
+           typeTable[fieldType.getValue()] = fieldType;
     }
     
     public static boolean validateData(FieldType type, Object data) {
@@ -197,6 +214,13 @@ public enum FieldType {
     				if(intData.length > 0 && intData.length % 2 == 0) retValue = true;  				
     			}
     			break;
+    		case LONG8:
+    		case SLONG8:
+    			if(typeClass == long[].class) {
+    				long[] longData = (long[])data;
+    				if(longData.length > 0) retValue = true;
+    			}
+    			break;
     		default:
     	}
     	
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2014-2021 by Wen Yu
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the Eclipse
+ * Public License, v. 2.0 are satisfied: GNU General Public License, version 2
+ * or any later version.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0-or-later
+ */
+
+package pixy.image.tiff;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import pixy.io.RandomAccessOutputStream;
+
+/**
+ * TIFF field whose value is only read from the source when it is first needed.
+ * <p>
+ * Only the tag, type and count are known up front. The first call to any of the
+ * data related methods loads the value through a {@link Loader}, usually from the
+ * stream the IFD was read from, which therefore has to be kept open until then.
+ * The loaded field is kept and used for all further calls.
+ * <p>
+ * The data accessors can't throw an IOException, they throw an
+ * {@link UncheckedIOException} wrapping it if the value can't be read. The write
+ * methods throw the IOException itself.
+ */
+public final class LazyField extends TiffField<Object> {
+
+	/**
+	 * Reads and decodes the value of a LazyField
+	 */
+	public interface Loader {
+		public TiffField<?> load() throws IOException;
+	}
+
+	private Loader loader;
+	private TiffField<?> field;
+	private Object source;
+	private long sourceOffset = -1;
+
+	public LazyField(short tag, FieldType fieldType, int length, Loader loader) {
+		super(tag, fieldType, length);
+		this.loader = loader;
+	}
+
+	/**
+	 * @param source the stream or file the value is read from
+	 * @param sourceOffset offset of the value within the source
+	 */
+	public LazyField(short tag, FieldType fieldType, int length, Loader loader, Object source, long sourceOffset) {
+		this(tag, fieldType, length, loader);
+		this.source = source;
+		this.sourceOffset = sourceOffset;
+	}
+
+	/**
+	 * @throws UncheckedIOException if the value can't be read
+	 */
+	public Object getData() {
+		return load().getData();
+	}
+
+	/**
+	 * @throws UncheckedIOException if the value can't be read
+	 */
+	public int[] getDataAsLong() {
+		return load().getDataAsLong();
+	}
+
+	/**
+	 * @throws UncheckedIOException if the value can't be read
+	 */
+	public String getDataAsString() {
+		return load().getDataAsString();
+	}
+
+	/**
+	 * @return the stream or file the value is read from or null if unknown
+	 */
+	public Object getSource() {
+		return source;
+	}
+
+	/**
+	 * @return offset of the value within the source or -1 if unknown
+	 */
+	public long getSourceOffset() {
+		return sourceOffset;
+	}
+
+	/**
+	 * @throws UncheckedIOException if the value can't be read
+	 */
+	public long getValueAsLong(int index) {
+		return load().getValueAsLong(index);
+	}
+
+	public boolean isLoaded() {
+		return field != null;
+	}
+
+	private TiffField<?> load() {
+		if(field == null) {
+			try {
+				field = loader.load();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Failed to read value for field " + this, e);
+			}
+			loader = null;
+		}
+
+		return field;
+	}
+
+	protected long writeBigTiffData(RandomAccessOutputStream os, long toOffset) throws IOException {
+		return loadForWrite().writeBigTiffData(os, toOffset);
+	}
+
+	// Loads the value for the write methods, which report a failed read as the IOException itself
+	private TiffField<?> loadForWrite() throws IOException {
+		try {
+			return load();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	protected int writeData(RandomAccessOutputStream os, int toOffset) throws IOException {
+		TiffField<?> field = loadForWrite();
+		toOffset = field.writeData(os, toOffset);
+		dataOffset = field.dataOffset;
+
+		return toOffset;
+	}
+}
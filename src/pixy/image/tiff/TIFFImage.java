@@ -16,6 +16,7 @@
 package pixy.image.tiff;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
@@ -84,7 +85,7 @@ public class TIFFImage implements Iterable<IFD> {
 			throw new IllegalArgumentException("Invalid page number: " + workingPage);
 	}
 	
-	public void write(RandomAccessOutputStream out) throws IOException {
+	private void resetPageNumbers() {
 		// Reset pageNumber if we have more than 1 pages
 		if(numOfPages > 1) { 
 			for(int i = 0; i < ifds.size(); i++) {
@@ -92,6 +93,20 @@ public class TIFFImage implements Iterable<IFD> {
 				ifds.get(i).addField(new ShortField(TiffTag.PAGE_NUMBER.getValue(), new short[]{(short)i, (short)(numOfPages - 1)}));
 			}
 		}
+	}
+	
+	/**
+	 * Writes the image strictly sequentially, without caching the output
+	 * 
+	 * @param out OutputStream to write to, not closed afterwards
+	 */
+	public void write(OutputStream out) throws IOException {
+		resetPageNumbers();
+		TIFFMeta.write(this, out);
+	}
+	
+	public void write(RandomAccessOutputStream out) throws IOException {
+		resetPageNumbers();
 		TIFFMeta.write(this, out);
 	}
 
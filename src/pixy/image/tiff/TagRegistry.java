@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2014-2021 by Wen Yu
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the Eclipse
+ * Public License, v. 2.0 are satisfied: GNU General Public License, version 2
+ * or any later version.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0-or-later
+ */
+
+package pixy.image.tiff;
+
+/**
+ * Lookup table for the tags of one tag set such as TIFF, EXIF, GPS or Interoperability tags.
+ * <p>
+ * Tags are kept in a two level table indexed by the high and the low byte of the
+ * unsigned tag value, so a lookup is two array accesses without boxing the short
+ * value. Only the 256 entry pages which hold tags are allocated. Tag values which
+ * are not part of the tag set map to {@link TiffTag#UNKNOWN}.
+ */
+public final class TagRegistry {
+
+	private final Tag[][] pages = new Tag[256][];
+
+	/**
+	 * @param values all the tags of a tag set, usually the values() of a tag enum.
+	 * If two tags share the same value, the last one wins.
+	 */
+	public TagRegistry(Tag[] values) {
+		for(Tag tag : values) {
+			int value = tag.getValue()&0xffff;
+			Tag[] page = pages[value>>8];
+			if(page == null)
+				page = pages[value>>8] = new Tag[256];
+			page[value&0xff] = tag;
+		}
+	}
+
+	public Tag fromShort(short value) {
+		Tag[] page = pages[(value>>8)&0xff];
+		if(page == null)
+			return TiffTag.UNKNOWN;
+		Tag tag = page[value&0xff];
+		if(tag == null)
+			return TiffTag.UNKNOWN;
+		return tag;
+	}
+}
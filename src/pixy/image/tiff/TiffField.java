@@ -17,7 +17,11 @@ package pixy.image.tiff;
 
 import java.io.IOException;
 
+import pixy.io.IOUtils;
 import pixy.io.RandomAccessOutputStream;
+import pixy.io.WriteStrategy;
+import pixy.io.WriteStrategyII;
+import pixy.io.WriteStrategyMM;
 import pixy.string.StringUtils;
 
 /**
@@ -70,6 +74,19 @@ public abstract class TiffField<T> implements Comparable<TiffField<?>>{
 				+ " short, long, and rational data types");
 	}
 	
+	/**
+	 * Returns a single value without copying the field data. Values are signed
+	 * or unsigned according to the field type. Rational fields hold two values
+	 * per rational, the numerator followed by the denominator.
+	 * 
+	 * @param index index of the value
+	 * @return the value at index
+	 */
+	public long getValueAsLong(int index) {
+		throw new UnsupportedOperationException("getValueAsLong() method is only supported by"
+				+ " byte, short, long, and rational data types");
+	}
+	
 	/**
 	 * @return a String representation of the field data
 	 */
@@ -116,5 +133,59 @@ public abstract class TiffField<T> implements Comparable<TiffField<?>>{
 		return writeData(os, toOffset);
 	}
 	
+	/**
+	 * Writes the field in classic TIFF or BigTIFF layout. A BigTIFF entry has a
+	 * 64 bit count and keeps values of up to 8 bytes, longer values are written
+	 * to toOffset, kept on a word boundary and pointed to with a 64 bit offset.
+	 * 
+	 * @param os RandomAccessOutputStream positioned at the entry
+	 * @param toOffset the first available offset to write a value which doesn't fit into the entry
+	 * @param bigTiff true for BigTIFF layout, false for classic TIFF
+	 * @return the first available offset after the value
+	 * @throws IOException
+	 */
+	public final long write(RandomAccessOutputStream os, long toOffset, boolean bigTiff) throws IOException {
+		if(!bigTiff) {
+			if(toOffset > Integer.MAX_VALUE)
+				throw new IOException("Offset " + toOffset + " too large for classic TIFF");
+			return write(os, (int)toOffset);
+		}
+		FieldType fieldType = getType();
+		if(fieldType == FieldType.EXIF_MAKERNOTE) fieldType = FieldType.UNDEFINED;
+		os.writeShort(this.tag);
+		os.writeShort(fieldType.getValue());
+		os.writeLong(getLength());
+		toOffset = writeBigTiffData(os, toOffset);
+		// Keep values on a word boundary
+		if((toOffset&1) != 0) {
+			os.seek(toOffset);
+			os.write(0);
+			toOffset++;
+		}
+		
+		return toOffset;
+	}
+	
 	protected abstract int writeData(RandomAccessOutputStream os, int toOffset) throws IOException;
+	
+	/**
+	 * Writes the value or the 64 bit offset to it into a BigTIFF entry. The
+	 * data offset is left as it is, as it can't hold BigTIFF offsets.
+	 * 
+	 * @return the first available offset after the value
+	 */
+	protected long writeBigTiffData(RandomAccessOutputStream os, long toOffset) throws IOException {
+		WriteStrategy writeStrategy = (os.getEndian() == IOUtils.BIG_ENDIAN)?WriteStrategyMM.getInstance():WriteStrategyII.getInstance();
+		byte[] value = TiffLayout.encodeValue(this, writeStrategy);
+		if(value.length <= 8) { // Value fits into the entry
+			os.write(value);
+			os.write(new byte[8 - value.length]);
+			return toOffset;
+		}
+		os.writeLong(toOffset);
+		os.seek(toOffset);
+		os.write(value);
+		
+		return toOffset + value.length;
+	}
 }
@@ -0,0 +1,547 @@
+/*
+ * Copyright (c) 2014-2021 by Wen Yu
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the Eclipse
+ * Public License, v. 2.0 are satisfied: GNU General Public License, version 2
+ * or any later version.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0-or-later
+ */
+
+package pixy.image.tiff;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import pixy.io.IOUtils;
+import pixy.io.WriteStrategy;
+import pixy.io.WriteStrategyII;
+import pixy.io.WriteStrategyMM;
+
+/**
+ * Plans the layout of a TIFF structure so it can be written in a single pass.
+ * <p>
+ * IFD.write and the TIFFMeta writers back-patch sub-IFD pointers and next IFD
+ * offsets, which needs a RandomAccessOutputStream caching the whole output.
+ * TiffLayout works out the offset of every IFD, sub-IFD, out-of-line value and
+ * image data block before anything is written, so the structure can go straight
+ * to any OutputStream.
+ * <p>
+ * Top level IFDs are linked in the order they are added. Each one is followed by
+ * its values, its sub-IFDs and then its image data. In metadata-first layout, see
+ * {@link #setMetadataFirst(boolean)}, all the IFDs and values come first and the
+ * image data of all the IFDs follows. Offsets are relative to the start of the
+ * TIFF header, which is written first.
+ */
+public final class TiffLayout {
+
+	/**
+	 * Writes the image data blocks of an IFD, in order and without gaps
+	 */
+	public interface DataWriter {
+		public void write(OutputStream os) throws IOException;
+	}
+
+	// Image data of an IFD and the field to point to it
+	private static class Data {
+		private final Tag offsetsTag;
+		private final long[] lengths;
+		private final DataWriter writer;
+
+		private Data(Tag offsetsTag, long[] lengths, DataWriter writer) {
+			this.offsetsTag = offsetsTag;
+			this.lengths = lengths;
+			this.writer = writer;
+		}
+	}
+
+	// A piece of output at a planned offset, either bytes or image data
+	private static class Chunk {
+		private final long offset;
+		private final long length;
+		private byte[] bytes;
+		private DataWriter writer;
+
+		private Chunk(long offset, long length) {
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	// Planned position of an IFD
+	private static class Node {
+		private final IFD ifd;
+		private final List<TiffField<?>> fields;
+		private final Node[] children;
+		private final Chunk[] values;
+		private Chunk table;
+		private Node next;
+
+		private Node(IFD ifd) {
+			this.ifd = ifd;
+			this.fields = sortedFields(ifd);
+			this.children = new Node[fields.size()];
+			this.values = new Chunk[fields.size()];
+		}
+	}
+
+	private final short endian;
+	private final boolean bigTiff;
+	private final WriteStrategy writeStrategy;
+	private final List<IFD> ifds = new ArrayList<IFD>();
+	private final List<List<Data>> data = new ArrayList<List<Data>>();
+	private boolean metadataFirst;
+	// Result of planning
+	private List<Chunk> chunks;
+	private long firstIFDOffset;
+	private long metadataLength;
+	private long length;
+
+	/**
+	 * @param endian byte order, IOUtils.BIG_ENDIAN or IOUtils.LITTLE_ENDIAN
+	 * @param bigTiff true for BigTIFF layout, false for classic TIFF
+	 */
+	public TiffLayout(short endian, boolean bigTiff) {
+		if(endian != IOUtils.BIG_ENDIAN && endian != IOUtils.LITTLE_ENDIAN)
+			throw new IllegalArgumentException("Invalid byte order: " + endian);
+		this.endian = endian;
+		this.bigTiff = bigTiff;
+		this.writeStrategy = (endian == IOUtils.BIG_ENDIAN)?WriteStrategyMM.getInstance():WriteStrategyII.getInstance();
+	}
+
+	/**
+	 * Adds image data to be written after an IFD. Once planned, the field with
+	 * offsetsTag is replaced by one holding the offset of every block.
+	 *
+	 * @param ifd a top level IFD already added to the layout
+	 * @param offsetsTag tag of the field to hold the offsets, e.g. StripOffsets
+	 * @param lengths length of every block, the corresponding byte counts field is up to the caller
+	 * @param writer writes all the blocks in order, exactly as many bytes as the lengths add up to
+	 */
+	public void addData(IFD ifd, Tag offsetsTag, long[] lengths, DataWriter writer) {
+		ensureNotPlanned();
+		int index = indexOf(ifd);
+		if(index < 0)
+			throw new IllegalArgumentException("IFD is not part of the layout");
+		for(long len : lengths) {
+			if(len < 0)
+				throw new IllegalArgumentException("Negative data length: " + len);
+		}
+		data.get(index).add(new Data(offsetsTag, lengths.clone(), writer));
+	}
+
+	/**
+	 * Adds a top level IFD. It is linked to the one added before.
+	 */
+	public void addIFD(IFD ifd) {
+		ensureNotPlanned();
+		if(indexOf(ifd) >= 0)
+			throw new IllegalArgumentException("IFD is already part of the layout");
+		ifds.add(ifd);
+		data.add(new ArrayList<Data>());
+	}
+
+	/**
+	 * Encodes the value of a field in the given byte order
+	 * 
+	 * @throws IOException if the value of a {@link LazyField} can't be read
+	 */
+	public static byte[] encodeValue(TiffField<?> field, WriteStrategy writeStrategy) throws IOException {
+		Object data;
+		try {
+			data = field.getData();
+		} catch(UncheckedIOException e) { // Lazily read value
+			throw e.getCause();
+		}
+		byte[] buf;
+
+		switch(field.getType()) {
+			case BYTE:
+			case SBYTE:
+			case UNDEFINED:
+			case EXIF_MAKERNOTE:
+				return (byte[])data;
+			case ASCII:
+				return ((String)data).getBytes("UTF-8");
+			case SHORT:
+			case SSHORT:
+				short[] sdata = (short[])data;
+				buf = new byte[sdata.length*2];
+				for(int i = 0; i < sdata.length; i++)
+					writeStrategy.writeShort(buf, i*2, sdata[i]);
+				return buf;
+			case LONG:
+			case SLONG:
+			case IFD:
+			case RATIONAL:
+			case SRATIONAL:
+				int[] idata = (int[])data;
+				buf = new byte[idata.length*4];
+				for(int i = 0; i < idata.length; i++)
+					writeStrategy.writeInt(buf, i*4, idata[i]);
+				return buf;
+			case FLOAT:
+				float[] fdata = (float[])data;
+				buf = new byte[fdata.length*4];
+				for(int i = 0; i < fdata.length; i++)
+					writeStrategy.writeInt(buf, i*4, Float.floatToIntBits(fdata[i]));
+				return buf;
+			case DOUBLE:
+				double[] ddata = (double[])data;
+				buf = new byte[ddata.length*8];
+				for(int i = 0; i < ddata.length; i++)
+					writeStrategy.writeLong(buf, i*8, Double.doubleToLongBits(ddata[i]));
+				return buf;
+			case LONG8:
+			case SLONG8:
+			case IFD8:
+				long[] ldata = (long[])data;
+				buf = new byte[ldata.length*8];
+				for(int i = 0; i < ldata.length; i++)
+					writeStrategy.writeLong(buf, i*8, ldata[i]);
+				return buf;
+			default:
+				throw new IllegalArgumentException("Unsupported field type: " + field.getType());
+		}
+	}
+
+	/**
+	 * @return offset of the first IFD, planning the layout if not done yet
+	 */
+	public long getFirstIFDOffset() throws IOException {
+		plan();
+		return firstIFDOffset;
+	}
+
+	/**
+	 * @return total number of bytes the layout writes, planning it if not done yet
+	 */
+	public long getLength() throws IOException {
+		plan();
+		return length;
+	}
+
+	/**
+	 * @return number of bytes from the start of the header to the end of the last
+	 *         IFD or value, planning the layout if not done yet. In metadata-first
+	 *         layout this is where the image data starts.
+	 */
+	public long getMetadataLength() throws IOException {
+		plan();
+		return metadataLength;
+	}
+
+	public boolean isMetadataFirst() {
+		return metadataFirst;
+	}
+
+	/**
+	 * Selects metadata-first layout: the header, all the IFDs and all the out-of-line
+	 * values are kept together at the start, followed by the image data in the order
+	 * the IFDs and their data were added. A reader fetching by range then gets the
+	 * complete metadata of all the pages with one read of {@link #getMetadataLength()} bytes.
+	 */
+	public void setMetadataFirst(boolean metadataFirst) {
+		ensureNotPlanned();
+		this.metadataFirst = metadataFirst;
+	}
+
+	/**
+	 * Works out all the offsets and encodes the IFDs and values. The IFDs must
+	 * not be changed after this, apart from the offsets fields set by the layout.
+	 * Planning is done once, further calls have no effect.
+	 */
+	public void plan() throws IOException {
+		if(chunks != null) return;
+		if(ifds.isEmpty())
+			throw new IllegalStateException("No IFD to write");
+
+		List<Chunk> list = new ArrayList<Chunk>();
+		List<Node> nodes = new ArrayList<Node>();
+		long offset = bigTiff?16:8;
+
+		// Placeholders for the offsets fields so the size of each IFD is known
+		for(int i = 0; i < ifds.size(); i++) {
+			for(Data d : data.get(i))
+				ifds.get(i).addField(createOffsetsField(d.offsetsTag, new long[d.lengths.length]));
+		}
+
+		for(int i = 0; i < ifds.size(); i++) {
+			offset = align(offset);
+			Node node = new Node(ifds.get(i));
+			offset = planIFD(node, offset, list);
+			if(i == 0)
+				firstIFDOffset = node.table.offset;
+			else
+				nodes.get(i - 1).next = node;
+			nodes.add(node);
+			metadataLength = offset;
+			if(!metadataFirst)
+				offset = planData(i, offset, list);
+		}
+
+		if(metadataFirst) {
+			for(int i = 0; i < ifds.size(); i++)
+				offset = planData(i, offset, list);
+		}
+
+		if(!bigTiff && offset > 0xffffffffL)
+			throw new IOException("Classic TIFF can't grow beyond 4GB");
+
+		for(Node node : nodes)
+			encodeIFD(node);
+
+		this.length = offset;
+		this.chunks = list;
+	}
+
+	/**
+	 * Writes the header, the IFDs, values and image data in a single pass.
+	 * The output stream is neither flushed nor closed.
+	 *
+	 * @return number of bytes written
+	 */
+	public long write(OutputStream os) throws IOException {
+		plan();
+
+		byte[] header = new byte[bigTiff?16:8];
+		writeStrategy.writeShort(header, 0, endian);
+		if(bigTiff) {
+			writeStrategy.writeShort(header, 2, 0x2b);
+			writeStrategy.writeShort(header, 4, 8); // Offset byte size
+			writeStrategy.writeLong(header, 8, firstIFDOffset);
+		} else {
+			writeStrategy.writeShort(header, 2, 0x2a);
+			writeStrategy.writeInt(header, 4, (int)firstIFDOffset);
+		}
+		os.write(header);
+
+		long pos = header.length;
+
+		for(Chunk chunk : chunks) {
+			// Padding to keep IFDs and values on a word boundary
+			while(pos < chunk.offset) {
+				os.write(0);
+				pos++;
+			}
+			if(chunk.bytes != null) {
+				os.write(chunk.bytes);
+			} else {
+				CountingOutputStream out = new CountingOutputStream(os);
+				chunk.writer.write(out);
+				if(out.count != chunk.length)
+					throw new IOException("Image data length mismatch: expected " + chunk.length + " bytes, written " + out.count);
+			}
+			pos += chunk.length;
+		}
+
+		return pos;
+	}
+
+	private static long align(long offset) {
+		return (offset + 1)&~1L;
+	}
+
+	private TiffField<?> createOffsetsField(Tag tag, long[] offsets) {
+		if(bigTiff)
+			return new Long8Field(tag.getValue(), offsets);
+
+		int[] values = new int[offsets.length];
+		for(int i = 0; i < offsets.length; i++)
+			values[i] = (int)offsets[i];
+
+		return new LongField(tag.getValue(), values);
+	}
+
+	// Fills in the IFD entry table once all the offsets are known
+	private void encodeIFD(Node node) throws IOException {
+		List<TiffField<?>> fields = sortedFields(node.ifd);
+		if(fields.size() != node.fields.size())
+			throw new IllegalStateException("IFD changed after planning");
+
+		int entrySize = bigTiff?20:12;
+		int offsetSize = bigTiff?8:4;
+		byte[] table = new byte[(int)node.table.length];
+		int pos = 0;
+
+		if(bigTiff) {
+			writeStrategy.writeLong(table, pos, fields.size());
+			pos += 8;
+		} else {
+			writeStrategy.writeShort(table, pos, fields.size());
+			pos += 2;
+		}
+
+		for(int i = 0; i < fields.size(); i++) {
+			TiffField<?> field = fields.get(i);
+			if(field.getTag() != node.fields.get(i).getTag())
+				throw new IllegalStateException("IFD changed after planning");
+			writeStrategy.writeShort(table, pos, field.getTag());
+			if(node.children[i] != null) { // Sub IFD pointer
+				encodeChild(node.children[i]);
+				writeStrategy.writeShort(table, pos + 2, (bigTiff?FieldType.LONG8:FieldType.LONG).getValue());
+				writeOffset(table, pos + 4, 1);
+				writeOffset(table, pos + 4 + offsetSize, node.children[i].table.offset);
+			} else {
+				FieldType fieldType = field.getType();
+				if(fieldType == FieldType.EXIF_MAKERNOTE) fieldType = FieldType.UNDEFINED;
+				writeStrategy.writeShort(table, pos + 2, fieldType.getValue());
+				writeOffset(table, pos + 4, field.getLength());
+				Chunk value = node.values[i];
+				if(value == null) { // Value fits into the entry
+					byte[] bytes = encodeValue(field, writeStrategy);
+					System.arraycopy(bytes, 0, table, pos + 4 + offsetSize, bytes.length);
+				} else {
+					if(field != node.fields.get(i)) { // Replaced by the layout, encode the final value
+						value.bytes = encodeValue(field, writeStrategy);
+						if(value.bytes.length != value.length)
+							throw new IllegalStateException("Value size changed after planning");
+					}
+					writeOffset(table, pos + 4 + offsetSize, value.offset);
+				}
+			}
+			pos += entrySize;
+		}
+
+		writeOffset(table, pos, (node.next == null)?0:node.next.table.offset);
+		node.table.bytes = table;
+	}
+
+	private void encodeChild(Node child) throws IOException {
+		if(child.table.bytes == null)
+			encodeIFD(child);
+	}
+
+	private void ensureNotPlanned() {
+		if(chunks != null)
+			throw new IllegalStateException("Layout already planned");
+	}
+
+	private int indexOf(IFD ifd) {
+		for(int i = 0; i < ifds.size(); i++) {
+			if(ifds.get(i) == ifd) return i;
+		}
+		return -1;
+	}
+
+	/*
+	 * Plans an IFD followed by its out-of-line values and then its sub-IFDs.
+	 *
+	 * @return the first available offset after the IFD and the sub-IFDs
+	 */
+	private long planIFD(Node node, long offset, List<Chunk> list) throws IOException {
+		int offsetSize = bigTiff?8:4;
+		int numOfFields = node.fields.size();
+		long tableSize = bigTiff?(8 + 20L*numOfFields + 8):(2 + 12L*numOfFields + 4);
+
+		node.table = new Chunk(offset, tableSize);
+		list.add(node.table);
+		offset += tableSize;
+
+		for(int i = 0; i < numOfFields; i++) {
+			TiffField<?> field = node.fields.get(i);
+			if(findChild(node.ifd, field.getTag()) != null) continue;
+			byte[] value = encodeValue(field, writeStrategy);
+			if(value.length > offsetSize) {
+				offset = align(offset);
+				Chunk chunk = new Chunk(offset, value.length);
+				chunk.bytes = value;
+				list.add(chunk);
+				node.values[i] = chunk;
+				offset += value.length;
+			}
+		}
+
+		for(int i = 0; i < numOfFields; i++) {
+			IFD child = findChild(node.ifd, node.fields.get(i).getTag());
+			if(child == null) continue;
+			offset = align(offset);
+			node.children[i] = new Node(child);
+			offset = planIFD(node.children[i], offset, list);
+		}
+
+		return offset;
+	}
+
+	/*
+	 * Places the image data of the IFD at the given index and points the offsets fields to it.
+	 *
+	 * @return the first available offset after the data
+	 */
+	private long planData(int index, long offset, List<Chunk> list) {
+		IFD ifd = ifds.get(index);
+
+		for(Data d : data.get(index)) {
+			long[] offsets = new long[d.lengths.length];
+			long total = 0;
+			for(int j = 0; j < offsets.length; j++) {
+				offsets[j] = offset + total;
+				total += d.lengths[j];
+			}
+			Chunk chunk = new Chunk(offset, total);
+			chunk.writer = d.writer;
+			list.add(chunk);
+			offset += total;
+			ifd.addField(createOffsetsField(d.offsetsTag, offsets));
+		}
+
+		return offset;
+	}
+
+	private static IFD findChild(IFD ifd, short tag) {
+		for(Map.Entry<Tag, IFD> entry : ifd.getChildren().entrySet()) {
+			if(entry.getKey().getValue() == tag)
+				return entry.getValue();
+		}
+		return null;
+	}
+
+	private static List<TiffField<?>> sortedFields(IFD ifd) {
+		List<TiffField<?>> list = new ArrayList<TiffField<?>>(ifd.getFields());
+		// Make sure tiffFields are in incremental order.
+		Collections.sort(list);
+		return list;
+	}
+
+	// Writes a count or offset, 8 bytes for BigTIFF and 4 bytes for classic TIFF
+	private void writeOffset(byte[] buf, int pos, long value) throws IOException {
+		if(bigTiff)
+			writeStrategy.writeLong(buf, pos, value);
+		else
+			writeStrategy.writeInt(buf, pos, (int)value);
+	}
+
+	// Keeps track of the number of bytes written by a DataWriter
+	private static class CountingOutputStream extends FilterOutputStream {
+		private long count;
+
+		private CountingOutputStream(OutputStream os) {
+			super(os);
+		}
+
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+
+		public void close() throws IOException {
+			// Leave the underlying stream open
+		}
+	}
+}
@@ -17,8 +17,6 @@ package pixy.image.tiff;
 
 import java.io.UnsupportedEncodingException;
 import java.text.DecimalFormat;
-import java.util.HashMap;
-import java.util.Map;
 
 import pixy.string.StringUtils;
 
@@ -927,22 +925,16 @@ public enum TiffTag implements Tag {
 		}
 	} 
 	
-	private static final Map<Short, TiffTag> tagMap = new HashMap<Short, TiffTag>();
-	
-	static
-    {
-      for(TiffTag tiffTag : values()) {
-           tagMap.put(tiffTag.getValue(), tiffTag);
-      }
-    }	
+	private static final TagRegistry registry = new TagRegistry(values());
 	
 	public static Tag fromShort(short value) {
-       	TiffTag tiffTag = tagMap.get(value);
-    	if (tiffTag == null)
-    	   return UNKNOWN;
-       	return tiffTag;
+       	return registry.fromShort(value);
     }
 	
+	public static TagRegistry getRegistry() {
+		return registry;
+	}
+	
 	private final String name;
 	
 	private final short value;
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2014-2021 by Wen Yu
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the Eclipse
+ * Public License, v. 2.0 are satisfied: GNU General Public License, version 2
+ * or any later version.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0-or-later
+ */
+
+package pixy.io;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Random access input stream reading directly from a RandomAccessFile.
+ * <p>
+ * The file isn't cached, so seeking to the end of a large file is as cheap as
+ * seeking to the start. The stream keeps its own position, which allows it
+ * to share the file with a {@link FileRandomAccessOutputStream} for in-place
+ * updates. Closing the stream doesn't close the file.
+ * <p>
+ * Single bytes and small reads such as readShort or readInt are served from a
+ * small read-ahead buffer. Writes through a FileRandomAccessOutputStream created
+ * for this stream drop the bytes they change from the buffer, other changes to
+ * the file may not be seen until the stream has read past them.
+ */
+public class FileRandomAccessInputStream extends RandomAccessInputStream {
+
+	// Reads shorter than this go through the read-ahead buffer
+	private static final int BUFFER_SIZE = 512;
+
+	private RandomAccessFile file;
+	private long pointer;
+	private byte[] buf = new byte[BUFFER_SIZE];
+	// File position of buf[0] and number of valid bytes in buf
+	private long bufStart;
+	private int bufLength;
+
+	public FileRandomAccessInputStream(RandomAccessFile file) {
+		super(null);
+		this.file = file;
+	}
+
+	public void close() throws IOException {
+		shallowClose();
+	}
+
+	// Makes sure the buffer holds the byte at the stream pointer, returns false at the end of the file
+	private boolean fillBuffer() throws IOException {
+		if(pointer >= bufStart && pointer < bufStart + bufLength)
+			return true;
+
+		bufStart = pointer;
+		bufLength = 0;
+		file.seek(pointer);
+		int count = file.read(buf, 0, BUFFER_SIZE);
+		if(count <= 0)
+			return false;
+		bufLength = count;
+
+		return true;
+	}
+
+	public RandomAccessFile getFile() {
+		return file;
+	}
+
+	public long getStreamPointer() {
+		return pointer;
+	}
+
+	// Drops whatever the buffer holds of the bytes from start to end, called when they are written
+	void invalidate(long start, long end) {
+		if(start < bufStart + bufLength && end > bufStart)
+			bufLength = 0;
+	}
+
+	public int read() throws IOException {
+		ensureOpen();
+		if(!fillBuffer())
+			return -1;
+
+		return buf[(int)(pointer++ - bufStart)]&0xff;
+	}
+
+	public int read(byte[] bytes, int off, int len) throws IOException {
+		ensureOpen();
+		if(len == 0)
+			return 0;
+
+		int count;
+
+		if(len < BUFFER_SIZE) {
+			if(!fillBuffer())
+				return -1;
+			count = Math.min(len, (int)(bufStart + bufLength - pointer));
+			System.arraycopy(buf, (int)(pointer - bufStart), bytes, off, count);
+		} else {
+			file.seek(pointer);
+			count = file.read(bytes, off, len);
+		}
+
+		if(count > 0) pointer += count;
+
+		return count;
+	}
+
+	public void seek(long loc) throws IOException {
+		ensureOpen();
+		if (loc<0L)
+			throw new IOException("Negtive seek position.");
+
+		pointer = loc;
+	}
+
+	@Override
+	public void shallowClose() throws IOException {
+		if(closed) return;
+		file = null;
+		buf = null;
+		closed = true;
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2014-2021 by Wen Yu
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the Eclipse
+ * Public License, v. 2.0 are satisfied: GNU General Public License, version 2
+ * or any later version.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0-or-later
+ */
+
+package pixy.io;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Random access output stream writing directly to a RandomAccessFile.
+ * <p>
+ * Unlike the cached output streams, writes go straight to the file at the
+ * current stream position and the existing content of the file is kept, so
+ * writeToStream has nothing left to do. Closing the stream doesn't close the file.
+ */
+public class FileRandomAccessOutputStream extends RandomAccessOutputStream {
+
+	private RandomAccessFile file;
+	private long pointer;
+	private long length;
+	// Input stream reading the same file whose read-ahead has to be kept in line
+	private FileRandomAccessInputStream reader;
+
+	public FileRandomAccessOutputStream(RandomAccessFile file) throws IOException {
+		super(null);
+		this.file = file;
+		this.length = file.length();
+	}
+
+	/**
+	 * Creates a stream writing to the file of an input stream for an in-place
+	 * update. Bytes the input stream has read ahead are dropped when they are
+	 * written, so it reads back what has been written.
+	 * 
+	 * @param reader FileRandomAccessInputStream reading the file
+	 */
+	public FileRandomAccessOutputStream(FileRandomAccessInputStream reader) throws IOException {
+		this(reader.getFile());
+		this.reader = reader;
+	}
+
+	public void close() throws IOException {
+		shallowClose();
+	}
+
+	public void disposeBefore(long pos) throws IOException {
+		// Nothing is cached
+	}
+
+	public RandomAccessFile getFile() {
+		return file;
+	}
+
+	public long getFlushPos() {
+		return length;
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	public long getStreamPointer() {
+		return pointer;
+	}
+
+	public void reset() {
+		pointer = 0L;
+	}
+
+	public void seek(long pos) throws IOException {
+		ensureOpen();
+		if (pos<0L)
+			throw new IOException("Negtive seek position.");
+
+		pointer = pos;
+	}
+
+	@Override
+	public void shallowClose() throws IOException {
+		if(closed) return;
+		file = null;
+		reader = null;
+		closed = true;
+	}
+
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+		file.seek(pointer);
+		file.write(b, off, len);
+		if(reader != null) reader.invalidate(pointer, pointer + len);
+		pointer += len;
+		if(pointer > length) length = pointer;
+	}
+
+	public void write(int value) throws IOException {
+		ensureOpen();
+		file.seek(pointer);
+		file.write(value);
+		if(reader != null) reader.invalidate(pointer, pointer + 1);
+		pointer++;
+		if(pointer > length) length = pointer;
+	}
+
+	public void writeToStream(long len) throws IOException {
+		// Data has already been written to the file
+	}
+}
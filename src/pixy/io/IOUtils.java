@@ -40,6 +40,22 @@ public class IOUtils {
 		os.close();
 	}
 	 
+	/**
+	 * Copies exactly len bytes from the InputStream to the OutputStream
+	 * through the caller supplied buffer.
+	 * 
+	 * @throws EOFException if the InputStream ends before len bytes are copied
+	 */
+	public static void copyFully(InputStream is, OutputStream os, long len, byte[] buf) throws IOException {
+		while (len > 0) {
+			int count = is.read(buf, 0, (int)Math.min(len, buf.length));
+			if (count < 0)
+				throw new EOFException();
+			os.write(buf, 0, count);
+			len -= count;
+		}
+	}
+	
 	public static byte[] inputStreamToByteArray(InputStream is) throws IOException {
 		 
 		ByteArrayOutputStream bout = new ByteArrayOutputStream(4096);
@@ -271,7 +287,34 @@ public class IOUtils {
 	}
 	
 	public static void skipFully(InputStream is, int n) throws IOException {
-		readFully(is, new byte[n]);
+		skipFully(is, (long)n);
+	}
+	
+	/**
+	 * Skips exactly n bytes. Streams which can skip without reading, like a
+	 * FileInputStream, are left to do so, otherwise the bytes are read and
+	 * discarded through a bounded buffer. The last byte is always read, as
+	 * skip() of some streams goes past the end without telling.
+	 * 
+	 * @throws EOFException if the InputStream ends before n bytes are skipped
+	 */
+	public static void skipFully(InputStream is, long n) throws IOException {
+		if (n <= 0) return;
+		byte[] buf = null;
+		long toSkip = n - 1;
+		while (toSkip > 0) {
+			long count = is.skip(toSkip);
+			if (count <= 0) {
+				if (buf == null)
+					buf = new byte[(int)Math.min(toSkip, 8192)];
+				count = is.read(buf, 0, (int)Math.min(toSkip, buf.length));
+				if (count < 0)
+					throw new EOFException();
+			}
+			toSkip -= count;
+		}
+		if (is.read() < 0)
+			throw new EOFException();
 	}	
 	 
 	public static void write(OutputStream os, byte[] bytes) throws IOException {
@@ -116,4 +116,15 @@ public class PeekHeadInputStream extends InputStream {
 			return len;
 		}
 	}
+	
+	@Override
+	public long skip(long n) throws IOException {
+		ensureOpen();
+		if (n <= 0) return 0;
+		if (position >= buffer.length)
+			return src.skip(n); // Let the source seek if it can
+		int skipped = (int)Math.min(n, buffer.length - position);
+		position += skipped;
+		return skipped;
+	}
 }
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2014-2021 by Wen Yu
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the Eclipse
+ * Public License, v. 2.0 are satisfied: GNU General Public License, version 2
+ * or any later version.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0-or-later
+ */
+
+package pixy.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * View of a RandomAccessInputStream with its own stream position.
+ * <p>
+ * Several views of the same source can be read from different threads. Each
+ * read is a positional read on the source: for a {@link FileRandomAccessInputStream}
+ * it goes straight to the file channel, otherwise seek and read are done while
+ * holding the lock of the source. Closing a view doesn't close the source.
+ * <p>
+ * Single bytes and small reads such as readShort or readInt are served from a
+ * small read-ahead buffer of the view, so the source must not be written while
+ * views of it are in use.
+ */
+public class SharedRandomAccessInputStream extends RandomAccessInputStream {
+
+	// Reads shorter than this go through the read-ahead buffer
+	private static final int BUFFER_SIZE = 512;
+
+	private RandomAccessInputStream source;
+	private FileChannel channel;
+	private long pointer;
+	private byte[] buf = new byte[BUFFER_SIZE];
+	private ByteBuffer byteBuffer = ByteBuffer.wrap(buf);
+	// Source position of buf[0] and number of valid bytes in buf
+	private long bufStart;
+	private int bufLength;
+
+	public SharedRandomAccessInputStream(RandomAccessInputStream source) {
+		super(null);
+		this.source = source;
+		if(source instanceof FileRandomAccessInputStream)
+			channel = ((FileRandomAccessInputStream)source).getFile().getChannel();
+		setReadStrategy(source.getEndian() == IOUtils.BIG_ENDIAN?ReadStrategyMM.getInstance():ReadStrategyII.getInstance());
+	}
+
+	public void close() throws IOException {
+		shallowClose();
+	}
+
+	public long getStreamPointer() {
+		return pointer;
+	}
+
+	// Makes sure the buffer holds the byte at the stream pointer, returns false at the end of the source
+	private boolean fillBuffer() throws IOException {
+		if(pointer >= bufStart && pointer < bufStart + bufLength)
+			return true;
+
+		bufStart = pointer;
+		bufLength = 0;
+		int count = read(byteBuffer, buf, 0, BUFFER_SIZE);
+		if(count <= 0)
+			return false;
+		bufLength = count;
+
+		return true;
+	}
+
+	public int read() throws IOException {
+		ensureOpen();
+		if(!fillBuffer())
+			return -1;
+
+		return buf[(int)(pointer++ - bufStart)]&0xff;
+	}
+
+	public int read(byte[] bytes, int off, int len) throws IOException {
+		ensureOpen();
+		if(len == 0)
+			return 0;
+
+		int count;
+
+		if(len < BUFFER_SIZE) {
+			if(!fillBuffer())
+				return -1;
+			count = Math.min(len, (int)(bufStart + bufLength - pointer));
+			System.arraycopy(buf, (int)(pointer - bufStart), bytes, off, count);
+		} else {
+			count = read(null, bytes, off, len);
+		}
+
+		if(count > 0) pointer += count;
+
+		return count;
+	}
+
+	// Positional read at the stream pointer without moving it
+	private int read(ByteBuffer byteBuffer, byte[] bytes, int off, int len) throws IOException {
+		if(channel != null) {
+			if(byteBuffer == null)
+				byteBuffer = ByteBuffer.wrap(bytes, off, len);
+			else
+				byteBuffer.clear();
+			return channel.read(byteBuffer, pointer);
+		}
+
+		synchronized(source) {
+			source.seek(pointer);
+			return source.read(bytes, off, len);
+		}
+	}
+
+	public void seek(long loc) throws IOException {
+		ensureOpen();
+		if (loc<0L)
+			throw new IOException("Negtive seek position.");
+
+		pointer = loc;
+	}
+
+	@Override
+	public void shallowClose() throws IOException {
+		if(closed) return;
+		source = null;
+		channel = null;
+		buf = null;
+		byteBuffer = null;
+		closed = true;
+	}
+}
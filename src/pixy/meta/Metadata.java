@@ -27,6 +27,7 @@
 
 package pixy.meta;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -59,6 +60,7 @@ import pixy.meta.xmp.XMP;
 import pixy.image.ImageType;
 import pixy.io.FileCacheRandomAccessInputStream;
 import pixy.io.FileCacheRandomAccessOutputStream;
+import pixy.io.MemoryCacheRandomAccessInputStream;
 import pixy.io.PeekHeadInputStream;
 import pixy.io.RandomAccessInputStream;
 import pixy.io.RandomAccessOutputStream;
@@ -115,6 +117,41 @@ public abstract class Metadata implements MetadataReader, Iterable<MetadataEntry
 		peekHeadInputStream.shallowClose();
 	}
 	
+	/**
+	 * Extracts embedded thumbnails as stand-alone images without touching the file system.
+	 * For JPEG, reading stops at the first SOS.
+	 * 
+	 * @param is InputStream for the image
+	 * @return a map of thumbnail image data keyed by thumbnail source, empty if there is no thumbnail
+	 * @throws IOException
+	 */
+	public static Map<String, byte[]> extractThumbnails(InputStream is) throws IOException {
+		// ImageIO.IMAGE_MAGIC_NUMBER_LEN bytes as image magic number
+		PeekHeadInputStream peekHeadInputStream = new PeekHeadInputStream(is, IMAGE_MAGIC_NUMBER_LEN);
+		ImageType imageType = MetadataUtils.guessImageType(peekHeadInputStream);
+		Map<String, byte[]> thumbnails = new HashMap<String, byte[]>();
+		// Delegate thumbnail extracting to corresponding image tweaker.
+		switch(imageType) {
+			case JPG:
+				thumbnails = JPGMeta.extractThumbnails(peekHeadInputStream);
+				break;
+			case TIFF:
+				RandomAccessInputStream randIS = new MemoryCacheRandomAccessInputStream(peekHeadInputStream);
+				Thumbnail thumbnail = TIFFMeta.extractThumbnail(randIS);
+				randIS.shallowClose();
+				if(thumbnail != null) {
+					ByteArrayOutputStream bout = new ByteArrayOutputStream();
+					thumbnail.writeImage(bout);
+					thumbnails.put("PHOTOSHOP_IRB", bout.toByteArray());
+				}
+				break;
+			default:
+				LOGGER.info("Thumbnail extracting is not supported for {} image", imageType);
+		}
+		
+		return thumbnails;
+	}
+	
 	public static void extractThumbnails(String image, String pathToThumbnail) throws IOException {
 		extractThumbnails(new File(image), pathToThumbnail);
 	}
@@ -29,6 +29,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 
 import android.graphics.*;
+import pixy.util.ArrayUtils;
 
 public abstract class Thumbnail {
 	// Internal data type for thumbnail represented by a Bitmap
@@ -40,6 +41,10 @@ public abstract class Thumbnail {
 	
 	protected Bitmap thumbnail;
 	protected byte[] compressedThumbnail;
+	// Compressed image still in the array it was read from, copied out by getCompressedImage()
+	protected byte[] source;
+	protected int sourceOffset;
+	protected int sourceLength;
 	
 	protected int writeQuality = 100; // Default JPEG write quality
 	
@@ -60,13 +65,35 @@ public abstract class Thumbnail {
 	}
 	
 	public boolean containsImage() {
-		return thumbnail != null || compressedThumbnail != null;
+		return thumbnail != null || compressedThumbnail != null || source != null;
 	}
 	
 	public byte[] getCompressedImage() {
+		if(compressedThumbnail == null && source != null) {
+			compressedThumbnail = loadCompressedImage();
+			source = null;
+		}
+		
 		return compressedThumbnail;
 	}
 	
+	/**
+	 * Returns the length of the compressed image without extracting it if it is
+	 * still in the array it was read from. For such a thumbnail this is the length
+	 * of the source range, subclasses which convert the range have to convert it
+	 * to tell the length.
+	 * 
+	 * @return length of the compressed image or -1 if there is none
+	 */
+	public int getCompressedImageLength() {
+		if(compressedThumbnail != null)
+			return compressedThumbnail.length;
+		if(source != null)
+			return sourceLength;
+		
+		return -1;
+	}
+	
 	public int getDataType() {
 		return dataType;
 	}
@@ -92,6 +119,17 @@ public abstract class Thumbnail {
 		return thumbnail;
 	}
 	
+	/**
+	 * Turns the source range set by {@link #setImage(int, int, int, byte[], int, int)}
+	 * into the compressed image. The range is copied as is, subclasses override this
+	 * if it has to be converted first.
+	 * 
+	 * @return the compressed image
+	 */
+	protected byte[] loadCompressedImage() {
+		return ArrayUtils.subArray(source, sourceOffset, sourceLength);
+	}
+	
 	public int getWidth() {
 		return width;
 	}
@@ -101,6 +139,7 @@ public abstract class Thumbnail {
 		this.height = thumbnail.getHeight();
 		this.thumbnail = thumbnail;
 		this.dataType = DATA_TYPE_KRawRGB;
+		this.source = null;
 	}
 	
 	public void setImage(int width, int height, int dataType, byte[] compressedThumbnail) {
@@ -110,6 +149,34 @@ public abstract class Thumbnail {
 		if(dataType == DATA_TYPE_KJpegRGB || dataType == DATA_TYPE_TIFF) {
 			this.compressedThumbnail = compressedThumbnail;
 			this.dataType = dataType;
+			this.source = null;
+		}
+	}
+	
+	/**
+	 * Sets a compressed image which stays in the array it was read from until
+	 * it is first needed by {@link #getCompressedImage()} or one of the write
+	 * methods. The source array must not be changed afterwards.
+	 * 
+	 * @param width thumbnail width
+	 * @param height thumbnail height
+	 * @param dataType DATA_TYPE_KJpegRGB or DATA_TYPE_TIFF
+	 * @param source array holding the compressed image
+	 * @param offset start of the image in the source
+	 * @param length length of the image
+	 */
+	public void setImage(int width, int height, int dataType, byte[] source, int offset, int length) {
+		if(offset < 0 || length < 0 || offset + length > source.length)
+			throw new IllegalArgumentException("Thumbnail range " + offset + " + " + length + " out of bounds: 0 - " + source.length);
+		this.width = width;
+		this.height = height;
+		
+		if(dataType == DATA_TYPE_KJpegRGB || dataType == DATA_TYPE_TIFF) {
+			this.compressedThumbnail = null;
+			this.source = source;
+			this.sourceOffset = offset;
+			this.sourceLength = length;
+			this.dataType = dataType;
 		}
 	}
 	
@@ -118,4 +185,29 @@ public abstract class Thumbnail {
 	}
 	
 	public abstract void write(OutputStream os) throws IOException;
+	
+	/**
+	 * Writes the thumbnail image as a stand-alone image file. Compressed JPEG
+	 * and TIFF data are written as is, raw images are compressed as JPEG.
+	 * <p>
+	 * Unlike {@link #write(OutputStream)}, nothing specific to the container
+	 * of the thumbnail is written.
+	 * 
+	 * @param os OutputStream to write the image to
+	 * @throws IOException
+	 */
+	public void writeImage(OutputStream os) throws IOException {
+		if(dataType == DATA_TYPE_KJpegRGB || dataType == DATA_TYPE_TIFF) {
+			byte[] compressedThumbnail = getCompressedImage();
+			if(compressedThumbnail == null) throw new IllegalArgumentException("Expected compressed thumbnail data does not exist!");
+			os.write(compressedThumbnail);
+		} else {
+			if(thumbnail == null) throw new IllegalArgumentException("Expected raw data thumbnail does not exist!");
+			try {
+				thumbnail.compress(Bitmap.CompressFormat.JPEG, writeQuality, os);
+			} catch (Exception e) {
+				throw new IOException("Writing thumbnail failed!");
+			}
+		}
+	}
 }
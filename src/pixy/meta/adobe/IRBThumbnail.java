@@ -55,6 +55,9 @@ public class IRBThumbnail extends Thumbnail {
 		this.width = other.width;
 		this.thumbnail = other.thumbnail;
 		this.compressedThumbnail = other.compressedThumbnail;
+		this.source = other.source;
+		this.sourceOffset = other.sourceOffset;
+		this.sourceLength = other.sourceLength;
 	}
 
 	@Override
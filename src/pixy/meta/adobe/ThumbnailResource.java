@@ -203,12 +203,10 @@ public class ThumbnailResource extends _8BIM {
 		this.compressedSize = IOUtils.readIntMM(data, 20);
 		this.bitsPerPixel = IOUtils.readShortMM(data, 24); // Bits per pixel. = 24
 		this.numOfPlanes = IOUtils.readShortMM(data, 26); // Number of planes. = 1
-		byte[] thumbnailData = null;
-		if(dataType == Thumbnail.DATA_TYPE_KJpegRGB)
-			thumbnailData = ArrayUtils.subArray(data, 28, compressedSize);
-		else if(dataType == Thumbnail.DATA_TYPE_KRawRGB)
-			thumbnailData = ArrayUtils.subArray(data, 28, totalSize);
-		setThumbnailImage(id, dataType, width, height, totalSize, thumbnailData);
+		if(dataType == Thumbnail.DATA_TYPE_KJpegRGB) // Left in the resource data until needed
+			thumbnail.setImage(width, height, dataType, data, 28, compressedSize);
+		else
+			setThumbnailImage(id, dataType, width, height, totalSize, (dataType == Thumbnail.DATA_TYPE_KRawRGB)?ArrayUtils.subArray(data, 28, totalSize):null);
 	}
 		
 	public void write(OutputStream os) throws IOException {
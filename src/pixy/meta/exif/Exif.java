@@ -26,7 +26,6 @@
 package pixy.meta.exif;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -52,13 +51,18 @@ import pixy.string.StringUtils;
 import pixy.image.tiff.FieldType;
 import pixy.image.tiff.IFD;
 import pixy.image.tiff.Tag;
+import pixy.image.tiff.TagRegistry;
 import pixy.image.tiff.TiffField;
+import pixy.image.tiff.TiffLayout;
 import pixy.image.tiff.TiffTag;
-import pixy.io.FileCacheRandomAccessInputStream;
-import pixy.io.FileCacheRandomAccessOutputStream;
 import pixy.io.IOUtils;
+import pixy.io.MemoryCacheRandomAccessInputStream;
 import pixy.io.RandomAccessInputStream;
-import pixy.io.RandomAccessOutputStream;
+import pixy.io.ReadStrategy;
+import pixy.io.ReadStrategyII;
+import pixy.io.ReadStrategyMM;
+import pixy.io.WriteStrategyII;
+import pixy.io.WriteStrategyMM;
 
 /**
  * EXIF wrapper
@@ -76,6 +80,16 @@ public abstract class Exif extends Metadata {
 	
 	private boolean containsThumbnail;
 	private boolean isThumbnailRequired;
+	// True once anything has been changed other than through patch(), so data can't be written as is
+	private boolean isModified;
+	// True once data has been copied to be patched, so the array passed in is never changed
+	private boolean isDataCopied;
+	
+	// Offsets of the directories in data not decoded yet, 0 if there is none left to decode
+	private long exifIFDOffset;
+	private long gpsIFDOffset;
+	private long interopIFDOffset;
+	private long thumbnailIFDOffset;
 	
 	public static final int FIRST_IFD_OFFSET = 0x08;
 	
@@ -102,9 +116,11 @@ public abstract class Exif extends Metadata {
 	}
 	
 	public void addExifField(ExifTag tag, FieldType type, Object data) {
+		ensureExifIFDRead();
 		if(exifSubIFD == null)
 			exifSubIFD = new IFD();
 		TiffField<?> field = FieldType.createField(tag, type, data);
+		isModified = true;
 		if(field != null)
 			exifSubIFD.addField(field);
 		else
@@ -112,9 +128,11 @@ public abstract class Exif extends Metadata {
 	}
 	
 	public void addGPSField(GPSTag tag, FieldType type, Object data) {
+		ensureGPSIFDRead();
 		if(gpsSubIFD == null)
 			gpsSubIFD = new IFD();
 		TiffField<?> field = FieldType.createField(tag, type, data);
+		isModified = true;
 		if(field != null)
 			gpsSubIFD.addField(field);
 		else
@@ -122,9 +140,11 @@ public abstract class Exif extends Metadata {
 	}
 	
 	public void addInteropField(InteropTag tag, FieldType type, Object data) {
+		ensureInteropIFDRead();
 		if(interopSubIFD == null)
 			interopSubIFD = new IFD();
 		TiffField<?> field = FieldType.createField(tag, type, data);
+		isModified = true;
 		if(field != null)
 			interopSubIFD.addField(field);
 		else
@@ -132,9 +152,11 @@ public abstract class Exif extends Metadata {
 	}
 	
 	public void addImageField(TiffTag tag, FieldType type, Object data) {
+		ensureDataRead();
 		if(imageIFD == null)
 			imageIFD = new IFD();
 		TiffField<?> field = FieldType.createField(tag, type, data);
+		isModified = true;
 		if(field != null)
 			imageIFD.addField(field);
 		else
@@ -142,6 +164,7 @@ public abstract class Exif extends Metadata {
 	}
 	
 	public boolean containsThumbnail() {
+		ensureThumbnailRead();
 		if(containsThumbnail)
 			return true;
 		if(thumbnail != null)
@@ -149,7 +172,205 @@ public abstract class Exif extends Metadata {
 		return false;
 	}
 	
+	/**
+	 * Decodes the directories which haven't been accessed yet. Subclasses call this
+	 * before they work on the IFD fields directly.
+	 */
+	protected void ensureDirectoriesRead() {
+		ensureDataRead();
+		ensureExifIFDRead();
+		ensureGPSIFDRead();
+		ensureInteropIFDRead();
+		ensureThumbnailRead();
+	}
+	
+	private void ensureExifIFDRead() {
+		ensureDataRead();
+		if(exifIFDOffset == 0) return;
+		long offset = exifIFDOffset;
+		exifIFDOffset = 0;
+		exifSubIFD = readSubIFD(imageIFD, TiffTag.EXIF_SUB_IFD, offset, ExifTag.getRegistry());
+		if(exifSubIFD != null)
+			interopIFDOffset = getSubIFDOffset(exifSubIFD, ExifTag.EXIF_INTEROPERABILITY_OFFSET);
+	}
+	
+	private void ensureGPSIFDRead() {
+		ensureDataRead();
+		if(gpsIFDOffset == 0) return;
+		long offset = gpsIFDOffset;
+		gpsIFDOffset = 0;
+		gpsSubIFD = readSubIFD(imageIFD, TiffTag.GPS_SUB_IFD, offset, GPSTag.getRegistry());
+	}
+	
+	private void ensureInteropIFDRead() {
+		ensureExifIFDRead();
+		if(interopIFDOffset == 0) return;
+		long offset = interopIFDOffset;
+		interopIFDOffset = 0;
+		interopSubIFD = readSubIFD(exifSubIFD, ExifTag.EXIF_INTEROPERABILITY_OFFSET, offset, InteropTag.getRegistry());
+	}
+	
+	private void ensureThumbnailRead() {
+		ensureDataRead();
+		if(thumbnailIFDOffset == 0) return;
+		long offset = thumbnailIFDOffset;
+		thumbnailIFDOffset = 0;
+		try {
+			readThumbnail(offset);
+		} catch(Exception e) {
+			LOGGER.error("Failed to read EXIF thumbnail", e);
+		}
+	}
+	
+	/**
+	 * @return the capture date and time as "YYYY:MM:DD HH:MM:SS" or null if not present
+	 */
+	public String getDateTimeOriginal() {
+		return getString(ExifTag.DATE_TIME_ORIGINAL);
+	}
+	
+	/**
+	 * @return exposure time in seconds as {numerator, denominator} or null if not present
+	 */
+	public long[] getExposureTime() {
+		return getRational(ExifTag.EXPOSURE_TIME);
+	}
+	
+	/**
+	 * Looks up a field in the directory its tag belongs to: ExifTag in the EXIF IFD,
+	 * GPSTag in the GPS IFD, InteropTag in the Interop IFD and any other tag in IFD0.
+	 * Only that directory is decoded if it hasn't been yet.
+	 * 
+	 * @param tag Tag of the field
+	 * @return the field or null if there is no such field
+	 */
+	public TiffField<?> getField(Tag tag) {
+		IFD ifd;
+		if(tag instanceof ExifTag) {
+			ensureExifIFDRead();
+			ifd = exifSubIFD;
+		} else if(tag instanceof GPSTag) {
+			ensureGPSIFDRead();
+			ifd = gpsSubIFD;
+		} else if(tag instanceof InteropTag) {
+			ensureInteropIFDRead();
+			ifd = interopSubIFD;
+		} else {
+			ensureDataRead();
+			ifd = imageIFD;
+		}
+		
+		return (ifd == null)?null:ifd.getField(tag);
+	}
+	
+	/**
+	 * Reads the GPS position, converting degrees, minutes and seconds to decimal
+	 * degrees. South latitudes and west longitudes are negative.
+	 * 
+	 * @return {latitude, longitude} or null if either of them is not present
+	 */
+	public double[] getGpsLatLon() {
+		TiffField<?> latitude = getField(GPSTag.GPS_LATITUDE);
+		TiffField<?> longitude = getField(GPSTag.GPS_LONGITUDE);
+		if(!isRational(latitude) || !isRational(longitude))
+			return null;
+		
+		double lat = toDegrees(latitude);
+		double lon = toDegrees(longitude);
+		String ref = getString(GPSTag.GPS_LATITUDE_REF);
+		if(ref != null && ref.startsWith("S")) lat = -lat;
+		ref = getString(GPSTag.GPS_LONGITUDE_REF);
+		if(ref != null && ref.startsWith("W")) lon = -lon;
+		
+		return new double[] {lat, lon};
+	}
+	
+	/**
+	 * @param tag Tag of the field, see {@link #getField(Tag)}
+	 * @return the first value of a byte, short or long field or 0 if not present
+	 * @throws UnsupportedOperationException if the field has a different type
+	 */
+	public int getInt(Tag tag) {
+		return getInt(tag, 0);
+	}
+	
+	/**
+	 * @param tag Tag of the field, see {@link #getField(Tag)}
+	 * @param defaultValue value to return if the field is not present
+	 * @return the first value of a byte, short or long field
+	 * @throws UnsupportedOperationException if the field has a different type
+	 */
+	public int getInt(Tag tag, int defaultValue) {
+		TiffField<?> field = getField(tag);
+		if(field == null || field.getLength() == 0)
+			return defaultValue;
+		if(isRational(field))
+			throw new UnsupportedOperationException("Rational field " + tag + ", use getRational() instead");
+		
+		return (int)field.getValueAsLong(0);
+	}
+	
+	/**
+	 * @return orientation of the image, 1 to 8, or 1 (no rotation) if not present
+	 */
+	public int getOrientation() {
+		return getInt(TiffTag.ORIENTATION, 1);
+	}
+	
+	/**
+	 * @param tag Tag of the field, see {@link #getField(Tag)}
+	 * @return the first value of a rational field as {numerator, denominator} or null if not present
+	 * @throws UnsupportedOperationException if the field has a different type
+	 */
+	public long[] getRational(Tag tag) {
+		TiffField<?> field = getField(tag);
+		if(field == null || field.getLength() == 0)
+			return null;
+		if(!isRational(field))
+			throw new UnsupportedOperationException("Field " + tag + " is not a rational field");
+		
+		return new long[] {field.getValueAsLong(0), field.getValueAsLong(1)};
+	}
+	
+	/**
+	 * @param tag Tag of the field, see {@link #getField(Tag)}
+	 * @return the first string of an ASCII field or null if not present
+	 * @throws UnsupportedOperationException if the field has a different type
+	 */
+	public String getString(Tag tag) {
+		TiffField<?> field = getField(tag);
+		if(field == null)
+			return null;
+		if(field.getType() != FieldType.ASCII)
+			throw new UnsupportedOperationException("Field " + tag + " is not an ASCII field");
+		
+		String value = (String)field.getData();
+		int end = value.indexOf('\0');
+		
+		return ((end < 0)?value:value.substring(0, end)).trim();
+	}
+	
+	private static boolean isRational(TiffField<?> field) {
+		return field != null && field.getLength() > 0 &&
+				(field.getType() == FieldType.RATIONAL || field.getType() == FieldType.SRATIONAL);
+	}
+	
+	// Converts up to three rationals for degrees, minutes and seconds to decimal degrees
+	private static double toDegrees(TiffField<?> field) {
+		double degrees = 0;
+		double unit = 1;
+		
+		for(int i = 0; i < Math.min(field.getLength(), 3); i++, unit *= 60) {
+			long denominator = field.getValueAsLong(2*i + 1);
+			if(denominator != 0)
+				degrees += (double)field.getValueAsLong(2*i)/denominator/unit;
+		}
+		
+		return degrees;
+	}
+	
 	public IFD getExifIFD() {
+		ensureExifIFDRead();
 		if(exifSubIFD != null) {
 			return new IFD(exifSubIFD);
 		}
@@ -158,6 +379,7 @@ public abstract class Exif extends Metadata {
 	}
 	
 	public IFD getGPSIFD() {
+		ensureGPSIFDRead();
 		if(gpsSubIFD != null) {
 			return new IFD(gpsSubIFD);
 		} 
@@ -166,6 +388,7 @@ public abstract class Exif extends Metadata {
 	}
 	
 	public IFD getInteropIFD() {
+		ensureInteropIFDRead();
 		if(interopSubIFD != null) {
 			return new IFD(interopSubIFD);
 		} 
@@ -173,7 +396,13 @@ public abstract class Exif extends Metadata {
 		return null;
 	}
 	
+	/**
+	 * Only IFD0 itself is decoded for this. Sub-IFDs are decoded when first
+	 * accessed through their own getters, so they may not be among the
+	 * children of the returned IFD yet.
+	 */
 	public IFD getImageIFD() {
+		ensureDataRead();
 		if(imageIFD != null) {
 			return new IFD(imageIFD);
 		}
@@ -257,13 +486,33 @@ public abstract class Exif extends Metadata {
 		}		
 	}
 
+	// Returns the offset a sub-IFD pointer field points to or 0 if there is no such field
+	private static long getSubIFDOffset(IFD ifd, Tag tag) {
+		TiffField<?> field = ifd.getField(tag);
+		if(field == null || field.getLength() == 0) return 0;
+		FieldType type = field.getType();
+		if(type != FieldType.LONG && type != FieldType.SLONG && type != FieldType.IFD) return 0;
+		
+		return field.getDataAsLong()[0]&0xffffffffL;
+	}
+
 	public ExifThumbnail getThumbnail() {
+		ensureThumbnailRead();
 		if(thumbnail != null)
 			return new ExifThumbnail(thumbnail);
 	
 		return null;
 	}
 	
+	/**
+	 * @return true if the directories or the thumbnail have been changed since the
+	 *         EXIF data was read. Changes made by {@link #patch(Tag, Object)} don't count
+	 *         as they are applied to the data itself.
+	 */
+	protected boolean isModified() {
+		return isModified;
+	}
+	
 	public boolean isThumbnailRequired() {
 		return isThumbnailRequired;
 	}
@@ -273,94 +522,234 @@ public abstract class Exif extends Metadata {
 	}
 	
 	public Iterator<MetadataEntry> iterator() {
-		ensureDataRead();
+		ensureDirectoriesRead();
 		List<MetadataEntry> items = new ArrayList<MetadataEntry>();
 		if(imageIFD != null)
 			getMetadataEntries(imageIFD, TiffTag.class, items);
 		if(containsThumbnail) {
 			MetadataEntry thumbnailEntry = new MetadataEntry("IFD1", "Thumbnail Image", true);
 			thumbnailEntry.addEntry(new MetadataEntry("Thumbnail format", (thumbnail.getDataType() == 1? "DATA_TYPE_KJpegRGB":"DATA_TYPE_TIFF")));
-			thumbnailEntry.addEntry(new MetadataEntry("Thumbnail data length", "" + thumbnail.getCompressedImage().length));
+			thumbnailEntry.addEntry(new MetadataEntry("Thumbnail data length", "" + thumbnail.getCompressedImageLength()));
 			items.add(thumbnailEntry);
 		}
 	
 		return Collections.unmodifiableList(items).iterator();
 	}
 	
+	// Opens a stream on the EXIF data in its byte order
+	private RandomAccessInputStream openData() {
+		RandomAccessInputStream exifIn = new MemoryCacheRandomAccessInputStream(new ByteArrayInputStream(data));
+		exifIn.setReadStrategy((preferredEndian == IOUtils.BIG_ENDIAN)?ReadStrategyMM.getInstance():ReadStrategyII.getInstance());
+		
+		return exifIn;
+	}
+	
+	/**
+	 * Changes the value of an existing field in place in the original EXIF data.
+	 * <p>
+	 * Only changes which keep the size of the value are possible: the new value
+	 * must have the same type and count as the one in the data, e.g. a SHORT
+	 * Orientation or an ASCII DateTime of the same length. Nothing else in the
+	 * data moves, so MakerNote offsets and unknown fields survive and the data
+	 * is still written out byte for byte unless the Exif is changed otherwise.
+	 * A directory that has already been decoded is updated as well.
+	 * 
+	 * @param tag Tag of the field, looked up as in {@link #getField(Tag)}
+	 * @param value new value as taken by {@link FieldType#createField(Tag, FieldType, Object)},
+	 *        e.g. short[] for a SHORT field or String for an ASCII field
+	 * @throws IllegalArgumentException if the field is not in the data or the value doesn't fit in its place
+	 * @throws IllegalStateException if there is no original EXIF data
+	 */
+	public void patch(Tag tag, Object value) {
+		if(data == null || data.length < FIRST_IFD_OFFSET)
+			throw new IllegalStateException("No original EXIF data to patch");
+		ensureDataRead();
+		boolean bigEndian = (data[0] == 'M');
+		ReadStrategy readStrategy = bigEndian?ReadStrategyMM.getInstance():ReadStrategyII.getInstance();
+		int ifd0 = readStrategy.readInt(data, 4);
+		int directory;
+		if(tag instanceof ExifTag) {
+			directory = findSubIFD(ifd0, TiffTag.EXIF_SUB_IFD, readStrategy);
+		} else if(tag instanceof GPSTag) {
+			directory = findSubIFD(ifd0, TiffTag.GPS_SUB_IFD, readStrategy);
+		} else if(tag instanceof InteropTag) {
+			directory = findSubIFD(findSubIFD(ifd0, TiffTag.EXIF_SUB_IFD, readStrategy), ExifTag.EXIF_INTEROPERABILITY_OFFSET, readStrategy);
+		} else {
+			directory = ifd0;
+		}
+		int entry = findEntry(directory, tag, readStrategy);
+		if(entry < 0)
+			throw new IllegalArgumentException("Field " + tag + " not found in the EXIF data");
+		FieldType type = FieldType.fromShort(readStrategy.readShort(data, entry + 2));
+		int count = readStrategy.readInt(data, entry + 4);
+		if(type == FieldType.UNKNOWN || type == FieldType.EXIF_MAKERNOTE)
+			throw new IllegalArgumentException("Field " + tag + " of type " + type + " can't be patched");
+		TiffField<?> field = FieldType.createField(tag, type, value);
+		if(field == null)
+			throw new IllegalArgumentException("Value doesn't match the " + type + " type of field " + tag);
+		if(field.getLength() != count)
+			throw new IllegalArgumentException("Value of field " + tag + " has " + field.getLength() + " elements instead of " + count);
+		byte[] bytes;
+		try {
+			bytes = TiffLayout.encodeValue(field, bigEndian?WriteStrategyMM.getInstance():WriteStrategyII.getInstance());
+		} catch(IOException e) {
+			throw new IllegalArgumentException("Failed to encode value of field " + tag, e);
+		}
+		int position = (bytes.length <= 4)?(entry + 8):readStrategy.readInt(data, entry + 8);
+		if(position < 0 || position + bytes.length > data.length)
+			throw new IllegalArgumentException("Value of field " + tag + " is outside of the EXIF data");
+		if(!isDataCopied) {
+			data = data.clone();
+			isDataCopied = true;
+		}
+		System.arraycopy(bytes, 0, data, position, bytes.length);
+		// Keep the directories already decoded in line with the data
+		IFD ifd = null;
+		if(tag instanceof ExifTag) {
+			if(exifIFDOffset == 0) ifd = exifSubIFD;
+		} else if(tag instanceof GPSTag) {
+			if(gpsIFDOffset == 0) ifd = gpsSubIFD;
+		} else if(tag instanceof InteropTag) {
+			if(exifIFDOffset == 0 && interopIFDOffset == 0) ifd = interopSubIFD;
+		} else {
+			ifd = imageIFD;
+		}
+		if(ifd != null && ifd.getField(tag) != null)
+			ifd.addField(field);
+	}
+	
+	// Returns the position in data of the entry for the tag in the directory at offset or -1 if there is none
+	private int findEntry(int offset, Tag tag, ReadStrategy readStrategy) {
+		if(offset <= 0 || offset + 2 > data.length) return -1;
+		int numOfFields = readStrategy.readUnsignedShort(data, offset);
+		for(int i = 0, entry = offset + 2; i < numOfFields && entry + 12 <= data.length; i++, entry += 12) {
+			if(readStrategy.readShort(data, entry) == tag.getValue())
+				return entry;
+		}
+		
+		return -1;
+	}
+	
+	// Returns the offset of the sub-IFD a pointer field in the directory at offset points to or -1 if there is none
+	private int findSubIFD(int offset, Tag tag, ReadStrategy readStrategy) {
+		int entry = findEntry(offset, tag, readStrategy);
+		if(entry < 0) return -1;
+		
+		return readStrategy.readInt(data, entry + 8);
+	}
+	
+	/**
+	 * Decodes IFD0 and records where the EXIF and GPS sub-IFDs and the thumbnail
+	 * IFD (IFD1) are. These are only decoded when first accessed.
+	 */
 	public void read() throws IOException {
 		if(!isDataRead) {
-			RandomAccessInputStream exifIn = new FileCacheRandomAccessInputStream(new ByteArrayInputStream(data));
-			List<IFD> ifds = new ArrayList<IFD>(3);
-			TIFFMeta.readIFDs(ifds, exifIn);
-			
-			preferredEndian = exifIn.getEndian();
-			
-			if(ifds.size() > 0) {
+			RandomAccessInputStream exifIn = new MemoryCacheRandomAccessInputStream(new ByteArrayInputStream(data));
+			try {
+				long offset = TIFFMeta.readHeader(exifIn);
+				preferredEndian = exifIn.getEndian();
+				List<IFD> ifds = new ArrayList<IFD>(1);
+				thumbnailIFDOffset = TIFFMeta.readIFD(exifIn, offset, TiffTag.getRegistry(), ifds);
 				imageIFD = ifds.get(0);
-				exifSubIFD = imageIFD.getChild(TiffTag.EXIF_SUB_IFD);
-				if(exifSubIFD != null)
-					interopSubIFD = exifSubIFD.getChild(ExifTag.EXIF_INTEROPERABILITY_OFFSET);
-				gpsSubIFD = imageIFD.getChild(TiffTag.GPS_SUB_IFD);
+				exifIFDOffset = getSubIFDOffset(imageIFD, TiffTag.EXIF_SUB_IFD);
+				gpsIFDOffset = getSubIFDOffset(imageIFD, TiffTag.GPS_SUB_IFD);
+			} finally {
+				exifIn.close();
 			}
-		    // We have thumbnail IFD
-		    if(ifds.size() >= 2) {
-		    	IFD thumbnailIFD = ifds.get(1);
-		    	int width = -1;
-		    	int height = -1;
-		    	TiffField<?> field = thumbnailIFD.getField(TiffTag.IMAGE_WIDTH);
-		    	if(field != null) 
-		    		width = field.getDataAsLong()[0];
-		    	field = thumbnailIFD.getField(TiffTag.IMAGE_LENGTH);
-		    	if(field != null)
-		    		height = field.getDataAsLong()[0];
-		    	field = thumbnailIFD.getField(TiffTag.JPEG_INTERCHANGE_FORMAT);
-		    	if(field != null) { // JPEG format, save as JPEG
-		    		int thumbnailOffset = field.getDataAsLong()[0];
-		    		field = thumbnailIFD.getField(TiffTag.JPEG_INTERCHANGE_FORMAT_LENGTH);
-		    		int thumbnailLen = field.getDataAsLong()[0];
-		    		exifIn.seek(thumbnailOffset);
-		    		byte[] thumbnailData = new byte[thumbnailLen];
-		    		exifIn.readFully(thumbnailData);
-		    		thumbnail = new ExifThumbnail(width, height, Thumbnail.DATA_TYPE_KJpegRGB, thumbnailData, thumbnailIFD);
-		    		containsThumbnail = true;				    
-		    	} else { // Uncompressed TIFF
-		    		field = thumbnailIFD.getField(TiffTag.STRIP_OFFSETS);
-		    		if(field == null) 
-		    			field = thumbnailIFD.getField(TiffTag.TILE_OFFSETS);
-		    		if(field != null) {
-		    			 exifIn.seek(0);
-		    			 ByteArrayOutputStream bout = new ByteArrayOutputStream();
-		    			 RandomAccessOutputStream tiffout = new FileCacheRandomAccessOutputStream(bout);
-		    			 TIFFMeta.retainPages(exifIn, tiffout, 1);
-		    			 tiffout.close(); // Auto flush when closed
-		    			 thumbnail = new ExifThumbnail(width, height, Thumbnail.DATA_TYPE_TIFF, bout.toByteArray(), thumbnailIFD);
-		    			 containsThumbnail = true;		    			    
-		    		}
-		    	}
-		    }
-		    exifIn.close();		
 		    isDataRead = true;
 		}
 	}
 	
+	// Decodes a sub-IFD and attaches it to its parent, dropping the pointer if it is broken
+	private IFD readSubIFD(IFD parent, Tag tag, long offset, TagRegistry registry) {
+		RandomAccessInputStream exifIn = openData();
+		try {
+			List<IFD> list = new ArrayList<IFD>(1);
+			TIFFMeta.readIFD(exifIn, offset, registry, list);
+			parent.addChild(tag, list.get(0));
+			return list.get(0);
+		} catch(Exception e) { // If something bad happens, we skip the sub IFD
+			parent.removeField(tag);
+			LOGGER.error("Failed to read EXIF sub IFD " + tag, e);
+			return null;
+		} finally {
+			try {
+				exifIn.close();
+			} catch (IOException e) {
+				;
+			}
+		}
+	}
+	
+	private void readThumbnail(long offset) throws IOException {
+		RandomAccessInputStream exifIn = openData();
+		try {
+			List<IFD> ifds = new ArrayList<IFD>(1);
+			TIFFMeta.readIFD(exifIn, offset, TiffTag.getRegistry(), ifds);
+			IFD thumbnailIFD = ifds.get(0);
+	    	int width = -1;
+	    	int height = -1;
+	    	TiffField<?> field = thumbnailIFD.getField(TiffTag.IMAGE_WIDTH);
+	    	if(field != null) 
+	    		width = field.getDataAsLong()[0];
+	    	field = thumbnailIFD.getField(TiffTag.IMAGE_LENGTH);
+	    	if(field != null)
+	    		height = field.getDataAsLong()[0];
+	    	field = thumbnailIFD.getField(TiffTag.JPEG_INTERCHANGE_FORMAT);
+	    	if(field != null) { // JPEG format, save as JPEG
+	    		int thumbnailOffset = field.getDataAsLong()[0];
+	    		field = thumbnailIFD.getField(TiffTag.JPEG_INTERCHANGE_FORMAT_LENGTH);
+	    		int thumbnailLen = field.getDataAsLong()[0];
+	    		if(thumbnailOffset < 0 || thumbnailLen < 0 || thumbnailOffset + thumbnailLen > data.length)
+	    			throw new IOException("EXIF thumbnail out of bounds: " + thumbnailOffset + " + " + thumbnailLen);
+	    		// Left in the EXIF data until the image itself is needed
+	    		thumbnail = new ExifThumbnail(width, height, Thumbnail.DATA_TYPE_KJpegRGB, data, thumbnailOffset, thumbnailLen, thumbnailIFD);
+	    		containsThumbnail = true;				    
+	    	} else { // Uncompressed TIFF
+	    		field = thumbnailIFD.getField(TiffTag.STRIP_OFFSETS);
+	    		if(field == null) 
+	    			field = thumbnailIFD.getField(TiffTag.TILE_OFFSETS);
+	    		if(field != null) {
+	    			 // Converted to a stand-alone TIFF only when the image itself is needed
+	    			 thumbnail = new ExifThumbnail(width, height, Thumbnail.DATA_TYPE_TIFF, data, 0, data.length, thumbnailIFD);
+	    			 containsThumbnail = true;		    			    
+	    		}
+	    	}
+		} finally {
+			exifIn.close();
+		}
+	}
+	
 	public void setExifIFD(IFD exifSubIFD) {
+		ensureInteropIFDRead(); // The Interop IFD is kept
 		this.exifSubIFD = exifSubIFD;
+		this.isModified = true;
 	}
 	
 	public void setGPSIFD(IFD gpsSubIFD) {
+		ensureDataRead();
+		this.gpsIFDOffset = 0;
 		this.gpsSubIFD = gpsSubIFD;
+		this.isModified = true;
 	}
 	
 	public void setInteropIFD(IFD interopSubIFD) {
+		ensureExifIFDRead();
+		this.interopIFDOffset = 0;
 		this.interopSubIFD = interopSubIFD;
+		this.isModified = true;
 	}
 	
 	public void setImageIFD(IFD imageIFD) {
 		if(imageIFD == null)
 			throw new IllegalArgumentException("Input image IFD is null");
+		ensureInteropIFDRead(); // The Interop IFD is kept
+		this.exifIFDOffset = 0;
+		this.gpsIFDOffset = 0;
 		this.imageIFD = imageIFD;
 		this.exifSubIFD = imageIFD.getChild(TiffTag.EXIF_SUB_IFD);
 		this.gpsSubIFD = imageIFD.getChild(TiffTag.GPS_SUB_IFD);
+		this.isModified = true;
 	}
 	
 	/**
@@ -368,13 +757,18 @@ public abstract class Exif extends Metadata {
 	 *        will be generated from the input image.
 	 */	
 	public void setThumbnail(ExifThumbnail thumbnail) {
+		ensureDataRead();
+		this.thumbnailIFDOffset = 0;
 		this.thumbnail = thumbnail;
+		this.isModified = true;
 	}
 	
 	public void setThumbnailImage(Bitmap thumbnail) {
+		ensureThumbnailRead();
 		if(this.thumbnail == null)
 			this.thumbnail = new ExifThumbnail(); 
 		this.thumbnail.setImage(thumbnail);
+		this.isModified = true;
 	}
 	
 	public void setThumbnailRequired(boolean isThumbnailRequired) {
@@ -384,6 +778,8 @@ public abstract class Exif extends Metadata {
 	public void setPreferredEndian(short preferredEndian) {
 		if(preferredEndian != IOUtils.BIG_ENDIAN && preferredEndian != IOUtils.LITTLE_ENDIAN)
 			throw new IllegalArgumentException("Invalid Exif endian!");
+		if(preferredEndian != this.preferredEndian)
+			isModified = true;
 		this.preferredEndian = preferredEndian;
 	}
 		
@@ -17,12 +17,11 @@ package pixy.meta.exif;
 
 import java.io.UnsupportedEncodingException;
 import java.text.DecimalFormat;
-import java.util.HashMap;
-import java.util.Map;
 
 import pixy.meta.exif.ExifTag;
 import pixy.image.tiff.FieldType;
 import pixy.image.tiff.Tag;
+import pixy.image.tiff.TagRegistry;
 import pixy.image.tiff.TiffTag;
 import pixy.string.StringUtils;
 
@@ -294,20 +293,14 @@ public enum ExifTag implements Tag {
 	}
 	
     public static Tag fromShort(short value) {
-       	ExifTag exifTag = tagMap.get(value);
-    	if (exifTag == null)
-    	   return TiffTag.UNKNOWN;
-   		return exifTag;
+       	return registry.fromShort(value);
     }
     
-    private static final Map<Short, ExifTag> tagMap = new HashMap<Short, ExifTag>();
-       
-    static
-    {
-      for(ExifTag exifTag : values()) {
-           tagMap.put(exifTag.getValue(), exifTag);
-      }
-    } 
+    public static TagRegistry getRegistry() {
+    	return registry;
+    }
+    
+    private static final TagRegistry registry = new TagRegistry(values());
 	
 	/**
      * Intended to be overridden by certain tags to provide meaningful string
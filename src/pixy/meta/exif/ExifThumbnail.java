@@ -26,6 +26,7 @@
 package pixy.meta.exif;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
@@ -38,10 +39,14 @@ import pixy.image.tiff.IFD;
 import pixy.image.tiff.LongField;
 import pixy.image.tiff.RationalField;
 import pixy.image.tiff.ShortField;
+import pixy.image.tiff.Tag;
 import pixy.image.tiff.TiffField;
 import pixy.image.tiff.TiffFieldEnum;
+import pixy.image.tiff.TiffLayout;
 import pixy.image.tiff.TiffTag;
 import pixy.io.FileCacheRandomAccessInputStream;
+import pixy.io.FileCacheRandomAccessOutputStream;
+import pixy.io.MemoryCacheRandomAccessInputStream;
 import pixy.io.MemoryCacheRandomAccessOutputStream;
 import pixy.io.RandomAccessInputStream;
 import pixy.io.RandomAccessOutputStream;
@@ -56,6 +61,8 @@ public class ExifThumbnail extends Thumbnail {
 	// Comprised of an IFD and an associated image
 	// Create thumbnail IFD (IFD1 in the case of JPEG EXIF segment)
 	private IFD thumbnailIFD = new IFD();
+	// Thumbnail this one was copied from while the image was still in the EXIF data, it loads and keeps the image for all copies
+	private ExifThumbnail origin;
 		
 	public ExifThumbnail() { }
 	
@@ -69,7 +76,12 @@ public class ExifThumbnail extends Thumbnail {
 		this.width = other.width;
 		this.thumbnail = other.thumbnail;
 		this.compressedThumbnail = other.compressedThumbnail;
+		this.source = other.source;
+		this.sourceOffset = other.sourceOffset;
+		this.sourceLength = other.sourceLength;
 		this.thumbnailIFD = other.thumbnailIFD;
+		if(source != null)
+			this.origin = (other.origin != null)?other.origin:other;
 	}
 	
 	public ExifThumbnail(int width, int height, int dataType, byte[] compressedThumbnail) {
@@ -81,6 +93,154 @@ public class ExifThumbnail extends Thumbnail {
 		this.thumbnailIFD = thumbnailIFD;
 	}
 	
+	/**
+	 * Creates a thumbnail which is left in the EXIF data until it is needed.
+	 * For DATA_TYPE_KJpegRGB the range is the JPEG image, for DATA_TYPE_TIFF it
+	 * is the whole EXIF TIFF structure and the thumbnail page (IFD1) is only
+	 * extracted as a stand-alone TIFF by {@link #getCompressedImage()}.
+	 */
+	public ExifThumbnail(int width, int height, int dataType, byte[] source, int offset, int length, IFD thumbnailIFD) {
+		setImage(width, height, dataType, source, offset, length);
+		this.thumbnailIFD = thumbnailIFD;
+	}
+	
+	/**
+	 * Adds the thumbnail IFD and the thumbnail image to a layout, which links
+	 * the IFD to the IFD added before and works out the image offsets.
+	 * Raw thumbnails are compressed as JPEG right away, as the layout needs
+	 * the image length up front.
+	 * 
+	 * @param layout TiffLayout for the EXIF TIFF structure
+	 * @throws IOException
+	 */
+	public void addTo(TiffLayout layout) throws IOException {
+		final byte[] image;
+		IFD ifd = thumbnailIFD;
+		Tag offsetsTag = TiffTag.JPEG_INTERCHANGE_FORMAT;
+		long[] lengths;
+		if(getDataType() == Thumbnail.DATA_TYPE_KJpegRGB) { // Compressed old-style JPEG format
+			image = getCompressedImage();
+			if(image == null) throw new IllegalArgumentException("Expected compressed thumbnail data does not exist!");
+			thumbnailIFD.addField(new LongField(TiffTag.JPEG_INTERCHANGE_FORMAT_LENGTH.getValue(), new int[] {image.length}));
+			lengths = new long[] {image.length};
+		} else if(getDataType() == Thumbnail.DATA_TYPE_TIFF) { // Uncompressed TIFF format
+			// Read the IFDs into a list first
+			List<IFD> list = new ArrayList<IFD>();
+			RandomAccessInputStream tiffIn = new FileCacheRandomAccessInputStream(new ByteArrayInputStream(getCompressedImage()));
+			TIFFMeta.readIFDs(list, tiffIn);
+			ifd = list.get(0);
+			offsetsTag = TiffTag.STRIP_OFFSETS;
+			TiffField<?> stripOffset = ifd.getField(TiffTag.STRIP_OFFSETS);
+			TiffField<?> stripByteCounts = ifd.getField(TiffTag.STRIP_BYTE_COUNTS);
+			if(stripOffset == null) {
+				offsetsTag = TiffTag.TILE_OFFSETS;
+				stripOffset = ifd.getField(TiffTag.TILE_OFFSETS);
+				stripByteCounts = ifd.getField(TiffTag.TILE_BYTE_COUNTS);
+			}
+			if(stripOffset != null && (stripByteCounts == null || stripByteCounts.getLength() < stripOffset.getLength())) {
+				tiffIn.shallowClose();
+				throw new IOException("TIFF thumbnail has " + stripOffset.getLength() + " " + offsetsTag.getName() + " but "
+						+ ((stripByteCounts == null)?"no":"only " + stripByteCounts.getLength()) + " byte counts");
+			}
+			int[] off = (stripOffset == null)?new int[0]:stripOffset.getDataAsLong();
+			int[] counts = (stripOffset == null)?new int[0]:stripByteCounts.getDataAsLong();
+			// Collect the image data so the input can be closed
+			ByteArrayOutputStream bout = new ByteArrayOutputStream();
+			lengths = new long[off.length];
+			for(int i = 0; i < off.length; i++) {
+				tiffIn.seek(off[i]);
+				byte[] temp = new byte[counts[i]];
+				tiffIn.readFully(temp);
+				bout.write(temp);
+				lengths[i] = counts[i];
+			}
+			tiffIn.shallowClose();
+			image = bout.toByteArray();
+			if(stripOffset == null) offsetsTag = null;
+		} else {
+			Bitmap thumbnail = getRawImage();
+			if(thumbnail == null) throw new IllegalArgumentException("Expected raw data thumbnail does not exist!");
+			ByteArrayOutputStream bout = new ByteArrayOutputStream();
+			try {
+				thumbnail.compress(Bitmap.CompressFormat.JPEG, writeQuality, bout);
+			} catch (Exception e) {
+				throw new RuntimeException("Unable to compress thumbnail as JPEG");
+			}
+			image = bout.toByteArray();
+			int thumbnailWidth = thumbnail.getWidth();
+			int thumbnailHeight = thumbnail.getHeight();
+			thumbnailIFD.addField(new ShortField(TiffTag.IMAGE_WIDTH.getValue(), new short[]{(short)thumbnailWidth}));
+			thumbnailIFD.addField(new ShortField(TiffTag.IMAGE_LENGTH.getValue(), new short[]{(short)thumbnailHeight}));
+			thumbnailIFD.addField(new LongField(TiffTag.JPEG_INTERCHANGE_FORMAT_LENGTH.getValue(), new int[]{image.length}));
+			// Other related tags
+			thumbnailIFD.addField(new RationalField(TiffTag.X_RESOLUTION.getValue(), new int[] {thumbnailWidth, 1}));
+			thumbnailIFD.addField(new RationalField(TiffTag.Y_RESOLUTION.getValue(), new int[] {thumbnailHeight, 1}));
+			thumbnailIFD.addField(new ShortField(TiffTag.RESOLUTION_UNIT.getValue(), new short[]{1})); //No absolute unit of measurement
+			thumbnailIFD.addField(new ShortField(TiffTag.PHOTOMETRIC_INTERPRETATION.getValue(), new short[]{(short)TiffFieldEnum.PhotoMetric.YCbCr.getValue()}));
+			thumbnailIFD.addField(new ShortField(TiffTag.SAMPLES_PER_PIXEL.getValue(), new short[]{3}));		
+			thumbnailIFD.addField(new ShortField(TiffTag.BITS_PER_SAMPLE.getValue(), new short[]{8, 8, 8}));
+			thumbnailIFD.addField(new ShortField(TiffTag.YCbCr_SUB_SAMPLING.getValue(), new short[]{1, 1}));
+			thumbnailIFD.addField(new ShortField(TiffTag.PLANAR_CONFIGURATTION.getValue(), new short[]{(short)TiffFieldEnum.PlanarConfiguration.CONTIGUOUS.getValue()}));
+			thumbnailIFD.addField(new ShortField(TiffTag.COMPRESSION.getValue(), new short[]{(short)TiffFieldEnum.Compression.OLD_JPG.getValue()}));
+			thumbnailIFD.addField(new ShortField(TiffTag.ROWS_PER_STRIP.getValue(), new short[]{(short)thumbnailHeight}));
+			lengths = new long[] {image.length};
+		}
+		layout.addIFD(ifd);
+		if(offsetsTag != null) {
+			layout.addData(ifd, offsetsTag, lengths, new TiffLayout.DataWriter() {
+				public void write(OutputStream os) throws IOException {
+					os.write(image);
+				}
+			});
+		}
+	}
+	
+	@Override
+	public void setImage(int width, int height, int dataType, byte[] source, int offset, int length) {
+		super.setImage(width, height, dataType, source, offset, length);
+		origin = null;
+	}
+	
+	/**
+	 * A TIFF thumbnail still in the EXIF data is extracted first, as the length
+	 * of the stand-alone TIFF is only known once it is written.
+	 */
+	@Override
+	public int getCompressedImageLength() {
+		if(compressedThumbnail == null && source != null && getDataType() == Thumbnail.DATA_TYPE_TIFF)
+			return getCompressedImage().length;
+		
+		return super.getCompressedImageLength();
+	}
+	
+	@Override
+	protected byte[] loadCompressedImage() {
+		if(origin != null) { // Load once for the original and all its copies
+			byte[] image = origin.getCompressedImage();
+			origin = null;
+			return image;
+		}
+		if(getDataType() != Thumbnail.DATA_TYPE_TIFF)
+			return super.loadCompressedImage();
+		// Keep the thumbnail page only
+		RandomAccessInputStream exifIn = new MemoryCacheRandomAccessInputStream(new ByteArrayInputStream(source, sourceOffset, sourceLength));
+		try {
+			ByteArrayOutputStream bout = new ByteArrayOutputStream();
+			RandomAccessOutputStream tiffout = new FileCacheRandomAccessOutputStream(bout);
+			TIFFMeta.retainPages(exifIn, tiffout, 1);
+			tiffout.close(); // Auto flush when closed
+			return bout.toByteArray();
+		} catch(IOException e) {
+			throw new RuntimeException("Unable to extract TIFF thumbnail from EXIF data", e);
+		} finally {
+			try {
+				exifIn.close();
+			} catch (IOException e) {
+				;
+			}
+		}
+	}
+	
 	public void write(OutputStream os) throws IOException {
 		RandomAccessOutputStream randOS = null;
 		if(os instanceof RandomAccessOutputStream) randOS = (RandomAccessOutputStream)os;
@@ -16,12 +16,11 @@
 package pixy.meta.exif;
 
 import java.text.DecimalFormat;
-import java.util.HashMap;
-import java.util.Map;
 
 import pixy.meta.exif.GPSTag;
 import pixy.image.tiff.FieldType;
 import pixy.image.tiff.Tag;
+import pixy.image.tiff.TagRegistry;
 import pixy.image.tiff.TiffTag;
 import pixy.string.StringUtils;
 
@@ -177,21 +176,15 @@ public enum GPSTag implements Tag {
 	}
 	
     public static Tag fromShort(short value) {
-       	GPSTag tag = tagMap.get(value);
-    	if (tag == null)
-    	   return TiffTag.UNKNOWN;
-   		return tag;
+       	return registry.fromShort(value);
     }
     
-    private static final Map<Short, GPSTag> tagMap = new HashMap<Short, GPSTag>();
-       
-    static
-    {
-      for(GPSTag tag : values()) {
-           tagMap.put(tag.getValue(), tag);
-      }
+    public static TagRegistry getRegistry() {
+    	return registry;
     }
     
+    private static final TagRegistry registry = new TagRegistry(values());
+    
     /**
      * Intended to be overridden by certain tags to provide meaningful string
      * representation of the field value such as compression, photo metric interpretation etc.
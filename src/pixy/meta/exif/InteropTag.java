@@ -15,12 +15,11 @@
 
 package pixy.meta.exif;
 
-import java.util.HashMap;
-import java.util.Map;
 
 import pixy.meta.exif.InteropTag;
 import pixy.image.tiff.FieldType;
 import pixy.image.tiff.Tag;
+import pixy.image.tiff.TagRegistry;
 import pixy.image.tiff.TiffTag;
 import pixy.string.StringUtils;
 
@@ -83,21 +82,15 @@ public enum InteropTag implements Tag {
 	}
 	
     public static Tag fromShort(short value) {
-       	InteropTag tag = tagMap.get(value);
-    	if (tag == null)
-    	   return TiffTag.UNKNOWN;
-   		return tag;
+       	return registry.fromShort(value);
     }
     
-    private static final Map<Short, InteropTag> tagMap = new HashMap<Short, InteropTag>();
-       
-    static
-    {
-      for(InteropTag tag : values()) {
-           tagMap.put(tag.getValue(), tag);
-      }
+    public static TagRegistry getRegistry() {
+    	return registry;
     }
     
+    private static final TagRegistry registry = new TagRegistry(values());
+    
     /**
      * Intended to be overridden by certain tags to provide meaningful string
      * representation of the field value such as compression, photo metric interpretation etc.
@@ -36,6 +36,13 @@ public class JFIFThumbnail extends Thumbnail {
 		super(thumbnail);
 	}
 	
+	/**
+	 * Creates a JPEG coded thumbnail as found in a JFXX extension segment
+	 */
+	public JFIFThumbnail(int width, int height, int dataType, byte[] compressedThumbnail) {
+		super(width, height, dataType, compressedThumbnail);
+	}
+	
 	public JFIFThumbnail(JFIFThumbnail other) { // Copy constructor
 		this.dataType = other.dataType;
 		this.height = other.height;
@@ -46,6 +53,10 @@ public class JFIFThumbnail extends Thumbnail {
 
 	@Override
 	public void write(OutputStream os) throws IOException {
+		if(getDataType() == DATA_TYPE_KJpegRGB) {
+			os.write(getCompressedImage());
+			return;
+		}
 		Bitmap thumbnail = getRawImage();
 		if(thumbnail == null) throw new IllegalArgumentException("Expected raw data thumbnail does not exist!");
 		int thumbnailWidth = thumbnail.getWidth();
@@ -72,10 +72,12 @@ import pixy.util.ArrayUtils;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -85,7 +87,6 @@ import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
 
 import android.graphics.Bitmap;
-import android.graphics.Bitmap.CompressFormat;
 import pixy.meta.Metadata;
 import pixy.meta.MetadataType;
 import pixy.meta.Thumbnail;
@@ -120,6 +121,11 @@ public class JPGMeta {
 	// Obtain a logger instance
 	private static final Logger LOGGER = LoggerFactory.getLogger(JPGMeta.class);
 	
+	// Buffer size used to bulk copy segments and image data
+	private static final int COPY_BUFFER_SIZE = 65536;
+	// Longest APPn identifier we need to look at to tell segments apart
+	private static final int MAX_SEGMENT_ID_LEN = XMP_EXT_ID.length();
+	
 	private static short copySegment(short marker, InputStream is, OutputStream os) throws IOException {
 		int length = IOUtils.readUnsignedShortMM(is);
 		byte[] buf = new byte[length - 2];
@@ -178,8 +184,20 @@ public class JPGMeta {
 		return marker;
 	}
 	
+	private static short copySegment(short marker, InputStream is, OutputStream os, byte[] buf) throws IOException {
+		int length = IOUtils.readUnsignedShortMM(is);
+		IOUtils.writeShortMM(os, marker);
+		IOUtils.writeShortMM(os, (short) length);
+		IOUtils.copyFully(is, os, length - 2, buf);
+		
+		return (IOUtils.readShortMM(is));
+	}
+	
 	private static void copyToEnd(InputStream is, OutputStream os) throws IOException {
-		byte[] buffer = new byte[10240]; // 10k buffer
+		copyToEnd(is, os, new byte[10240]); // 10k buffer
+	}
+	
+	private static void copyToEnd(InputStream is, OutputStream os, byte[] buffer) throws IOException {
 		int bytesRead = -1;
 		
 		while((bytesRead = is.read(buffer)) != -1) {
@@ -187,8 +205,23 @@ public class JPGMeta {
 		}
 	}
 	
+	/**
+	 * Copies one ExtendedXMP chunk straight into the preallocated ExtendedXMP buffer
+	 * at the offset declared by the chunk and marks the bytes as received. Repeated
+	 * or overlapping chunks are only counted once.
+	 */
+	private static void copyExtendedXMPChunk(byte[] data, int start, int len, byte[] extendedXMP, long offset, BitSet received) {
+		if(len < 0 || start + len > data.length || offset + len > extendedXMP.length) {
+			LOGGER.warn("ExtendedXMP chunk at offset {} doesn't fit into {} bytes, skipped", offset, extendedXMP.length);
+			return;
+		}
+		System.arraycopy(data, start, extendedXMP, (int)offset, len);
+		received.set((int)offset, (int)offset + len);
+	}
+	
 	public static byte[] extractICCProfile(InputStream is) throws IOException {
-		ByteArrayOutputStream bo = new ByteArrayOutputStream();
+		// Used to read multiple segment ICCProfile
+		List<byte[]> iccProfileChunks = new ArrayList<byte[]>();
 		// Flag when we are done
 		boolean finished = false;
 		int length = 0;	
@@ -224,7 +257,9 @@ public class JPGMeta {
 				    	finished = true;
 						break;
 				    case APP2:
-				    	readAPP2(is, bo);
+				    	byte[] chunk = readAPP2(is);
+				    	if(chunk != null)
+				    		iccProfileChunks.add(chunk);
 						marker = IOUtils.readShortMM(is);
 						break;
 				    default:
@@ -236,7 +271,10 @@ public class JPGMeta {
 			}
 	    }
 		
-		return bo.toByteArray();
+		if(iccProfileChunks.isEmpty())
+			return new byte[0];
+		
+		return joinICCProfile(iccProfileChunks);
 	}
 	
 	public static void extractICCProfile(InputStream is, String pathToICCProfile) throws IOException {
@@ -314,15 +352,69 @@ public class JPGMeta {
 		}	
 	}
 	
+	/**
+	 * Joins multiple APP2 ICC_PROFILE chunks into a single preallocated buffer.
+	 * <p>
+	 * Each chunk is the APP2 segment data starting with the ICC_PROFILE identifier
+	 * followed by a one byte sequence number (1 based) and a one byte total chunk count.
+	 * Chunks are placed by sequence number regardless of their order in the file. If
+	 * the sequence numbers are unusable, file order is used instead.
+	 * 
+	 * @param chunks ICC_PROFILE APP2 segment data
+	 * @return the joined ICC_Profile data
+	 */
+	private static byte[] joinICCProfile(List<byte[]> chunks) {
+		int headerLen = ICC_PROFILE_ID.length() + 2;
+		int numOfChunks = chunks.get(0)[ICC_PROFILE_ID.length() + 1]&0xff;
+		byte[][] orderedChunks = new byte[numOfChunks][];
+		boolean inSequence = (numOfChunks >= chunks.size());
+		
+		for(int i = 0; inSequence && i < chunks.size(); i++) {
+			byte[] chunk = chunks.get(i);
+			int sequence = chunk[ICC_PROFILE_ID.length()]&0xff;
+			if(sequence < 1 || sequence > numOfChunks || orderedChunks[sequence - 1] != null || (chunk[headerLen - 1]&0xff) != numOfChunks)
+				inSequence = false;
+			else
+				orderedChunks[sequence - 1] = chunk;
+		}
+		
+		if(!inSequence) {
+			LOGGER.warn("Invalid ICC_PROFILE chunk sequence numbers, joining chunks in file order");
+			orderedChunks = chunks.toArray(new byte[chunks.size()][]);
+		}
+		
+		int size = 0;
+		
+		for(int i = 0; i < orderedChunks.length; i++) {
+			if(orderedChunks[i] == null)
+				LOGGER.warn("ICC_PROFILE chunk {} of {} is missing", i + 1, orderedChunks.length);
+			else
+				size += orderedChunks[i].length - headerLen;
+		}
+		
+		byte[] profile = new byte[size];
+		int offset = 0;
+		
+		for(byte[] chunk : orderedChunks) {
+			if(chunk != null) {
+				System.arraycopy(chunk, headerLen, profile, offset, chunk.length - headerLen);
+				offset += chunk.length - headerLen;
+			}
+		}
+		
+		return profile;
+	}
+	
 	private static void extractMetadataFromAPPn(Collection<Segment> appnSegments, Map<MetadataType, Metadata> metadataMap) throws IOException {
 		// Used to read multiple segment ICCProfile
-		ByteArrayOutputStream iccProfileStream = null;
+		List<byte[]> iccProfileChunks = null;
 		
 		// Used to read multiple segment Adobe APP13
 		ByteArrayOutputStream eightBIMStream = null;
 		
 		// Used to read multiple segment XMP
 		byte[] extendedXMP = null;
+		BitSet extendedXMPReceived = null;
 		String xmpGUID = ""; // 32 byte ASCII hex string
 		
 		Map<String, Thumbnail> thumbnails = new HashMap<String, Thumbnail>();
@@ -356,21 +448,22 @@ public class JPGMeta {
 						i += 32;
 						long extendedXMPLength = IOUtils.readUnsignedIntMM(data, i);
 						i += 4;
-						if(extendedXMP == null)
+						if(extendedXMP == null) {
 							extendedXMP = new byte[(int)extendedXMPLength];
+							extendedXMPReceived = new BitSet(extendedXMP.length);
+						}
 						// Offset for the current segment
 						long offset = IOUtils.readUnsignedIntMM(data, i);
 						i += 4;
-						byte[] xmpBytes = ArrayUtils.subArray(data, i, length - XMP_EXT_ID.length() - 42);
-						System.arraycopy(xmpBytes, 0, extendedXMP, (int)offset, xmpBytes.length);
+						copyExtendedXMPChunk(data, i, length - XMP_EXT_ID.length() - 42, extendedXMP, offset, extendedXMPReceived);
 					}
 				}
 			} else if(segment.getMarker() == Marker.APP2) {
 				// We're only interested in ICC_Profile
-				if (data.length >= ICC_PROFILE_ID.length() && new String(data, 0, ICC_PROFILE_ID.length()).equals(ICC_PROFILE_ID)) {
-					if(iccProfileStream == null)
-						iccProfileStream = new ByteArrayOutputStream();
-					iccProfileStream.write(ArrayUtils.subArray(data, ICC_PROFILE_ID.length() + 2, length - ICC_PROFILE_ID.length() - 4));
+				if (data.length >= ICC_PROFILE_ID.length() + 2 && new String(data, 0, ICC_PROFILE_ID.length()).equals(ICC_PROFILE_ID)) {
+					if(iccProfileChunks == null)
+						iccProfileChunks = new ArrayList<byte[]>();
+					iccProfileChunks.add(data);
 				}
 			} else if(segment.getMarker() == Marker.APP12) {
 				if (data.length >= DUCKY_ID.length() && new String(data, 0, DUCKY_ID.length()).equals(DUCKY_ID)) {
@@ -390,8 +483,8 @@ public class JPGMeta {
 		}
 		
 		// Now it's time to join multiple segments ICC_PROFILE and/or XMP		
-		if(iccProfileStream != null) { // We have ICCProfile data
-			ICCProfile icc_profile = new ICCProfile(iccProfileStream.toByteArray());
+		if(iccProfileChunks != null) { // We have ICCProfile data
+			ICCProfile icc_profile = new ICCProfile(joinICCProfile(iccProfileChunks));
 			metadataMap.put(MetadataType.ICC_PROFILE, icc_profile);
 		}
 		
@@ -406,6 +499,9 @@ public class JPGMeta {
 		}
 		
 		if(extendedXMP != null) {
+			int extendedXMPBytesRead = extendedXMPReceived.cardinality();
+			if(extendedXMPBytesRead < extendedXMP.length)
+				LOGGER.warn("ExtendedXMP incomplete: {} of {} bytes found", extendedXMPBytesRead, extendedXMP.length);
 			XMP xmp = ((XMP)metadataMap.get(MetadataType.XMP));
 			if(xmp != null)
 				xmp.setExtendedXMPData(extendedXMP);
@@ -443,9 +539,87 @@ public class JPGMeta {
 	 * @throws IOException
 	 */
 	public static void extractThumbnails(InputStream is, String pathToThumbnail) throws IOException {
+		for(Map.Entry<String, Thumbnail> entry : readThumbnails(is).entrySet()) {
+			String name = "photoshop";
+			if(entry.getKey().equals("JFIF"))
+				name = "jfif";
+			else if(entry.getKey().equals("EXIF"))
+				name = "exif";
+			Thumbnail thumbnail = entry.getValue();
+			String outpath = "";
+			if(pathToThumbnail.endsWith("\\") || pathToThumbnail.endsWith("/"))
+				outpath = pathToThumbnail + name + "_thumbnail";
+			else
+				outpath = pathToThumbnail.replaceFirst("[.][^.]+$", "") + "_" + name + "_t";
+			// Uncompressed EXIF thumbnail, save as TIFF
+			outpath += (thumbnail.getDataType() == Thumbnail.DATA_TYPE_TIFF) ? ".tif" : ".jpg";
+			OutputStream fout = new FileOutputStream(outpath);
+			try {
+				thumbnail.writeImage(fout);
+			} finally {
+				fout.close();
+			}
+		}
+	}
+	
+	/**
+	 * Extracts thumbnail images from JFIF/APP0, Exif APP1 and/or Adobe APP13 segment if any
+	 * as stand-alone images. Compressed thumbnails are returned as is, uncompressed EXIF 
+	 * thumbnails as TIFF and raw RGB thumbnails are compressed as JPEG.
+	 * 
+	 * @param is InputStream for the JPEG image.
+	 * @return a map of thumbnail image data keyed by "JFIF", "EXIF" and/or "PHOTOSHOP_IRB"
+	 * @throws IOException
+	 */
+	public static Map<String, byte[]> extractThumbnails(InputStream is) throws IOException {
+		Map<String, byte[]> images = new LinkedHashMap<String, byte[]>();
+		for(Map.Entry<String, Thumbnail> entry : readThumbnails(is).entrySet()) {
+			ByteArrayOutputStream bout = new ByteArrayOutputStream();
+			entry.getValue().writeImage(bout);
+			images.put(entry.getKey(), bout.toByteArray());
+		}
+		
+		return images;
+	}
+	
+	/**
+	 * Writes the first thumbnail image found to the OutputStream as a stand-alone image,
+	 * preferring EXIF over Adobe APP13 over JFIF thumbnails.
+	 * 
+	 * @param is InputStream for the JPEG image.
+	 * @param os OutputStream to write the thumbnail image to.
+	 * @return true if a thumbnail was written, otherwise false
+	 * @throws IOException
+	 */
+	public static boolean extractThumbnail(InputStream is, OutputStream os) throws IOException {
+		Map<String, Thumbnail> thumbnails = readThumbnails(is);
+		for(String key : new String[] {"EXIF", "PHOTOSHOP_IRB", "JFIF"}) {
+			Thumbnail thumbnail = thumbnails.get(key);
+			if(thumbnail != null) {
+				thumbnail.writeImage(os);
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Reads thumbnail images from JFIF/JFXX APP0, Exif APP1 and/or Adobe APP13 segment if any.
+	 * Reading stops at the first SOS, the image data is never read.
+	 * 
+	 * @param is InputStream for the JPEG image.
+	 * @return a map of thumbnails keyed by "JFIF", "EXIF" and/or "PHOTOSHOP_IRB"
+	 * @throws IOException
+	 */
+	public static Map<String, Thumbnail> readThumbnails(InputStream is) throws IOException {
+		Map<String, Thumbnail> thumbnails = new LinkedHashMap<String, Thumbnail>();
+		// Leading identifier bytes of the current segment
+		byte[] id = new byte[MAX_SEGMENT_ID_LEN];
 		// Flag when we are done
 		boolean finished = false;
-		int length = 0;	
+		int length = 0;
+		int idLen = 0;
 		short marker;
 		Marker emarker;
 				
@@ -477,109 +651,46 @@ public class JPGMeta {
 						finished = true;
 						break;
 				    case APP0:
-				    	length = IOUtils.readUnsignedShortMM(is);
-						byte[] jfif_buf = new byte[length - 2];
-					    IOUtils.readFully(is, jfif_buf);
-					    // EXIF segment
-					    if(new String(jfif_buf, 0, JFIF_ID.length()).equals(JFIF_ID) || new String(jfif_buf, 0, JFXX_ID.length()).equals(JFXX_ID)) {
-					      	int thumbnailWidth = jfif_buf[12]&0xff;
-					    	int thumbnailHeight = jfif_buf[13]&0xff;
-					    	String outpath = "";
-							if(pathToThumbnail.endsWith("\\") || pathToThumbnail.endsWith("/"))
-								outpath = pathToThumbnail + "jfif_thumbnail";
-							else
-								outpath = pathToThumbnail.replaceFirst("[.][^.]+$", "") + "_jfif_t";
-					    	
-					    	if(thumbnailWidth != 0 && thumbnailHeight != 0) { // There is a thumbnail
-					    		// Extract the thumbnail
-					    		//Create a BufferedImage
-					    		int size = 3*thumbnailWidth*thumbnailHeight;
-								int[] colors = MetadataUtils.toARGB(ArrayUtils.subArray(jfif_buf, 14, size));
-								Bitmap bmp = Bitmap.createBitmap(colors, thumbnailWidth, thumbnailHeight, Bitmap.Config.ARGB_8888);
-								FileOutputStream fout = new FileOutputStream(outpath + ".jpg");
-								try {
-									bmp.compress(CompressFormat.JPEG, 100, fout);
-								} catch (Exception e) {
-									e.printStackTrace();
-								}
-								fout.close();		
-					    	}
-					    }
-				    	marker = IOUtils.readShortMM(is);
-						break;
 				    case APP1:
-				    	// EXIF identifier with trailing bytes [0x00,0x00].
-						byte[] exif_buf = new byte[EXIF_ID.length()];
-						length = IOUtils.readUnsignedShortMM(is);						
-						IOUtils.readFully(is, exif_buf);						
-						// EXIF segment.
-						if (Arrays.equals(exif_buf, EXIF_ID.getBytes())) {
-							exif_buf = new byte[length - 8];
-						    IOUtils.readFully(is, exif_buf);
-						    Exif exif = new JpegExif(exif_buf);
-						    if(exif.containsThumbnail()) {
-						    	String outpath = "";
-								if(pathToThumbnail.endsWith("\\") || pathToThumbnail.endsWith("/"))
-									outpath = pathToThumbnail + "exif_thumbnail";
-								else
-									outpath = pathToThumbnail.replaceFirst("[.][^.]+$", "") + "_exif_t";
-						    	Thumbnail thumbnail = exif.getThumbnail();
-						    	OutputStream fout = null;
-						    	if(thumbnail.getDataType() == ExifThumbnail.DATA_TYPE_KJpegRGB) {// JPEG format, save as JPEG
-						    		 fout = new FileOutputStream(outpath + ".jpg");						    	
-						    	} else { // Uncompressed, save as TIFF
-						    		fout = new FileOutputStream(outpath + ".tif");
-						    	}
-						    	fout.write(thumbnail.getCompressedImage());
-					    		fout.close();
-						    }						  			
-						} else {
-							IOUtils.skipFully(is, length - 8);
-						}
-						marker = IOUtils.readShortMM(is);
-						break;
 				    case APP13:
 				    	length = IOUtils.readUnsignedShortMM(is);
-						byte[] data = new byte[length - 2];
-						IOUtils.readFully(is, data, 0, length - 2);						
-						int i = 0;
-						
-						while(data[i] != 0) i++;
-						
-						if(new String(data, 0, i++).equals("Photoshop 3.0")) {
-							IRB irb = new IRB(ArrayUtils.subArray(data, i, data.length - i));
-							if(irb.containsThumbnail()) {
-								Thumbnail thumbnail = irb.getThumbnail();
-								// Create output path
-								String outpath = "";
-								if(pathToThumbnail.endsWith("\\") || pathToThumbnail.endsWith("/"))
-									outpath = pathToThumbnail + "photoshop_thumbnail.jpg";
-								else
-									outpath = pathToThumbnail.replaceFirst("[.][^.]+$", "") + "_photoshop_t.jpg";
-								FileOutputStream fout = new FileOutputStream(outpath);
-								if(thumbnail.getDataType() == Thumbnail.DATA_TYPE_KJpegRGB) {
-									fout.write(thumbnail.getCompressedImage());
-								} else {
-									Bitmap bmp = thumbnail.getRawImage();
-									try {
-										 bmp.compress(Bitmap.CompressFormat.JPEG, 100, fout);
-									} catch (Exception e) {
-										throw new IOException("Writing thumbnail failed!");
-									}
-								}
-								fout.close();								
-							}							
-						}				
+				    	idLen = readSegmentID(is, id, length - 2);
+				    	if(emarker == Marker.APP0 && !thumbnails.containsKey("JFIF") && startsWith(id, idLen, JFIF_ID)) {
+				    		byte[] jfif_buf = readSegmentData(is, id, idLen, length - 2);
+				    		int thumbnailWidth = (jfif_buf.length > 13) ? jfif_buf[12]&0xff : 0;
+				    		int thumbnailHeight = (jfif_buf.length > 13) ? jfif_buf[13]&0xff : 0;
+				    		int size = 3*thumbnailWidth*thumbnailHeight;
+				    		if(size != 0 && jfif_buf.length >= 14 + size) { // There is a thumbnail
+				    			int[] colors = MetadataUtils.toARGB(ArrayUtils.subArray(jfif_buf, 14, size));
+				    			thumbnails.put("JFIF", new JFIFThumbnail(Bitmap.createBitmap(colors, thumbnailWidth, thumbnailHeight, Bitmap.Config.ARGB_8888)));
+				    		}
+				    	} else if(emarker == Marker.APP0 && !thumbnails.containsKey("JFIF") && startsWith(id, idLen, JFXX_ID)) {
+				    		Thumbnail thumbnail = readJFXXThumbnail(readSegmentData(is, id, idLen, length - 2));
+				    		if(thumbnail != null)
+				    			thumbnails.put("JFIF", thumbnail);
+				    	} else if(emarker == Marker.APP1 && !thumbnails.containsKey("EXIF") && startsWith(id, idLen, EXIF_ID)) {
+				    		byte[] exif_buf = readSegmentData(is, id, idLen, length - 2);
+				    		Exif exif = new JpegExif(ArrayUtils.subArray(exif_buf, EXIF_ID.length(), exif_buf.length - EXIF_ID.length()));
+				    		if(exif.containsThumbnail())
+				    			thumbnails.put("EXIF", exif.getThumbnail());
+				    	} else if(emarker == Marker.APP13 && !thumbnails.containsKey("PHOTOSHOP_IRB") && startsWith(id, idLen, PHOTOSHOP_IRB_ID)) {
+				    		byte[] data = readSegmentData(is, id, idLen, length - 2);
+				    		IRB irb = new IRB(ArrayUtils.subArray(data, PHOTOSHOP_IRB_ID.length(), data.length - PHOTOSHOP_IRB_ID.length()));
+				    		if(irb.containsThumbnail())
+				    			thumbnails.put("PHOTOSHOP_IRB", irb.getThumbnail());
+				    	} else
+				    		IOUtils.skipFully(is, length - 2 - idLen);
 				    	marker = IOUtils.readShortMM(is);
 				    	break;
 				    default:
 					    length = IOUtils.readUnsignedShortMM(is);					
-					    byte[] buf = new byte[length - 2];
-					    IOUtils.readFully(is, buf);
+					    IOUtils.skipFully(is, length - 2);
 					    marker = IOUtils.readShortMM(is);
 				}
 			}
 	    }
+		
+		return thumbnails;
 	}
 	
 	public static ICCProfile getICCProfile(InputStream is) throws IOException {
@@ -1369,18 +1480,23 @@ public class JPGMeta {
 		}
 	}
 	
-	private static void readAPP2(InputStream is, OutputStream os) throws IOException {
-		byte[] icc_profile_buf = new byte[ICC_PROFILE_ID.length()];
+	// Returns the whole APP2 segment data if it is an ICC_PROFILE chunk, otherwise skips it and returns null
+	private static byte[] readAPP2(InputStream is) throws IOException {
 		int length = IOUtils.readUnsignedShortMM(is);
-		IOUtils.readFully(is, icc_profile_buf);
+		if(length - 2 < ICC_PROFILE_ID.length() + 2) {
+			IOUtils.skipFully(is, length - 2);
+			return null;
+		}
+		byte[] icc_profile_buf = new byte[length - 2];
+		IOUtils.readFully(is, icc_profile_buf, 0, ICC_PROFILE_ID.length());
 		// ICC_PROFILE segment.
-		if (Arrays.equals(icc_profile_buf, ICC_PROFILE_ID.getBytes())) {
-			icc_profile_buf = new byte[length - ICC_PROFILE_ID.length() - 2];
-		    IOUtils.readFully(is, icc_profile_buf);
-		    os.write(icc_profile_buf, 2, length - ICC_PROFILE_ID.length() - 4);
-		} else {
-  			IOUtils.skipFully(is, length - ICC_PROFILE_ID.length() - 2);
-  		}
+		if (new String(icc_profile_buf, 0, ICC_PROFILE_ID.length()).equals(ICC_PROFILE_ID)) {
+		    IOUtils.readFully(is, icc_profile_buf, ICC_PROFILE_ID.length(), length - ICC_PROFILE_ID.length() - 2);
+		    return icc_profile_buf;
+		}
+		IOUtils.skipFully(is, length - ICC_PROFILE_ID.length() - 2);
+		
+		return null;
 	}
 	
 	private static void readDHT(InputStream is, List<HTable> m_acTables, List<HTable> m_dcTables) throws IOException {	
@@ -1423,11 +1539,12 @@ public class JPGMeta {
 		// JPEG, there could be more than one SOF
 		List<SOFReader> readers = new ArrayList<SOFReader>();
 		// Used to read multiple segment ICCProfile
-		ByteArrayOutputStream iccProfileStream = null;
+		List<byte[]> iccProfileChunks = null;
 		// Used to read multiple segment Adobe APP13
 		ByteArrayOutputStream eightBIMStream = null;
 		// Used to read multiple segment XMP
 		byte[] extendedXMP = null;
+		BitSet extendedXMPReceived = null;
 		String xmpGUID = ""; // 32 byte ASCII hex string
 		Comments comments = null;
 				
@@ -1560,21 +1677,22 @@ public class JPGMeta {
 						i += 32;
 						long extendedXMPLength = IOUtils.readUnsignedIntMM(data, i);
 						i += 4;
-						if(extendedXMP == null)
+						if(extendedXMP == null) {
 							extendedXMP = new byte[(int)extendedXMPLength];
+							extendedXMPReceived = new BitSet(extendedXMP.length);
+						}
 						// Offset for the current segment
 						long offset = IOUtils.readUnsignedIntMM(data, i);
 						i += 4;
-						byte[] xmpBytes = ArrayUtils.subArray(data, i, length - XMP_EXT_ID.length() - 42);
-						System.arraycopy(xmpBytes, 0, extendedXMP, (int)offset, xmpBytes.length);
+						copyExtendedXMPChunk(data, i, length - XMP_EXT_ID.length() - 42, extendedXMP, offset, extendedXMPReceived);
 					}
 				}
 			} else if(segment.getMarker() == Marker.APP2) {
 				// We're only interested in ICC_Profile
-				if (new String(data, 0, ICC_PROFILE_ID.length()).equals(ICC_PROFILE_ID)) {
-					if(iccProfileStream == null)
-						iccProfileStream = new ByteArrayOutputStream();
-					iccProfileStream.write(ArrayUtils.subArray(data, ICC_PROFILE_ID.length() + 2, length - ICC_PROFILE_ID.length() - 4));
+				if (data.length >= ICC_PROFILE_ID.length() + 2 && new String(data, 0, ICC_PROFILE_ID.length()).equals(ICC_PROFILE_ID)) {
+					if(iccProfileChunks == null)
+						iccProfileChunks = new ArrayList<byte[]>();
+					iccProfileChunks.add(data);
 				}
 			} else if(segment.getMarker() == Marker.APP12) {
 				if (new String(data, 0, DUCKY_ID.length()).equals(DUCKY_ID)) {
@@ -1594,8 +1712,8 @@ public class JPGMeta {
 		}
 		
 		// Now it's time to join multiple segments ICC_PROFILE and/or XMP		
-		if(iccProfileStream != null) { // We have ICCProfile data
-			ICCProfile icc_profile = new ICCProfile(iccProfileStream.toByteArray());
+		if(iccProfileChunks != null) { // We have ICCProfile data
+			ICCProfile icc_profile = new ICCProfile(joinICCProfile(iccProfileChunks));
 			metadataMap.put(MetadataType.ICC_PROFILE, icc_profile);
 		}
 		
@@ -1610,6 +1728,9 @@ public class JPGMeta {
 		}
 		
 		if(extendedXMP != null) {
+			int extendedXMPBytesRead = extendedXMPReceived.cardinality();
+			if(extendedXMPBytesRead < extendedXMP.length)
+				LOGGER.warn("ExtendedXMP incomplete: {} of {} bytes found", extendedXMPBytesRead, extendedXMP.length);
 			XMP xmp = ((XMP)metadataMap.get(MetadataType.XMP));
 			if(xmp != null)
 				xmp.setExtendedXMPData(extendedXMP);
@@ -1652,6 +1773,48 @@ public class JPGMeta {
 		return data;
 	}
 	
+	// Reads the thumbnail of a JFXX extension APP0 segment, null if there is none or the extension code is unknown
+	private static Thumbnail readJFXXThumbnail(byte[] jfxx_buf) {
+		int i = JFXX_ID.length();
+		if(jfxx_buf.length <= i + 2) return null;
+		int extensionCode = jfxx_buf[i++]&0xff;
+		if(extensionCode == 0x10) // Thumbnail coded using JPEG
+			return new JFIFThumbnail(0, 0, Thumbnail.DATA_TYPE_KJpegRGB, ArrayUtils.subArray(jfxx_buf, i, jfxx_buf.length - i));
+		int thumbnailWidth = jfxx_buf[i++]&0xff;
+		int thumbnailHeight = jfxx_buf[i++]&0xff;
+		int size = thumbnailWidth*thumbnailHeight;
+		if(size == 0) return null;
+		int[] colors = null;
+		if(extensionCode == 0x11 && jfxx_buf.length >= i + 768 + size) { // 1 byte per pixel with a 256 entry RGB palette
+			int[] palette = MetadataUtils.toARGB(ArrayUtils.subArray(jfxx_buf, i, 768));
+			i += 768;
+			colors = new int[size];
+			for(int j = 0; j < size; j++)
+				colors[j] = palette[jfxx_buf[i++]&0xff];
+		} else if(extensionCode == 0x13 && jfxx_buf.length >= i + 3*size) { // 3 bytes per pixel RGB
+			colors = MetadataUtils.toARGB(ArrayUtils.subArray(jfxx_buf, i, 3*size));
+		}
+		
+		return (colors == null) ? null : new JFIFThumbnail(Bitmap.createBitmap(colors, thumbnailWidth, thumbnailHeight, Bitmap.Config.ARGB_8888));
+	}
+	
+	// Reads the rest of the segment data with the already read leading identifier bytes in front
+	private static byte[] readSegmentData(InputStream is, byte[] id, int idLen, int dataLen) throws IOException {
+		byte[] data = new byte[dataLen];
+		System.arraycopy(id, 0, data, 0, idLen);
+		IOUtils.readFully(is, data, idLen, dataLen - idLen);
+		
+		return data;
+	}
+	
+	// Reads as many leading identifier bytes of the segment data as fit into the id buffer
+	private static int readSegmentID(InputStream is, byte[] id, int dataLen) throws IOException {
+		int idLen = Math.min(id.length, dataLen);
+		IOUtils.readFully(is, id, 0, idLen);
+		
+		return idLen;
+	}
+	
 	private static SOFReader readSOF(InputStream is, Marker marker) throws IOException {		
 		int len = IOUtils.readUnsignedShortMM(is);
 		byte buf[] = new byte[len - 2];
@@ -1800,6 +1963,25 @@ public class JPGMeta {
 	 * @return A map of the removed metadata
 	 */
 	public static Map<MetadataType, Metadata> removeMetadata(Set<MetadataType> metadataTypes, InputStream is, OutputStream os) throws IOException {
+		return removeMetadata(metadataTypes, is, os, true);
+	}
+	
+	/**
+	 * Removes metadata specified by the input MetadataType set.
+	 * <p>
+	 * Segments are identified from their leading identifier bytes only. Kept segments
+	 * and the whole image data after the first SOS are copied through in bulk without
+	 * being decoded. If the removed metadata is not wanted, removed segments are
+	 * skipped without being read into memory.
+	 * 
+	 * @param metadataTypes a set containing all the MetadataTypes to be removed.
+	 * @param is InputStream for the original image.
+	 * @param os OutputStream for the image with metadata removed.
+	 * @param returnRemoved true to return the removed metadata, otherwise false
+	 * @throws IOException
+	 * @return A map of the removed metadata or an empty map if returnRemoved is false
+	 */
+	public static Map<MetadataType, Metadata> removeMetadata(Set<MetadataType> metadataTypes, InputStream is, OutputStream os, boolean returnRemoved) throws IOException {
 		// Create a map to hold all the metadata and thumbnails
 		Map<MetadataType, Metadata> metadataMap = new HashMap<MetadataType, Metadata>();
 		// In case IRB data are partially removed, we keep removed metadata here
@@ -1807,11 +1989,17 @@ public class JPGMeta {
 	
 		Comments comments = null;
 		
-		List<Segment> appnSegments = new ArrayList<Segment>();			
+		List<Segment> appnSegments = new ArrayList<Segment>();
+		
+		// Shared buffer to copy kept segments and image data
+		byte[] buf = new byte[COPY_BUFFER_SIZE];
+		// Leading identifier bytes of the current segment
+		byte[] id = new byte[MAX_SEGMENT_ID_LEN];
 		
 		// Flag when we are done
 		boolean finished = false;
 		int length = 0;
+		int idLen = 0;
 		short marker;
 		Marker emarker;
 
@@ -1848,156 +2036,96 @@ public class JPGMeta {
 						break;
 					case SOS: // There should be no meta data after this segment
 						IOUtils.writeShortMM(os, marker);
-						copyToEnd(is, os);
+						copyToEnd(is, os, buf);
 						finished = true;
 						break;
 					case COM:
 						if(metadataTypes.contains(MetadataType.COMMENT)) {
-							if(comments == null) comments = new Comments();
-							comments.addComment(readSegmentData(is));
+							if(returnRemoved) {
+								if(comments == null) comments = new Comments();
+								comments.addComment(readSegmentData(is));
+							} else
+								IOUtils.skipFully(is, IOUtils.readUnsignedShortMM(is) - 2);
 						 	marker = IOUtils.readShortMM(is);
 						} else
-							marker = copySegment(marker, is, os);
-						break;						
-					case APP0:
-						if(metadataTypes.contains(MetadataType.JPG_JFIF)) {
-							length = IOUtils.readUnsignedShortMM(is);
-						    byte[] temp = new byte[length - 2];
-						    IOUtils.readFully(is, temp);
-							// Not JFIF segment
-							if (temp.length < JFIF_ID.length() || ! JFIF_ID.equals(new String(temp, 0, JFIF_ID.length()))) {
-								IOUtils.writeShortMM(os, marker);
-								IOUtils.writeShortMM(os, (short) length);
-								IOUtils.write(os, temp);
-							} else { // We put it into the Segment map for further use
-								appnSegments.add(new Segment(emarker, length, temp));
-							}
-							marker = IOUtils.readShortMM(is);
-						} else
-							marker = copySegment(marker, is, os);
+							marker = copySegment(marker, is, os, buf);
 						break;
+					case APP0:
 					case APP1:
-						// We are only interested in EXIF and XMP
-						if(metadataTypes.contains(MetadataType.EXIF) || metadataTypes.contains(MetadataType.XMP)) {
-							length = IOUtils.readUnsignedShortMM(is);
-							byte[] temp = new byte[length - 2];
-							IOUtils.readFully(is, temp);
-							// XMP or EXIF segment
-							if((metadataTypes.contains(MetadataType.XMP) && temp.length >= XMP_EXT_ID.length() && new String(temp, 0, XMP_EXT_ID.length()).equals(XMP_EXT_ID))
-								|| (metadataTypes.contains(MetadataType.XMP) && temp.length >= XMP_ID.length() && new String(temp, 0, XMP_ID.length()).equals(XMP_ID))
-								|| (metadataTypes.contains(MetadataType.XMP) && temp.length >= NON_STANDARD_XMP_ID.length() && new String(temp, 0, NON_STANDARD_XMP_ID.length()).equals(NON_STANDARD_XMP_ID))
-								|| (metadataTypes.contains(MetadataType.EXIF) && temp.length >= EXIF_ID.length() && new String(temp, 0, EXIF_ID.length()).equals(EXIF_ID))) { // EXIF
-								// We put it into the Segment map for further use
-								appnSegments.add(new Segment(emarker, length, temp));
-							} else { // We don't want to remove any of them
-								IOUtils.writeShortMM(os, marker);
-								IOUtils.writeShortMM(os, (short) length);
-								IOUtils.write(os, temp);
-							}
-							marker = IOUtils.readShortMM(is);
-						} else
-							marker = copySegment(marker, is, os);
-						break;
 					case APP2:
-						if(metadataTypes.contains(MetadataType.ICC_PROFILE)) {
-							length = IOUtils.readUnsignedShortMM(is);
-							byte[] temp = new byte[length - 2];
-							IOUtils.readFully(is, temp);	
-							// Not ICC_Profile segment
-							if (temp.length < ICC_PROFILE_ID.length() || ! ICC_PROFILE_ID.equals(new String(temp, 0, ICC_PROFILE_ID.length()))) {
-								IOUtils.writeShortMM(os, marker);
-								IOUtils.writeShortMM(os, (short) length);
-								IOUtils.write(os, temp);
-							} else { // We put it into the Segment map for further use
-								appnSegments.add(new Segment(emarker, length, temp));
-							}
-							marker = IOUtils.readShortMM(is);
-						} else
-							marker = copySegment(marker, is, os);
-						break;
 					case APP12:
-						if(metadataTypes.contains(MetadataType.JPG_DUCKY)) {
-							length = IOUtils.readUnsignedShortMM(is);
-							byte[] temp = new byte[length - 2];
-							IOUtils.readFully(is, temp);	
-							// Not Ducky segment
-							if (temp.length < DUCKY_ID.length() || ! DUCKY_ID.equals(new String(temp, 0, DUCKY_ID.length()))) {
-								IOUtils.writeShortMM(os, marker);
-								IOUtils.writeShortMM(os, (short) length);
-								IOUtils.write(os, temp);
-							} else { // We put it into the Segment map for further use
-								appnSegments.add(new Segment(emarker, length, temp));
-							}
-							marker = IOUtils.readShortMM(is);
-						} else
-							marker = copySegment(marker, is, os);
+					case APP14:
+						length = IOUtils.readUnsignedShortMM(is);
+						idLen = readSegmentID(is, id, length - 2);
+						if(isRemovable(emarker, id, idLen, metadataTypes)) {
+							// We put it into the Segment map for further use
+							if(returnRemoved)
+								appnSegments.add(new Segment(emarker, length, readSegmentData(is, id, idLen, length - 2)));
+							else
+								IOUtils.skipFully(is, length - 2 - idLen);
+						} else { // Copy it through
+							IOUtils.writeShortMM(os, marker);
+							IOUtils.writeShortMM(os, (short) length);
+							IOUtils.write(os, id, 0, idLen);
+							IOUtils.copyFully(is, os, length - 2 - idLen, buf);
+						}
+						marker = IOUtils.readShortMM(is);
 						break;
 					case APP13:
-						if(metadataTypes.contains(MetadataType.PHOTOSHOP_IRB) || metadataTypes.contains(MetadataType.IPTC)
-							|| metadataTypes.contains(MetadataType.XMP) || metadataTypes.contains(MetadataType.EXIF)) {
-							length = IOUtils.readUnsignedShortMM(is);
-							byte[] temp = new byte[length - 2];
-							IOUtils.readFully(is, temp);	
-							// PHOTOSHOP IRB segment
-							if (temp.length >= PHOTOSHOP_IRB_ID.length() && new String(temp, 0, PHOTOSHOP_IRB_ID.length()).equals(PHOTOSHOP_IRB_ID)) {
+						length = IOUtils.readUnsignedShortMM(is);
+						idLen = readSegmentID(is, id, length - 2);
+						// PHOTOSHOP IRB segment
+						if((metadataTypes.contains(MetadataType.PHOTOSHOP_IRB) || metadataTypes.contains(MetadataType.IPTC)
+							|| metadataTypes.contains(MetadataType.XMP) || metadataTypes.contains(MetadataType.EXIF))
+								&& startsWith(id, idLen, PHOTOSHOP_IRB_ID)) {
+							if(metadataTypes.contains(MetadataType.PHOTOSHOP_IRB)) {
+								// We put it into the Segment map for further use
+								if(returnRemoved)
+									appnSegments.add(new Segment(emarker, length, readSegmentData(is, id, idLen, length - 2)));
+								else
+									IOUtils.skipFully(is, length - 2 - idLen);
+							} else {
+								byte[] temp = readSegmentData(is, id, idLen, length - 2);
 								IRB irb = new IRB(ArrayUtils.subArray(temp, PHOTOSHOP_IRB_ID.length(), temp.length - PHOTOSHOP_IRB_ID.length()));
 								// Shallow copy the map.
 								Map<Short, _8BIM> bimMap = new HashMap<Short, _8BIM>(irb.get8BIM());								
-								if(!metadataTypes.contains(MetadataType.PHOTOSHOP_IRB)) {
-									if(metadataTypes.contains(MetadataType.IPTC)) {
-										// We only remove IPTC_NAA and keep the other IRB data untouched.
-										_8BIM bim = bimMap.remove(ImageResourceID.IPTC_NAA.getValue());
-										if(bim != null) extraMetadataMap.put(MetadataType.IPTC, new IPTC(bim.getData()));
-									} 
-									if(metadataTypes.contains(MetadataType.XMP)) {
-										// We only remove XMP and keep the other IRB data untouched.
-										_8BIM bim = bimMap.remove(ImageResourceID.XMP_METADATA.getValue());
-										if(bim != null) extraMetadataMap.put(MetadataType.XMP, new JpegXMP(bim.getData()));
-									} 
-									if(metadataTypes.contains(MetadataType.EXIF)) {
-										// We only remove EXIF and keep the other IRB data untouched.
-										_8BIM bim = bimMap.remove(ImageResourceID.EXIF_DATA1.getValue());
-										if(bim != null) extraMetadataMap.put(MetadataType.EXIF, new JpegExif(bim.getData()));
-										// I can't find more information on this one, so remove it just in case.
-										bimMap.remove(ImageResourceID.EXIF_DATA3.getValue());
-									}
-									// Write back the IRB
-									writeIRB(os, bimMap.values());
-								} else { // We put it into the Segment map for further use
-									appnSegments.add(new Segment(emarker, length, temp));
-								}							
-							} else {
-								IOUtils.writeShortMM(os, marker);
-								IOUtils.writeShortMM(os, (short) length);
-								IOUtils.write(os, temp);
-							}
-							marker = IOUtils.readShortMM(is);
-						} else
-							marker = copySegment(marker, is, os);
-						break;
-					case APP14:
-						if(metadataTypes.contains(MetadataType.JPG_ADOBE)) {
-							length = IOUtils.readUnsignedShortMM(is);
-							byte[] temp = new byte[length - 2];
-							IOUtils.readFully(is, temp);	
-							// Not Adobe segment
-							if (temp.length < ADOBE_ID.length() || ! ADOBE_ID.equals(new String(temp, 0, ADOBE_ID.length()))) {
-								IOUtils.writeShortMM(os, marker);
-								IOUtils.writeShortMM(os, (short) length);
-								IOUtils.write(os, temp);
-							} else { // We put it into the Segment map for further use
-								appnSegments.add(new Segment(emarker, length, temp));
+								if(metadataTypes.contains(MetadataType.IPTC)) {
+									// We only remove IPTC_NAA and keep the other IRB data untouched.
+									_8BIM bim = bimMap.remove(ImageResourceID.IPTC_NAA.getValue());
+									if(bim != null) extraMetadataMap.put(MetadataType.IPTC, new IPTC(bim.getData()));
+								} 
+								if(metadataTypes.contains(MetadataType.XMP)) {
+									// We only remove XMP and keep the other IRB data untouched.
+									_8BIM bim = bimMap.remove(ImageResourceID.XMP_METADATA.getValue());
+									if(bim != null) extraMetadataMap.put(MetadataType.XMP, new JpegXMP(bim.getData()));
+								} 
+								if(metadataTypes.contains(MetadataType.EXIF)) {
+									// We only remove EXIF and keep the other IRB data untouched.
+									_8BIM bim = bimMap.remove(ImageResourceID.EXIF_DATA1.getValue());
+									if(bim != null) extraMetadataMap.put(MetadataType.EXIF, new JpegExif(bim.getData()));
+									// I can't find more information on this one, so remove it just in case.
+									bimMap.remove(ImageResourceID.EXIF_DATA3.getValue());
+								}
+								// Write back the IRB
+								writeIRB(os, bimMap.values());
 							}
-							marker = IOUtils.readShortMM(is);
-						} else
-							marker = copySegment(marker, is, os);
+						} else { // Copy it through
+							IOUtils.writeShortMM(os, marker);
+							IOUtils.writeShortMM(os, (short) length);
+							IOUtils.write(os, id, 0, idLen);
+							IOUtils.copyFully(is, os, length - 2 - idLen, buf);
+						}
+						marker = IOUtils.readShortMM(is);
 						break;
 					default:
-						marker = copySegment(marker, is, os);
+						marker = copySegment(marker, is, os, buf);
 				}
 			}
 		}
 		
+		if(!returnRemoved)
+			return metadataMap;
+		
 		extractMetadataFromAPPn(appnSegments, metadataMap);
 		
 		// If we are supposed to remove IPTC, check if we have removed it from IRB. If yes, add it
@@ -2025,6 +2153,36 @@ public class JPGMeta {
 		return metadataMap;
 	}
 	
+	// Checks from the leading identifier bytes if an APPn segment holds any of the metadata to be removed
+	private static boolean isRemovable(Marker emarker, byte[] id, int idLen, Set<MetadataType> metadataTypes) {
+		switch (emarker) {
+			case APP0:
+				return metadataTypes.contains(MetadataType.JPG_JFIF) && startsWith(id, idLen, JFIF_ID);
+			case APP1:
+				return (metadataTypes.contains(MetadataType.XMP) && (startsWith(id, idLen, XMP_EXT_ID)
+						|| startsWith(id, idLen, XMP_ID) || startsWith(id, idLen, NON_STANDARD_XMP_ID)))
+					|| (metadataTypes.contains(MetadataType.EXIF) && startsWith(id, idLen, EXIF_ID));
+			case APP2:
+				return metadataTypes.contains(MetadataType.ICC_PROFILE) && startsWith(id, idLen, ICC_PROFILE_ID);
+			case APP12:
+				return metadataTypes.contains(MetadataType.JPG_DUCKY) && startsWith(id, idLen, DUCKY_ID);
+			case APP14:
+				return metadataTypes.contains(MetadataType.JPG_ADOBE) && startsWith(id, idLen, ADOBE_ID);
+			default:
+				return false;
+		}
+	}
+	
+	// Compares the leading identifier bytes with an ASCII identifier without creating a String
+	private static boolean startsWith(byte[] id, int idLen, String expected) {
+		if(idLen < expected.length()) return false;
+		for(int i = 0; i < expected.length(); i++) {
+			if(id[i] != (byte)expected.charAt(i)) return false;
+		}
+		
+		return true;
+	}
+	
 	@SuppressWarnings("unused")
 	private static short skipSOS(InputStream is) throws IOException {
 		int nextByte = 0;
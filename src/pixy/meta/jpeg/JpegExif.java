@@ -29,21 +29,23 @@ import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import pixy.image.jpeg.Marker;
 import pixy.image.tiff.ASCIIField;
 import pixy.image.tiff.IFD;
 import pixy.image.tiff.LongField;
 import pixy.image.tiff.TiffField;
+import pixy.image.tiff.TiffLayout;
 import pixy.image.tiff.TiffTag;
 import pixy.io.IOUtils;
-import pixy.io.MemoryCacheRandomAccessOutputStream;
-import pixy.io.RandomAccessOutputStream;
-import pixy.io.WriteStrategyMM;
-import pixy.io.WriteStrategyII;
 import pixy.meta.exif.Exif;
 import pixy.meta.exif.ExifTag;
 
 public class JpegExif extends Exif {
+	// Obtain a logger instance
+	private static final Logger LOGGER = LoggerFactory.getLogger(JpegExif.class);
 
 	public JpegExif() {
 		;
@@ -68,28 +70,23 @@ public class JpegExif extends Exif {
 	
 	/** 
 	 * Write the EXIF data to the OutputStream
+	 * <p>
+	 * The EXIF data has to fit into one APP1 segment. If it only fits without
+	 * the thumbnail, the thumbnail is dropped.
 	 * 
 	 * @param os OutputStream
-	 * @throws Exception 
+	 * @throws IOException if the EXIF data does not fit into one APP1 segment even without the thumbnail
 	 */
 	@Override
 	public void write(OutputStream os) throws IOException {
 		ensureDataRead();
-		// Wraps output stream with a RandomAccessOutputStream
-		RandomAccessOutputStream randOS = new MemoryCacheRandomAccessOutputStream(os);
-		// Write JPEG the EXIF data
-		// Writes APP1 marker
-		IOUtils.writeShortMM(os, Marker.APP1.getValue());		
-		// TIFF structure starts here
-		short tiffID = 0x2a; //'*'
-		randOS.setWriteStrategy((preferredEndian == IOUtils.BIG_ENDIAN)? WriteStrategyMM.getInstance():WriteStrategyII.getInstance());
-		randOS.writeShort(preferredEndian);
-		randOS.writeShort(tiffID);
-		// First IFD offset relative to TIFF structure
-		randOS.seek(0x04);
-		randOS.writeInt(FIRST_IFD_OFFSET);
-		// Writes IFDs
-		randOS.seek(FIRST_IFD_OFFSET);
+		// Nothing changed, keep the original TIFF structure including MakerNote offsets as it is
+		if(!isModified() && data != null && data.length > 0 && data.length + 8 <= 0xffff) {
+			writeSegment(os, data.length);
+			IOUtils.write(os, data);
+			return;
+		}
+		ensureDirectoriesRead();
 		if(imageIFD == null) createImageIFD();
 		// Attach EXIIF and/or GPS SubIFD to main image IFD
 		if(exifSubIFD != null) {
@@ -104,22 +101,41 @@ public class JpegExif extends Exif {
 			imageIFD.addField(new LongField(TiffTag.GPS_SUB_IFD.getValue(), new int[]{0})); // Place holder
 			imageIFD.addChild(TiffTag.GPS_SUB_IFD, gpsSubIFD);
 		}
-		int offset = imageIFD.write(randOS, FIRST_IFD_OFFSET);
+		// Plan the TIFF structure up front so the segment length is known before anything is written
+		TiffLayout layout = new TiffLayout(preferredEndian, false);
+		layout.addIFD(imageIFD);
 		if(thumbnail != null && thumbnail.containsImage()) {
-			imageIFD.setNextIFDOffset(randOS, offset);
-			randOS.seek(offset); // Set the stream pointer to the correct position
-			thumbnail.write(randOS);
+			try {
+				thumbnail.addTo(layout);
+				if(layout.getLength() + 8 > 0xffff) {
+					LOGGER.warn("EXIF data too large for a single APP1 segment, thumbnail dropped");
+					layout = null;
+				}
+			} catch(IOException e) {
+				LOGGER.error("Failed to write EXIF thumbnail, thumbnail dropped", e);
+				layout = null;
+			}
+			if(layout == null) { // Start over without the thumbnail
+				layout = new TiffLayout(preferredEndian, false);
+				layout.addIFD(imageIFD);
+			}
 		}
-		// Now it's time to update the segment length
-		int length = (int)randOS.getLength();
-		// Update segment length
+		long length = layout.getLength();
+		if(length + 8 > 0xffff)
+			throw new IOException("EXIF data too large for a single APP1 segment: " + length + " bytes");
+		writeSegment(os, (int)length);
+		// TIFF structure starts here
+		layout.write(os);
+	}
+	
+	// Writes the APP1 segment header for a TIFF structure of the given length
+	private static void writeSegment(OutputStream os, int length) throws IOException {
+		// Writes APP1 marker
+		IOUtils.writeShortMM(os, Marker.APP1.getValue());
+		// Write segment length
 		IOUtils.writeShortMM(os, length + 8);
 		// Add EXIF identifier with trailing bytes [0x00,0x00].
 		byte[] exif = {0x45, 0x78, 0x69, 0x66, 0x00, 0x00};
 		IOUtils.write(os, exif);
-		// Dump randOS to normal output stream and we are done!
-		randOS.seek(0);
-		randOS.writeToStream(length);
-		randOS.shallowClose();
 	}
 }
@@ -0,0 +1,406 @@
+/*
+ * Copyright (c) 2014-2021 by Wen Yu
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the Eclipse
+ * Public License, v. 2.0 are satisfied: GNU General Public License, version 2
+ * or any later version.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0-or-later
+ */
+
+package pixy.meta.jpeg;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import pixy.image.jpeg.Marker;
+
+/**
+ * JPEG marker level integrity checker.
+ * <p>
+ * Walks the JPEG marker structure in one streaming pass without decoding any
+ * pixel data. It checks the SOI and EOI markers, segment length consistency,
+ * scan termination, the RSTn restart marker sequence and trailing data after EOI.
+ * Truncated images are reported instead of thrown as exceptions.
+ */
+public class JpegIntegrity {
+
+	// Size of the internal read buffer
+	private static final int BUFFER_SIZE = 65536;
+	// Maximum number of problem descriptions kept in a Report
+	private static final int MAX_PROBLEMS = 100;
+
+	/**
+	 * Result of a JPEG integrity check
+	 */
+	public static class Report {
+		private boolean soiFound;
+		private boolean eoiFound;
+		private boolean truncated;
+		private int numOfSegments;
+		private int numOfScans;
+		private int numOfRestartMarkers;
+		private int restartSequenceErrors;
+		private long trailingBytes;
+		private long bytesRead;
+		private int numOfProblems;
+		private List<String> problems = new ArrayList<String>();
+
+		private void addProblem(long offset, String problem) {
+			// Keep the Report small for hostile input with lots of problems
+			if(numOfProblems++ < MAX_PROBLEMS)
+				problems.add("Offset " + offset + ": " + problem);
+		}
+
+		/**
+		 * @return total number of bytes read, including trailing data after EOI
+		 */
+		public long getBytesRead() {
+			return bytesRead;
+		}
+
+		/**
+		 * @return total number of problems found, which may be more than the
+		 *         number of descriptions kept by {@link #getProblems()}
+		 */
+		public int getNumOfProblems() {
+			return numOfProblems;
+		}
+
+		public int getNumOfRestartMarkers() {
+			return numOfRestartMarkers;
+		}
+
+		public int getNumOfScans() {
+			return numOfScans;
+		}
+
+		/**
+		 * @return number of marker segments and stand-alone markers outside of the scans
+		 */
+		public int getNumOfSegments() {
+			return numOfSegments;
+		}
+
+		/**
+		 * @return a list of human readable descriptions of the problems found,
+		 *         limited to the first 100 problems
+		 */
+		public List<String> getProblems() {
+			return Collections.unmodifiableList(problems);
+		}
+
+		/**
+		 * @return number of RSTn markers out of the RST0..RST7 modulo 8 order
+		 */
+		public int getRestartSequenceErrors() {
+			return restartSequenceErrors;
+		}
+
+		/**
+		 * @return number of bytes after the EOI marker
+		 */
+		public long getTrailingBytes() {
+			return trailingBytes;
+		}
+
+		public boolean isEOIFound() {
+			return eoiFound;
+		}
+
+		public boolean isSOIFound() {
+			return soiFound;
+		}
+
+		/**
+		 * @return true if the data ended before the EOI marker
+		 */
+		public boolean isTruncated() {
+			return truncated;
+		}
+
+		/**
+		 * @return true if no problem was found
+		 */
+		public boolean isValid() {
+			return numOfProblems == 0;
+		}
+
+		@Override public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append("JPEG integrity: " + (isValid() ? "valid" : "invalid") + "\n");
+			sb.append("SOI found: " + soiFound + ", EOI found: " + eoiFound + ", truncated: " + truncated + "\n");
+			sb.append("Segments: " + numOfSegments + ", scans: " + numOfScans + ", RSTn markers: " + numOfRestartMarkers + "\n");
+			sb.append("Restart sequence errors: " + restartSequenceErrors + ", trailing bytes: " + trailingBytes + "\n");
+			for(String problem : problems)
+				sb.append(problem + "\n");
+			if(numOfProblems > problems.size())
+				sb.append((numOfProblems - problems.size()) + " more problems not listed\n");
+
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * Checks the marker structure of a JPEG image.
+	 * <p>
+	 * The stream is read until its end so trailing data after EOI can be counted.
+	 * The stream is not closed.
+	 *
+	 * @param is InputStream for the JPEG image
+	 * @return a Report for the image
+	 * @throws IOException if reading the stream fails
+	 */
+	public static Report check(InputStream is) throws IOException {
+		return new JpegIntegrity(is).check();
+	}
+
+	private InputStream is;
+	private byte[] buf = new byte[BUFFER_SIZE];
+	private int pos;
+	private int limit;
+	// Stream offset of buf[0]
+	private long bufOffset;
+	private Report report = new Report();
+
+	private JpegIntegrity(InputStream is) {
+		this.is = is;
+	}
+
+	private Report check() throws IOException {
+		if(read() != 0xff || read() != 0xd8) {
+			report.addProblem(0, "Expected SOI marker not found");
+			return finish();
+		}
+
+		report.soiFound = true;
+
+		int nextByte = nextMarker();
+
+		while(nextByte != -1) {
+			long markerOffset = offset() - 2;
+			Marker emarker = Marker.fromByte(nextByte);
+
+			if(emarker == Marker.EOI) {
+				report.eoiFound = true;
+				countTrailingBytes();
+				return finish();
+			}
+
+			report.numOfSegments++;
+
+			switch (emarker) {
+				case TEM: // The only stand alone marker besides SOI, EOI, and RSTn.
+					break;
+				case RST0:
+				case RST1:
+				case RST2:
+				case RST3:
+				case RST4:
+				case RST5:
+				case RST6:
+				case RST7:
+					report.addProblem(markerOffset, emarker.name() + " marker outside of scan");
+					break;
+				case SOI:
+					report.addProblem(markerOffset, "Unexpected SOI marker");
+					break;
+				case SOS:
+					if(!skipSegment(emarker, markerOffset)) return finish();
+					report.numOfScans++;
+					nextByte = checkScan();
+					continue;
+				default:
+					if(!skipSegment(emarker, markerOffset)) return finish();
+			}
+
+			nextByte = nextMarker();
+		}
+
+		return finish();
+	}
+
+	/**
+	 * Walks the entropy-coded data after a SOS header.
+	 *
+	 * @return the second byte of the marker terminating the scan or -1 on EOF
+	 */
+	private int checkScan() throws IOException {
+		int expectedRST = 0;
+		int nextByte;
+
+		while(true) {
+			// Fast path over the entropy-coded bytes
+			int b = 0;
+			while(true) {
+				if(pos >= limit && !fill()) {
+					truncated("Scan not terminated");
+					return -1;
+				}
+				b = buf[pos++]&0xff;
+				if(b == 0xff) break;
+			}
+			// Skip any fill bytes
+			while((nextByte = read()) == 0xff) {;}
+
+			if(nextByte == -1) {
+				truncated("Scan not terminated");
+				return -1;
+			}
+
+			if(nextByte == 0x00) continue; // Stuffed zero byte
+
+			if(nextByte >= 0xd0 && nextByte <= 0xd7) { // RSTn
+				report.numOfRestartMarkers++;
+				int rst = nextByte - 0xd0;
+				if(rst != expectedRST) {
+					report.restartSequenceErrors++;
+					report.addProblem(offset() - 2, "Expected RST" + expectedRST + " but found RST" + rst);
+				}
+				expectedRST = (rst + 1) & 0x07;
+				continue;
+			}
+
+			return nextByte;
+		}
+	}
+
+	private void countTrailingBytes() throws IOException {
+		long trailing = limit - pos;
+		pos = limit;
+		while(fill()) {
+			trailing += limit;
+			pos = limit;
+		}
+
+		if(trailing > 0) {
+			report.trailingBytes = trailing;
+			report.addProblem(offset() - trailing, trailing + " bytes of trailing data after EOI");
+		}
+	}
+
+	private boolean fill() throws IOException {
+		bufOffset += limit;
+		pos = 0;
+		limit = 0;
+		int count = is.read(buf);
+
+		if(count <= 0) return false;
+
+		limit = count;
+
+		return true;
+	}
+
+	private Report finish() {
+		report.bytesRead = offset();
+
+		if(report.soiFound && !report.eoiFound && !report.truncated)
+			truncated("Expected EOI marker not found");
+
+		return report;
+	}
+
+	/**
+	 * Reads up to the next marker, reporting any garbage in front of it.
+	 *
+	 * @return the second byte of the marker or -1 on EOF
+	 */
+	private int nextMarker() throws IOException {
+		while(true) {
+			int b = read();
+			long garbage = 0;
+			long start = offset() - 1;
+
+			while(b != -1 && b != 0xff) {
+				garbage++;
+				b = read();
+			}
+
+			if(b == -1) return -1;
+
+			if(garbage > 0)
+				report.addProblem(start, garbage + " bytes of unexpected data before marker");
+
+			// Skip any fill bytes
+			while((b = read()) == 0xff) {;}
+
+			if(b != 0x00) return b;
+
+			// Not a marker, keep looking
+			report.addProblem(offset() - 2, "Unexpected 0xff00 outside of scan");
+		}
+	}
+
+	private long offset() {
+		return bufOffset + pos;
+	}
+
+	private int read() throws IOException {
+		if(pos >= limit && !fill()) return -1;
+
+		return buf[pos++]&0xff;
+	}
+
+	/**
+	 * Skips a marker segment by its length field.
+	 *
+	 * @return false if the image data ended within the segment
+	 */
+	private boolean skipSegment(Marker emarker, long markerOffset) throws IOException {
+		int high = read();
+		int low = read();
+
+		if(low == -1) {
+			truncated(emarker.name() + " segment length missing");
+			return false;
+		}
+
+		int length = (high<<8)|low;
+
+		if(length < 2) {
+			report.addProblem(markerOffset, "Invalid " + emarker.name() + " segment length " + length);
+			return true;
+		}
+
+		if(emarker == Marker.SOS && length >= 3) {
+			int numOfComponents = read();
+			if(numOfComponents == -1) {
+				truncated("SOS segment ended prematurely");
+				return false;
+			}
+			if(length != 6 + 2*numOfComponents)
+				report.addProblem(markerOffset, "SOS segment length " + length + " doesn't match " + numOfComponents + " components");
+			return skip(length - 3, emarker);
+		}
+
+		return skip(length - 2, emarker);
+	}
+
+	private boolean skip(long n, Marker emarker) throws IOException {
+		while(n > 0) {
+			if(pos >= limit && !fill()) {
+				truncated(emarker.name() + " segment ended prematurely");
+				return false;
+			}
+			int count = (int)Math.min(n, limit - pos);
+			pos += count;
+			n -= count;
+		}
+
+		return true;
+	}
+
+	private void truncated(String problem) {
+		report.truncated = true;
+		report.addProblem(offset(), problem);
+	}
+}
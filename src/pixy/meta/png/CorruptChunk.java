@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2014-2021 by Wen Yu
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the Eclipse
+ * Public License, v. 2.0 are satisfied: GNU General Public License, version 2
+ * or any later version.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0-or-later
+ */
+
+package pixy.meta.png;
+
+import pixy.image.png.ChunkType;
+
+/**
+ * A PNG chunk whose stored CRC doesn't match its type and data, as reported by
+ * {@link PNGMeta#readChunks(java.io.InputStream, java.util.Set, boolean, java.util.List)}
+ */
+public final class CorruptChunk {
+
+	private final int chunkTypeValue;
+	private final long offset;
+	private final long length;
+	private final long crc;
+	private final long calculatedCRC;
+
+	CorruptChunk(int chunkTypeValue, long offset, long length, long crc, long calculatedCRC) {
+		this.chunkTypeValue = chunkTypeValue;
+		this.offset = offset;
+		this.length = length;
+		this.crc = crc;
+		this.calculatedCRC = calculatedCRC;
+	}
+
+	/**
+	 * @return the CRC calculated over the chunk type and data
+	 */
+	public long getCalculatedCRC() {
+		return calculatedCRC;
+	}
+
+	public ChunkType getChunkType() {
+		return ChunkType.fromInt(chunkTypeValue);
+	}
+
+	/**
+	 * @return the four byte chunk type value, which also identifies unknown chunks
+	 */
+	public int getChunkTypeValue() {
+		return chunkTypeValue;
+	}
+
+	/**
+	 * @return the CRC stored in the image
+	 */
+	public long getCRC() {
+		return crc;
+	}
+
+	/**
+	 * @return length of the chunk data
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * @return stream position of the chunk, counted from the PNG signature
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	@Override
+	public String toString() {
+		return getChunkType() + "[Chunk type value: 0x" + Integer.toHexString(chunkTypeValue) + ", offset: " + offset
+				+ ", CRC: 0x" + Long.toHexString(crc) + ", calculated: 0x" + Long.toHexString(calculatedCRC) + "]";
+	}
+}
@@ -32,11 +32,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.zip.InflaterInputStream;
@@ -58,6 +58,7 @@ import pixy.image.png.UnknownChunk;
 import pixy.io.IOUtils;
 import pixy.string.XMLUtils;
 import pixy.string.StringUtils;
+import pixy.util.zip.CRC32;
 import pixy.meta.adobe.IRB;
 import pixy.meta.jpeg.JpegExif;
 /**
@@ -71,6 +72,25 @@ public class PNGMeta {
 	/** PNG signature constant */
     private static final long SIGNATURE = 0x89504E470D0A1A0AL;
     
+    // Chunks which may only occur once, an inserted one replaces the existing one
+    private static final Set<ChunkType> SINGLE_CHUNKS = EnumSet.of(ChunkType.CHRM, ChunkType.GAMA, ChunkType.ICCP,
+    		ChunkType.SBIT, ChunkType.SRGB, ChunkType.BKGD, ChunkType.PHYS, ChunkType.TIME, ChunkType.TRNS, ChunkType.EXIF);
+    
+    // Chunks readMetadata() looks at
+    private static final Set<ChunkType> METADATA_CHUNKS = EnumSet.of(ChunkType.ICCP, ChunkType.TEXT, ChunkType.ITXT,
+    		ChunkType.ZTXT, ChunkType.TIME, ChunkType.EXIF);
+    
+    // Decides whether an existing chunk is left out while rewriting the chunks
+    private interface ChunkFilter {
+    	boolean remove(Chunk chunk);
+    }
+    
+    private static final ChunkFilter REMOVE_ALL = new ChunkFilter() {
+    	public boolean remove(Chunk chunk) {
+    		return true;
+    	}
+    };
+    
     // Obtain a logger instance
  	private static final Logger LOGGER = LoggerFactory.getLogger(PNGMeta.class);
 	
@@ -79,21 +99,32 @@ public class PNGMeta {
   	}
   	
   	public static void insertChunks(InputStream is, OutputStream os, Chunk... chunks) throws IOException {
-  		List<Chunk> list = readChunks(is);  		
+  		List<Chunk> list = new ArrayList<Chunk>(chunks.length);
         Collections.addAll(list, chunks);
     	
-  		IOUtils.writeLongMM(os, SIGNATURE);
-	
-        serializeChunks(list, os);
+        insertChunks(list, is, os);
   	}
   	
+  	/**
+  	 * Inserts chunks into a PNG image. The existing chunks are copied through one
+  	 * at a time and the new ones are placed in front of the first chunk which ranks
+  	 * after them, so nothing like IDAT is ever held in memory. An existing chunk of
+  	 * a type which may only occur once, such as iCCP or tIME, is replaced by an
+  	 * inserted one of the same type. iCCP and sRGB replace each other.
+  	 */
   	public static void insertChunks(List<Chunk> chunks, InputStream is, OutputStream os) throws IOException {
-  		List<Chunk> list = readChunks(is);  		
-        list.addAll(chunks);
-    	
-  		IOUtils.writeLongMM(os, SIGNATURE);
-	
-        serializeChunks(list, os);
+  		Set<ChunkType> replaced = EnumSet.noneOf(ChunkType.class);
+  		for(Chunk chunk : chunks) {
+  			ChunkType type = chunk.getChunkType();
+  			if(SINGLE_CHUNKS.contains(type))
+  				replaced.add(type);
+  			if(type == ChunkType.ICCP)
+  				replaced.add(ChunkType.SRGB);
+  			else if(type == ChunkType.SRGB)
+  				replaced.add(ChunkType.ICCP);
+  		}
+  		
+  		rewriteChunks(is, os, chunks, replaced, REMOVE_ALL);
   	}
   	
   	public static void insertComments(InputStream is, OutputStream os, List<String> comments) throws IOException {
@@ -140,36 +171,55 @@ public class PNGMeta {
     }
   	
   	private static void insert(InputStream is, OutputStream os, String xmp) throws IOException {
-  		// Read all the chunks first
-  		List<Chunk> chunks = readChunks(is);
-	    ListIterator<Chunk> itr = chunks.listIterator();
-	    
-	    // Remove old XMP chunk
-	    while(itr.hasNext()) {
-	    	Chunk chunk = itr.next();
-	    	if(chunk.getChunkType() == ChunkType.ITXT) {
-	    		TextReader reader = new TextReader(chunk);
-				if(reader.getKeyword().equals("XML:com.adobe.xmp")); // We found XMP data
-					itr.remove();
-	    	}
-	    }
-	    
 	    // Create XMP textual chunk
 		Chunk xmpChunk = new TextBuilder(ChunkType.ITXT).keyword("XML:com.adobe.xmp").text(xmp).build();
-		// Insert XMP textual chunk into image
-	    chunks.add(xmpChunk);
-	    
-	    IOUtils.writeLongMM(os, SIGNATURE);
-	    
-        serializeChunks(chunks, os);
+		// Insert XMP textual chunk into image, removing the old XMP chunk
+		rewriteChunks(is, os, Collections.singletonList(xmpChunk), EnumSet.of(ChunkType.ITXT), new ChunkFilter() {
+			public boolean remove(Chunk chunk) {
+				return new TextReader(chunk).getKeyword().equals("XML:com.adobe.xmp"); // We found XMP data
+			}
+		});
     }
   	
-   	public static List<Chunk> readChunks(InputStream is) throws IOException {  		
+   	public static List<Chunk> readChunks(InputStream is) throws IOException {
+   		return readChunks(is, EnumSet.allOf(ChunkType.class), false);
+   	}
+   	
+   	/**
+   	 * Reads the chunks of the given types only. The data of all other chunks,
+   	 * IDAT in particular, is skipped without being read into memory.
+   	 * 
+   	 * @param is InputStream of the PNG image
+   	 * @param chunkTypes types of the chunks to read, ChunkType.UNKNOWN for all unknown chunks
+   	 * @param stopAtIDAT if true, stops at the first IDAT chunk for callers which only need the chunks before the image data
+   	 * @return the chunks read in the order they appear in the image
+   	 */
+   	public static List<Chunk> readChunks(InputStream is, Set<ChunkType> chunkTypes, boolean stopAtIDAT) throws IOException {
+   		return readChunks(is, chunkTypes, stopAtIDAT, null);
+   	}
+   	
+   	/**
+   	 * Reads the chunks of the given types only, optionally checking the CRC of
+   	 * every chunk on the way. The CRC is calculated while the data streams by,
+   	 * so skipped chunks like IDAT are checked without being held in memory, but
+   	 * they do have to be read instead of skipped.
+   	 * 
+   	 * @param is InputStream of the PNG image
+   	 * @param chunkTypes types of the chunks to read, ChunkType.UNKNOWN for all unknown chunks
+   	 * @param stopAtIDAT if true, stops at the first IDAT chunk for callers which only need the chunks before the image data
+   	 * @param corruptChunks if not null, receives the chunks whose CRC doesn't match in the order they appear
+   	 * @return the chunks read in the order they appear in the image
+   	 */
+   	public static List<Chunk> readChunks(InputStream is, Set<ChunkType> chunkTypes, boolean stopAtIDAT, List<CorruptChunk> corruptChunks) throws IOException {
   		List<Chunk> list = new ArrayList<Chunk>();
  		 //Local variables for reading chunks
         int data_len = 0;
         int chunk_type = 0;
         byte[] buf = null;
+        // Only used when checking CRCs
+        CRC32 crc32 = (corruptChunks == null)?null:new CRC32();
+        byte[] scratch = null;
+        long offset = 8; // Stream position of the current chunk
      
         long signature = IOUtils.readLongMM(is);
 
@@ -186,29 +236,108 @@ public class PNGMeta {
         buf = new byte[13];
         IOUtils.readFully(is, buf, 0, 13);
   
-        list.add(new Chunk(ChunkType.IHDR, 13, buf, IOUtils.readUnsignedIntMM(is)));         
+        long crc = IOUtils.readUnsignedIntMM(is);
+        
+        if (crc32 != null) {
+        	startCRC(crc32, ChunkType.IHDR.getValue());
+        	crc32.update(buf, 0, 13);
+        	checkCRC(crc32, ChunkType.IHDR.getValue(), offset, 13, crc, corruptChunks);
+        }
+        
+        if (chunkTypes.contains(ChunkType.IHDR))
+        	list.add(new Chunk(ChunkType.IHDR, 13, buf, crc));
+        
+        offset += 25;
       
         while (true) {
         	data_len = IOUtils.readIntMM(is);
 	       	chunk_type = IOUtils.readIntMM(is);
+	       	long length = data_len&0xffffffffL;
 	   
 	       	if (chunk_type == ChunkType.IEND.getValue()) {
-	        	 list.add(new Chunk(ChunkType.IEND, data_len, new byte[0], IOUtils.readUnsignedIntMM(is)));
-	       		 break;
+	       		crc = IOUtils.readUnsignedIntMM(is);
+	       		if (crc32 != null) {
+	       			startCRC(crc32, chunk_type);
+	       			checkCRC(crc32, chunk_type, offset, data_len, crc, corruptChunks);
+	       		}
+	       		if (chunkTypes.contains(ChunkType.IEND))
+	       			list.add(new Chunk(ChunkType.IEND, data_len, new byte[0], crc));
+	       		break;
 	       	} 
        		ChunkType chunkType = ChunkType.fromInt(chunk_type);
+       		
+       		if (stopAtIDAT && chunkType == ChunkType.IDAT)
+       			break;
+       		
+       		if (!chunkTypes.contains(chunkType)) {
+       			if (crc32 == null) {
+       				IOUtils.skipFully(is, length + 4); // Data and CRC
+       			} else { // Stream the data through the CRC
+       				if (scratch == null) scratch = new byte[8192];
+       				startCRC(crc32, chunk_type);
+       				for (long left = length; left > 0; ) {
+       					int count = (int)Math.min(left, scratch.length);
+       					IOUtils.readFully(is, scratch, 0, count);
+       					crc32.update(scratch, 0, count);
+       					left -= count;
+       				}
+       				checkCRC(crc32, chunk_type, offset, length, IOUtils.readUnsignedIntMM(is), corruptChunks);
+       			}
+       			offset += length + 12;
+       			continue;
+       		}
+       		
        		buf = new byte[data_len];
        		IOUtils.readFully(is, buf,0, data_len);
+       		crc = IOUtils.readUnsignedIntMM(is);
+       		
+       		if (crc32 != null) {
+       			startCRC(crc32, chunk_type);
+       			crc32.update(buf, 0, data_len);
+       			checkCRC(crc32, chunk_type, offset, length, crc, corruptChunks);
+       		}
               
        		if (chunkType == ChunkType.UNKNOWN)
-       			list.add(new UnknownChunk(data_len, chunk_type, buf, IOUtils.readUnsignedIntMM(is)));
+       			list.add(new UnknownChunk(data_len, chunk_type, buf, crc));
        		else
-       			list.add(new Chunk(chunkType, data_len, buf, IOUtils.readUnsignedIntMM(is)));
+       			list.add(new Chunk(chunkType, data_len, buf, crc));
+       		
+       		offset += length + 12;
         }
         
         return list;
   	}
    	
+   	// Starts a chunk CRC, which covers the chunk type and data
+   	private static void startCRC(CRC32 crc32, int chunkType) {
+   		crc32.reset();
+   		crc32.update(chunkType >>> 24);
+   		crc32.update(chunkType >>> 16);
+   		crc32.update(chunkType >>> 8);
+   		crc32.update(chunkType);
+   	}
+   	
+   	private static void checkCRC(CRC32 crc32, int chunkType, long offset, long length, long crc, List<CorruptChunk> corruptChunks) {
+   		if (crc32.getValue() != crc) {
+   			LOGGER.warn("CRC mismatch for chunk 0x{} at offset {}", Integer.toHexString(chunkType), offset);
+   			corruptChunks.add(new CorruptChunk(chunkType, offset, length, crc, crc32.getValue()));
+   		}
+   	}
+   	
+   	/**
+   	 * Checks the CRC of every chunk of a PNG image in a single pass without
+   	 * keeping any chunk data.
+   	 * 
+   	 * @param is InputStream of the PNG image
+   	 * @return the chunks whose CRC doesn't match, empty if all chunks are intact
+   	 */
+   	public static List<CorruptChunk> validateChunks(InputStream is) throws IOException {
+   		List<CorruptChunk> corruptChunks = new ArrayList<CorruptChunk>();
+   		readChunks(is, EnumSet.noneOf(ChunkType.class), false, corruptChunks);
+   		
+   		return corruptChunks;
+   	}
+   	
 	private static byte[] readICCProfile(byte[] buf) throws IOException {
 		int profileName_len = 0;
 		while(buf[profileName_len] != 0) profileName_len++;
@@ -224,8 +353,19 @@ public class PNGMeta {
  	}
   	
 	public static Map<MetadataType, Metadata> readMetadata(InputStream is) throws IOException {
+		return readMetadata(is, false);
+	}
+	
+	/**
+	 * Reads the metadata chunks only, skipping the image data without reading it.
+	 * 
+	 * @param is InputStream of the PNG image
+	 * @param stopAtIDAT if true, stops at the first IDAT chunk, missing any metadata after the image data
+	 * @return a map of the metadata found
+	 */
+	public static Map<MetadataType, Metadata> readMetadata(InputStream is, boolean stopAtIDAT) throws IOException {
 		Map<MetadataType, Metadata> metadataMap = new HashMap<MetadataType, Metadata>();
-		List<Chunk> chunks = readChunks(is);
+		List<Chunk> chunks = readChunks(is, METADATA_CHUNKS, stopAtIDAT);
 		Iterator<Chunk> iter = chunks.iterator();
 		TextualChunks textualChunk = null;
 		while (iter.hasNext()) {
@@ -300,6 +440,63 @@ public class PNGMeta {
 		return metadataMap;
 	}
   	
+   	/**
+   	 * Copies the chunks of a PNG image one at a time, leaving out existing chunks
+   	 * the filter removes and adding the new chunks in front of the first chunk which
+   	 * ranks after them. Only chunks of the filtered types are read into memory, all
+   	 * others including IDAT are copied through a small buffer. The image ends with
+   	 * IEND, anything after it is dropped.
+   	 * 
+   	 * @param chunks new chunks to add
+   	 * @param filtered types of the existing chunks passed to the filter
+   	 * @param filter decides whether an existing chunk of the filtered types is removed
+   	 */
+   	private static void rewriteChunks(InputStream is, OutputStream os, List<Chunk> chunks, Set<ChunkType> filtered, ChunkFilter filter) throws IOException {
+   		List<Chunk> pending = new ArrayList<Chunk>(chunks);
+   		Collections.sort(pending);
+   		int next = 0;
+   		byte[] buf = new byte[8192];
+   		
+   		if (IOUtils.readLongMM(is) != SIGNATURE) {
+       	 	throw new RuntimeException("Invalid PNG signature");
+        }
+   		
+   		IOUtils.writeLongMM(os, SIGNATURE);
+   		
+   		boolean first = true;
+   		
+   		while (true) {
+   			long data_len = IOUtils.readUnsignedIntMM(is);
+   			int chunk_type = IOUtils.readIntMM(is);
+   			ChunkType chunkType = ChunkType.fromInt(chunk_type);
+   			
+   			if (first && chunkType != ChunkType.IHDR) {
+   				throw new RuntimeException("Invalid PNG header");
+   			}
+   			first = false;
+   			
+   			// Add new chunks which rank before this one
+   			while (next < pending.size() && pending.get(next).getChunkType().getRanking() < chunkType.getRanking()) {
+   				pending.get(next++).write(os);
+   			}
+   			
+   			if (filtered.contains(chunkType)) {
+   				byte[] data = new byte[(int)data_len];
+   				IOUtils.readFully(is, data, 0, data.length);
+   				Chunk chunk = (chunkType == ChunkType.UNKNOWN)?new UnknownChunk(data_len, chunk_type, data, IOUtils.readUnsignedIntMM(is))
+   						:new Chunk(chunkType, data_len, data, IOUtils.readUnsignedIntMM(is));
+   				if (!filter.remove(chunk))
+   					chunk.write(os);
+   			} else {
+   				IOUtils.writeIntMM(os, (int)data_len);
+   				IOUtils.writeIntMM(os, chunk_type);
+   				IOUtils.copyFully(is, os, data_len + 4, buf); // Data and CRC
+   			}
+   			
+   			if (chunkType == ChunkType.IEND) break;
+   		}
+   	}
+   	
 	public static List<Chunk> removeChunks(List<Chunk> chunks, ChunkType chunkType) {
   		
   		Iterator<Chunk> iter = chunks.listIterator();
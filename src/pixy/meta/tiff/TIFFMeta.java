@@ -33,17 +33,24 @@ import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.function.Function;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -74,27 +81,38 @@ import pixy.image.tiff.DoubleField;
 import pixy.image.tiff.FieldType;
 import pixy.image.tiff.FloatField;
 import pixy.image.tiff.IFD;
+import pixy.image.tiff.IFD8Field;
 import pixy.image.tiff.IFDField;
+import pixy.image.tiff.LazyField;
+import pixy.image.tiff.Long8Field;
 import pixy.image.tiff.LongField;
 import pixy.image.tiff.MakerNoteField;
 import pixy.image.tiff.RationalField;
 import pixy.image.tiff.SByteField;
+import pixy.image.tiff.SLong8Field;
 import pixy.image.tiff.SLongField;
 import pixy.image.tiff.SRationalField;
 import pixy.image.tiff.SShortField;
 import pixy.image.tiff.ShortField;
 import pixy.image.tiff.Tag;
+import pixy.image.tiff.TagRegistry;
 import pixy.image.tiff.TiffField;
 import pixy.image.tiff.TiffFieldEnum;
+import pixy.image.tiff.TiffLayout;
 import pixy.image.tiff.TiffTag;
 import pixy.image.tiff.UndefinedField;
 import pixy.image.tiff.TIFFImage;
+import pixy.io.FileRandomAccessInputStream;
+import pixy.io.FileRandomAccessOutputStream;
 import pixy.io.IOUtils;
+import pixy.io.MemoryCacheRandomAccessOutputStream;
 import pixy.io.RandomAccessInputStream;
 import pixy.io.RandomAccessOutputStream;
 import pixy.io.ReadStrategy;
 import pixy.io.ReadStrategyII;
 import pixy.io.ReadStrategyMM;
+import pixy.io.SharedRandomAccessInputStream;
+import pixy.io.WriteStrategy;
 import pixy.io.WriteStrategyII;
 import pixy.io.WriteStrategyMM;
 import pixy.string.StringUtils;
@@ -107,11 +125,27 @@ public class TIFFMeta {
 	public static final int OFFSET_TO_WRITE_FIRST_IFD_OFFSET = 0x04;
 	public static final int FIRST_WRITE_OFFSET = 0x08;
 	public static final int STREAM_HEAD = 0x00;
+	// BigTIFF header: 43 identifier, 8 byte offset size, 2 reserved bytes and the 8 byte first IFD offset
+	public static final int BIGTIFF_OFFSET_TO_WRITE_FIRST_IFD_OFFSET = 0x08;
+	public static final int BIGTIFF_FIRST_WRITE_OFFSET = 0x10;
 	
 	// Obtain a logger instance
 	private static final Logger LOGGER = LoggerFactory.getLogger(TIFFMeta.class);
 	
-	private static int copyHeader(RandomAccessInputStream rin, RandomAccessOutputStream rout) throws IOException {		
+	// Out-of-line IFD values up to this size are merged with their neighbours into a single read
+	private static final int MAX_COALESCED_VALUE_SIZE = 4096;
+	// Gap in bytes between two out-of-line values which is read through instead of seeked over
+	private static final int MAX_COALESCED_GAP = 16;
+	private static final int MAX_COALESCED_READ_SIZE = 65536;
+	// Lazy threshold to read all field values right away
+	private static final int NO_LAZY_VALUES = Integer.MAX_VALUE;
+	// Buffer size to copy BigTIFF image data
+	private static final int COPY_BUFFER_SIZE = 65536;
+	// Tag lookup tables for tag enum classes other than the built-in tag sets
+	private static final Map<Class<? extends Tag>, TagRegistry> tagRegistries = new HashMap<Class<? extends Tag>, TagRegistry>();
+	
+	// Returns the first IFD offset for both classic TIFF and BigTIFF
+	private static long copyHeader(RandomAccessInputStream rin, RandomAccessOutputStream rout) throws IOException {		
 		rin.seek(STREAM_HEAD);
 		// First 2 bytes determine the byte order of the file, "MM" or "II"
 	    short endian = rin.readShort();
@@ -133,6 +167,15 @@ public class TIFFMeta {
 		rin.seek(0x02);
 		short tiff_id = rin.readShort();
 		
+		if(tiff_id == 0x2b) { //"+" 43 decimal
+			long offset = readBigTIFFHeader(rin);
+			rout.writeShort(tiff_id);
+			rout.writeShort(8); // Offset byte size
+			rout.writeShort(0);
+			
+			return offset;
+		}
+		
 		if(tiff_id!=0x2a)//"*" 42 decimal
 		{
 		   rin.close();
@@ -143,7 +186,7 @@ public class TIFFMeta {
 		rout.writeShort(tiff_id);
 		rin.seek(OFFSET_TO_WRITE_FIRST_IFD_OFFSET);
 		
-		return rin.readInt();
+		return rin.readInt()&0xffffffffL;
 	}
 	
 	private static Collection<IPTCDataSet> copyIPTCDataSet(Collection<IPTCDataSet> iptcs, byte[] data) throws IOException {
@@ -462,6 +505,532 @@ public class TIFFMeta {
 		return writeOffset;
 	}
 	
+	/**
+	 * Writes a list of IFDs as a linked chain, each one right after its image data if copyData is true.
+	 * Without copyData, the output is the input file itself, so the IFDs keep pointing to the image data
+	 * and to the lazily read values where they are.
+	 * 
+	 * @param sources the input stream of each IFD in the list
+	 * @return the first IFD offset
+	 */
+	private static long writeIFDChain(List<IFD> list, List<RandomAccessInputStream> sources, long writeOffset, RandomAccessOutputStream rout, boolean copyData, boolean bigTiff) throws IOException {
+		long firstIFDOffset = 0;
+		long nextIFDOffsetPos = 0;
+		
+		for(int i = 0; i < list.size(); i++) {
+			IFD ifd = list.get(i);
+			RandomAccessInputStream rin = sources.get(i);
+			if(copyData)
+				writeOffset = copyBigTIFFPageData(ifd, writeOffset, rin, rout);
+			// IFDs start on a word boundary
+			if((writeOffset&1) != 0) {
+				rout.seek(writeOffset++);
+				rout.write(0);
+			}
+			if(firstIFDOffset == 0) {
+				firstIFDOffset = writeOffset;
+			} else { // Update next IFD offset of the previous IFD
+				rout.seek(nextIFDOffsetPos);
+				if(bigTiff)
+					rout.writeLong(writeOffset);
+				else
+					rout.writeInt((int)writeOffset);
+			}
+			nextIFDOffsetPos = writeOffset + (bigTiff?(8 + 20L*ifd.getFields().size()):(2 + 12L*ifd.getFields().size()));
+			writeOffset = writeIFD(ifd, writeOffset, rout, bigTiff, copyData?null:rin);
+		}
+		
+		return firstIFDOffset;
+	}
+	
+	/**
+	 * BigTIFF counterpart of copyPageData with 64 bit strip or tile offsets
+	 * 
+	 * @param offset offset to write page image data
+	 * 
+	 * @return the position where to write the IFD for the current image page
+	 */
+	private static long copyBigTIFFPageData(IFD ifd, long offset, RandomAccessInputStream rin, RandomAccessOutputStream rout) throws IOException {
+		if(hasOldStyleJPEG(ifd))
+			throw new UnsupportedOperationException("Old-style JPEG compression is not supported for BigTIFF");
+		
+		long writeOffset = offset;
+		// Move stream pointer to the right place
+		rout.seek(writeOffset);
+		
+		TiffTag offsetsTag = TiffTag.STRIP_OFFSETS;
+		TiffField<?> stripOffSets = ifd.removeField(TiffTag.STRIP_OFFSETS);
+		TiffField<?> stripByteCounts = ifd.getField(TiffTag.STRIP_BYTE_COUNTS);
+		
+		if(stripOffSets == null) {
+			offsetsTag = TiffTag.TILE_OFFSETS;
+			stripOffSets = ifd.removeField(TiffTag.TILE_OFFSETS);
+			stripByteCounts = ifd.getField(TiffTag.TILE_BYTE_COUNTS);
+		}
+		
+		if(stripOffSets != null) {
+			if(stripByteCounts == null)
+				throw new IOException("Missing " + (offsetsTag == TiffTag.STRIP_OFFSETS ? "StripByteCounts" : "TileByteCounts") + " field");
+			long[] off = getDataAsLong8(stripOffSets);
+			long[] counts = getDataAsLong8(stripByteCounts);
+			long[] temp = new long[off.length];
+			byte[] buf = new byte[COPY_BUFFER_SIZE];
+			// Copy image data from offset
+			for(int i = 0; i < off.length; i++) {
+				rin.seek(off[i]);
+				IOUtils.copyFully(rin, rout, counts[i], buf);
+				temp[i] = writeOffset;
+				writeOffset += counts[i];
+			}
+			ifd.addField(new Long8Field(offsetsTag.getValue(), temp));
+		}
+		
+		// Add software field.
+		String softWare = "ICAFE - https://github.com/dragon66/icafe\0";
+		ifd.addField(new ASCIIField(TiffTag.SOFTWARE.getValue(), softWare));
+		
+		return rout.getStreamPointer();
+	}
+	
+	// Returns unsigned SHORT, LONG, IFD as well as LONG8 and IFD8 field values as long
+	private static long[] getDataAsLong8(TiffField<?> field) {
+		FieldType fieldType = field.getType();
+		
+		if(fieldType == FieldType.LONG8 || fieldType == FieldType.IFD8)
+			return (long[])field.getData();
+		
+		int[] data = field.getDataAsLong();
+		long[] values = new long[data.length];
+		
+		for(int i = 0; i < data.length; i++)
+			values[i] = data[i]&0xffffffffL;
+		
+		return values;
+	}
+	
+	/**
+	 * Writes an IFD and all the children, if any, in classic TIFF or BigTIFF layout.
+	 * Unlike IFD.write, offsets are not limited to int.
+	 * 
+	 * @param valueSource if not null, LazyFields read from it keep their value offset instead of writing the value
+	 * @return the first available offset after this IFD and the children
+	 */
+	private static long writeIFD(IFD ifd, long offset, RandomAccessOutputStream rout, boolean bigTiff, Object valueSource) throws IOException {
+		WriteStrategy writeStrategy = (rout.getEndian() == IOUtils.BIG_ENDIAN)?WriteStrategyMM.getInstance():WriteStrategyII.getInstance();
+		int entrySize = bigTiff?20:12;
+		int offsetSize = bigTiff?8:4;
+		List<TiffField<?>> list = new ArrayList<TiffField<?>>(ifd.getFields());
+		// Make sure tiffFields are in incremental order.
+		Collections.sort(list);
+		// Sub IFDs and the entry positions to write their offsets
+		List<IFD> children = new ArrayList<IFD>();
+		List<Long> childPointers = new ArrayList<Long>();
+		
+		rout.seek(offset);
+		if(bigTiff)
+			rout.writeLong(list.size());
+		else
+			rout.writeShort(list.size());
+		long entryOffset = offset + (bigTiff?8:2);
+		// The first available offset to write field values
+		long toOffset = entryOffset + (long)list.size()*entrySize + offsetSize;
+		
+		for(TiffField<?> tiffField : list) {
+			IFD child = null;
+			for(Map.Entry<Tag, IFD> entry : ifd.getChildren().entrySet()) {
+				if(entry.getKey().getValue() == tiffField.getTag()) {
+					child = entry.getValue();
+					break;
+				}
+			}
+			rout.seek(entryOffset);
+			if(child != null) { // Sub IFD pointer, updated after the sub IFD is written
+				rout.writeShort(tiffField.getTag());
+				rout.writeShort(bigTiff?FieldType.LONG8.getValue():FieldType.LONG.getValue());
+				writeOffset(rout, 1, bigTiff);
+				writeOffset(rout, 0, bigTiff);
+				children.add(child);
+				childPointers.add(entryOffset + 4 + offsetSize);
+			} else if(valueSource != null && tiffField instanceof LazyField && ((LazyField)tiffField).getSource() == valueSource) {
+				// Unchanged out-of-line value already in the output, point to it
+				rout.writeShort(tiffField.getTag());
+				rout.writeShort(tiffField.getType().getValue());
+				writeOffset(rout, tiffField.getLength(), bigTiff);
+				writeOffset(rout, ((LazyField)tiffField).getSourceOffset(), bigTiff);
+			} else if(bigTiff) {
+				toOffset = tiffField.write(rout, toOffset, true);
+			} else {
+				FieldType fieldType = tiffField.getType();
+				if(fieldType == FieldType.EXIF_MAKERNOTE) fieldType = FieldType.UNDEFINED;
+				byte[] value = TiffLayout.encodeValue(tiffField, writeStrategy);
+				rout.writeShort(tiffField.getTag());
+				rout.writeShort(fieldType.getValue());
+				writeOffset(rout, tiffField.getLength(), bigTiff);
+				if(value.length <= offsetSize) { // Value fits into the entry
+					rout.write(value);
+					rout.write(new byte[offsetSize - value.length]);
+				} else {
+					writeOffset(rout, toOffset, bigTiff);
+					rout.seek(toOffset);
+					rout.write(value);
+					toOffset += value.length;
+					// Keep values on a word boundary
+					if((toOffset&1) != 0) {
+						rout.write(0);
+						toOffset++;
+					}
+				}
+			}
+			entryOffset += entrySize;
+		}
+		
+		rout.seek(entryOffset);
+		writeOffset(rout, 0, bigTiff); // Set next IFD offset to default 0
+		
+		for(int i = 0; i < children.size(); i++) {
+			rout.seek(childPointers.get(i));
+			writeOffset(rout, toOffset, bigTiff);
+			toOffset = writeIFD(children.get(i), toOffset, rout, bigTiff, valueSource);
+		}
+		
+		return toOffset;
+	}
+	
+	// Writes a count or offset, 8 bytes for BigTIFF and 4 bytes for classic TIFF
+	private static void writeOffset(RandomAccessOutputStream rout, long value, boolean bigTiff) throws IOException {
+		if(bigTiff)
+			rout.writeLong(value);
+		else
+			rout.writeInt((int)value);
+	}
+	
+	/*
+	 * Copies the pages after the header, in BigTIFF layout if the input is a BigTIFF, and dumps the output.
+	 * If input and output are the same file, only the IFDs are written, see writePagesInPlace.
+	 */
+	private static void writePages(List<IFD> list, RandomAccessInputStream rin, RandomAccessOutputStream rout) throws IOException {
+		if(isInPlace(rin, rout)) {
+			writePagesInPlace(list, rin, rout);
+		} else if(isBigTIFF(rin)) {
+			long firstIFDOffset = writeIFDChain(list, Collections.nCopies(list.size(), rin), BIGTIFF_FIRST_WRITE_OFFSET, rout, true, true);
+			writeToStream(rout, firstIFDOffset, true);
+		} else {
+			copyPages(list, FIRST_WRITE_OFFSET, rin, rout);
+			writeToStream(rout, list.get(0).getStartOffset());
+		}
+	}
+	
+	// Checks whether the input and the output stream share the same file
+	private static boolean isInPlace(RandomAccessInputStream rin, RandomAccessOutputStream rout) {
+		return (rin instanceof FileRandomAccessInputStream) && (rout instanceof FileRandomAccessOutputStream)
+				&& ((FileRandomAccessInputStream)rin).getFile() == ((FileRandomAccessOutputStream)rout).getFile();
+	}
+	
+	/*
+	 * Writes the IFDs of all the pages to unused space and then points the header
+	 * to the first of them. Image data and unchanged out-of-line values, MakerNote
+	 * included, stay where they are, only the IFD tables and the values that changed
+	 * are written. They go to a run of zeros no IFD refers to, such as the space
+	 * freed by an earlier in-place update, and are appended to the end of the file
+	 * if there is none large enough. As the header is patched last, the file still
+	 * holds the original image if anything goes wrong before that. Afterwards the
+	 * old IFD tables and the out-of-line values which are no longer referenced, such
+	 * as removed metadata, are overwritten with zeros, ready to be used by the next
+	 * update. So repeated updates of the same size don't make the file grow.
+	 */
+	private static void writePagesInPlace(List<IFD> list, RandomAccessInputStream rin, RandomAccessOutputStream rout) throws IOException {
+		boolean bigTiff = isBigTIFF(rin);
+		long length = rout.getLength();
+		
+		long size = 0;
+		for(IFD ifd : list)
+			size += getIFDSize(ifd, rin, bigTiff);
+		
+		// Find out what is in use and what to clear before anything is written
+		rin.seek(bigTiff?BIGTIFF_OFFSET_TO_WRITE_FIRST_IFD_OFFSET:OFFSET_TO_WRITE_FIRST_IFD_OFFSET);
+		long oldFirstIFDOffset = bigTiff?rin.readLong():(rin.readInt()&0xffffffffL);
+		List<long[]> stale = new ArrayList<long[]>();
+		collectIFDRanges(oldFirstIFDOffset, true, rin, bigTiff, stale, new HashSet<Long>());
+		List<long[]> kept = new ArrayList<long[]>();
+		for(IFD ifd : list)
+			collectUsedRanges(ifd, rin, kept);
+		List<long[]> used = new ArrayList<long[]>(stale);
+		used.addAll(kept);
+		
+		long writeOffset = findFreeSpace(used, bigTiff?BIGTIFF_FIRST_WRITE_OFFSET:FIRST_WRITE_OFFSET, length, size, rin);
+		if(writeOffset < 0) {
+			writeOffset = length;
+			if(!bigTiff && writeOffset + 1 + size > 0xffffffffL)
+				throw new IOException("Classic TIFF can't grow beyond 4GB");
+		}
+		
+		long firstIFDOffset = writeIFDChain(list, Collections.nCopies(list.size(), rin), writeOffset, rout, false, bigTiff);
+		
+		if(bigTiff) {
+			rout.seek(BIGTIFF_OFFSET_TO_WRITE_FIRST_IFD_OFFSET);
+			rout.writeLong(firstIFDOffset);
+		} else {
+			rout.seek(OFFSET_TO_WRITE_FIRST_IFD_OFFSET);
+			rout.writeInt((int)firstIFDOffset);
+		}
+		
+		clearRanges(stale, kept, length, rout);
+	}
+	
+	/*
+	 * Looks for a run of at least size zero bytes starting on a word boundary between
+	 * start and end which none of the used ranges overlaps. Values of unknown field
+	 * types and data a MakerNote points to aren't among the used ranges, checking
+	 * for zeros makes sure nothing like that is overwritten.
+	 * 
+	 * @return the offset of the run or -1 if there is none
+	 */
+	private static long findFreeSpace(List<long[]> used, long start, long end, long size, RandomAccessInputStream rin) throws IOException {
+		Collections.sort(used, new Comparator<long[]>() {
+			public int compare(long[] r1, long[] r2) {
+				return Long.compare(r1[0], r2[0]);
+			}
+		});
+		byte[] buf = new byte[COPY_BUFFER_SIZE];
+		int index = 0;
+		
+		while(start < end) {
+			// Skip whatever is in use from start on
+			for(; index < used.size() && used.get(index)[0] <= start; index++)
+				start = Math.max(start, used.get(index)[1]);
+			long gapEnd = (index < used.size())?Math.min(used.get(index)[0], end):end;
+			// Zero runs within the gap
+			long runStart = -1;
+			for(long pos = start; pos < gapEnd; ) {
+				int len = (int)Math.min(buf.length, gapEnd - pos);
+				rin.seek(pos);
+				rin.readFully(buf, 0, len);
+				for(int i = 0; i < len; i++, pos++) {
+					if(buf[i] != 0) {
+						runStart = -1;
+					} else if(runStart < 0) {
+						if((pos&1) == 0) runStart = pos;
+					} else if(pos + 1 - runStart >= size) {
+						return runStart;
+					}
+				}
+			}
+			start = gapEnd;
+		}
+		
+		return -1;
+	}
+	
+	/*
+	 * Collects the byte ranges of the IFD tables starting at offset, including the EXIF, GPS,
+	 * Interoperability and SubIFDs sub-IFDs, together with the ranges of their out-of-line values.
+	 */
+	private static void collectIFDRanges(long offset, boolean followChain, RandomAccessInputStream rin, boolean bigTiff, List<long[]> ranges, Set<Long> visited) throws IOException {
+		ReadStrategy readStrategy = (rin.getEndian() == IOUtils.BIG_ENDIAN)?ReadStrategyMM.getInstance():ReadStrategyII.getInstance();
+		int entrySize = bigTiff?20:12;
+		int offsetSize = bigTiff?8:4;
+		
+		while(offset != 0 && visited.add(offset)) {
+			rin.seek(offset);
+			long numOfFields = bigTiff?rin.readLong():(rin.readShort()&0xffff);
+			if(numOfFields < 0 || numOfFields > (Integer.MAX_VALUE - offsetSize)/entrySize)
+				throw new IOException("Invalid number of IFD entries " + numOfFields);
+			byte[] table = new byte[entrySize*(int)numOfFields + offsetSize];
+			rin.readFully(table);
+			ranges.add(new long[] {offset, offset + (bigTiff?8:2) + table.length});
+			
+			for(int index = 0; index < table.length - offsetSize; index += entrySize) {
+				short tag = readStrategy.readShort(table, index);
+				FieldType ftype = FieldType.fromShort(readStrategy.readShort(table, index + 2));
+				long count = bigTiff?readStrategy.readLong(table, index + 4):(readStrategy.readInt(table, index + 4)&0xffffffffL);
+				if(count < 0 || count > Integer.MAX_VALUE) continue;
+				int size = new IFDEntry(tag, null, ftype, (int)count).getValueSize();
+				if(size < 0) continue; // Unknown field type
+				int valueIndex = index + entrySize - offsetSize;
+				long valueOffset = -1;
+				if(size > offsetSize) {
+					valueOffset = bigTiff?readStrategy.readLong(table, valueIndex):(readStrategy.readInt(table, valueIndex)&0xffffffffL);
+					ranges.add(new long[] {valueOffset, valueOffset + size});
+				}
+				boolean is64bit = (ftype == FieldType.LONG8 || ftype == FieldType.IFD8);
+				if(!is64bit && ftype != FieldType.LONG && ftype != FieldType.IFD) continue;
+				if(ftype != FieldType.IFD && ftype != FieldType.IFD8 && tag != TiffTag.EXIF_SUB_IFD.getValue() && tag != TiffTag.GPS_SUB_IFD.getValue()
+						&& tag != ExifTag.EXIF_INTEROPERABILITY_OFFSET.getValue() && tag != TiffTag.SUB_IFDS.getValue())
+					continue;
+				// Sub-IFD pointers
+				byte[] value = table;
+				if(valueOffset >= 0) {
+					value = new byte[size];
+					rin.seek(valueOffset);
+					rin.readFully(value);
+					valueIndex = 0;
+				}
+				for(int i = 0; i < count; i++) {
+					long subIFDOffset = is64bit?readStrategy.readLong(value, valueIndex + i*8):(readStrategy.readInt(value, valueIndex + i*4)&0xffffffffL);
+					collectIFDRanges(subIFDOffset, false, rin, bigTiff, ranges, visited);
+				}
+			}
+			
+			if(!followChain) break;
+			offset = bigTiff?readStrategy.readLong(table, table.length - 8):(readStrategy.readInt(table, table.length - 4)&0xffffffffL);
+		}
+	}
+	
+	/*
+	 * Collects the byte ranges an IFD and its children still point to: the lazily
+	 * read values left in place as well as strip, tile, JPEG interchange format
+	 * and free space data.
+	 */
+	private static void collectUsedRanges(IFD ifd, RandomAccessInputStream rin, List<long[]> ranges) throws IOException {
+		for(TiffField<?> field : ifd.getFields()) {
+			if(field instanceof LazyField && ((LazyField)field).getSource() == rin) {
+				long offset = ((LazyField)field).getSourceOffset();
+				ranges.add(new long[] {offset, offset + new IFDEntry(field.getTag(), null, field.getType(), field.getLength()).getValueSize()});
+			}
+		}
+		
+		TiffTag[][] dataTags = {{TiffTag.STRIP_OFFSETS, TiffTag.STRIP_BYTE_COUNTS}, {TiffTag.TILE_OFFSETS, TiffTag.TILE_BYTE_COUNTS},
+				{TiffTag.JPEG_INTERCHANGE_FORMAT, TiffTag.JPEG_INTERCHANGE_FORMAT_LENGTH}, {TiffTag.FREE_OFFSETS, TiffTag.FREE_BYTE_COUNTS}};
+		for(TiffTag[] tags : dataTags) {
+			TiffField<?> offsets = ifd.getField(tags[0]);
+			TiffField<?> counts = ifd.getField(tags[1]);
+			if(offsets == null) continue;
+			long[] off = getDataAsLong8(offsets);
+			long[] len = (counts == null)?null:getDataAsLong8(counts);
+			for(int i = 0; i < off.length; i++) // Without a length, keep everything from the offset on
+				ranges.add(new long[] {off[i], (len == null || i >= len.length)?Long.MAX_VALUE:off[i] + len[i]});
+		}
+		
+		for(IFD child : ifd.getChildren().values())
+			collectUsedRanges(child, rin, ranges);
+	}
+	
+	// Overwrites the stale ranges below limit with zeros, leaving out any part of them still in use
+	private static void clearRanges(List<long[]> stale, List<long[]> used, long limit, RandomAccessOutputStream rout) throws IOException {
+		Comparator<long[]> byStart = new Comparator<long[]>() {
+			public int compare(long[] r1, long[] r2) {
+				return Long.compare(r1[0], r2[0]);
+			}
+		};
+		Collections.sort(used, byStart);
+		byte[] zeros = new byte[COPY_BUFFER_SIZE];
+		
+		for(long[] range : stale) {
+			long start = Math.max(range[0], 0);
+			long end = Math.min(range[1], limit);
+			for(long[] keep : used) {
+				if(keep[0] >= end) break;
+				if(keep[1] <= start) continue;
+				clearRange(start, keep[0], zeros, rout);
+				start = Math.max(start, keep[1]);
+			}
+			clearRange(start, end, zeros, rout);
+		}
+	}
+	
+	private static void clearRange(long start, long end, byte[] zeros, RandomAccessOutputStream rout) throws IOException {
+		if(start >= end) return;
+		rout.seek(start);
+		for(long len = end - start; len > 0; len -= zeros.length)
+			rout.write(zeros, 0, (int)Math.min(len, zeros.length));
+	}
+	
+	// Number of bytes writeIFD writes for an IFD and its children from a word boundary on when lazily read values stay in place
+	private static long getIFDSize(IFD ifd, RandomAccessInputStream valueSource, boolean bigTiff) throws IOException {
+		WriteStrategy writeStrategy = (valueSource.getEndian() == IOUtils.BIG_ENDIAN)?WriteStrategyMM.getInstance():WriteStrategyII.getInstance();
+		int offsetSize = bigTiff?8:4;
+		// Count, entries and next IFD offset
+		long size = (bigTiff?8:2) + (long)(bigTiff?20:12)*ifd.getFields().size() + offsetSize;
+		Set<Short> childTags = new HashSet<Short>();
+		for(Tag tag : ifd.getChildren().keySet())
+			childTags.add(tag.getValue());
+		
+		for(TiffField<?> field : ifd.getFields()) {
+			if(childTags.contains(field.getTag()) || (field instanceof LazyField && ((LazyField)field).getSource() == valueSource))
+				continue;
+			int valueSize = TiffLayout.encodeValue(field, writeStrategy).length;
+			if(valueSize > offsetSize) // Values are kept on a word boundary
+				size += valueSize + (valueSize&1);
+		}
+		
+		for(IFD child : ifd.getChildren().values())
+			size += getIFDSize(child, valueSource, bigTiff);
+		
+		return size;
+	}
+	
+	/**
+	 * Concatenates the pages of several TIFFs into one multiple page TIFF.
+	 * <p>
+	 * The IFDs and the strip or tile data of every page are copied as they are,
+	 * nothing is decoded. Pages are renumbered the way TIFFImage.write does. The
+	 * output uses the byte order of the first input and is a BigTIFF if any of
+	 * the inputs is a BigTIFF.
+	 * 
+	 * @param inputs RandomAccessInputStreams for the input TIFFs in page order
+	 * @param rout RandomAccessOutputStream for the output TIFF
+	 * @return number of pages written
+	 * @throws IOException
+	 * @throws UnsupportedOperationException if an input with a different byte order than
+	 *         the first one has samples of more than 8 bits
+	 */
+	public static int appendPages(List<RandomAccessInputStream> inputs, RandomAccessOutputStream rout) throws IOException {
+		List<IFD> list = new ArrayList<IFD>();
+		// The input stream of each page
+		List<RandomAccessInputStream> sources = new ArrayList<RandomAccessInputStream>();
+		boolean bigTiff = false;
+		short endian = 0;
+		
+		for(RandomAccessInputStream rin : inputs) {
+			List<IFD> pages = new ArrayList<IFD>();
+			readIFDs(pages, rin);
+			if(endian == 0)
+				endian = rin.getEndian();
+			else if(rin.getEndian() != endian) { // Image data can't be byte swapped without decoding it
+				for(IFD page : pages) {
+					TiffField<?> bitsPerSample = page.getField(TiffTag.BITS_PER_SAMPLE);
+					if(bitsPerSample == null) continue;
+					for(int bits : bitsPerSample.getDataAsLong()) {
+						if(bits > 8)
+							throw new UnsupportedOperationException("Can't append " + bits + " bit samples with a different byte order");
+					}
+				}
+			}
+			bigTiff |= isBigTIFF(rin);
+			list.addAll(pages);
+			sources.addAll(Collections.nCopies(pages.size(), rin));
+		}
+		
+		if(list.isEmpty())
+			throw new IllegalArgumentException("No pages to append");
+		
+		// Reset pageNumber if we have more than 1 pages
+		if(list.size() > 1) {
+			for(int i = 0; i < list.size(); i++) {
+				list.get(i).removeField(TiffTag.PAGE_NUMBER);
+				list.get(i).addField(new ShortField(TiffTag.PAGE_NUMBER.getValue(), new short[]{(short)i, (short)(list.size() - 1)}));
+			}
+		}
+		
+		rout.setWriteStrategy((endian == IOUtils.BIG_ENDIAN)?WriteStrategyMM.getInstance():WriteStrategyII.getInstance());
+		long writeOffset = writeHeader(rout, bigTiff);
+		
+		if(bigTiff) {
+			writeToStream(rout, writeIFDChain(list, sources, writeOffset, rout, true, true), true);
+		} else {
+			int offset = (int)writeOffset;
+			for(int i = 0; i < list.size(); i++) {
+				offset = copyPageData(list.get(i), offset, sources.get(i), rout);
+				// Tell the previous IFD to update next IFD offset for this IFD
+				if(i > 0) list.get(i - 1).setNextIFDOffset(rout, offset);
+				offset = list.get(i).write(rout, offset);
+			}
+			writeToStream(rout, list.get(0).getStartOffset());
+		}
+		
+		return list.size();
+	}
+	
 	/**
 	 * Extracts ICC_Profile from certain page of TIFF if any
 	 * 
@@ -471,16 +1040,7 @@ public class TIFFMeta {
 	 * @throws Exception
 	 */
 	public static byte[] extractICCProfile(int pageNumber, RandomAccessInputStream rin) throws Exception {
-		// Read pass image header
-		int offset = readHeader(rin);
-		// Read the IFDs into a list first
-		List<IFD> ifds = new ArrayList<IFD>();
-		readIFDs(null, null, TiffTag.class, ifds, offset, rin);
-		
-		if(pageNumber < 0 || pageNumber >= ifds.size())
-			throw new IllegalArgumentException("pageNumber " + pageNumber + " out of bounds: 0 - " + (ifds.size() - 1));
-		
-		IFD workingPage = ifds.get(pageNumber);
+		IFD workingPage = readPageIFD(pageNumber, rin);
 		TiffField<?> f_iccProfile = workingPage.getField(TiffTag.ICC_PROFILE);
 		if(f_iccProfile != null) {
 			return (byte[])f_iccProfile.getData();
@@ -494,16 +1054,7 @@ public class TIFFMeta {
 	}
 	
 	public static IRBThumbnail extractThumbnail(int pageNumber, RandomAccessInputStream rin) throws IOException {
-		// Read pass image header
-		int offset = readHeader(rin);
-		// Read the IFDs into a list first
-		List<IFD> ifds = new ArrayList<IFD>();
-		readIFDs(null, null, TiffTag.class, ifds, offset, rin);
-		
-		if(pageNumber < 0 || pageNumber >= ifds.size())
-			throw new IllegalArgumentException("pageNumber " + pageNumber + " out of bounds: 0 - " + (ifds.size() - 1));
-		
-		IFD workingPage = ifds.get(pageNumber);
+		IFD workingPage = readPageIFD(pageNumber, rin);
 		TiffField<?> f_photoshop = workingPage.getField(TiffTag.PHOTOSHOP);
 		if(f_photoshop != null) {
 			byte[] data = (byte[])f_photoshop.getData();
@@ -652,10 +1203,10 @@ public class TIFFMeta {
 	}
 		
 	public static void insertComments(List<String> comments, int pageNumber, RandomAccessInputStream rin, RandomAccessOutputStream rout) throws IOException {
-		int offset = copyHeader(rin, rout);
+		long offset = copyHeader(rin, rout);
 		// Read the IFDs into a list first
 		List<IFD> ifds = new ArrayList<IFD>();
-		readIFDs(null, null, TiffTag.class, ifds, offset, rin);
+		readPages(ifds, offset, rin, rout);
 		
 		if(pageNumber < 0 || pageNumber >= ifds.size())
 			throw new IllegalArgumentException("pageNumber " + pageNumber + " out of bounds: 0 - " + (ifds.size() - 1));
@@ -672,11 +1223,7 @@ public class TIFFMeta {
 		
 		workingPage.addField(new ASCIIField(TiffTag.IMAGE_DESCRIPTION.getValue(), commentsBuilder.toString()));
 
-		int writeOffset = FIRST_WRITE_OFFSET;
-		writeOffset = copyPages(ifds, writeOffset, rin, rout);
-		int firstIFDOffset = ifds.get(0).getStartOffset();	
-
-		writeToStream(rout, firstIFDOffset);	
+		writePages(ifds, rin, rout);
 	}
 	
 	public static void insertExif(RandomAccessInputStream rin, RandomAccessOutputStream rout, Exif exif, boolean update) throws IOException {
@@ -694,10 +1241,10 @@ public class TIFFMeta {
 	 * @throws Exception
 	 */
 	public static void insertExif(RandomAccessInputStream rin, RandomAccessOutputStream rout, Exif exif, int pageNumber, boolean update) throws IOException {
-		int offset = copyHeader(rin, rout);
+		long offset = copyHeader(rin, rout);
 		// Read the IFDs into a list first
 		List<IFD> ifds = new ArrayList<IFD>();
-		readIFDs(null, null, TiffTag.class, ifds, offset, rin);
+		readPages(ifds, offset, rin, rout);
 		
 		if(pageNumber < 0 || pageNumber >= ifds.size())
 			throw new IllegalArgumentException("pageNumber " + pageNumber + " out of bounds: 0 - " + (ifds.size() - 1));
@@ -749,12 +1296,24 @@ public class TIFFMeta {
 			imageIFD.addChild(TiffTag.GPS_SUB_IFD, newGpsSubIFD);		
 		}
 		
-		int writeOffset = FIRST_WRITE_OFFSET;
-		// Copy pages
-		writeOffset = copyPages(ifds, writeOffset, rin, rout);
-		int firstIFDOffset = ifds.get(0).getStartOffset();
-
-		writeToStream(rout, firstIFDOffset);
+		writePages(ifds, rin, rout);
+	}
+	
+	/**
+	 * Insert EXIF data into a TIFF file in place.
+	 * <p>
+	 * Instead of copying the whole image, the IFDs are appended to the end of the
+	 * file and the header is updated to point to them. Image data is not touched.
+	 * 
+	 * @param file TIFF file opened in "rw" mode
+	 * @param exif EXIF wrapper instance
+	 * @param pageNumber page offset where to insert EXIF (zero based)
+	 * @param update True to keep the original data, otherwise false
+	 * @throws IOException
+	 */
+	public static void insertExif(RandomAccessFile file, Exif exif, int pageNumber, boolean update) throws IOException {
+		FileRandomAccessInputStream rin = new FileRandomAccessInputStream(file);
+		insertExif(rin, new FileRandomAccessOutputStream(rin), exif, pageNumber, update);
 	}
 	
 	public static void insertICCProfile(byte[] icc_profile, RandomAccessInputStream rin, RandomAccessOutputStream rout) throws IOException {
@@ -771,10 +1330,10 @@ public class TIFFMeta {
 	 * @throws Exception
 	 */
 	public static void insertICCProfile(byte[] icc_profile, int pageNumber, RandomAccessInputStream rin, RandomAccessOutputStream rout) throws IOException {
-		int offset = copyHeader(rin, rout);
+		long offset = copyHeader(rin, rout);
 		// Read the IFDs into a list first
 		List<IFD> ifds = new ArrayList<IFD>();
-		readIFDs(null, null, TiffTag.class, ifds, offset, rin);
+		readPages(ifds, offset, rin, rout);
 		
 		if(pageNumber < 0 || pageNumber >= ifds.size())
 			throw new IllegalArgumentException("pageNumber " + pageNumber + " out of bounds: 0 - " + (ifds.size() - 1));
@@ -782,11 +1341,20 @@ public class TIFFMeta {
 		IFD workingPage = ifds.get(pageNumber);
 		workingPage.addField(new UndefinedField(TiffTag.ICC_PROFILE.getValue(), icc_profile));
 
-		int writeOffset = FIRST_WRITE_OFFSET;
-		writeOffset = copyPages(ifds, writeOffset, rin, rout);
-		int firstIFDOffset = ifds.get(0).getStartOffset();	
-
-		writeToStream(rout, firstIFDOffset);	
+		writePages(ifds, rin, rout);
+	}
+	
+	/**
+	 * Insert ICC_Profile into a TIFF file in place without copying the image data
+	 * 
+	 * @param icc_profile byte array holding the ICC_Profile
+	 * @param pageNumber page offset where to insert ICC_Profile
+	 * @param file TIFF file opened in "rw" mode
+	 * @throws IOException
+	 */
+	public static void insertICCProfile(byte[] icc_profile, int pageNumber, RandomAccessFile file) throws IOException {
+		FileRandomAccessInputStream rin = new FileRandomAccessInputStream(file);
+		insertICCProfile(icc_profile, pageNumber, rin, new FileRandomAccessOutputStream(rin));
 	}
 	
 	public static void insertIPTC(RandomAccessInputStream rin, RandomAccessOutputStream rout, Collection<IPTCDataSet> iptcs, boolean update) throws IOException {
@@ -816,10 +1384,10 @@ public class TIFFMeta {
 	 * @throws IOException
 	 */
 	public static void insertIPTC(RandomAccessInputStream rin, RandomAccessOutputStream rout, int pageNumber, Collection<IPTCDataSet> iptcs, boolean update) throws IOException {
-		int offset = copyHeader(rin, rout);
+		long offset = copyHeader(rin, rout);
 		// Read the IFDs into a list first
 		List<IFD> ifds = new ArrayList<IFD>();
-		readIFDs(null, null, TiffTag.class, ifds, offset, rin);
+		readPages(ifds, offset, rin, rout);
 		
 		if(pageNumber < 0 || pageNumber >= ifds.size())
 			throw new IllegalArgumentException("pageNumber " + pageNumber + " out of bounds: 0 - " + (ifds.size() - 1));
@@ -878,11 +1446,21 @@ public class TIFFMeta {
 		// Add IPTC to regular IPTC tag field
 		workingPage.addField(new UndefinedField(TiffTag.IPTC.getValue(), bout.toByteArray()));
 
-		int writeOffset = FIRST_WRITE_OFFSET;
-		writeOffset = copyPages(ifds, writeOffset, rin, rout);
-		int firstIFDOffset = ifds.get(0).getStartOffset();	
-
-		writeToStream(rout, firstIFDOffset);	
+		writePages(ifds, rin, rout);
+	}
+	
+	/**
+	 * Insert IPTC data into a TIFF file in place without copying the image data
+	 * 
+	 * @param file TIFF file opened in "rw" mode
+	 * @param pageNumber page offset where to insert IPTC
+	 * @param iptcs A list of IPTCDataSet to insert into the TIFF image
+	 * @param update whether we want to keep the original IPTC data or override it
+	 * @throws IOException
+	 */
+	public static void insertIPTC(RandomAccessFile file, int pageNumber, Collection<IPTCDataSet> iptcs, boolean update) throws IOException {
+		FileRandomAccessInputStream rin = new FileRandomAccessInputStream(file);
+		insertIPTC(rin, new FileRandomAccessOutputStream(rin), pageNumber, iptcs, update);
 	}
 	
 	public static void insertIRB(RandomAccessInputStream rin, RandomAccessOutputStream rout, Collection<_8BIM> bims, boolean update) throws IOException {
@@ -890,10 +1468,10 @@ public class TIFFMeta {
 	}
 	
 	public static void insertIRB(RandomAccessInputStream rin, RandomAccessOutputStream rout, int pageNumber, Collection<_8BIM> bims, boolean update) throws IOException {
-		int offset = copyHeader(rin, rout);
+		long offset = copyHeader(rin, rout);
 		// Read the IFDs into a list first
 		List<IFD> ifds = new ArrayList<IFD>();
-		readIFDs(null, null, TiffTag.class, ifds, offset, rin);
+		readPages(ifds, offset, rin, rout);
 	
 		if(pageNumber < 0 || pageNumber >= ifds.size())
 			throw new IllegalArgumentException("pageNumber " + pageNumber + " out of bounds: 0 - " + (ifds.size() - 1));
@@ -923,11 +1501,7 @@ public class TIFFMeta {
 		
 		workingPage.addField(new UndefinedField(TiffTag.PHOTOSHOP.getValue(), bout.toByteArray()));
 
-		int writeOffset = FIRST_WRITE_OFFSET;
-		writeOffset = copyPages(ifds, writeOffset, rin, rout);
-		int firstIFDOffset = ifds.get(0).getStartOffset();	
-
-		writeToStream(rout, firstIFDOffset);	
+		writePages(ifds, rin, rout);
 	}
 	
 	/**
@@ -966,10 +1540,10 @@ public class TIFFMeta {
 	 * @throws IOException
 	 */
 	public static void insertXMP(byte[] xmp, int pageNumber, RandomAccessInputStream rin, RandomAccessOutputStream rout) throws IOException {
-		int offset = copyHeader(rin, rout);
+		long offset = copyHeader(rin, rout);
 		// Read the IFDs into a list first
 		List<IFD> ifds = new ArrayList<IFD>();
-		readIFDs(null, null, TiffTag.class, ifds, offset, rin);
+		readPages(ifds, offset, rin, rout);
 		
 		if(pageNumber < 0 || pageNumber >= ifds.size())
 			throw new IllegalArgumentException("pageNumber " + pageNumber + " out of bounds: 0 - " + (ifds.size() - 1));
@@ -977,11 +1551,20 @@ public class TIFFMeta {
 		IFD workingPage = ifds.get(pageNumber);
 		workingPage.addField(new UndefinedField(TiffTag.XMP.getValue(), xmp));
 
-		int writeOffset = FIRST_WRITE_OFFSET;
-		writeOffset = copyPages(ifds, writeOffset, rin, rout);
-		int firstIFDOffset = ifds.get(0).getStartOffset();	
-
-		writeToStream(rout, firstIFDOffset);	
+		writePages(ifds, rin, rout);
+	}
+	
+	/**
+	 * Insert XMP data into a TIFF file in place without copying the image data
+	 * 
+	 * @param xmp byte array for the XMP data to be inserted
+	 * @param pageNumber page offset where to insert XMP
+	 * @param file TIFF file opened in "rw" mode
+	 * @throws IOException
+	 */
+	public static void insertXMP(byte[] xmp, int pageNumber, RandomAccessFile file) throws IOException {
+		FileRandomAccessInputStream rin = new FileRandomAccessInputStream(file);
+		insertXMP(xmp, pageNumber, rin, new FileRandomAccessOutputStream(rin));
 	}
 	
 	public static void insertXMP(String xmp, RandomAccessInputStream rin, RandomAccessOutputStream rout) throws IOException {
@@ -1005,20 +1588,11 @@ public class TIFFMeta {
 	
 	public static void printIFD(IFD currIFD, Class<? extends Tag> tagClass, String indent) {
 		StringBuilder ifd = new StringBuilder();
-		print(currIFD, tagClass, indent, ifd);
+		print(currIFD, getTagRegistry(tagClass), indent, ifd);
 		LOGGER.info("\n{}", ifd);
 	}
 	
-	private static void print(IFD currIFD, Class<? extends Tag> tagClass, String indent, StringBuilder ifds) {
-		// Use reflection to invoke fromShort(short) method
-		Method method = null;
-		try {
-			method = tagClass.getDeclaredMethod("fromShort", short.class);
-		} catch (NoSuchMethodException e) {
-			e.printStackTrace();
-		} catch (SecurityException e) {
-			e.printStackTrace();
-		}
+	private static void print(IFD currIFD, TagRegistry registry, String indent, StringBuilder ifds) {
 		Collection<TiffField<?>> fields = currIFD.getFields();
 		int i = 0;
 		
@@ -1031,15 +1605,7 @@ public class TIFFMeta {
 			if(tag == ExifTag.PADDING.getValue()) {
 				ftag = ExifTag.PADDING;
 			} else {
-				try {
-					ftag = (Tag)method.invoke(null, tag);
-				} catch (IllegalAccessException e) {
-					LOGGER.error("IllegalAcessException", e);
-				} catch (IllegalArgumentException e) {
-					LOGGER.error("IllegalArgumentException", e);
-				} catch (InvocationTargetException e) {
-					LOGGER.error("InvocationTargetException", e);
-				}
+				ftag = registry.fromShort(tag);
 			}
 			if (ftag == TiffTag.UNKNOWN) {
 				LOGGER.warn("Tag: {} {}{}{} {}", ftag, "[Value: 0x", Integer.toHexString(tag&0xffff), "]", "(Unknown)");
@@ -1070,7 +1636,7 @@ public class TIFFMeta {
 		if(children.get(TiffTag.EXIF_SUB_IFD) != null) {
 			ifds.append(indent + "--------- ");
 			ifds.append("<<Exif SubIFD starts>>\n");
-			print(children.get(TiffTag.EXIF_SUB_IFD), ExifTag.class, indent + "--------- ", ifds);
+			print(children.get(TiffTag.EXIF_SUB_IFD), ExifTag.getRegistry(), indent + "--------- ", ifds);
 			ifds.append(indent + "--------- ");
 			ifds.append("<<Exif SubIFD ends>>\n");
 		}
@@ -1078,13 +1644,19 @@ public class TIFFMeta {
 		if(children.get(TiffTag.GPS_SUB_IFD) != null) {
 			ifds.append(indent + "--------- ");
 			ifds.append("<<GPS SubIFD starts>>\n");
-			print(children.get(TiffTag.GPS_SUB_IFD), GPSTag.class, indent + "--------- ", ifds);
+			print(children.get(TiffTag.GPS_SUB_IFD), GPSTag.getRegistry(), indent + "--------- ", ifds);
 			ifds.append(indent + "--------- ");
 			ifds.append("<<GPS SubIFD ends>>\n");
 		}		
 	}
 	
-	private static int readHeader(RandomAccessInputStream rin) throws IOException {
+	// Returns the first IFD offset for both classic TIFF and BigTIFF
+	/**
+	 * Reads the TIFF header and sets the byte order of the stream accordingly
+	 * 
+	 * @return offset of the first IFD
+	 */
+	public static long readHeader(RandomAccessInputStream rin) throws IOException {
 		int offset = 0;
 	    // First 2 bytes determine the byte order of the file
 		rin.seek(STREAM_HEAD);
@@ -1105,273 +1677,197 @@ public class TIFFMeta {
 		short tiff_id = rin.readShort();
 		offset +=2;
 		
+		if(tiff_id == 0x2b) { //"+" 43 decimal
+			return readBigTIFFHeader(rin);
+		}
+		
 		if(tiff_id!=0x2a) { //"*" 42 decimal
 			rin.close();
 			throw new RuntimeException("Invalid TIFF identifier");
 		}
 		
 		rin.seek(offset);
-		offset = rin.readInt();
 			
-		return offset;
+		return rin.readInt()&0xffffffffL;
+	}
+	
+	// Reads the rest of the BigTIFF header after the identifier
+	private static long readBigTIFFHeader(RandomAccessInputStream rin) throws IOException {
+		rin.seek(0x04);
+		short offsetSize = rin.readShort();
+		short reserved = rin.readShort();
+		
+		if(offsetSize != 8 || reserved != 0) {
+			rin.close();
+			throw new RuntimeException("Invalid BigTIFF header");
+		}
+		
+		return rin.readLong();
+	}
+	
+	// Checks the identifier of a stream whose byte order has already been set by reading the header
+	private static boolean isBigTIFF(RandomAccessInputStream rin) throws IOException {
+		rin.seek(0x02);
+		
+		return rin.readShort() == 0x2b;
+	}
+	
+	// Maps a tag enum class to its tag lookup table
+	private static TagRegistry getTagRegistry(Class<? extends Tag> tagClass) {
+		if(tagClass == TiffTag.class)
+			return TiffTag.getRegistry();
+		else if(tagClass == ExifTag.class)
+			return ExifTag.getRegistry();
+		else if(tagClass == GPSTag.class)
+			return GPSTag.getRegistry();
+		else if(tagClass == InteropTag.class)
+			return InteropTag.getRegistry();
+		else if(!tagClass.isEnum())
+			throw new IllegalArgumentException("Tag class " + tagClass + " is not an enum");
+		
+		// Other tag sets are built once and kept
+		synchronized(tagRegistries) {
+			TagRegistry registry = tagRegistries.get(tagClass);
+			if(registry == null) {
+				registry = new TagRegistry(tagClass.getEnumConstants());
+				tagRegistries.put(tagClass, registry);
+			}
+			return registry;
+		}
 	}
 	
 	// Read IFD without header
 	public static int readIFD(RandomAccessInputStream rin, List<IFD> list, Class<? extends Tag> tagClass) throws IOException {
-		return readIFD(null, null, tagClass, rin, list, 0);
+		return (int)readIFD(null, null, getTagRegistry(tagClass), rin, list, 0, NO_LAZY_VALUES, false);
 	}
 	
-	private static int readIFD(IFD parent, Tag parentTag, Class<? extends Tag> tagClass, RandomAccessInputStream rin, List<IFD> list, int offset) throws IOException {	
-		// Use reflection to invoke fromShort(short) method
-		Method method = null;
-		try {
-			method = tagClass.getDeclaredMethod("fromShort", short.class);
-		} catch (NoSuchMethodException e) {
-			e.printStackTrace();
-		} catch (SecurityException e) {
-			e.printStackTrace();
-		}
+	// Read IFD without header
+	public static int readIFD(RandomAccessInputStream rin, List<IFD> list, TagRegistry registry) throws IOException {
+		return (int)readIFD(null, null, registry, rin, list, 0, NO_LAZY_VALUES, false);
+	}
+	
+	/**
+	 * Reads a single classic TIFF IFD without following its sub-IFD pointers.
+	 * The pointer fields are kept, so the sub-IFDs can be read later on demand
+	 * with further calls. The byte order of the stream must already be set,
+	 * see {@link #readHeader(RandomAccessInputStream)}.
+	 * 
+	 * @param rin RandomAccessInputStream to read from
+	 * @param offset offset of the IFD
+	 * @param registry TagRegistry for the tags of the IFD
+	 * @param list List to add the IFD to
+	 * @return offset of the next IFD or 0 if there is none
+	 * @throws IOException
+	 */
+	public static long readIFD(RandomAccessInputStream rin, long offset, TagRegistry registry, List<IFD> list) throws IOException {
+		return readIFD(null, null, registry, rin, list, offset, NO_LAZY_VALUES, false, false);
+	}
+	
+	private static long readIFD(IFD parent, Tag parentTag, TagRegistry registry, RandomAccessInputStream rin, List<IFD> list, long offset, int lazyThreshold, boolean bigTiff) throws IOException {
+		return readIFD(parent, parentTag, registry, rin, list, offset, lazyThreshold, bigTiff, true);
+	}
+	
+	/*
+	 * Classic TIFF entries are 12 bytes long with 4 byte counts and value offsets,
+	 * BigTIFF entries 20 bytes long with 8 byte counts and value offsets.
+	 */
+	private static long readIFD(IFD parent, Tag parentTag, TagRegistry registry, RandomAccessInputStream rin, List<IFD> list, long offset, int lazyThreshold, boolean bigTiff, boolean readSubIFDs) throws IOException {	
+		ReadStrategy readStrategy = (rin.getEndian() == IOUtils.BIG_ENDIAN)?ReadStrategyMM.getInstance():ReadStrategyII.getInstance();
+		int entrySize = bigTiff?20:12;
+		int offsetSize = bigTiff?8:4;
 		IFD tiffIFD = new IFD();
 		rin.seek(offset);
-		int no_of_fields = rin.readShort();
-		offset += 2;
+		long numOfFields = bigTiff?rin.readLong():(rin.readShort()&0xffff);
+		if(numOfFields < 0 || numOfFields > (Integer.MAX_VALUE - offsetSize)/entrySize)
+			throw new IOException("Invalid number of IFD entries " + numOfFields);
+		int no_of_fields = (int)numOfFields;
+		// Read the entry table together with the next IFD offset in one go
+		byte[] table = new byte[entrySize*no_of_fields + offsetSize];
+		rin.readFully(table);
+		
+		IFDEntry[] entries = new IFDEntry[no_of_fields];
+		List<IFDEntry> outOfLine = new ArrayList<IFDEntry>();
+		
+		for (int i = 0, index = 0; i < no_of_fields; i++, index += entrySize) {
+			short tag = readStrategy.readShort(table, index);
+			Tag ftag = registry.fromShort(tag);
+			FieldType ftype = FieldType.fromShort(readStrategy.readShort(table, index + 2));
+			long field_length = bigTiff?readStrategy.readLong(table, index + 4):(readStrategy.readInt(table, index + 4)&0xffffffffL);
+			if(field_length < 0 || field_length > Integer.MAX_VALUE)
+				throw new IOException("Invalid count " + field_length + " for tag 0x" + Integer.toHexString(tag&0xffff));
+			IFDEntry entry = new IFDEntry(tag, ftag, ftype, (int)field_length);
+			entries[i] = entry;
+			int size = entry.getValueSize();
+			if(size < 0) continue; // Unknown field type
+			int valueIndex = index + entrySize - offsetSize;
+			if(size <= offsetSize) { // Value fits into the entry itself
+				entry.value = Arrays.copyOfRange(table, valueIndex, valueIndex + offsetSize);
+			} else {
+				entry.valueOffset = bigTiff?readStrategy.readLong(table, valueIndex):(readStrategy.readInt(table, valueIndex)&0xffffffffL);
+				if(size > lazyThreshold && entry.canBeLazy())
+					entry.lazy = true;
+				else
+					outOfLine.add(entry);
+			}
+		}
 		
-		for (int i = 0; i < no_of_fields; i++) {
-			rin.seek(offset);
-			short tag = rin.readShort();
-			Tag ftag = TiffTag.UNKNOWN;
-			try {
-				ftag = (Tag)method.invoke(null, tag);
-			} catch (IllegalAccessException e) {
-				e.printStackTrace();
-			} catch (IllegalArgumentException e) {
-				e.printStackTrace();
-			} catch (InvocationTargetException e) {
-				e.printStackTrace();
+		readValues(outOfLine, rin);
+		
+		for (IFDEntry entry : entries) {
+			if(entry.lazy) {
+				tiffIFD.addField(createLazyField(tiffIFD, entry, readStrategy, rin));
+				continue;
 			}
-			offset += 2;
-			rin.seek(offset);
-			short type = rin.readShort();
-			FieldType ftype = FieldType.fromShort(type);
-			offset += 2;
-			rin.seek(offset);
-			int field_length = rin.readInt();
-			offset += 4;
-			////// Try to read actual data.
-			switch (ftype) {
-				case BYTE:
-				case SBYTE:
-				case UNDEFINED:
-					byte[] data = new byte[field_length];
-					rin.seek(offset);
-					if(field_length <= 4) {						
-						rin.readFully(data, 0, field_length);					   
-					} else {
-						rin.seek(rin.readInt());
-						rin.readFully(data, 0, field_length);
-					}					
-					TiffField<byte[]> byteField = null;
-					if(ftype == FieldType.BYTE) {
-						byteField = new ByteField(tag, data);
-					} else if(ftype == FieldType.SBYTE) {
-						byteField = new SByteField(tag, data);
-					} else {
-						if(ftag == ExifTag.MAKER_NOTE)
-							byteField = new MakerNoteField(tiffIFD, data);
-						else
-							byteField = new UndefinedField(tag, data);
-					}
-					tiffIFD.addField(byteField);
-					offset += 4;					
-					break;
-				case ASCII:
-					data = new byte[field_length];
-					if(field_length <= 4) {
-						rin.seek(offset);
-						rin.readFully(data, 0, field_length);
-					}						
-					else {
-						rin.seek(offset);
-						rin.seek(rin.readInt());
-						rin.readFully(data, 0, field_length);
-					}
-					TiffField<String> ascIIField = new ASCIIField(tag, new String(data, "UTF-8"));
-					tiffIFD.addField(ascIIField);
-					offset += 4;	
-					break;
-				case SHORT:
-				case SSHORT:
-					short[] sdata = new short[field_length];
-					if(field_length == 1) {
-					  rin.seek(offset);
-					  sdata[0] = rin.readShort();
-					  offset += 4;
-					} else if (field_length == 2) {
-						rin.seek(offset);
-						sdata[0] = rin.readShort();
-						offset += 2;
-						rin.seek(offset);
-						sdata[1] = rin.readShort();
-						offset += 2;
-					} else {
-						rin.seek(offset);
-						int toOffset = rin.readInt();
-						offset += 4;
-						for (int j = 0; j  <field_length; j++){
-							rin.seek(toOffset);
-							sdata[j] = rin.readShort();
-							toOffset += 2;
-						}
-					}
-					TiffField<short[]> shortField = null;
-					if(ftype == FieldType.SSHORT) {
-						shortField = new SShortField(tag, sdata);
-					} else {
-						shortField = new ShortField(tag, sdata);
+			if(entry.value == null) continue; // Unknown field type
+			TiffField<?> field = null;
+			if(entry.ftype == FieldType.UNDEFINED && entry.ftag == ExifTag.MAKER_NOTE)
+				field = new MakerNoteField(tiffIFD, (entry.value.length == entry.count)?entry.value:Arrays.copyOf(entry.value, entry.count));
+			else
+				field = createField(entry.tag, entry.ftype, entry.count, entry.value, readStrategy);
+			tiffIFD.addField(field);
+			
+			if(entry.count == 0 || !readSubIFDs) continue;
+			
+			Tag ftag = entry.ftag;
+			boolean is64bit = (entry.ftype == FieldType.LONG8 || entry.ftype == FieldType.IFD8);
+			long subIFDOffset = is64bit?readStrategy.readLong(entry.value, 0):(readStrategy.readInt(entry.value, 0)&0xffffffffL);
+			
+			if(entry.ftype == FieldType.LONG || entry.ftype == FieldType.SLONG || entry.ftype == FieldType.LONG8) {
+				if ((ftag == TiffTag.EXIF_SUB_IFD) && (subIFDOffset != 0)) {
+					try { // If something bad happens, we skip the sub IFD
+						readIFD(tiffIFD, TiffTag.EXIF_SUB_IFD, ExifTag.getRegistry(), rin, null, subIFDOffset, lazyThreshold, bigTiff);
+					} catch(Exception e) {
+						tiffIFD.removeField(TiffTag.EXIF_SUB_IFD);
+						e.printStackTrace();
 					}
-					tiffIFD.addField(shortField);
-					break;
-				case LONG:
-				case SLONG:
-					int[] ldata = new int[field_length];
-					if(field_length == 1) {
-					  rin.seek(offset);
-					  ldata[0] = rin.readInt();
-					  offset += 4;
-					} else {
-						rin.seek(offset);
-						int toOffset = rin.readInt();
-						offset += 4;
-						for (int j=0;j<field_length; j++){
-							rin.seek(toOffset);
-							ldata[j] = rin.readInt();
-							toOffset += 4;
-						}
+				} else if ((ftag == TiffTag.GPS_SUB_IFD) && (subIFDOffset != 0)) {
+					try {
+						readIFD(tiffIFD, TiffTag.GPS_SUB_IFD, GPSTag.getRegistry(), rin, null, subIFDOffset, lazyThreshold, bigTiff);
+					} catch(Exception e) {
+						tiffIFD.removeField(TiffTag.GPS_SUB_IFD);
+						e.printStackTrace();
 					}
-					TiffField<int[]> longField = null;
-					if(ftype == FieldType.SLONG) {
-						longField = new SLongField(tag, ldata);
-					} else {
-						longField = new LongField(tag, ldata);
+				} else if((ftag == ExifTag.EXIF_INTEROPERABILITY_OFFSET) && (subIFDOffset != 0)) {
+					try {
+						readIFD(tiffIFD, ExifTag.EXIF_INTEROPERABILITY_OFFSET, InteropTag.getRegistry(), rin, null, subIFDOffset, lazyThreshold, bigTiff);
+					} catch(Exception e) {
+						tiffIFD.removeField(ExifTag.EXIF_INTEROPERABILITY_OFFSET);
+						e.printStackTrace();
 					}
-					tiffIFD.addField(longField);
-					
-					if ((ftag == TiffTag.EXIF_SUB_IFD) && (ldata[0]!= 0)) {
-						try { // If something bad happens, we skip the sub IFD
-							readIFD(tiffIFD, TiffTag.EXIF_SUB_IFD, ExifTag.class, rin, null, ldata[0]);
-						} catch(Exception e) {
-							tiffIFD.removeField(TiffTag.EXIF_SUB_IFD);
-							e.printStackTrace();
-						}
-					} else if ((ftag == TiffTag.GPS_SUB_IFD) && (ldata[0] != 0)) {
-						try {
-							readIFD(tiffIFD, TiffTag.GPS_SUB_IFD, GPSTag.class, rin, null, ldata[0]);
-						} catch(Exception e) {
-							tiffIFD.removeField(TiffTag.GPS_SUB_IFD);
-							e.printStackTrace();
-						}
-					} else if((ftag == ExifTag.EXIF_INTEROPERABILITY_OFFSET) && (ldata[0] != 0)) {
+				} else if (ftag == TiffTag.SUB_IFDS) {						
+					for(int ifd = 0; ifd < entry.count; ifd++) {
 						try {
-							readIFD(tiffIFD, ExifTag.EXIF_INTEROPERABILITY_OFFSET, InteropTag.class, rin, null, ldata[0]);
+							readIFD(tiffIFD, TiffTag.SUB_IFDS, TiffTag.getRegistry(), rin, null, subIFDOffset, lazyThreshold, bigTiff);
 						} catch(Exception e) {
-							tiffIFD.removeField(ExifTag.EXIF_INTEROPERABILITY_OFFSET);
+							tiffIFD.removeField(TiffTag.SUB_IFDS);
 							e.printStackTrace();
 						}
-					} else if (ftag == TiffTag.SUB_IFDS) {						
-						for(int ifd = 0; ifd < ldata.length; ifd++) {
-							try {
-								readIFD(tiffIFD, TiffTag.SUB_IFDS, TiffTag.class, rin, null, ldata[0]);
-							} catch(Exception e) {
-								tiffIFD.removeField(TiffTag.SUB_IFDS);
-								e.printStackTrace();
-							}
-						}
-					}				
-					break;
-				case FLOAT:
-					float[] fdata = new float[field_length];
-					if(field_length == 1) {
-					  rin.seek(offset);
-					  fdata[0] = rin.readFloat();
-					  offset += 4;
-					} else {
-						rin.seek(offset);
-						int toOffset = rin.readInt();
-						offset += 4;
-						for (int j=0;j<field_length; j++){
-							rin.seek(toOffset);
-							fdata[j] = rin.readFloat();
-							toOffset += 4;
-						}
-					}
-					TiffField<float[]> floatField = new FloatField(tag, fdata);
-					tiffIFD.addField(floatField);
-					
-					break;
-				case DOUBLE:
-					double[] ddata = new double[field_length];
-					rin.seek(offset);
-					int toOffset = rin.readInt();
-					offset += 4;
-					for (int j=0;j<field_length; j++){
-						rin.seek(toOffset);
-						ddata[j] = rin.readDouble();
-						toOffset += 8;
 					}
-					TiffField<double[]> doubleField = new DoubleField(tag, ddata);
-					tiffIFD.addField(doubleField);
-					
-					break;
-				case RATIONAL:
-				case SRATIONAL:
-					int len = 2*field_length;
-					ldata = new int[len];	
-					rin.seek(offset);
-					toOffset = rin.readInt();
-					offset += 4;					
-					for (int j=0;j<len; j+=2){
-						rin.seek(toOffset);
-						ldata[j] = rin.readInt();
-						toOffset += 4;
-						rin.seek(toOffset);
-						ldata[j+1] = rin.readInt();
-						toOffset += 4;
-					}
-					TiffField<int[]> rationalField = null;
-					if(ftype == FieldType.SRATIONAL) {
-						rationalField = new SRationalField(tag, ldata);
-					} else {
-						rationalField = new RationalField(tag, ldata);
-					}
-					tiffIFD.addField(rationalField);
-					
-					break;
-				case IFD:
-					ldata = new int[field_length];
-					if(field_length == 1) {
-					  rin.seek(offset);
-					  ldata[0] = rin.readInt();
-					  offset += 4;
-					} else {
-						rin.seek(offset);
-						toOffset = rin.readInt();
-						offset += 4;
-						for (int j=0;j<field_length; j++){
-							rin.seek(toOffset);
-							ldata[j] = rin.readInt();
-							toOffset += 4;
-						}
-					}
-					TiffField<int[]> ifdField = new IFDField(tag, ldata);
-					tiffIFD.addField(ifdField);
-					for(int ifd = 0; ifd < ldata.length; ifd++) {
-						readIFD(tiffIFD, TiffTag.SUB_IFDS, TiffTag.class, rin, null, ldata[0]);
-					}
-								
-					break;
-				default:
-					offset += 4;
-					break;					
+				}
+			} else if(entry.ftype == FieldType.IFD || entry.ftype == FieldType.IFD8) {
+				for(int ifd = 0; ifd < entry.count; ifd++) {
+					readIFD(tiffIFD, TiffTag.SUB_IFDS, TiffTag.getRegistry(), rin, null, subIFDOffset, lazyThreshold, bigTiff);
+				}
 			}
 		}
 		// If this is a child IFD, add it to its parent
@@ -1379,21 +1875,353 @@ public class TIFFMeta {
 			parent.addChild(parentTag, tiffIFD);
 		else // Otherwise, add to the main IFD list
 			list.add(tiffIFD);
-		rin.seek(offset);
 		
-		return rin.readInt();
+		return bigTiff?readStrategy.readLong(table, table.length - 8):(readStrategy.readInt(table, table.length - 4)&0xffffffffL);
+	}
+	
+	// Creates a field from its raw value bytes which may be longer than the value itself
+	private static TiffField<?> createField(short tag, FieldType ftype, int field_length, byte[] value, ReadStrategy readStrategy) throws IOException {
+		switch (ftype) {
+			case BYTE:
+			case SBYTE:
+			case UNDEFINED:
+				byte[] data = (value.length == field_length)?value:Arrays.copyOf(value, field_length);
+				if(ftype == FieldType.BYTE)
+					return new ByteField(tag, data);
+				else if(ftype == FieldType.SBYTE)
+					return new SByteField(tag, data);
+				return new UndefinedField(tag, data);
+			case ASCII:
+				return new ASCIIField(tag, new String(value, 0, field_length, "UTF-8"));
+			case SHORT:
+			case SSHORT:
+				short[] sdata = new short[field_length];
+				for (int j = 0; j < field_length; j++)
+					sdata[j] = readStrategy.readShort(value, j*2);
+				if(ftype == FieldType.SSHORT)
+					return new SShortField(tag, sdata);
+				return new ShortField(tag, sdata);
+			case LONG:
+			case SLONG:
+				int[] ldata = new int[field_length];
+				for (int j = 0; j < field_length; j++)
+					ldata[j] = readStrategy.readInt(value, j*4);
+				if(ftype == FieldType.SLONG)
+					return new SLongField(tag, ldata);
+				return new LongField(tag, ldata);
+			case FLOAT:
+				float[] fdata = new float[field_length];
+				for (int j = 0; j < field_length; j++)
+					fdata[j] = Float.intBitsToFloat(readStrategy.readInt(value, j*4));
+				return new FloatField(tag, fdata);
+			case DOUBLE:
+				double[] ddata = new double[field_length];
+				for (int j = 0; j < field_length; j++)
+					ddata[j] = Double.longBitsToDouble(readStrategy.readLong(value, j*8));
+				return new DoubleField(tag, ddata);
+			case RATIONAL:
+			case SRATIONAL:
+				int len = 2*field_length;
+				ldata = new int[len];
+				for (int j = 0; j < len; j++)
+					ldata[j] = readStrategy.readInt(value, j*4);
+				if(ftype == FieldType.SRATIONAL)
+					return new SRationalField(tag, ldata);
+				return new RationalField(tag, ldata);
+			case IFD:
+				ldata = new int[field_length];
+				for (int j = 0; j < field_length; j++)
+					ldata[j] = readStrategy.readInt(value, j*4);
+				return new IFDField(tag, ldata);
+			case LONG8:
+			case SLONG8:
+			case IFD8:
+				long[] l8data = new long[field_length];
+				for (int j = 0; j < field_length; j++)
+					l8data[j] = readStrategy.readLong(value, j*8);
+				if(ftype == FieldType.LONG8)
+					return new Long8Field(tag, l8data);
+				else if(ftype == FieldType.SLONG8)
+					return new SLong8Field(tag, l8data);
+				return new IFD8Field(tag, l8data);
+			default:
+				throw new IllegalArgumentException("Unsupported field type " + ftype);
+		}
+	}
+	
+	// Creates a field which reads its value from the input stream on first access
+	private static TiffField<?> createLazyField(final IFD ifd, IFDEntry entry, final ReadStrategy readStrategy, final RandomAccessInputStream rin) throws IOException {
+		final boolean isMakerNote = (entry.ftype == FieldType.UNDEFINED && entry.ftag == ExifTag.MAKER_NOTE);
+		final short tag = entry.tag;
+		final FieldType ftype = entry.ftype;
+		final int field_length = entry.count;
+		final int size = entry.getValueSize();
+		final long valueOffset = entry.valueOffset;
+		
+		return new LazyField(tag, ftype, field_length, new LazyField.Loader() {
+			public TiffField<?> load() throws IOException {
+				byte[] value = new byte[size];
+				rin.seek(valueOffset);
+				rin.readFully(value);
+				if(isMakerNote)
+					return new MakerNoteField(ifd, value);
+				return createField(tag, ftype, field_length, value, readStrategy);
+			}
+		}, rin, valueOffset);
 	}
 	
-	private static void readIFDs(IFD parent, Tag parentTag, Class<? extends Tag> tagClass, List<IFD> list, int offset, RandomAccessInputStream rin) throws IOException {
+	/*
+	 * Reads the out-of-line values of an IFD in file order. Values lying next to
+	 * each other are fetched with a single read, large values are read straight
+	 * into their own arrays.
+	 */
+	private static void readValues(List<IFDEntry> entries, RandomAccessInputStream rin) throws IOException {
+		Collections.sort(entries, new Comparator<IFDEntry>() {
+			public int compare(IFDEntry e1, IFDEntry e2) {
+				return Long.compare(e1.valueOffset, e2.valueOffset);
+			}
+		});
+		
+		int i = 0;
+		while(i < entries.size()) {
+			IFDEntry first = entries.get(i);
+			long start = first.valueOffset;
+			long end = start + first.getValueSize();
+			int j = i + 1;
+			if(first.getValueSize() <= MAX_COALESCED_VALUE_SIZE) {
+				for(; j < entries.size(); j++) {
+					IFDEntry next = entries.get(j);
+					long nextEnd = next.valueOffset + next.getValueSize();
+					if(next.getValueSize() > MAX_COALESCED_VALUE_SIZE || next.valueOffset > end + MAX_COALESCED_GAP
+							|| nextEnd - start > MAX_COALESCED_READ_SIZE)
+						break;
+					end = Math.max(end, nextEnd);
+				}
+			}
+			rin.seek(start);
+			if(j == i + 1) {
+				first.value = new byte[first.getValueSize()];
+				rin.readFully(first.value);
+			} else {
+				byte[] buf = new byte[(int)(end - start)];
+				rin.readFully(buf);
+				for(int k = i; k < j; k++) {
+					IFDEntry entry = entries.get(k);
+					int from = (int)(entry.valueOffset - start);
+					entry.value = Arrays.copyOfRange(buf, from, from + entry.getValueSize());
+				}
+			}
+			i = j;
+		}
+	}
+
+	/**
+	 * Reads the IFD of a single page. Only the next IFD offsets of the pages
+	 * in front of it are read, none of the other IFDs is decoded.
+	 * 
+	 * @param pageNumber zero based page number
+	 * @param rin RandomAccessInputStream for the input TIFF
+	 * @return the IFD for the page including its sub-IFDs
+	 * @throws IOException
+	 */
+	public static IFD readPageIFD(int pageNumber, RandomAccessInputStream rin) throws IOException {
+		return readPageIFD(pageNumber, rin, NO_LAZY_VALUES);
+	}
+	
+	/**
+	 * Reads the IFD of a single page leaving out-of-line field values larger
+	 * than lazyThreshold bytes in the input until they are first accessed.
+	 * 
+	 * @param pageNumber zero based page number
+	 * @param rin RandomAccessInputStream for the input TIFF which has to be kept
+	 *        open as long as lazy field values are to be accessed, a value which
+	 *        can't be read is reported as an UncheckedIOException, see {@link LazyField}
+	 * @param lazyThreshold field values larger than this number of bytes are read lazily 
+	 * @return the IFD for the page including its sub-IFDs
+	 * @throws IOException
+	 */
+	public static IFD readPageIFD(int pageNumber, RandomAccessInputStream rin, int lazyThreshold) throws IOException {
+		return readPageIFD(pageNumber, rin, null, lazyThreshold);
+	}
+	
+	/**
+	 * Reads the IFD of a single page seeking directly to it with the help of a page index
+	 * 
+	 * @param pageNumber zero based page number
+	 * @param rin RandomAccessInputStream for the input TIFF
+	 * @param index page index created for the same image by {@link #createPageIndex(RandomAccessInputStream)}
+	 * @return the IFD for the page including its sub-IFDs
+	 * @throws IOException
+	 * @throws IllegalArgumentException if the index doesn't match the image
+	 */
+	public static IFD readPageIFD(int pageNumber, RandomAccessInputStream rin, TiffPageIndex index) throws IOException {
+		return readPageIFD(pageNumber, rin, index, NO_LAZY_VALUES);
+	}
+	
+	private static IFD readPageIFD(int pageNumber, RandomAccessInputStream rin, TiffPageIndex index, int lazyThreshold) throws IOException {
+		long offset = readHeader(rin);
+		boolean bigTiff = isBigTIFF(rin);
+		if(index != null) {
+			// Cheap sanity check against a stale index, the first IFD moves when the image is updated
+			if(index.isBigTIFF() != bigTiff || index.getEndian() != rin.getEndian()
+					|| index.getNumOfPages() == 0 || index.getIFDOffset(0) != offset)
+				throw new IllegalArgumentException("Page index doesn't match the image");
+			offset = index.getIFDOffset(pageNumber);
+		} else
+			offset = findIFDOffset(pageNumber, offset, rin, bigTiff);
+		List<IFD> list = new ArrayList<IFD>(1);
+		readIFD(null, null, TiffTag.getRegistry(), rin, list, offset, lazyThreshold, bigTiff);
+		
+		return list.get(0);
+	}
+	
+	/**
+	 * Creates an index of all the pages in a single pass over the IFD chain.
+	 * Only the entry table of each IFD is read, no field values.
+	 * 
+	 * @param rin RandomAccessInputStream for the input TIFF
+	 * @return a TiffPageIndex for the image
+	 * @throws IOException
+	 */
+	public static TiffPageIndex createPageIndex(RandomAccessInputStream rin) throws IOException {
+		long offset = readHeader(rin);
+		boolean bigTiff = isBigTIFF(rin);
+		ReadStrategy readStrategy = (rin.getEndian() == IOUtils.BIG_ENDIAN)?ReadStrategyMM.getInstance():ReadStrategyII.getInstance();
+		int entrySize = bigTiff?20:12;
+		int offsetSize = bigTiff?8:4;
+		List<TiffPageIndex.Page> pages = new ArrayList<TiffPageIndex.Page>();
+		Set<Long> visited = new HashSet<Long>();
+		
+		while(offset != 0) {
+			if(!visited.add(offset))
+				throw new IOException("IFD chain loops back to offset " + offset);
+			rin.seek(offset);
+			long numOfFields = bigTiff?rin.readLong():(rin.readShort()&0xffff);
+			if(numOfFields < 0 || numOfFields > (Integer.MAX_VALUE - offsetSize)/entrySize)
+				throw new IOException("Invalid number of IFD entries " + numOfFields);
+			byte[] table = new byte[entrySize*(int)numOfFields + offsetSize];
+			rin.readFully(table);
+			long tableOffset = offset + (bigTiff?8:2);
+			
+			int width = 0, height = 0, compression = 1;
+			boolean tiled = false;
+			short dataOffsetsType = 0;
+			int dataOffsetsCount = 0;
+			long dataOffsetsPosition = 0;
+			
+			for(int i = 0, entryOffset = 0; i < numOfFields; i++, entryOffset += entrySize) {
+				short tag = readStrategy.readShort(table, entryOffset);
+				short type = readStrategy.readShort(table, entryOffset + 2);
+				long count = bigTiff?readStrategy.readLong(table, entryOffset + 4):(readStrategy.readInt(table, entryOffset + 4)&0xffffffffL);
+				int valueOffset = entryOffset + 4 + offsetSize;
+				
+				if(tag == TiffTag.IMAGE_WIDTH.getValue())
+					width = (int)readFirstValue(table, valueOffset, type, readStrategy);
+				else if(tag == TiffTag.IMAGE_LENGTH.getValue())
+					height = (int)readFirstValue(table, valueOffset, type, readStrategy);
+				else if(tag == TiffTag.COMPRESSION.getValue())
+					compression = (int)readFirstValue(table, valueOffset, type, readStrategy);
+				else if(tag == TiffTag.STRIP_OFFSETS.getValue() || tag == TiffTag.TILE_OFFSETS.getValue()) {
+					if(count > Integer.MAX_VALUE)
+						throw new IOException("Invalid count " + count + " for field " + TiffTag.fromShort(tag));
+					tiled = (tag == TiffTag.TILE_OFFSETS.getValue());
+					dataOffsetsType = type;
+					dataOffsetsCount = (int)count;
+					int typeSize = (type == FieldType.SHORT.getValue())?2:((type == FieldType.LONG8.getValue() || type == FieldType.IFD8.getValue())?8:4);
+					if(count*typeSize <= offsetSize) // Values are inside the entry
+						dataOffsetsPosition = tableOffset + valueOffset;
+					else
+						dataOffsetsPosition = bigTiff?readStrategy.readLong(table, valueOffset):(readStrategy.readInt(table, valueOffset)&0xffffffffL);
+				}
+			}
+			
+			pages.add(new TiffPageIndex.Page(offset, width, height, compression, tiled, dataOffsetsType, dataOffsetsCount, dataOffsetsPosition));
+			
+			int nextOffset = entrySize*(int)numOfFields;
+			offset = bigTiff?readStrategy.readLong(table, nextOffset):(readStrategy.readInt(table, nextOffset)&0xffffffffL);
+		}
+		
+		return new TiffPageIndex(rin.getEndian(), bigTiff, pages);
+	}
+	
+	// Reads the first value of a SHORT, LONG or LONG8 entry which is stored inside the entry
+	private static long readFirstValue(byte[] table, int valueOffset, short type, ReadStrategy readStrategy) {
+		if(type == FieldType.SHORT.getValue())
+			return readStrategy.readShort(table, valueOffset)&0xffff;
+		if(type == FieldType.LONG8.getValue())
+			return readStrategy.readLong(table, valueOffset);
+		
+		return readStrategy.readInt(table, valueOffset)&0xffffffffL;
+	}
+	
+	// Follows the IFD chain from offset without reading any field and returns the offset of the IFD for the page
+	private static long findIFDOffset(int pageNumber, long offset, RandomAccessInputStream rin, boolean bigTiff) throws IOException {
+		if(pageNumber < 0)
+			throw new IllegalArgumentException("pageNumber " + pageNumber + " out of bounds");
+		
+		Set<Long> visited = new HashSet<Long>();
+		
+		for(int page = 0; offset != 0; page++) {
+			if(page == pageNumber)
+				return offset;
+			if(!visited.add(offset))
+				throw new IOException("IFD chain loops back to offset " + offset);
+			rin.seek(offset);
+			if(bigTiff) {
+				long no_of_fields = rin.readLong();
+				rin.seek(offset + 8 + 20*no_of_fields);
+				offset = rin.readLong();
+			} else {
+				int no_of_fields = rin.readShort()&0xffff;
+				rin.seek(offset + 2 + 12*no_of_fields);
+				offset = rin.readInt()&0xffffffffL;
+			}
+			if(offset == 0)
+				throw new IllegalArgumentException("pageNumber " + pageNumber + " out of bounds: 0 - " + page);
+		}
+		
+		throw new IllegalArgumentException("pageNumber " + pageNumber + " out of bounds: no page found");
+	}
+	
+	private static void readIFDs(IFD parent, Tag parentTag, TagRegistry registry, List<IFD> list, long offset, RandomAccessInputStream rin) throws IOException {
+		readIFDs(parent, parentTag, registry, list, offset, rin, NO_LAZY_VALUES, isBigTIFF(rin));
+	}
+	
+	// Reads the pages to edit, lazily for in-place updates so values which are not touched are never read or rewritten
+	private static void readPages(List<IFD> list, long offset, RandomAccessInputStream rin, RandomAccessOutputStream rout) throws IOException {
+		readIFDs(null, null, TiffTag.getRegistry(), list, offset, rin, isInPlace(rin, rout)?0:NO_LAZY_VALUES, isBigTIFF(rin));
+	}
+	
+	private static void readIFDs(IFD parent, Tag parentTag, TagRegistry registry, List<IFD> list, long offset, RandomAccessInputStream rin, int lazyThreshold, boolean bigTiff) throws IOException {
+		Set<Long> visited = new HashSet<Long>();
 		// Read the IFDs into a list first	
 		while (offset != 0)	{
-			offset = readIFD(parent, parentTag, tagClass, rin, list, offset);
+			if(!visited.add(offset))
+				throw new IOException("IFD chain loops back to offset " + offset);
+			offset = readIFD(parent, parentTag, registry, rin, list, offset, lazyThreshold, bigTiff);
 		}
 	}
 	
 	public static void readIFDs(List<IFD> list, RandomAccessInputStream rin) throws IOException {
-		int offset = readHeader(rin);
-		readIFDs(null, null, TiffTag.class, list, offset, rin);
+		long offset = readHeader(rin);
+		readIFDs(null, null, TiffTag.getRegistry(), list, offset, rin);
+	}
+	
+	/**
+	 * Reads all the IFDs leaving out-of-line field values larger than lazyThreshold
+	 * bytes such as ICC profiles, XMP or Photoshop layer data in the input until
+	 * they are first accessed. Pointers to sub-IFDs and maker notes are always read.
+	 * 
+	 * @param list List to add the IFDs to
+	 * @param rin RandomAccessInputStream for the input TIFF which has to be kept
+	 *        open as long as lazy field values are to be accessed, a value which
+	 *        can't be read is reported as an UncheckedIOException, see {@link LazyField}
+	 * @param lazyThreshold field values larger than this number of bytes are read lazily
+	 * @throws IOException
+	 */
+	public static void readIFDs(List<IFD> list, RandomAccessInputStream rin, int lazyThreshold) throws IOException {
+		long offset = readHeader(rin);
+		readIFDs(null, null, TiffTag.getRegistry(), list, offset, rin, lazyThreshold, isBigTIFF(rin));
 	}
 	
 	public static Map<MetadataType, Metadata> readMetadata(RandomAccessInputStream rin) throws IOException {
@@ -1401,16 +2229,22 @@ public class TIFFMeta {
 	}
 	
 	public static Map<MetadataType, Metadata> readMetadata(RandomAccessInputStream rin, int pageNumber) throws IOException	{
+		return readMetadata(rin, pageNumber, null);
+	}
+	
+	/**
+	 * Reads the metadata of a page seeking directly to it with the help of a page index
+	 * 
+	 * @param rin RandomAccessInputStream for the input TIFF
+	 * @param pageNumber zero based page number
+	 * @param index page index created for the same image or null to walk the IFD chain
+	 * @return a map of the metadata found on the page
+	 * @throws IOException
+	 */
+	public static Map<MetadataType, Metadata> readMetadata(RandomAccessInputStream rin, int pageNumber, TiffPageIndex index) throws IOException	{
 		Map<MetadataType, Metadata> metadataMap = new HashMap<MetadataType, Metadata>();
 
-		int offset = readHeader(rin);
-		List<IFD> ifds = new ArrayList<IFD>();
-		readIFDs(null, null, TiffTag.class, ifds, offset, rin);
-		
-		if(pageNumber < 0 || pageNumber >= ifds.size())
-			throw new IllegalArgumentException("pageNumber " + pageNumber + " out of bounds: 0 - " + (ifds.size() - 1));
-		
-		IFD currIFD = ifds.get(pageNumber);
+		IFD currIFD = readPageIFD(pageNumber, rin, index, NO_LAZY_VALUES);
 		TiffField<?> field = currIFD.getField(TiffTag.ICC_PROFILE); 
 		if(field != null) { // We have found ICC_Profile
 			metadataMap.put(MetadataType.ICC_PROFILE, new ICCProfile((byte[])field.getData()));
@@ -1499,10 +2333,10 @@ public class TIFFMeta {
 	 * @return A map of the removed metadata
 	 */
 	public static Map<MetadataType, Metadata> removeMetadata(Set<MetadataType> metadataTypes, int pageNumber, RandomAccessInputStream rin, RandomAccessOutputStream rout) throws IOException {
-		int offset = copyHeader(rin, rout);
+		long offset = copyHeader(rin, rout);
 		// Read the IFDs into a list first
 		List<IFD> ifds = new ArrayList<IFD>();
-		readIFDs(null, null, TiffTag.class, ifds, offset, rin);
+		readPages(ifds, offset, rin, rout);
 		
 		// Create a map to hold all the metadata and thumbnails
 		Map<MetadataType, Metadata> metadataMap = new HashMap<MetadataType, Metadata>();
@@ -1576,15 +2410,29 @@ public class TIFFMeta {
 			}
 		}
 
-		int writeOffset = FIRST_WRITE_OFFSET;
-		writeOffset = copyPages(ifds, writeOffset, rin, rout);
-		int firstIFDOffset = ifds.get(0).getStartOffset();	
-
-		writeToStream(rout, firstIFDOffset);
+		writePages(ifds, rin, rout);
 		
 		return metadataMap;
 	}
 	
+	/**
+	 * Remove meta data from a TIFF file in place without copying the image data
+	 * <p>
+	 * The IFDs of all the pages are written anew to the end of the file and the header
+	 * is pointed to them, so the file grows with every call. The old IFDs and the
+	 * values of the removed metadata are overwritten with zeros where they were.
+	 * 
+	 * @param metadataTypes a set of MetadataType to be removed
+	 * @param pageNumber working page from which to remove metadata
+	 * @param file TIFF file opened in "rw" mode
+	 * @throws IOException
+	 * @return A map of the removed metadata
+	 */
+	public static Map<MetadataType, Metadata> removeMetadata(Set<MetadataType> metadataTypes, int pageNumber, RandomAccessFile file) throws IOException {
+		FileRandomAccessInputStream rin = new FileRandomAccessInputStream(file);
+		return removeMetadata(metadataTypes, pageNumber, rin, new FileRandomAccessOutputStream(rin));
+	}
+	
 	/**
 	 * Remove meta data from TIFF image
 	 * 
@@ -1628,10 +2476,10 @@ public class TIFFMeta {
 		
 		List<IFD> list = new ArrayList<IFD>();
 	  
-		int offset = copyHeader(rin, rout);
+		long offset = copyHeader(rin, rout);
 		
 		// Step 1: read the IFDs into a list first
-		readIFDs(null, null, TiffTag.class, list, offset, rin);		
+		readPages(list, offset, rin, rout);
 		// Step 2: remove pages from a multiple page TIFF
 		int pagesRetained = list.size();
 		List<IFD> newList = new ArrayList<IFD>();
@@ -1652,12 +2500,7 @@ public class TIFFMeta {
 		}
 		// End of removing pages		
 		// Step 3: copy the remaining pages
-		// 0x08 is the first write offset
-		int writeOffset = FIRST_WRITE_OFFSET;
-		offset = copyPages(list, writeOffset, rin, rout);
-		int firstIFDOffset = list.get(0).getStartOffset();
-		
-		writeToStream(rout, firstIFDOffset);
+		writePages(list, rin, rout);
 		
 		return pagesRetained;
 	}
@@ -1666,9 +2509,9 @@ public class TIFFMeta {
 	public static int retainPages(RandomAccessInputStream rin, RandomAccessOutputStream rout, int... pages) throws IOException {
 		List<IFD> list = new ArrayList<IFD>();
 	  
-		int offset = copyHeader(rin, rout);
+		long offset = copyHeader(rin, rout);
 		// Step 1: read the IFDs into a list first
-		readIFDs(null, null, TiffTag.class, list, offset, rin);		
+		readPages(list, offset, rin, rout);
 		// Step 2: remove pages from a multiple page TIFF
 		int pagesRetained = list.size();
 		List<IFD> newList = new ArrayList<IFD>();
@@ -1688,16 +2531,183 @@ public class TIFFMeta {
 			list.get(i).addField(new ShortField(TiffTag.PAGE_NUMBER.getValue(), new short[]{(short)i, (short)(list.size() - 1)}));
 		}
 		// Step 3: copy the remaining pages
-		// 0x08 is the first write offset
-		int writeOffset = FIRST_WRITE_OFFSET;
-		offset = copyPages(list, writeOffset, rin, rout);
-		int firstIFDOffset = list.get(0).getStartOffset();
-		
-		writeToStream(rout, firstIFDOffset);
+		writePages(list, rin, rout);
 		
 		return pagesRetained;
 	}
 	
+	/**
+	 * Splits a multiple page TIFF into single page TIFFs.
+	 * <p>
+	 * The IFDs are read only once. The pages are then written concurrently by
+	 * tasks run on the executor, each one reading its image data through its own
+	 * {@link SharedRandomAccessInputStream} view of the input. A page is written
+	 * sequentially to the OutputStream provided for its zero based page number,
+	 * which is closed afterwards. Only pages with old-style JPEG compression are
+	 * put together in memory first.
+	 * 
+	 * @param rin RandomAccessInputStream for the input TIFF
+	 * @param outputs provides the OutputStream for each page number
+	 * @param executor runs the page tasks, for example a thread pool
+	 * @return number of pages written
+	 * @throws IOException if reading the input or writing any of the pages fails
+	 */
+	public static int splitPages(final RandomAccessInputStream rin, final Function<Integer, OutputStream> outputs, Executor executor) throws IOException {
+		List<IFD> list = new ArrayList<IFD>();
+		readIFDs(list, rin);
+		final boolean bigTiff = isBigTIFF(rin);
+		List<FutureTask<Void>> tasks = new ArrayList<FutureTask<Void>>(list.size());
+		
+		for(int i = 0; i < list.size(); i++) {
+			final int pageNumber = i;
+			final IFD page = list.get(i);
+			FutureTask<Void> task = new FutureTask<Void>(new Callable<Void>() {
+				public Void call() throws IOException {
+					writeSinglePage(page, bigTiff, new SharedRandomAccessInputStream(rin), outputs.apply(pageNumber));
+					return null;
+				}
+			});
+			tasks.add(task);
+			executor.execute(task);
+		}
+		
+		// Wait for all the pages before reporting the first failure, if any
+		Throwable failure = null;
+		
+		for(FutureTask<Void> task : tasks) {
+			try {
+				task.get();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while splitting pages");
+			} catch(ExecutionException e) {
+				if(failure == null) failure = e.getCause();
+			}
+		}
+		
+		if(failure instanceof IOException)
+			throw (IOException)failure;
+		else if(failure instanceof RuntimeException)
+			throw (RuntimeException)failure;
+		else if(failure instanceof Error)
+			throw (Error)failure;
+		else if(failure != null)
+			throw new IOException(failure);
+		
+		return list.size();
+	}
+	
+	/**
+	 * Rewrites a TIFF in metadata-first (cloud optimized) layout.
+	 * <p>
+	 * The header, all the IFDs and all the out-of-line values are put together at
+	 * the start, followed by the strip or tile data in page order. Strips and tiles
+	 * of a page keep their index order, which for tiles is row by row, so data
+	 * close together in the image stays close together in the file. A reader
+	 * fetching by range gets the complete metadata of all the pages with a single
+	 * read of the returned number of bytes.
+	 * <p>
+	 * The output is written sequentially and keeps the byte order and the classic
+	 * or BigTIFF format of the input. The output stream is not closed.
+	 * 
+	 * @param rin RandomAccessInputStream for the input TIFF
+	 * @param os OutputStream for the output TIFF
+	 * @return number of bytes at the start of the output holding the header, IFDs and values
+	 * @throws IOException
+	 * @throws UnsupportedOperationException if a page uses old-style JPEG compression
+	 */
+	public static long writeMetadataFirst(RandomAccessInputStream rin, OutputStream os) throws IOException {
+		List<IFD> list = new ArrayList<IFD>();
+		readIFDs(list, rin);
+		
+		return writePages(list, rin, os, isBigTIFF(rin), true);
+	}
+	
+	// Writes a single page TIFF for the page and closes the output stream
+	private static void writeSinglePage(IFD page, boolean bigTiff, RandomAccessInputStream rin, OutputStream os) throws IOException {
+		try {
+			// Reset pageNumber the way retainPages does
+			page.removeField(TiffTag.PAGE_NUMBER);
+			page.addField(new ShortField(TiffTag.PAGE_NUMBER.getValue(), new short[]{0, 0}));
+			if(hasOldStyleJPEG(page)) { // Needs the random access copy
+				RandomAccessOutputStream rout = new MemoryCacheRandomAccessOutputStream(os);
+				rout.setWriteStrategy((rin.getEndian() == IOUtils.BIG_ENDIAN)?WriteStrategyMM.getInstance():WriteStrategyII.getInstance());
+				writeHeader(rout, bigTiff);
+				writePages(Collections.singletonList(page), rin, rout);
+				rout.shallowClose();
+			} else {
+				writePages(Collections.singletonList(page), rin, os, bigTiff, false);
+			}
+		} finally {
+			os.close();
+		}
+	}
+	
+	// Checks for old-style JPEG data which copyPageData has to fix up while copying
+	private static boolean hasOldStyleJPEG(IFD ifd) {
+		return ifd.getField(TiffTag.JPEG_INTERCHANGE_FORMAT) != null || ifd.getField(TiffTag.JPEG_DC_TABLES) != null
+				|| ifd.getField(TiffTag.JPEG_AC_TABLES) != null || ifd.getField(TiffTag.JPEG_Q_TABLES) != null;
+	}
+	
+	/*
+	 * Writes the pages strictly sequentially through a TiffLayout: the header and then
+	 * every IFD followed by its values and image data, or with metadataFirst all the
+	 * IFDs and values followed by all the image data. Nothing is cached.
+	 * 
+	 * @return number of bytes holding the header, IFDs and values
+	 */
+	private static long writePages(List<IFD> list, RandomAccessInputStream rin, OutputStream os, boolean bigTiff, boolean metadataFirst) throws IOException {
+		TiffLayout layout = new TiffLayout(rin.getEndian(), bigTiff);
+		layout.setMetadataFirst(metadataFirst);
+		
+		for(IFD ifd : list) {
+			layout.addIFD(ifd);
+			addPageData(layout, ifd, rin);
+		}
+		
+		layout.write(os);
+		os.flush();
+		
+		return layout.getMetadataLength();
+	}
+	
+	// Adds the strip or tile data of a page to the layout, the counterpart of copyBigTIFFPageData
+	private static void addPageData(TiffLayout layout, IFD ifd, final RandomAccessInputStream rin) throws IOException {
+		if(hasOldStyleJPEG(ifd))
+			throw new UnsupportedOperationException("Old-style JPEG compression is not supported for sequential writing");
+		
+		TiffTag offsetsTag = TiffTag.STRIP_OFFSETS;
+		TiffField<?> stripOffSets = ifd.removeField(TiffTag.STRIP_OFFSETS);
+		TiffField<?> stripByteCounts = ifd.getField(TiffTag.STRIP_BYTE_COUNTS);
+		
+		if(stripOffSets == null) {
+			offsetsTag = TiffTag.TILE_OFFSETS;
+			stripOffSets = ifd.removeField(TiffTag.TILE_OFFSETS);
+			stripByteCounts = ifd.getField(TiffTag.TILE_BYTE_COUNTS);
+		}
+		
+		if(stripOffSets != null) {
+			if(stripByteCounts == null)
+				throw new IOException("Missing " + (offsetsTag == TiffTag.STRIP_OFFSETS ? "StripByteCounts" : "TileByteCounts") + " field");
+			final long[] off = getDataAsLong8(stripOffSets);
+			final long[] counts = getDataAsLong8(stripByteCounts);
+			layout.addData(ifd, offsetsTag, counts, new TiffLayout.DataWriter() {
+				public void write(OutputStream os) throws IOException {
+					byte[] buf = new byte[COPY_BUFFER_SIZE];
+					// Copy image data from offset
+					for(int i = 0; i < off.length; i++) {
+						rin.seek(off[i]);
+						IOUtils.copyFully(rin, os, counts[i], buf);
+					}
+				}
+			});
+		}
+		
+		// Add software field.
+		String softWare = "ICAFE - https://github.com/dragon66/icafe\0";
+		ifd.addField(new ASCIIField(TiffTag.SOFTWARE.getValue(), softWare));
+	}
+	
 	public static void write(TIFFImage tiffImage, RandomAccessOutputStream rout) throws IOException {
 		RandomAccessInputStream rin = tiffImage.getInputStream();
 		int offset = writeHeader(rout);
@@ -1707,6 +2717,30 @@ public class TIFFMeta {
 		writeToStream(rout, firstIFDOffset);
 	}
 	
+	/**
+	 * Writes a TIFFImage strictly sequentially to any OutputStream, without a
+	 * random access cache. The output keeps the byte order and the classic or
+	 * BigTIFF format of the input. Images
+	 * with old-style JPEG compression go through {@link #write(TIFFImage, RandomAccessOutputStream)}.
+	 * The output stream is not closed.
+	 */
+	public static void write(TIFFImage tiffImage, OutputStream os) throws IOException {
+		RandomAccessInputStream rin = tiffImage.getInputStream();
+		List<IFD> list = tiffImage.getIFDs();
+		
+		for(IFD ifd : list) {
+			if(hasOldStyleJPEG(ifd)) {
+				RandomAccessOutputStream rout = new MemoryCacheRandomAccessOutputStream(os);
+				rout.setWriteStrategy((rin.getEndian() == IOUtils.BIG_ENDIAN)?WriteStrategyMM.getInstance():WriteStrategyII.getInstance());
+				write(tiffImage, rout);
+				rout.shallowClose();
+				return;
+			}
+		}
+		
+		writePages(list, rin, os, isBigTIFF(rin), false);
+	}
+	
 	// Return stream offset where to write actual image data or IFD	
 	private static int writeHeader(RandomAccessOutputStream rout) throws IOException {
 		// Write byte order
@@ -1718,6 +2752,31 @@ public class TIFFMeta {
 		return FIRST_WRITE_OFFSET;
 	}
 		
+	// Return stream offset where to write actual image data or IFD for classic TIFF or BigTIFF
+	private static long writeHeader(RandomAccessOutputStream rout, boolean bigTiff) throws IOException {
+		if(!bigTiff)
+			return writeHeader(rout);
+		
+		rout.writeShort(rout.getEndian());
+		rout.writeShort(0x2b);
+		rout.writeShort(8); // Offset byte size
+		rout.writeShort(0);
+		
+		return BIGTIFF_FIRST_WRITE_OFFSET;
+	}
+	
+	private static void writeToStream(RandomAccessOutputStream rout, long firstIFDOffset, boolean bigTiff) throws IOException {
+		if(!bigTiff) {
+			writeToStream(rout, (int)firstIFDOffset);
+			return;
+		}
+		rout.seek(BIGTIFF_OFFSET_TO_WRITE_FIRST_IFD_OFFSET);
+		rout.writeLong(firstIFDOffset);
+		// Dump the data to the real output stream
+		rout.seek(STREAM_HEAD);
+		rout.writeToStream(rout.getLength());
+	}
+	
 	private static void writeToStream(RandomAccessOutputStream rout, int firstIFDOffset) throws IOException {
 		// Go to the place where we should write the first IFD offset
 		// and write the first IFD offset
@@ -1728,4 +2787,65 @@ public class TIFFMeta {
 		rout.writeToStream(rout.getLength());
 		//rout.flush();
 	}
+	
+	// An IFD entry whose value is fetched separately from the entry table
+	private static class IFDEntry {
+		private short tag;
+		private Tag ftag;
+		private FieldType ftype;
+		private int count;
+		private long valueOffset;
+		private byte[] value;
+		private boolean lazy;
+		
+		private IFDEntry(short tag, Tag ftag, FieldType ftype, int count) {
+			this.tag = tag;
+			this.ftag = ftag;
+			this.ftype = ftype;
+			this.count = count;
+		}
+		
+		// Sub-IFD pointers are needed while reading the IFD
+		private boolean canBeLazy() {
+			return ftype != FieldType.IFD && ftype != FieldType.IFD8 && ftag != TiffTag.EXIF_SUB_IFD && ftag != TiffTag.GPS_SUB_IFD
+					&& ftag != ExifTag.EXIF_INTEROPERABILITY_OFFSET && ftag != TiffTag.SUB_IFDS;
+		}
+		
+		// Returns the size of the value in bytes or -1 for unknown field types
+		private int getValueSize() throws IOException {
+			long size;
+			switch(ftype) {
+				case BYTE:
+				case SBYTE:
+				case UNDEFINED:
+				case ASCII:
+					size = count;
+					break;
+				case SHORT:
+				case SSHORT:
+					size = 2L*count;
+					break;
+				case LONG:
+				case SLONG:
+				case FLOAT:
+				case IFD:
+					size = 4L*count;
+					break;
+				case DOUBLE:
+				case RATIONAL:
+				case SRATIONAL:
+				case LONG8:
+				case SLONG8:
+				case IFD8:
+					size = 8L*count;
+					break;
+				default:
+					return -1;
+			}
+			if(size > Integer.MAX_VALUE)
+				throw new IOException("Value too large for tag 0x" + Integer.toHexString(tag&0xffff));
+			
+			return (int)size;
+		}
+	}
 }
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2014-2021 by Wen Yu
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the Eclipse
+ * Public License, v. 2.0 are satisfied: GNU General Public License, version 2
+ * or any later version.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0-or-later
+ */
+
+package pixy.meta.tiff;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Index of the pages of a TIFF image.
+ * <p>
+ * Holds the IFD offset and a few key fields of every page so a page can be
+ * reached without walking the IFD chain. The index is created in a single pass
+ * by {@link TIFFMeta#createPageIndex(pixy.io.RandomAccessInputStream)} and can
+ * be kept with the image, either through Java serialization or in the compact
+ * form written by {@link #write(OutputStream)}.
+ * <p>
+ * An index only stays valid as long as the image is not changed.
+ */
+public final class TiffPageIndex implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	// "TPIX" followed by the version of the compact form
+	private static final int MAGIC = 0x54504958;
+	private static final int VERSION = 1;
+
+	/**
+	 * Location and key fields of a single page
+	 */
+	public static final class Page implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final long ifdOffset;
+		private final int width;
+		private final int height;
+		private final int compression;
+		private final boolean tiled;
+		private final short dataOffsetsType;
+		private final int dataOffsetsCount;
+		private final long dataOffsetsPosition;
+
+		Page(long ifdOffset, int width, int height, int compression, boolean tiled, short dataOffsetsType, int dataOffsetsCount, long dataOffsetsPosition) {
+			this.ifdOffset = ifdOffset;
+			this.width = width;
+			this.height = height;
+			this.compression = compression;
+			this.tiled = tiled;
+			this.dataOffsetsType = dataOffsetsType;
+			this.dataOffsetsCount = dataOffsetsCount;
+			this.dataOffsetsPosition = dataOffsetsPosition;
+		}
+
+		public int getCompression() {
+			return compression;
+		}
+
+		/**
+		 * @return number of strips or tiles
+		 */
+		public int getDataOffsetsCount() {
+			return dataOffsetsCount;
+		}
+
+		/**
+		 * @return stream position of the StripOffsets or TileOffsets values or 0 if the page has none
+		 */
+		public long getDataOffsetsPosition() {
+			return dataOffsetsPosition;
+		}
+
+		/**
+		 * @return field type value of the StripOffsets or TileOffsets field
+		 */
+		public short getDataOffsetsType() {
+			return dataOffsetsType;
+		}
+
+		public int getHeight() {
+			return height;
+		}
+
+		public long getIFDOffset() {
+			return ifdOffset;
+		}
+
+		public int getWidth() {
+			return width;
+		}
+
+		/**
+		 * @return true if the image data is organized in tiles instead of strips
+		 */
+		public boolean isTiled() {
+			return tiled;
+		}
+	}
+
+	private final short endian;
+	private final boolean bigTiff;
+	private final List<Page> pages;
+
+	TiffPageIndex(short endian, boolean bigTiff, List<Page> pages) {
+		this.endian = endian;
+		this.bigTiff = bigTiff;
+		this.pages = Collections.unmodifiableList(new ArrayList<Page>(pages));
+	}
+
+	/**
+	 * Reads an index in the compact form written by {@link #write(OutputStream)}
+	 */
+	public static TiffPageIndex read(InputStream is) throws IOException {
+		DataInputStream in = new DataInputStream(is);
+
+		if(in.readInt() != MAGIC)
+			throw new IOException("Not a TIFF page index");
+
+		int version = in.readUnsignedByte();
+		if(version != VERSION)
+			throw new IOException("Unsupported TIFF page index version " + version);
+
+		short endian = in.readShort();
+		boolean bigTiff = in.readBoolean();
+		int numOfPages = in.readInt();
+		if(numOfPages < 0)
+			throw new IOException("Invalid number of pages " + numOfPages);
+
+		List<Page> pages = new ArrayList<Page>(Math.min(numOfPages, 1024));
+
+		for(int i = 0; i < numOfPages; i++)
+			pages.add(new Page(in.readLong(), in.readInt(), in.readInt(), in.readUnsignedShort(), in.readBoolean(),
+					in.readShort(), in.readInt(), in.readLong()));
+
+		return new TiffPageIndex(endian, bigTiff, pages);
+	}
+
+	/**
+	 * @return byte order of the image, IOUtils.BIG_ENDIAN or IOUtils.LITTLE_ENDIAN
+	 */
+	public short getEndian() {
+		return endian;
+	}
+
+	public long getIFDOffset(int pageNumber) {
+		return getPage(pageNumber).getIFDOffset();
+	}
+
+	public int getNumOfPages() {
+		return pages.size();
+	}
+
+	public Page getPage(int pageNumber) {
+		if(pageNumber < 0 || pageNumber >= pages.size())
+			throw new IllegalArgumentException("pageNumber " + pageNumber + " out of bounds: 0 - " + (pages.size() - 1));
+
+		return pages.get(pageNumber);
+	}
+
+	public List<Page> getPages() {
+		return pages;
+	}
+
+	public boolean isBigTIFF() {
+		return bigTiff;
+	}
+
+	/**
+	 * Writes the index in a compact binary form of 33 bytes per page.
+	 * The stream is not closed.
+	 */
+	public void write(OutputStream os) throws IOException {
+		DataOutputStream out = new DataOutputStream(os);
+
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		out.writeShort(endian);
+		out.writeBoolean(bigTiff);
+		out.writeInt(pages.size());
+
+		for(Page page : pages) {
+			out.writeLong(page.ifdOffset);
+			out.writeInt(page.width);
+			out.writeInt(page.height);
+			out.writeShort(page.compression);
+			out.writeBoolean(page.tiled);
+			out.writeShort(page.dataOffsetsType);
+			out.writeInt(page.dataOffsetsCount);
+			out.writeLong(page.dataOffsetsPosition);
+		}
+
+		out.flush();
+	}
+}
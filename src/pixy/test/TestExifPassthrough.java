@@ -0,0 +1,161 @@
+package pixy.test;
+
+import static pixy.test.TestUtils.check;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import pixy.image.tiff.FieldType;
+import pixy.image.tiff.TiffTag;
+import pixy.meta.Metadata;
+import pixy.meta.MetadataType;
+import pixy.meta.exif.Exif;
+import pixy.meta.exif.ExifTag;
+import pixy.meta.jpeg.JpegExif;
+
+/**
+ * Unchanged EXIF has to be written back as the APP1 segment found in the JPEG and
+ * {@link Exif#patch(pixy.image.tiff.Tag, Object)} may change nothing but the bytes
+ * of the patched value.
+ */
+public class TestExifPassthrough {
+	// Obtain a logger instance
+	private static final Logger LOGGER = LoggerFactory.getLogger(TestExifPassthrough.class);
+
+	private static final int SEGMENT_HEADER_LEN = 10; // APP1 marker, length and "Exif\0\0"
+
+	private static final String[] IMAGES = {"images/example.jpg", "images/Nikon.jpg", "images/sea.jpg",
+			"images/exif-jpeg-thumbnail-sony-dsc-p150-inverted-colors.jpg"};
+
+	public static void main(String[] args) throws Exception {
+		new TestExifPassthrough().test(IMAGES);
+	}
+
+	public void test(String ... images) throws Exception {
+		for(String image : images) {
+			testPassthrough(image);
+			testPatch(image);
+			testRebuild(image);
+			testOversized(image);
+			LOGGER.info("EXIF passthrough OK: {}", image);
+		}
+	}
+
+	// Unchanged EXIF comes out as the very APP1 segment of the image, MakerNote included
+	private void testPassthrough(String image) throws IOException {
+		byte[] segment = write(readExif(image));
+		check(indexOf(TestUtils.readFile(image), segment) >= 0, image + ": unchanged EXIF segment not found in the image");
+	}
+
+	// A patch touches only the bytes of the value and survives a new read
+	private void testPatch(String image) throws IOException {
+		JpegExif exif = readExif(image);
+		byte[] before = write(exif);
+		boolean hasOrientation = (exif.getImageIFD().getField(TiffTag.ORIENTATION) != null);
+		String dateTime = exif.getDateTimeOriginal();
+		int newOrientation = (exif.getOrientation() == 6)?8:6;
+		int changed = 0;
+		if(hasOrientation) {
+			exif.patch(TiffTag.ORIENTATION, new short[] {(short)newOrientation});
+			check(exif.getOrientation() == newOrientation, image + ": patched Orientation not in the decoded IFD");
+			changed += 2; // A single SHORT
+		}
+		if(dateTime != null) {
+			try {
+				exif.patch(ExifTag.DATE_TIME_ORIGINAL, "1999:12:31 23:59:59");
+				changed += dateTime.length();
+			} catch(IllegalArgumentException e) { // Padded beyond the usual 20 bytes, can't be patched
+				LOGGER.info("{}: {}", image, e.getMessage());
+				dateTime = null;
+			}
+		}
+		if(changed == 0) return;
+
+		byte[] after = write(exif);
+		check(after.length == before.length, image + ": patch changed the EXIF length");
+		int diffs = 0;
+		for(int i = 0; i < before.length; i++)
+			if(before[i] != after[i]) diffs++;
+		check(diffs > 0 && diffs <= changed, image + ": patch changed " + diffs + " bytes, at most " + changed + " expected");
+
+		JpegExif reread = new JpegExif(Arrays.copyOfRange(after, SEGMENT_HEADER_LEN, after.length));
+		if(hasOrientation)
+			check(reread.getOrientation() == newOrientation, image + ": patched Orientation lost after a new read");
+		if(dateTime != null)
+			check("1999:12:31 23:59:59".equals(reread.getDateTimeOriginal()), image + ": patched DateTimeOriginal lost after a new read");
+
+		try {
+			exif.patch(ExifTag.DATE_TIME_ORIGINAL, "1999:12:31");
+			check(false, image + ": patch with a different length accepted");
+		} catch(IllegalArgumentException e) {
+			;
+		}
+	}
+
+	// Any other change rebuilds the TIFF structure, which must still read back
+	private void testRebuild(String image) throws IOException {
+		JpegExif exif = readExif(image);
+		exif.addImageField(TiffTag.SOFTWARE, FieldType.ASCII, "TestExifPassthrough");
+		byte[] segment = write(exif);
+		JpegExif reread = new JpegExif(Arrays.copyOfRange(segment, SEGMENT_HEADER_LEN, segment.length));
+		check("TestExifPassthrough".equals(reread.getImageIFD().getFieldAsString(TiffTag.SOFTWARE).trim()), image + ": rebuilt EXIF lost the new field");
+		check(reread.getOrientation() == exif.getOrientation(), image + ": rebuilt EXIF lost Orientation");
+	}
+
+	// EXIF which fits into one APP1 segment only without the thumbnail loses the thumbnail
+	private void testOversized(String image) throws IOException {
+		JpegExif exif = readExif(image);
+		if(!exif.containsThumbnail()) return;
+		int thumbnailLength = exif.getThumbnail().getCompressedImageLength();
+		exif.addImageField(TiffTag.ARTIST, FieldType.ASCII, "x");
+		int length = write(exif).length;
+		char[] artist = new char[0xffff - length + thumbnailLength/2];
+		Arrays.fill(artist, 'x');
+		exif.addImageField(TiffTag.ARTIST, FieldType.ASCII, new String(artist));
+		byte[] segment = write(exif);
+		check(segment.length <= 0xffff + 2, image + ": APP1 segment of " + segment.length + " bytes written");
+		JpegExif reread = new JpegExif(Arrays.copyOfRange(segment, SEGMENT_HEADER_LEN, segment.length));
+		check(!reread.containsThumbnail(), image + ": thumbnail kept in oversized EXIF");
+		check(reread.getImageIFD().getFieldAsString(TiffTag.ARTIST).trim().length() == artist.length, image + ": oversized EXIF lost the new field");
+
+		// Too large even without the thumbnail
+		artist = new char[0xffff];
+		Arrays.fill(artist, 'x');
+		exif.addImageField(TiffTag.ARTIST, FieldType.ASCII, new String(artist));
+		try {
+			write(exif);
+			check(false, image + ": EXIF larger than an APP1 segment written");
+		} catch(IOException e) {
+			;
+		}
+	}
+
+	private static JpegExif readExif(String image) throws IOException {
+		Exif exif = (Exif)Metadata.readMetadata(image).get(MetadataType.EXIF);
+		check(exif instanceof JpegExif, image + ": no EXIF found");
+
+		return (JpegExif)exif;
+	}
+
+	private static byte[] write(Exif exif) throws IOException {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		exif.write(bout);
+
+		return bout.toByteArray();
+	}
+
+	private static int indexOf(byte[] data, byte[] pattern) {
+		outer:
+		for(int i = 0; i + pattern.length <= data.length; i++) {
+			for(int j = 0; j < pattern.length; j++)
+				if(data[i + j] != pattern[j]) continue outer;
+			return i;
+		}
+
+		return -1;
+	}
+}
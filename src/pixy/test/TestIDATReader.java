@@ -0,0 +1,208 @@
+package pixy.test;
+
+import static pixy.test.TestUtils.check;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import pixy.image.png.Chunk;
+import pixy.image.png.ChunkType;
+import pixy.image.png.ColorType;
+import pixy.image.png.Filter;
+import pixy.image.png.IDATReader;
+import pixy.image.png.IHDRReader;
+import pixy.meta.png.PNGMeta;
+
+/**
+ * The scanlines an {@link IDATReader} passes to its RowHandler have to add up to
+ * the data inflated in one go, however the IDAT data is split. Through
+ * {@link Filter#defiltering(int, IDATReader.RowHandler)} they have to match a
+ * plain implementation of the PNG filters.
+ */
+public class TestIDATReader {
+	// Obtain a logger instance
+	private static final Logger LOGGER = LoggerFactory.getLogger(TestIDATReader.class);
+
+	private static final String[] IMAGES = {"images/butterfly.png", "images/ProPhoto.png", "images/colourTestFakeBRG.png",
+			"images/flowerpink-InMyEasterBonnet-KrystalHartley.png"};
+
+	public static void main(String[] args) throws Exception {
+		new TestIDATReader().test(IMAGES);
+	}
+
+	public void test(String ... images) throws Exception {
+		for(String image : images) {
+			List<Chunk> chunks = PNGMeta.readChunks(new ByteArrayInputStream(TestUtils.readFile(image)));
+			IHDRReader ihdr = new IHDRReader(chunks.get(0));
+			ihdr.read();
+			List<Chunk> idat = new ArrayList<Chunk>();
+			for(Chunk chunk : chunks)
+				if(chunk.getChunkType() == ChunkType.IDAT) idat.add(chunk);
+
+			IDATReader batch = new IDATReader();
+			for(Chunk chunk : idat)
+				batch.addChunk(chunk);
+			byte[] expected = batch.getData();
+
+			// One IDAT chunk at a time
+			RowCollector rows = new RowCollector();
+			IDATReader reader = new IDATReader(ihdr, rows);
+			for(Chunk chunk : idat)
+				reader.addChunk(chunk);
+			reader.finish();
+			check(Arrays.equals(rows.toByteArray(), expected), image + ": scanlines differ from the batch read");
+
+			// Small pieces which split scanlines and the zlib stream anywhere
+			rows = new RowCollector();
+			reader = new IDATReader(ihdr, rows);
+			for(Chunk chunk : idat) {
+				byte[] data = chunk.getData();
+				for(int i = 0; i < data.length; i += 7)
+					reader.addData(data, i, Math.min(7, data.length - i));
+			}
+			reader.finish();
+			check(Arrays.equals(rows.toByteArray(), expected), image + ": scanlines differ when fed in pieces");
+
+			// Missing data has to be reported, even if only the byte completing the last scanline is missing
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			for(Chunk chunk : idat)
+				compressed.write(chunk.getData());
+			byte[] data = compressed.toByteArray();
+			reader = new IDATReader(ihdr, new RowCollector());
+			int needed = 0;
+			while(!reader.isFinished())
+				reader.addData(data, needed++, 1);
+			reader = new IDATReader(ihdr, new RowCollector());
+			reader.addData(data, 0, needed - 1);
+			check(!reader.isFinished(), image + ": finished without the last byte");
+			try {
+				reader.finish();
+				check(false, image + ": truncated image data not reported");
+			} catch(IOException e) {
+				;
+			}
+
+			checkFailures(image, ihdr, data);
+
+			if(ihdr.getInterlaceMethod() == 0)
+				checkDefiltering(image, ihdr, idat, expected);
+
+			LOGGER.info("IDATReader OK: {} ({}x{}, {} IDAT chunks)", image, ihdr.getWidth(), ihdr.getHeight(), idat.size());
+		}
+	}
+
+	// Corrupt data and a failing RowHandler have to be reported, as well as any later use of the reader
+	private static void checkFailures(String image, IHDRReader ihdr, byte[] data) throws IOException {
+		byte[] corrupt = data.clone();
+		Arrays.fill(corrupt, 2, corrupt.length, (byte)0xff); // Reserved block type after the zlib header
+		IDATReader reader = new IDATReader(ihdr, new RowCollector());
+		expectFailure(image + ": corrupt data", reader, corrupt);
+		expectFailure(image + ": data after corrupt data", reader, data);
+
+		reader = new IDATReader(ihdr, new IDATReader.RowHandler() {
+			public void handleRow(byte[] row, int length, int pass, int rowIndex) throws IOException {
+				throw new IOException("Scanline rejected");
+			}
+		});
+		expectFailure(image + ": failing RowHandler", reader, data);
+		expectFailure(image + ": data after a failing RowHandler", reader, data);
+		try {
+			reader.finish();
+			check(false, image + ": finished after a failing RowHandler");
+		} catch(IOException e) {
+			;
+		}
+	}
+
+	private static void expectFailure(String name, IDATReader reader, byte[] data) {
+		try {
+			reader.addData(data, 0, data.length);
+			check(false, name + " not reported");
+		} catch(IOException e) {
+			;
+		}
+	}
+
+	// Compares the defiltering RowHandler with the PNG specification on the whole image
+	private static void checkDefiltering(String image, IHDRReader ihdr, List<Chunk> idat, byte[] raw) throws IOException {
+		int samplesPerPixel;
+		switch(ColorType.fromInt(ihdr.getColorType())) {
+			case GRAY_SCALE_WITH_ALPHA:
+				samplesPerPixel = 2;
+				break;
+			case TRUE_COLOR:
+				samplesPerPixel = 3;
+				break;
+			case TRUE_COLOR_WITH_ALPHA:
+				samplesPerPixel = 4;
+				break;
+			default:
+				samplesPerPixel = 1;
+		}
+		int bytesPerPixel = Math.max(1, samplesPerPixel*ihdr.getBitDepth()/8);
+		int bytesPerScanLine = (ihdr.getWidth()*samplesPerPixel*ihdr.getBitDepth() + 7)/8;
+		int height = ihdr.getHeight();
+
+		// Plain byte at a time defiltering as given by the PNG specification
+		byte[] sample = new byte[bytesPerScanLine*height];
+		for(int y = 0, offset = 0; y < height; y++, offset += bytesPerScanLine) {
+			int filterType = raw[y*(bytesPerScanLine + 1)];
+			System.arraycopy(raw, y*(bytesPerScanLine + 1) + 1, sample, offset, bytesPerScanLine);
+			for(int i = offset; i < offset + bytesPerScanLine; i++) {
+				int left = (i - offset >= bytesPerPixel)?(sample[i - bytesPerPixel]&0xff):0;
+				int above = (y > 0)?(sample[i - bytesPerScanLine]&0xff):0;
+				int upperLeft = (y > 0 && i - offset >= bytesPerPixel)?(sample[i - bytesPerScanLine - bytesPerPixel]&0xff):0;
+				int predictor = 0;
+				switch(filterType) {
+					case Filter.SUB:
+						predictor = left;
+						break;
+					case Filter.UP:
+						predictor = above;
+						break;
+					case Filter.AVERAGE:
+						predictor = (left + above)>>1;
+						break;
+					case Filter.PAETH:
+						int p = left + above - upperLeft;
+						int pLeft = Math.abs(p - left), pAbove = Math.abs(p - above), pUpperLeft = Math.abs(p - upperLeft);
+						predictor = (pLeft <= pAbove && pLeft <= pUpperLeft)?left:((pAbove <= pUpperLeft)?above:upperLeft);
+						break;
+					default:
+				}
+				sample[i] = (byte)(sample[i] + predictor);
+			}
+		}
+
+		final ByteArrayOutputStream defiltered = new ByteArrayOutputStream(sample.length);
+		IDATReader reader = new IDATReader(ihdr, Filter.defiltering(bytesPerPixel, new IDATReader.RowHandler() {
+			public void handleRow(byte[] row, int length, int pass, int rowIndex) {
+				defiltered.write(row, 1, length - 1);
+			}
+		}));
+		for(Chunk chunk : idat)
+			reader.addChunk(chunk);
+		reader.finish();
+		check(Arrays.equals(defiltered.toByteArray(), sample), image + ": defiltered scanlines differ");
+	}
+
+	// Keeps all scanlines, filter type bytes included, as the batch read does
+	private static class RowCollector implements IDATReader.RowHandler {
+		private final ByteArrayOutputStream rows = new ByteArrayOutputStream();
+
+		public void handleRow(byte[] row, int length, int pass, int rowIndex) {
+			rows.write(row, 0, length);
+		}
+
+		byte[] toByteArray() {
+			return rows.toByteArray();
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package pixy.test;
+
+import static pixy.test.TestUtils.check;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import pixy.image.tiff.FieldType;
+import pixy.image.tiff.IFD;
+import pixy.image.tiff.TiffField;
+import pixy.image.tiff.TiffTag;
+import pixy.io.MemoryCacheRandomAccessInputStream;
+import pixy.io.RandomAccessInputStream;
+import pixy.meta.Metadata;
+import pixy.meta.MetadataEntry;
+import pixy.meta.MetadataType;
+import pixy.meta.exif.Exif;
+import pixy.meta.exif.ExifTag;
+import pixy.meta.exif.GPSTag;
+import pixy.meta.exif.InteropTag;
+import pixy.meta.jpeg.JpegExif;
+import pixy.meta.tiff.TIFFMeta;
+
+/**
+ * Compares the EXIF directories Exif decodes on first access with an eager
+ * {@link TIFFMeta#readIFDs(List, RandomAccessInputStream)} of the same data,
+ * accessing them innermost first and IFD0 first. Fields added before a directory
+ * is decoded have to be written out along with the ones read.
+ */
+public class TestLazyExif {
+	// Obtain a logger instance
+	private static final Logger LOGGER = LoggerFactory.getLogger(TestLazyExif.class);
+
+	private static final String[] IMAGES = {"images/example.jpg", "images/sea.jpg", "images/Nikon.jpg",
+			"images/exif-jpeg-thumbnail-sony-dsc-p150-inverted-colors.jpg", "images/exif-rgb-thumbnail-sony-d700.jpg"};
+
+	public static void main(String[] args) throws Exception {
+		new TestLazyExif().test(IMAGES);
+	}
+
+	public void test(String ... images) throws Exception {
+		for(String image : images) {
+			Exif exif = readExif(image);
+			List<IFD> ifds = new ArrayList<IFD>();
+			RandomAccessInputStream rin = new MemoryCacheRandomAccessInputStream(new ByteArrayInputStream(exif.getData()));
+			try {
+				TIFFMeta.readIFDs(ifds, rin);
+			} finally {
+				rin.close();
+			}
+			IFD imageIFD = ifds.get(0);
+			IFD exifIFD = imageIFD.getChild(TiffTag.EXIF_SUB_IFD);
+			IFD interopIFD = (exifIFD == null)?null:exifIFD.getChild(ExifTag.EXIF_INTEROPERABILITY_OFFSET);
+			IFD gpsIFD = imageIFD.getChild(TiffTag.GPS_SUB_IFD);
+			IFD thumbnailIFD = (ifds.size() > 1)?ifds.get(1):null;
+
+			// Sub-IFDs first, from the innermost one out
+			compare(image + " Interop IFD", interopIFD, exif.getInteropIFD());
+			compare(image + " GPS IFD", gpsIFD, exif.getGPSIFD());
+			compare(image + " EXIF IFD", exifIFD, exif.getExifIFD());
+			compare(image + " IFD0", imageIFD, exif.getImageIFD());
+			checkThumbnail(image, thumbnailIFD, exif);
+
+			// IFD0 first, then the rest through the iterator
+			exif = readExif(image);
+			compare(image + " IFD0", imageIFD, exif.getImageIFD());
+			int entries = count(exif.iterator());
+			compare(image + " EXIF IFD", exifIFD, exif.getExifIFD());
+			compare(image + " GPS IFD", gpsIFD, exif.getGPSIFD());
+			compare(image + " Interop IFD", interopIFD, exif.getInteropIFD());
+			checkThumbnail(image, thumbnailIFD, exif);
+			check(count(exif.iterator()) == entries, image + ": iterator changed after the directories were read");
+
+			checkAddedFields(image, imageIFD, exifIFD, gpsIFD, interopIFD);
+
+			LOGGER.info("Lazy EXIF OK: {} ({} entries)", image, entries);
+		}
+	}
+
+	// Adds fields to directories not decoded yet and reads them back from the EXIF written
+	private static void checkAddedFields(String image, IFD imageIFD, IFD exifIFD, IFD gpsIFD, IFD interopIFD) throws IOException {
+		Exif exif = readExif(image);
+		exif.addExifField(ExifTag.IMAGE_UNIQUE_ID, FieldType.ASCII, "0123456789abcdef0123456789abcdef");
+		exif.addGPSField(GPSTag.GPS_ALTITUDE_REF, FieldType.BYTE, new byte[] {1});
+		if(exifIFD != null)
+			exif.addInteropField(InteropTag.INTEROPERABILITY_INDEX, FieldType.ASCII, "R98");
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		exif.write(bout);
+		byte[] segment = bout.toByteArray();
+		// Skip APP1 marker, length and "Exif\0\0"
+		Exif reread = new JpegExif(Arrays.copyOfRange(segment, 10, segment.length));
+
+		IFD written = reread.getExifIFD();
+		check(written != null && "0123456789abcdef0123456789abcdef".equals(reread.getString(ExifTag.IMAGE_UNIQUE_ID)), image + ": added EXIF field lost");
+		checkKept(image + " EXIF IFD", exifIFD, written);
+		written = reread.getGPSIFD();
+		check(written != null && reread.getInt(GPSTag.GPS_ALTITUDE_REF) == 1, image + ": added GPS field lost");
+		checkKept(image + " GPS IFD", gpsIFD, written);
+		if(exifIFD != null) {
+			written = reread.getInteropIFD();
+			check(written != null && "R98".equals(reread.getString(InteropTag.INTEROPERABILITY_INDEX)), image + ": added Interop field lost");
+			checkKept(image + " Interop IFD", interopIFD, written);
+		}
+		checkKept(image + " IFD0", imageIFD, reread.getImageIFD());
+	}
+
+	private static void checkKept(String name, IFD expected, IFD actual) {
+		if(expected == null) return;
+		Set<Short> tags = new HashSet<Short>();
+		for(TiffField<?> field : actual.getFields())
+			tags.add(field.getTag());
+		for(TiffField<?> field : expected.getFields())
+			check(tags.contains(field.getTag()), name + ": field 0x" + Integer.toHexString(field.getTag()&0xffff) + " lost on write");
+	}
+
+	// The length reported before the thumbnail is extracted has to be the length of the image extracted
+	private static void checkThumbnail(String image, IFD thumbnailIFD, Exif exif) {
+		TiffField<?> jpegLength = (thumbnailIFD == null)?null:thumbnailIFD.getField(TiffTag.JPEG_INTERCHANGE_FORMAT_LENGTH);
+		if(jpegLength != null)
+			check(exif.containsThumbnail(), image + ": thumbnail IFD not found");
+		if(!exif.containsThumbnail()) return;
+		int length = exif.getThumbnail().getCompressedImageLength();
+		check(length == exif.getThumbnail().getCompressedImage().length, image + ": thumbnail length " + length + " differs from the image extracted");
+		if(jpegLength != null)
+			check(length == jpegLength.getDataAsLong()[0], image + ": wrong thumbnail length");
+	}
+
+	private static void compare(String name, IFD expected, IFD actual) {
+		if(expected == null) {
+			check(actual == null, name + " found but not in the eager read");
+			return;
+		}
+		check(actual != null, name + " missing");
+		Map<Short, TiffField<?>> fields = new HashMap<Short, TiffField<?>>();
+		for(TiffField<?> field : actual.getFields())
+			fields.put(field.getTag(), field);
+		check(fields.size() == expected.getFields().size(), name + " has " + fields.size() + " fields instead of " + expected.getFields().size());
+		for(TiffField<?> field : expected.getFields()) {
+			TiffField<?> other = fields.get(field.getTag());
+			String tag = "0x" + Integer.toHexString(field.getTag()&0xffff);
+			check(other != null, name + ": field " + tag + " missing");
+			check(other.getType() == field.getType() && other.getLength() == field.getLength(), name + ": field " + tag + " differs in type or count");
+			check(Arrays.deepEquals(new Object[] {field.getData()}, new Object[] {other.getData()}), name + ": field " + tag + " differs in value");
+		}
+	}
+
+	private static int count(Iterator<MetadataEntry> iterator) {
+		int count = 0;
+		for(; iterator.hasNext(); iterator.next())
+			count++;
+
+		return count;
+	}
+
+	private static Exif readExif(String image) throws IOException {
+		Exif exif = (Exif)Metadata.readMetadata(image).get(MetadataType.EXIF);
+		check(exif != null, image + ": no EXIF found");
+
+		return exif;
+	}
+}
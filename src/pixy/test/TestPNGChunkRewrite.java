@@ -0,0 +1,155 @@
+package pixy.test;
+
+import static pixy.test.TestUtils.check;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import pixy.image.png.Chunk;
+import pixy.image.png.ChunkType;
+import pixy.image.png.TextReader;
+import pixy.meta.png.PNGMeta;
+
+/**
+ * Inserts XMP, an ICC profile and comments with PNGMeta and checks the chunks
+ * written: IDAT unchanged, the order valid, replaced chunks gone and CRCs right.
+ */
+public class TestPNGChunkRewrite {
+	// Obtain a logger instance
+	private static final Logger LOGGER = LoggerFactory.getLogger(TestPNGChunkRewrite.class);
+
+	private static final String XMP = "<x:xmpmeta xmlns:x='adobe:ns:meta/'><rdf:RDF xmlns:rdf='http://www.w3.org/1999/02/22-rdf-syntax-ns#'>"
+			+ "<rdf:Description rdf:about='' xmlns:dc='http://purl.org/dc/elements/1.1/'><dc:format>%s</dc:format></rdf:Description></rdf:RDF></x:xmpmeta>";
+
+	// Chunks which must come before PLTE and IDAT
+	private static final Set<ChunkType> BEFORE_PLTE = EnumSet.of(ChunkType.ICCP, ChunkType.SRGB, ChunkType.GAMA, ChunkType.CHRM, ChunkType.SBIT);
+	// Chunks which must come after PLTE but before IDAT
+	private static final Set<ChunkType> AFTER_PLTE = EnumSet.of(ChunkType.TRNS, ChunkType.BKGD, ChunkType.HIST);
+
+	private static final String[] IMAGES = {"images/butterfly.png", "images/ProPhoto.png", "images/colourTestFakeBRG.png",
+			"images/flowerpink-InMyEasterBonnet-KrystalHartley.png"};
+
+	public static void main(String[] args) throws Exception {
+		new TestPNGChunkRewrite().test(IMAGES);
+	}
+
+	public void test(String ... images) throws Exception {
+		for(String image : images) {
+			byte[] original = TestUtils.readFile(image);
+			List<Chunk> before = readChunks(original);
+
+			// Two XMP packets in a row, only the second one may survive
+			byte[] png = insertXMP(original, "first");
+			png = insertXMP(png, "second");
+			List<Chunk> after = checkRewrite(image + " XMP", before, png, EnumSet.noneOf(ChunkType.class));
+			int xmpChunks = 0;
+			for(Chunk chunk : after) {
+				if(isXMP(chunk)) {
+					check(new TextReader(chunk).getText().contains("second"), image + ": old XMP kept");
+					xmpChunks++;
+				}
+			}
+			check(xmpChunks == 1, image + ": " + xmpChunks + " XMP chunks");
+
+			// An ICC profile replaces iCCP and sRGB
+			ByteArrayOutputStream bout = new ByteArrayOutputStream();
+			PNGMeta.insertICCProfile("test", new byte[128], new ByteArrayInputStream(original), bout);
+			after = checkRewrite(image + " iCCP", before, bout.toByteArray(), EnumSet.of(ChunkType.ICCP, ChunkType.SRGB));
+			check(count(after, ChunkType.ICCP) == 1 && count(after, ChunkType.SRGB) == 0, image + ": iCCP and sRGB not replaced");
+
+			// Comments add to what is there
+			bout = new ByteArrayOutputStream();
+			PNGMeta.insertComments(new ByteArrayInputStream(original), bout, Arrays.asList("one", "two"));
+			after = checkRewrite(image + " comments", before, bout.toByteArray(), EnumSet.noneOf(ChunkType.class));
+			check(count(after, ChunkType.TEXT) == count(before, ChunkType.TEXT) + 2, image + ": comments missing");
+
+			LOGGER.info("PNG chunk rewrite OK: {} ({} chunks)", image, before.size());
+		}
+	}
+
+	private static byte[] insertXMP(byte[] png, String format) throws IOException {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		PNGMeta.insertXMP(new ByteArrayInputStream(png), bout, String.format(XMP, format));
+
+		return bout.toByteArray();
+	}
+
+	// Checks the rewritten image against the chunks of the original one and returns its chunks
+	private static List<Chunk> checkRewrite(String name, List<Chunk> before, byte[] png, Set<ChunkType> replaced) throws IOException {
+		List<Chunk> after = readChunks(png);
+		for(Chunk chunk : after)
+			check(chunk.isValidCRC(), name + ": " + chunk.getChunkType() + " chunk with a bad CRC");
+		check(after.get(0).getChunkType() == ChunkType.IHDR, name + ": IHDR not first");
+		check(after.get(after.size() - 1).getChunkType() == ChunkType.IEND, name + ": IEND not last");
+
+		// Image data unchanged and in one run
+		List<Chunk> idat = new ArrayList<Chunk>();
+		int first = -1, last = -1;
+		for(int i = 0; i < after.size(); i++) {
+			if(after.get(i).getChunkType() != ChunkType.IDAT) continue;
+			if(first < 0) first = i;
+			last = i;
+			idat.add(after.get(i));
+		}
+		check(last - first + 1 == idat.size(), name + ": IDAT chunks not consecutive");
+		List<Chunk> originalIDAT = new ArrayList<Chunk>();
+		for(Chunk chunk : before)
+			if(chunk.getChunkType() == ChunkType.IDAT) originalIDAT.add(chunk);
+		check(idat.size() == originalIDAT.size(), name + ": number of IDAT chunks changed");
+		for(int i = 0; i < idat.size(); i++)
+			check(Arrays.equals(idat.get(i).getData(), originalIDAT.get(i).getData()), name + ": IDAT data changed");
+
+		// Ordering rules of the PNG specification
+		int plte = indexOf(after, ChunkType.PLTE);
+		for(int i = 0; i < after.size(); i++) {
+			ChunkType type = after.get(i).getChunkType();
+			if(BEFORE_PLTE.contains(type))
+				check((plte < 0 || i < plte) && i < first, name + ": " + type + " after PLTE or IDAT");
+			if(AFTER_PLTE.contains(type))
+				check(i > plte && i < first, name + ": " + type + " not between PLTE and IDAT");
+		}
+
+		// Chunks kept in their original order
+		int next = 0;
+		for(Chunk chunk : before) {
+			if(replaced.contains(chunk.getChunkType()) || isXMP(chunk)) continue;
+			while(next < after.size() && !after.get(next).equals(chunk)) next++;
+			check(next < after.size(), name + ": " + chunk.getChunkType() + " chunk lost or moved");
+			next++;
+		}
+
+		return after;
+	}
+
+	private static int count(List<Chunk> chunks, ChunkType type) {
+		int count = 0;
+		for(Chunk chunk : chunks)
+			if(chunk.getChunkType() == type) count++;
+
+		return count;
+	}
+
+	private static int indexOf(List<Chunk> chunks, ChunkType type) {
+		for(int i = 0; i < chunks.size(); i++)
+			if(chunks.get(i).getChunkType() == type) return i;
+
+		return -1;
+	}
+
+	private static boolean isXMP(Chunk chunk) {
+		return chunk.getChunkType() == ChunkType.ITXT && new TextReader(chunk).getKeyword().equals("XML:com.adobe.xmp");
+	}
+
+	private static List<Chunk> readChunks(byte[] png) throws IOException {
+		return PNGMeta.readChunks(new ByteArrayInputStream(png));
+	}
+}
@@ -0,0 +1,450 @@
+package pixy.test;
+
+import static pixy.test.TestUtils.check;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import pixy.image.tiff.FieldType;
+import pixy.image.tiff.IFD;
+import pixy.image.tiff.LazyField;
+import pixy.image.tiff.Tag;
+import pixy.image.tiff.TiffField;
+import pixy.image.tiff.TiffLayout;
+import pixy.image.tiff.TiffTag;
+import pixy.io.IOUtils;
+import pixy.io.MemoryCacheRandomAccessInputStream;
+import pixy.io.MemoryCacheRandomAccessOutputStream;
+import pixy.io.RandomAccessInputStream;
+import pixy.io.RandomAccessOutputStream;
+import pixy.io.ReadStrategy;
+import pixy.io.ReadStrategyII;
+import pixy.io.ReadStrategyMM;
+import pixy.io.WriteStrategyII;
+import pixy.meta.Metadata;
+import pixy.meta.MetadataType;
+import pixy.meta.tiff.TIFFMeta;
+import pixy.meta.tiff.TiffPageIndex;
+
+/**
+ * Round trips the sample TIFFs and a small BigTIFF made up here through the page
+ * index, splitPages, writeMetadataFirst, in-place updates and appendPages. Every
+ * output needs a valid IFD chain and the strip or tile data of the input. Repeated
+ * in-place updates have to leave unchanged values where they are and must not make
+ * the file grow. A lazy value which can't be read has to be reported.
+ */
+public class TestTIFFRoundTrip {
+	// Obtain a logger instance
+	private static final Logger LOGGER = LoggerFactory.getLogger(TestTIFFRoundTrip.class);
+
+	private static final String[] IMAGES = {"images/exif.tif", "images/f1.tif", "images/iptc.tif", "images/iptc-envelope.tif",
+			"images/multimax.tif", "images/packbits.tif"};
+
+	private static final String XMP = "<x:xmpmeta xmlns:x='adobe:ns:meta/'><rdf:RDF xmlns:rdf='http://www.w3.org/1999/02/22-rdf-syntax-ns#'>"
+			+ "<rdf:Description rdf:about='' xmlns:dc='http://purl.org/dc/elements/1.1/'><dc:format>update %d</dc:format></rdf:Description></rdf:RDF></x:xmpmeta>";
+
+	private static final int[][] BIGTIFF_PAGES = {{16, 8, 2}, {8, 8, 1}}; // Width, height and number of strips
+
+	public static void main(String[] args) throws Exception {
+		new TestTIFFRoundTrip().test(IMAGES);
+	}
+
+	public void test(String ... images) throws Exception {
+		List<byte[]> tiffs = new ArrayList<byte[]>();
+		List<Page> allPages = new ArrayList<Page>();
+
+		byte[] bigTiff = createBigTIFF();
+		List<Page> pages = readPages("BigTIFF", bigTiff);
+		check(pages.size() == BIGTIFF_PAGES.length, "BigTIFF: " + pages.size() + " pages read");
+		for(int i = 0; i < pages.size(); i++)
+			check(Arrays.equals(pages.get(i).data, pixels(i)), "BigTIFF: strip data of page " + i + " read wrong");
+
+		for(String image : images) {
+			byte[] tiff = TestUtils.readFile(image);
+			allPages.addAll(roundTrip(image, tiff));
+			tiffs.add(tiff);
+		}
+		allPages.addAll(roundTrip("BigTIFF", bigTiff));
+		tiffs.add(bigTiff);
+
+		// Classic inputs only and then with the BigTIFF
+		checkAppendPages(tiffs.subList(0, tiffs.size() - 1), allPages.subList(0, allPages.size() - BIGTIFF_PAGES.length), false);
+		checkAppendPages(tiffs, allPages, true);
+		LOGGER.info("TIFF appendPages OK: {} pages", allPages.size());
+
+		checkLazyFailure();
+	}
+
+	// A lazy value which can't be read is reported as UncheckedIOException by the accessors and as IOException on write
+	private static void checkLazyFailure() throws IOException {
+		LazyField field = new LazyField(TiffTag.IMAGE_DESCRIPTION.getValue(), FieldType.ASCII, 16, new LazyField.Loader() {
+			public TiffField<?> load() throws IOException {
+				throw new IOException("Value not available");
+			}
+		});
+		try {
+			field.getDataAsString();
+			check(false, "Lazy value read failure not reported");
+		} catch(UncheckedIOException e) {
+			check("Value not available".equals(e.getCause().getMessage()), "Lazy value read failure lost");
+		}
+		try {
+			TiffLayout.encodeValue(field, WriteStrategyII.getInstance());
+			check(false, "Lazy value read failure not reported on encoding");
+		} catch(IOException e) {
+			;
+		}
+		IFD ifd = new IFD();
+		ifd.addField(field);
+		try {
+			ifd.write(new MemoryCacheRandomAccessOutputStream(new ByteArrayOutputStream()), 8);
+			check(false, "Lazy value read failure not reported on write");
+		} catch(IOException e) {
+			;
+		}
+	}
+
+	private List<Page> roundTrip(String name, byte[] tiff) throws IOException {
+		List<Page> pages = readPages(name, tiff);
+		checkPageIndex(name, tiff, pages);
+		checkSplitPages(name, tiff, pages);
+		checkMetadataFirst(name, tiff, pages);
+		checkInPlace(name, tiff, pages);
+		LOGGER.info("TIFF round trip OK: {} ({} pages{})", name, pages.size(), isBigTIFF(tiff)?", BigTIFF":"");
+
+		return pages;
+	}
+
+	// Looks the pages up through a page index which has been written out and read back
+	private static void checkPageIndex(String name, byte[] tiff, List<Page> pages) throws IOException {
+		RandomAccessInputStream rin = open(tiff);
+		try {
+			ByteArrayOutputStream bout = new ByteArrayOutputStream();
+			TIFFMeta.createPageIndex(rin).write(bout);
+			TiffPageIndex index = TiffPageIndex.read(new ByteArrayInputStream(bout.toByteArray()));
+			check(index.getNumOfPages() == pages.size(), name + ": page index has " + index.getNumOfPages() + " pages");
+			check(index.isBigTIFF() == isBigTIFF(tiff), name + ": page index got the format wrong");
+			// Backwards, so no page can be found by following the chain from the previous one
+			for(int i = pages.size() - 1; i >= 0; i--) {
+				check(index.getIFDOffset(i) == pages.get(i).ifdOffset, name + ": page index has the wrong offset for page " + i);
+				IFD ifd = TIFFMeta.readPageIFD(i, rin, index);
+				check(Arrays.equals(readData(ifd, tiff, name), pages.get(i).data), name + ": strip data of page " + i + " differs through the page index");
+			}
+		} finally {
+			rin.close();
+		}
+	}
+
+	private static void checkSplitPages(String name, byte[] tiff, List<Page> pages) throws IOException {
+		final ByteArrayOutputStream[] outputs = new ByteArrayOutputStream[pages.size()];
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		RandomAccessInputStream rin = open(tiff);
+		try {
+			int written = TIFFMeta.splitPages(rin, new Function<Integer, OutputStream>() {
+				public OutputStream apply(Integer pageNumber) {
+					return outputs[pageNumber] = new ByteArrayOutputStream();
+				}
+			}, executor);
+			check(written == pages.size(), name + ": splitPages wrote " + written + " pages");
+		} finally {
+			executor.shutdown();
+			rin.close();
+		}
+		for(int i = 0; i < outputs.length; i++) {
+			byte[] page = outputs[i].toByteArray();
+			List<Page> split = readPages(name + " page " + i, page);
+			check(split.size() == 1 && Arrays.equals(split.get(0).data, pages.get(i).data), name + ": strip data of split page " + i + " differs");
+			check(isBigTIFF(page) == isBigTIFF(tiff), name + ": split page " + i + " changed the format");
+		}
+	}
+
+	// All the IFDs have to come before the first strip
+	private static void checkMetadataFirst(String name, byte[] tiff, List<Page> pages) throws IOException {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		RandomAccessInputStream rin = open(tiff);
+		long metadataLength;
+		try {
+			metadataLength = TIFFMeta.writeMetadataFirst(rin, bout);
+		} finally {
+			rin.close();
+		}
+		byte[] output = bout.toByteArray();
+		List<Page> rewritten = readPages(name + " metadata first", output);
+		check(isBigTIFF(output) == isBigTIFF(tiff), name + ": metadata first changed the format");
+		checkSameData(name + " metadata first", pages, rewritten);
+		for(Page page : rewritten)
+			check(page.ifdOffset < metadataLength && page.dataStart >= metadataLength, name + ": metadata first has IFDs after image data");
+	}
+
+	// Inserts XMP a few times in place and checks that nothing but the IFDs and the XMP moves
+	private static void checkInPlace(String name, byte[] tiff, List<Page> pages) throws IOException {
+		File file = File.createTempFile("pixy", ".tif");
+		try {
+			write(file, tiff);
+			Map<String, Long> valueOffsets = getValueOffsets(tiff);
+			long[] lengths = new long[4];
+			for(int update = 0; update < lengths.length; update++) {
+				RandomAccessFile raf = new RandomAccessFile(file, "rw");
+				try {
+					TIFFMeta.insertXMP(String.format(XMP, update).getBytes("UTF-8"), 0, raf);
+				} finally {
+					raf.close();
+				}
+				lengths[update] = file.length();
+				byte[] updated = TestUtils.readFile(file.getPath());
+				String step = name + " in-place update " + update;
+				List<Page> after = readPages(step, updated);
+				checkSameData(step, pages, after);
+				for(int i = 0; i < pages.size(); i++)
+					check(after.get(i).dataStart == pages.get(i).dataStart, step + ": image data of page " + i + " moved");
+				Map<String, Long> offsets = getValueOffsets(updated);
+				for(Map.Entry<String, Long> entry : valueOffsets.entrySet())
+					check(!offsets.containsKey(entry.getKey()) || offsets.get(entry.getKey()).equals(entry.getValue()), step + ": value of " + entry.getKey() + " moved");
+				RandomAccessInputStream rin = open(updated);
+				try {
+					Metadata xmp = TIFFMeta.readMetadata(rin).get(MetadataType.XMP);
+					check(xmp != null && new String(xmp.getData(), "UTF-8").contains("update " + update), step + ": XMP not found");
+				} finally {
+					rin.close();
+				}
+			}
+			for(int update = 2; update < lengths.length; update++)
+				check(lengths[update] == lengths[1], name + ": file grew from " + lengths[1] + " to " + lengths[update] + " bytes on in-place update " + update);
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static void checkAppendPages(List<byte[]> tiffs, List<Page> pages, boolean bigTiff) throws IOException {
+		List<RandomAccessInputStream> inputs = new ArrayList<RandomAccessInputStream>();
+		for(byte[] tiff : tiffs)
+			inputs.add(open(tiff));
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		RandomAccessOutputStream rout = new MemoryCacheRandomAccessOutputStream(bout);
+		try {
+			int written = TIFFMeta.appendPages(inputs, rout);
+			check(written == pages.size(), "appendPages wrote " + written + " pages instead of " + pages.size());
+		} finally {
+			rout.close();
+			for(RandomAccessInputStream rin : inputs)
+				rin.close();
+		}
+		byte[] output = bout.toByteArray();
+		check(isBigTIFF(output) == bigTiff, "appendPages got the format wrong");
+		checkSameData("appendPages", pages, readPages("appendPages", output));
+	}
+
+	private static void checkSameData(String name, List<Page> expected, List<Page> actual) {
+		check(actual.size() == expected.size(), name + ": " + actual.size() + " pages instead of " + expected.size());
+		for(int i = 0; i < expected.size(); i++)
+			check(Arrays.equals(actual.get(i).data, expected.get(i).data), name + ": strip data of page " + i + " differs");
+	}
+
+	/*
+	 * Follows the IFD chain, making sure every IFD is inside the file and none is
+	 * visited twice, and reads the pages with their strip or tile data.
+	 */
+	private static List<Page> readPages(String name, byte[] tiff) throws IOException {
+		boolean bigTiff = isBigTIFF(tiff);
+		ReadStrategy readStrategy = (tiff[0] == 'M')?ReadStrategyMM.getInstance():ReadStrategyII.getInstance();
+		List<Long> ifdOffsets = new ArrayList<Long>();
+		Set<Long> visited = new HashSet<Long>();
+		long offset = bigTiff?readStrategy.readLong(tiff, 8):(readStrategy.readInt(tiff, 4)&0xffffffffL);
+		while(offset != 0) {
+			check(visited.add(offset), name + ": IFD chain loops at " + offset);
+			check(offset >= (bigTiff?16:8) && offset + (bigTiff?8:2) <= tiff.length, name + ": IFD offset " + offset + " outside of the file");
+			long entries = bigTiff?readStrategy.readLong(tiff, (int)offset):readStrategy.readUnsignedShort(tiff, (int)offset);
+			long next = offset + (bigTiff?8 + 20*entries:2 + 12*entries);
+			check(next + (bigTiff?8:4) <= tiff.length, name + ": IFD at " + offset + " runs past the end of the file");
+			ifdOffsets.add(offset);
+			offset = bigTiff?readStrategy.readLong(tiff, (int)next):(readStrategy.readInt(tiff, (int)next)&0xffffffffL);
+		}
+
+		List<IFD> ifds = new ArrayList<IFD>();
+		RandomAccessInputStream rin = open(tiff);
+		try {
+			TIFFMeta.readIFDs(ifds, rin);
+		} finally {
+			rin.close();
+		}
+		check(ifds.size() == ifdOffsets.size(), name + ": " + ifds.size() + " IFDs read, " + ifdOffsets.size() + " in the chain");
+		List<Page> pages = new ArrayList<Page>();
+		for(int i = 0; i < ifds.size(); i++) {
+			Page page = new Page();
+			page.ifdOffset = ifdOffsets.get(i);
+			page.data = readData(ifds.get(i), tiff, name);
+			page.dataStart = getDataStart(ifds.get(i));
+			pages.add(page);
+		}
+
+		return pages;
+	}
+
+	// Puts the strips or tiles of an IFD together in index order
+	private static byte[] readData(IFD ifd, byte[] tiff, String name) {
+		TiffField<?> offsets = ifd.getField(TiffTag.STRIP_OFFSETS);
+		TiffField<?> counts = ifd.getField(TiffTag.STRIP_BYTE_COUNTS);
+		if(offsets == null) {
+			offsets = ifd.getField(TiffTag.TILE_OFFSETS);
+			counts = ifd.getField(TiffTag.TILE_BYTE_COUNTS);
+		}
+		check(offsets != null && counts != null && offsets.getLength() == counts.getLength(), name + ": IFD without strip or tile data");
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		for(int i = 0; i < offsets.getLength(); i++) {
+			long offset = offsets.getValueAsLong(i), count = counts.getValueAsLong(i);
+			check(offset >= 0 && count >= 0 && offset + count <= tiff.length, name + ": strip " + i + " outside of the file");
+			data.write(tiff, (int)offset, (int)count);
+		}
+
+		return data.toByteArray();
+	}
+
+	private static long getDataStart(IFD ifd) {
+		TiffField<?> offsets = ifd.getField(TiffTag.STRIP_OFFSETS);
+		if(offsets == null) offsets = ifd.getField(TiffTag.TILE_OFFSETS);
+		long start = Long.MAX_VALUE;
+		for(int i = 0; i < offsets.getLength(); i++)
+			start = Math.min(start, offsets.getValueAsLong(i));
+
+		return start;
+	}
+
+	// Offsets of the lazily read values of the first page, by IFD and tag
+	private static Map<String, Long> getValueOffsets(byte[] tiff) throws IOException {
+		List<IFD> ifds = new ArrayList<IFD>();
+		RandomAccessInputStream rin = open(tiff);
+		try {
+			TIFFMeta.readIFDs(ifds, rin, 0);
+		} finally {
+			rin.close();
+		}
+		Map<String, Long> offsets = new HashMap<String, Long>();
+		collectValueOffsets(ifds.get(0), "IFD0", offsets);
+
+		return offsets;
+	}
+
+	private static void collectValueOffsets(IFD ifd, String path, Map<String, Long> offsets) {
+		for(TiffField<?> field : ifd.getFields()) {
+			if(field instanceof LazyField && field.getTag() != TiffTag.XMP.getValue())
+				offsets.put(path + "/0x" + Integer.toHexString(field.getTag()&0xffff), ((LazyField)field).getSourceOffset());
+		}
+		for(Map.Entry<Tag, IFD> child : ifd.getChildren().entrySet())
+			collectValueOffsets(child.getValue(), path + "/" + child.getKey(), offsets);
+	}
+
+	/*
+	 * Little-endian BigTIFF with an 8 bit grayscale image on each page. The strip
+	 * data comes first, each IFD is followed by its out-of-line values.
+	 */
+	private static byte[] createBigTIFF() {
+		ByteBuffer buf = ByteBuffer.allocate(2048).order(ByteOrder.LITTLE_ENDIAN);
+		buf.put((byte)'I').put((byte)'I').putShort((short)43).putShort((short)8).putShort((short)0).putLong(0);
+		long[][] stripOffsets = new long[BIGTIFF_PAGES.length][];
+		for(int page = 0; page < BIGTIFF_PAGES.length; page++) {
+			byte[] pixels = pixels(page);
+			int strips = BIGTIFF_PAGES[page][2];
+			stripOffsets[page] = new long[strips];
+			for(int i = 0; i < strips; i++)
+				stripOffsets[page][i] = buf.position() + i*pixels.length/strips;
+			buf.put(pixels);
+		}
+
+		int nextIFDOffsetPos = 8;
+		for(int page = 0; page < BIGTIFF_PAGES.length; page++) {
+			int width = BIGTIFF_PAGES[page][0], height = BIGTIFF_PAGES[page][1], strips = BIGTIFF_PAGES[page][2];
+			byte[] description = ("BigTIFF page " + page + "\0").getBytes();
+			int ifdOffset = buf.position();
+			buf.putLong(nextIFDOffsetPos, ifdOffset);
+			int valueOffset = ifdOffset + 8 + 20*10 + 8;
+			buf.putLong(10);
+			putEntry(buf, TiffTag.IMAGE_WIDTH, 3, 1, width);
+			putEntry(buf, TiffTag.IMAGE_LENGTH, 3, 1, height);
+			putEntry(buf, TiffTag.BITS_PER_SAMPLE, 3, 1, 8);
+			putEntry(buf, TiffTag.COMPRESSION, 3, 1, 1);
+			putEntry(buf, TiffTag.PHOTOMETRIC_INTERPRETATION, 3, 1, 1);
+			putEntry(buf, TiffTag.IMAGE_DESCRIPTION, 2, description.length, valueOffset);
+			int stripOffsetsOffset = valueOffset + description.length + (description.length&1);
+			putEntry(buf, TiffTag.STRIP_OFFSETS, 16, strips, (strips == 1)?stripOffsets[page][0]:stripOffsetsOffset);
+			putEntry(buf, TiffTag.SAMPLES_PER_PIXEL, 3, 1, 1);
+			putEntry(buf, TiffTag.ROWS_PER_STRIP, 3, 1, height/strips);
+			int stripByteCountsOffset = stripOffsetsOffset + 8*strips;
+			putEntry(buf, TiffTag.STRIP_BYTE_COUNTS, 16, strips, (strips == 1)?width*height:stripByteCountsOffset);
+			nextIFDOffsetPos = buf.position();
+			buf.putLong(0);
+			buf.put(description);
+			if((description.length&1) != 0) buf.put((byte)0);
+			if(strips > 1) {
+				for(int i = 0; i < strips; i++)
+					buf.putLong(stripOffsets[page][i]);
+				for(int i = 0; i < strips; i++)
+					buf.putLong(width*height/strips);
+			}
+		}
+
+		return Arrays.copyOf(buf.array(), buf.position());
+	}
+
+	// Writes a BigTIFF entry, any value that fits goes into the entry left aligned
+	private static void putEntry(ByteBuffer buf, TiffTag tag, int type, long count, long value) {
+		buf.putShort(tag.getValue()).putShort((short)type).putLong(count);
+		if(type == 3 && count == 1) // SHORT
+			buf.putShort((short)value).putShort((short)0).putInt(0);
+		else
+			buf.putLong(value);
+	}
+
+	private static byte[] pixels(int page) {
+		byte[] pixels = new byte[BIGTIFF_PAGES[page][0]*BIGTIFF_PAGES[page][1]];
+		for(int i = 0; i < pixels.length; i++)
+			pixels[i] = (byte)(i*7 + page*31);
+
+		return pixels;
+	}
+
+	private static boolean isBigTIFF(byte[] tiff) {
+		ReadStrategy readStrategy = (tiff[0] == 'M')?ReadStrategyMM.getInstance():ReadStrategyII.getInstance();
+
+		return readStrategy.readShort(tiff, 2) == 43;
+	}
+
+	private static RandomAccessInputStream open(byte[] tiff) {
+		return new MemoryCacheRandomAccessInputStream(new ByteArrayInputStream(tiff));
+	}
+
+	private static void write(File file, byte[] data) throws IOException {
+		OutputStream os = new FileOutputStream(file);
+		try {
+			IOUtils.write(os, data);
+		} finally {
+			os.close();
+		}
+	}
+
+	private static final class Page {
+		long ifdOffset;
+		long dataStart;
+		byte[] data;
+	}
+}
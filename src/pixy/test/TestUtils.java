@@ -0,0 +1,30 @@
+package pixy.test;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import pixy.io.IOUtils;
+
+/**
+ * Helpers shared by the checks in this package
+ */
+final class TestUtils {
+	
+	/**
+	 * @throws IllegalStateException with the message if the condition doesn't hold
+	 */
+	static void check(boolean condition, String message) {
+		if(!condition) throw new IllegalStateException(message);
+	}
+	
+	static byte[] readFile(String path) throws IOException {
+		FileInputStream fin = new FileInputStream(path);
+		try {
+			return IOUtils.inputStreamToByteArray(fin);
+		} finally {
+			fin.close();
+		}
+	}
+	
+	private TestUtils() {}
+}
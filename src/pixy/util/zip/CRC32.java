@@ -15,15 +15,21 @@
 
 package pixy.util.zip;
 
+import java.nio.ByteBuffer;
+
 /** 
  * Table based CRC32 implementation.
+ * <p>
+ * Blocks of data are processed eight bytes at a time ("slicing-by-8") using
+ * eight tables derived from the byte-wise table. Like java.util.zip.CRC32 an
+ * instance is not meant to be shared between threads.
  *
  * @author Wen Yu, yuwen_66@yahoo.com
  * @version 1.0 11/01/2013
  */
 public class CRC32 implements Checksum {
 	//
-	private volatile int crc32;
+	private int crc32;
 	
 	private static final int crc32_table[] = {
 		0x00000000, 0x77073096, 0xee0e612c, 0x990951ba, 0x076dc419, 0x706af48f,
@@ -71,6 +77,17 @@ public class CRC32 implements Checksum {
 		0xb40bbe37, 0xc30c8ea1, 0x5a05df1b, 0x2d02ef8d
 	};
 	
+	// crc32_table followed by the tables for 1 to 7 further zero bytes, 256 entries each
+	private static final int slicing_table[] = new int[8*256];
+	
+	static {
+		System.arraycopy(crc32_table, 0, slicing_table, 0, 256);
+		for(int i = 256; i < slicing_table.length; i++) {
+			int prev = slicing_table[i - 256];
+			slicing_table[i] = crc32_table[prev & 0xff] ^ (prev >>> 8);
+		}
+	}
+	
 	public long getValue() {
 		return crc32 & 0XFFFFFFFFL;
 	}
@@ -91,10 +108,42 @@ public class CRC32 implements Checksum {
 	}
 	
 	public void update(byte[] buff, int offset, int size) {
+		if (offset < 0 || size < 0 || offset > buff.length - size)
+			throw new ArrayIndexOutOfBoundsException("offset " + offset + " size " + size + " length " + buff.length);
+		
 	    int	temp = ~crc32;
+	    final int[] t = slicing_table;
+	    
+	    while (size >= 8) {
+	    	int low = temp ^ ((buff[offset]&0xff)|(buff[offset + 1]&0xff)<<8|(buff[offset + 2]&0xff)<<16|(buff[offset + 3]&0xff)<<24);
+	    	temp = t[0x700 + (low & 0xff)] ^ t[0x600 + ((low >>> 8) & 0xff)]
+	    		 ^ t[0x500 + ((low >>> 16) & 0xff)] ^ t[0x400 + (low >>> 24)]
+	    		 ^ t[0x300 + (buff[offset + 4] & 0xff)] ^ t[0x200 + (buff[offset + 5] & 0xff)]
+	    		 ^ t[0x100 + (buff[offset + 6] & 0xff)] ^ t[buff[offset + 7] & 0xff];
+	    	offset += 8;
+	    	size -= 8;
+	    }
 
 		while (size-->0)
 			temp = crc32_table[(temp^buff[offset++]) & 0xFF] ^ (temp >>> 8);
 		crc32 = ~temp;
 	}
+	
+	/**
+	 * Updates the checksum with the remaining bytes of the buffer, from its
+	 * position to its limit. The position is moved to the limit.
+	 */
+	public void update(ByteBuffer buffer) {
+		if (buffer.hasArray()) {
+			update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+			buffer.position(buffer.limit());
+		} else {
+			byte[] buff = new byte[Math.min(buffer.remaining(), 8192)];
+			while (buffer.hasRemaining()) {
+				int size = Math.min(buffer.remaining(), buff.length);
+				buffer.get(buff, 0, size);
+				update(buff, 0, size);
+			}
+		}
+	}
 }